@@ -13,10 +13,17 @@ import java.util.StringTokenizer;
  * @author thsc
  */
 public class AbstractElement {
-    private final HashMap<String, String> attributes;
+    /* all attributes - only produced when all of them are needed. Single 
+    values are taken directly from serialized tags
+    */
+    private HashMap<String, String> attributes = null;
     private String sTags;
     
     public HashMap<String, String> getAttributes() {
+        if(this.attributes == null) {
+            this.attributes = this.deserializeAttributes(this.sTags);
+        }
+        
         return this.attributes;
     }
 
@@ -24,7 +31,18 @@ public class AbstractElement {
 
     public boolean hasFreeAttributes() {
         // are there attributes beside those we already use.
-        return this.attributes.keySet().size() > AbstractElement.relevantAttributeKeys.length;
+        if(this.attributes != null) {
+            return this.attributes.keySet().size() > AbstractElement.relevantAttributeKeys.length;
+        }
+        
+        // count keys once like a map does
+        int number = 0;
+        TagCursor cursor = new TagCursor(this.sTags);
+        while(cursor.next()) {
+            if(!cursor.keyFollows()) number++;
+        }
+        
+        return number > AbstractElement.relevantAttributeKeys.length;
     }
 
     public String getFreeAttributesASHStoreValue() {
@@ -65,8 +83,8 @@ public class AbstractElement {
 
     public AbstractElement(String serializedAttrAndTags) {
 //        this.attributes = new HashMap<>();
-        this.sTags = serializedAttrAndTags; // only for debugging purpose
-        this.attributes = this.deserializeAttributes(serializedAttrAndTags);
+        // attributes are read from serialized string when asked for
+        this.sTags = serializedAttrAndTags;
         
 //        this.tags2attributes();
     }
@@ -82,7 +100,7 @@ public class AbstractElement {
      * to seriazlation to parse planet.osm.. TODO
      */
     public AbstractElement() {
-        this.attributes = null;
+        this.sTags = null;
         this.name = null;
     }
     
@@ -145,35 +163,20 @@ public class AbstractElement {
     protected final HashMap<String, String> deserializeAttributes(String serializedAttributes) {
         HashMap<String, String> a = new HashMap<>();
         
-        if(serializedAttributes == null) return a;
-        
         /*
         here comes a string key|value each entry (key or value) has this structure
         [length]content length is a three digit decimal number (expressed as character)
         OR it is "0000" which indicates empty (null) argument.
         */
         
-        int index = 0;
-        while(index < serializedAttributes.length()) {
-            if(serializedAttributes.substring(index).startsWith("0000")) {
-                // empty key.. that makes no sense
-                System.err.println("\nAbstractElement.deserializeAttributes: found empty key (makes no sense), stop parsing attributes:" + serializedAttributes);
-                return a;
-            }
-            String key = this.unwrapStringWithLength(serializedAttributes, index);
-            index += this.calculateOffsetFromUnwrappedString(key);
-            
-            if(serializedAttributes.substring(index).startsWith("0000")) {
-                index+=4;
+        TagCursor cursor = new TagCursor(serializedAttributes);
+        while(cursor.next()) {
+            String key = cursor.getKey();
+            String value = cursor.getValue();
+            if(value == null) {
                 System.err.println("null value for key (when deserializing attributes): " + key);
-                a.put(key, null);
-            } else {
-                String value = this.unwrapStringWithLength(serializedAttributes, index);
-                if(value != null) {
-                    index += this.calculateOffsetFromUnwrappedString(value);
-                }
-                a.put(key, value);
             }
+            a.put(key, value);
         }
         
         return a;
@@ -197,8 +200,8 @@ public class AbstractElement {
   
     protected String getSerializedTagsAndAttributes() {
         // attributes first - take only relevant attributes
-        if(this.attributes != null && !this.attributes.isEmpty()) {
-            String sAttributes = this.serializeAttributes(this.attributes);
+        if(this.getAttributes() != null && !this.getAttributes().isEmpty()) {
+            String sAttributes = this.serializeAttributes(this.getAttributes());
             if(sAttributes != null && sAttributes.length() > 0) {
                 return sAttributes;
             }
@@ -302,7 +305,19 @@ public class AbstractElement {
     }
     
     public final String getValue(String key) {
-        String value = this.attributes.get(key);
+        if(this.attributes != null) {
+            return this.attributes.get(key);
+        }
+        
+        // scan serialized tags - last entry wins as it would in a map
+        String value = null;
+        TagCursor cursor = new TagCursor(this.sTags);
+        while(cursor.next()) {
+            if(cursor.keyEquals(key)) {
+                value = cursor.getValue();
+            }
+        }
+        
         return value;
     }
     
@@ -316,10 +331,13 @@ public class AbstractElement {
      */
     List<OldName> getOldNames() {
         ArrayList<OldName> oldNames = null;
-        // iterate attributes
+        // iterate attributes - decode old name keys only
         
-        for(String name : this.attributes.keySet()) {
-            if(name.startsWith("old_name")) {
+        TagCursor cursor = new TagCursor(this.sTags);
+        while(cursor.next()) {
+            // last entry of a key wins - like in a map
+            if(cursor.keyStartsWith("old_name") && !cursor.keyFollows()) {
+                String name = cursor.getKey();
                 // extract time from key
                 int last = name.lastIndexOf(":");
                 if(last == -1) continue;
@@ -336,7 +354,7 @@ public class AbstractElement {
                 }
                 
                 // remember old name
-                oldName.oldname = this.attributes.get(name);
+                oldName.oldname = cursor.getValue();
                 
                 // valid name?
                 if(oldName.oldname != null && oldName.oldname.length() > 0) {
@@ -428,4 +446,123 @@ public class AbstractElement {
         
         return sb.toString();
     }
+    
+    /**
+     * Walks through serialized tags without copying them. Key and value
+     * strings are only produced on request.
+     * 
+     * Each entry (key or value) is [length]content - length is a three 
+     * digit decimal number - OR "0000" which indicates an empty (null) entry.
+     */
+    static class TagCursor {
+        private final String s;
+        private int index = 0;
+        
+        private int keyStart;
+        private int keyLength;
+        private int valueStart;
+        private int valueLength; // -1: null value
+        
+        private boolean quiet = false; // no messages on malformed tags
+        
+        TagCursor(String serializedTags) {
+            this.s = serializedTags;
+        }
+        
+        /**
+         * move to next key value pair
+         * @return false if there are no (more) entries
+         */
+        boolean next() {
+            if(this.s == null || this.index >= this.s.length()) return false;
+            
+            if(this.s.startsWith("0000", this.index)) {
+                // empty key.. that makes no sense
+                if(!this.quiet) System.err.println("\nAbstractElement.TagCursor: found empty key (makes no sense), stop parsing attributes:" + this.s);
+                this.index = this.s.length();
+                return false;
+            }
+            
+            this.keyLength = this.readLength(this.index);
+            if(this.keyLength < 0) return this.malformed();
+            this.keyStart = this.index + MAX_DECIMAL_PLACES;
+            this.index = this.keyStart + this.keyLength;
+            
+            if(this.s.startsWith("0000", this.index)) {
+                this.index += 4;
+                this.valueStart = this.index;
+                this.valueLength = -1;
+                return true;
+            }
+            
+            this.valueLength = this.readLength(this.index);
+            if(this.valueLength < 0) return this.malformed();
+            this.valueStart = this.index + MAX_DECIMAL_PLACES;
+            this.index = this.valueStart + this.valueLength;
+            
+            return true;
+        }
+        
+        /**
+         * @return length of entry at offset, -1 if malformed
+         */
+        private int readLength(int offset) {
+            if(this.s.length() - offset < MAX_DECIMAL_PLACES) return -1;
+            
+            int length = 0;
+            for(int i = offset; i < offset + MAX_DECIMAL_PLACES; i++) {
+                char c = this.s.charAt(i);
+                if(c < '0' || c > '9') return -1;
+                length = length * 10 + (c - '0');
+            }
+            
+            if(offset + MAX_DECIMAL_PLACES + length > this.s.length()) return -1;
+            
+            return length;
+        }
+        
+        private boolean malformed() {
+            if(!this.quiet) System.err.println("\nAbstractElement.TagCursor: malformed serialized tags, stop parsing attributes:" + this.s);
+            this.index = this.s.length();
+            return false;
+        }
+        
+        boolean keyEquals(String key) {
+            return key.length() == this.keyLength 
+                    && this.s.regionMatches(this.keyStart, key, 0, this.keyLength);
+        }
+        
+        boolean keyStartsWith(String prefix) {
+            return this.s.startsWith(prefix, this.keyStart) 
+                    && prefix.length() <= this.keyLength;
+        }
+        
+        /**
+         * @return true if current key appears again behind current entry
+         */
+        boolean keyFollows() {
+            TagCursor rest = new TagCursor(this.s);
+            rest.index = this.index;
+            rest.quiet = true; // this cursor reports it
+            
+            while(rest.next()) {
+                if(rest.keyLength == this.keyLength && this.s.regionMatches(
+                        rest.keyStart, this.s, this.keyStart, this.keyLength)) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+        
+        String getKey() {
+            return this.s.substring(this.keyStart, this.keyStart + this.keyLength);
+        }
+        
+        String getValue() {
+            if(this.valueLength < 0) return null;
+            
+            return this.s.substring(this.valueStart, this.valueStart + this.valueLength);
+        }
+    }
 }
@@ -0,0 +1,134 @@
+package inter2ohdm;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import util.DB;
+import util.InterDB;
+import util.SQLStatementQueue;
+
+/**
+ * Splits intermediate tables into chunks for chunk extraction.
+ *
+ * Fixed width chunks cover the same number of ids. Id density varies
+ * a lot, though. Balanced chunks are calculated from the row distribution
+ * instead: each one holds about the same number of elements which are
+ * actually extracted (classcode != -1).
+ *
+ * @author thsc
+ */
+class ChunkPlanner {
+    
+    static String getTableName(int elementType) {
+        switch(elementType) {
+            case OSMExtractor.WAY: return InterDB.WAYTABLE;
+            case OSMExtractor.RELATION: return InterDB.RELATIONTABLE;
+        }
+        
+        return InterDB.NODETABLE;
+    }
+    
+    static long getMaxID(SQLStatementQueue sql, String schema, int elementType) throws SQLException {
+        sql.append("SELECT max(id) FROM ");
+        sql.append(DB.getFullTableName(schema, ChunkPlanner.getTableName(elementType)));
+        sql.append(";");
+        
+        ResultSet result = sql.executeWithResult();
+        result.next();
+        long maxID = result.getLong(1);
+        result.close();
+        
+        return maxID;
+    }
+    
+    /**
+     * split [fromID, toID] into ranges of chunkSize ids
+     */
+    static List<ChunkRange> planFixedWidth(int elementType, long fromID, long toID, long chunkSize) {
+        ArrayList<ChunkRange> chunks = new ArrayList<>();
+        if(chunkSize < 1) chunkSize = 1;
+        
+        long from = fromID;
+        while(from <= toID) {
+            long to = from + chunkSize - 1;
+            if(to > toID) to = toID;
+            
+            chunks.add(new ChunkRange(elementType, from, to));
+            from = to + 1;
+        }
+        
+        return chunks;
+    }
+    
+    /**
+     * Split [fromID, toID] into ranges holding about rowsPerChunk elements
+     * each. Only elements with a class code are counted - others are not 
+     * extracted anyway. Chunks stay in id order. Relation chunks are
+     * weighted by their number of members - for statistics only, relations
+     * are extracted sequentially.
+     */
+    static List<ChunkRange> planBalanced(SQLStatementQueue sql, String schema, 
+            int elementType, long fromID, long toID, long rowsPerChunk) throws SQLException {
+        
+        String fullTableName = DB.getFullTableName(schema, ChunkPlanner.getTableName(elementType));
+        if(rowsPerChunk < 1) rowsPerChunk = 1;
+        
+        // count candidates
+        sql.append("SELECT count(id) FROM ");
+        sql.append(fullTableName);
+        sql.append(" WHERE classcode != -1 AND id >= ");
+        sql.append(fromID);
+        sql.append(" AND id <= ");
+        sql.append(toID);
+        sql.append(";");
+        
+        ResultSet result = sql.executeWithResult();
+        result.next();
+        long rows = result.getLong(1);
+        result.close();
+        
+        ArrayList<ChunkRange> chunks = new ArrayList<>();
+        if(rows == 0) return chunks;
+        
+        long numberChunks = (rows + rowsPerChunk - 1) / rowsPerChunk;
+        
+        boolean relations = elementType == OSMExtractor.RELATION;
+        
+        /* 
+        SELECT min(id), max(id), count(id) FROM 
+            (SELECT id, ntile(n) OVER (ORDER BY id) AS chunk FROM table 
+             WHERE classcode != -1 AND id >= from AND id <= to) AS c 
+        GROUP BY chunk ORDER BY chunk;
+        */
+        sql.append("SELECT min(id), max(id), ");
+        if(relations) {
+            // number of members: number of commas in member list plus one
+            sql.append("sum(members) ");
+        } else {
+            sql.append("count(id) ");
+        }
+        sql.append("FROM (SELECT id, ntile(");
+        sql.append(numberChunks);
+        sql.append(") OVER (ORDER BY id) AS chunk");
+        if(relations) {
+            sql.append(", coalesce(length(member_ids) - length(replace(member_ids, ',', '')) + 1, 0) AS members");
+        }
+        sql.append(" FROM ");
+        sql.append(fullTableName);
+        sql.append(" WHERE classcode != -1 AND id >= ");
+        sql.append(fromID);
+        sql.append(" AND id <= ");
+        sql.append(toID);
+        sql.append(") AS c GROUP BY chunk ORDER BY chunk;");
+        
+        result = sql.executeWithResult();
+        while(result.next()) {
+            chunks.add(new ChunkRange(elementType, 
+                    result.getLong(1), result.getLong(2), result.getLong(3)));
+        }
+        result.close();
+        
+        return chunks;
+    }
+}
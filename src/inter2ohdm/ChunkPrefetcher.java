@@ -0,0 +1,159 @@
+package inter2ohdm;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import util.SQLStatementQueue;
+
+/**
+ * Reads chunks of elements from intermediate db in background. Next
+ * chunk is selected and decoded (ways with nodes, relations with members)
+ * while the previous one is processed. Number of chunks kept in memory
+ * is limited by queue size.
+ *
+ * That thread uses its own connection. Created elements nevertheless refer
+ * to the intermediate db object which processes them.
+ *
+ * @author thsc
+ */
+class ChunkPrefetcher extends Thread {
+    static final int DEFAULT_DEPTH = 2;
+
+    private final IntermediateDB reader;
+    private final SQLStatementQueue sql;
+    private final String schema;
+    private final String elementTableName;
+    private final int elementType;
+    private final boolean namedEntitiesOnly;
+    private final BigDecimal fromID;
+    private final BigDecimal maxID;
+    private final BigDecimal steps;
+
+    private final ArrayBlockingQueue<ElementBatch> batches;
+    private volatile boolean stopped = false;
+
+    ChunkPrefetcher(Connection readConnection, String schema,
+            IntermediateDB elementOwner, String elementTableName,
+            int elementType, boolean namedEntitiesOnly,
+            BigDecimal fromID, BigDecimal maxID, BigDecimal steps, int depth) {
+
+        this.reader = new IntermediateDB(readConnection, schema, elementOwner);
+        this.sql = new SQLStatementQueue(readConnection);
+        this.schema = schema;
+        this.elementTableName = elementTableName;
+        this.elementType = elementType;
+        this.namedEntitiesOnly = namedEntitiesOnly;
+        this.fromID = fromID;
+        this.maxID = maxID;
+        this.steps = steps;
+
+        if(depth < 1) depth = DEFAULT_DEPTH;
+        this.batches = new ArrayBlockingQueue<>(depth);
+
+        this.setName("prefetch " + elementTableName);
+        this.setDaemon(true);
+    }
+
+    /**
+     * next batch - blocks until reader has produced it
+     */
+    ElementBatch take() throws InterruptedException {
+        return this.batches.take();
+    }
+
+    /**
+     * stop reading - e.g. after a fatal error while processing
+     */
+    void end() {
+        this.stopped = true;
+        this.batches.clear();
+        this.interrupt();
+    }
+
+    @Override
+    public void run() {
+        // same range steps as OSMExtractor.processElements
+        BigDecimal lowerID = this.fromID;
+        BigDecimal upperID = lowerID.add(this.steps);
+        if(upperID.compareTo(this.maxID) == 1) {
+            upperID = this.maxID;
+        }
+
+        boolean lastRound = false;
+
+        try {
+            while(!this.stopped) {
+                ElementBatch batch = new ElementBatch(lowerID, upperID, lastRound);
+
+                long before = System.currentTimeMillis();
+                try {
+                    this.readBatch(batch);
+                }
+                catch(Throwable t) {
+                    // consumer must not wait for batches which never come
+                    batch = new ElementBatch(lowerID, upperID, true);
+                    batch.failure = t;
+                }
+                batch.fetchTime = System.currentTimeMillis() - before;
+
+                this.batches.put(batch);
+
+                if(batch.last) break;
+
+                // next bulk of data
+                lowerID = upperID;
+                upperID = lowerID.add(this.steps);
+
+                if(upperID.compareTo(this.maxID) == 1 /* greater than*/) {
+                    // last round must include max id
+                    upperID = this.maxID.add(new BigDecimal(1));
+                    lastRound = true;
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            // stopped
+        }
+        catch(Throwable t) {
+            // failed outside of reading - consumer gets an error marker
+            ElementBatch failed = new ElementBatch(lowerID, upperID, true);
+            failed.failure = t;
+            try {
+                if(!this.stopped) this.batches.put(failed);
+            }
+            catch(InterruptedException e) {
+                // stopped
+            }
+        }
+    }
+
+    private void readBatch(ElementBatch batch) throws SQLException {
+        OSMExtractor.appendSelectElements(this.sql, this.schema,
+                this.elementTableName, batch.lowerID, batch.upperID,
+                this.namedEntitiesOnly);
+
+        ResultSet qResult = this.sql.executeWithResult();
+
+        while(qResult.next() && !this.stopped) {
+            switch(this.elementType) {
+                case OSMExtractor.NODE:
+                    batch.add(this.reader.createOSMNode(qResult), true);
+                    break;
+                case OSMExtractor.WAY:
+                    OSMWay way = this.reader.createOSMWay(qResult);
+                    this.reader.addNodes2OHDMWay(way);
+                    batch.add(way, true);
+                    break;
+                case OSMExtractor.RELATION:
+                    OSMRelation relation = this.reader.createOSMRelation(qResult);
+                    boolean complete = this.reader.addMembers2Relation(relation);
+                    batch.add(relation, complete);
+                    break;
+            }
+        }
+
+        qResult.close();
+    }
+}
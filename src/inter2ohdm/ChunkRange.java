@@ -0,0 +1,48 @@
+package inter2ohdm;
+
+/**
+ * Range of intermediate db ids of one element type which is extracted
+ * in one go. Both boundaries are included.
+ *
+ * @author thsc
+ */
+class ChunkRange {
+    final int elementType; // OSMExtractor.NODE, WAY or RELATION
+    final long fromID;
+    final long toID;
+    
+    // estimated effort, e.g. number of rows or members, -1 if unknown
+    final long weight;
+    
+    // id in chunk queue table, -1 if not taken from a queue table
+    long queueID = -1;
+
+    // worker which claimed it from queue table, null if not taken from a queue table
+    String queueWorker = null;
+
+    ChunkRange(int elementType, long fromID, long toID) {
+        this(elementType, fromID, toID, -1);
+    }
+
+    ChunkRange(int elementType, long fromID, long toID, long weight) {
+        this.elementType = elementType;
+        this.fromID = fromID;
+        this.toID = toID;
+        this.weight = weight;
+    }
+
+    static String getTypeName(int elementType) {
+        switch(elementType) {
+            case OSMExtractor.NODE: return "nodes";
+            case OSMExtractor.WAY: return "ways";
+            case OSMExtractor.RELATION: return "relations";
+        }
+
+        return "unknown";
+    }
+
+    @Override
+    public String toString() {
+        return ChunkRange.getTypeName(this.elementType) + " [" + this.fromID + ", " + this.toID + "]";
+    }
+}
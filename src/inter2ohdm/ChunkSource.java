@@ -0,0 +1,29 @@
+package inter2ohdm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Hands out chunks to chunk workers. Must be thread safe.
+ *
+ * @author thsc
+ */
+interface ChunkSource {
+    /**
+     * @return next chunk to be extracted or null if there is nothing left
+     */
+    ChunkRange next() throws SQLException;
+
+    /**
+     * worker is done with that chunk
+     * @param success false if extraction failed
+     */
+    void finished(ChunkRange chunk, boolean success) throws SQLException;
+
+    /**
+     * mark that chunk as done within the transaction of that connection
+     * (see ChunkTransaction) - it is done only if that transaction is 
+     * committed. finished must be called anyway.
+     */
+    void markDone(ChunkRange chunk, Connection connection) throws SQLException;
+}
@@ -0,0 +1,129 @@
+package inter2ohdm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Writes of a chunk worker into intermediate and OHDM db are done in
+ * explicit transactions instead of autocommit. A transaction ends with
+ * its chunk - the chunk is marked as done in the intermediate transaction.
+ * A chunk whose worker crashed leaves nothing behind and can be extracted
+ * again.
+ *
+ * Large chunks can be committed each commit interval elements. Those
+ * chunks are not rolled back completely.
+ *
+ * OHDM transaction is committed first. There is no two phase commit: if
+ * intermediate commit fails after that, ohdm rows of that chunk remain.
+ *
+ * @author thsc
+ */
+class ChunkTransaction {
+    private final Connection sourceConnection;
+    private final Connection targetConnection;
+    private final int commitInterval;
+
+    private OHDMImporter importer = null;
+    private int elements = 0;
+
+    private long commits = 0;
+    private long rollbacks = 0;
+
+    /**
+     * @param commitInterval commit after that number of elements, 0 or
+     * less: commit at end of chunk only
+     */
+    ChunkTransaction(Connection sourceConnection, Connection targetConnection,
+            int commitInterval) {
+
+        this.sourceConnection = sourceConnection;
+        this.targetConnection = targetConnection;
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * importer whose buffers are written before commit
+     */
+    void setImporter(OHDMImporter importer) {
+        this.importer = importer;
+    }
+
+    void begin() throws SQLException {
+        this.sourceConnection.setAutoCommit(false);
+        this.targetConnection.setAutoCommit(false);
+        this.elements = 0;
+    }
+
+    /**
+     * called after each element - commits if commit interval is reached
+     */
+    void elementProcessed() throws SQLException {
+        if(this.commitInterval <= 0) return;
+
+        if(++this.elements >= this.commitInterval) {
+            this.commit(null, null);
+        }
+    }
+
+    /**
+     * write importer buffers and commit
+     * @param chunks chunk is marked as done in intermediate transaction,
+     * null: no chunk is finished
+     */
+    void commit(ChunkSource chunks, ChunkRange chunk) throws SQLException {
+        this.importer.forceExecute();
+
+        if(chunks != null) {
+            chunks.markDone(chunk, this.sourceConnection);
+        }
+
+        this.targetConnection.commit();
+        this.sourceConnection.commit();
+
+        // ids get into shared mapping only when they are committed
+        this.importer.committed();
+
+        this.elements = 0;
+        this.commits++;
+    }
+
+    /**
+     * forget importer buffers and roll back - failures are printed only
+     */
+    void rollback() {
+        this.importer.discard();
+
+        try {
+            this.targetConnection.rollback();
+        }
+        catch(SQLException e) {
+            System.err.println("cannot roll back ohdm transaction: " + e.getLocalizedMessage());
+        }
+
+        try {
+            this.sourceConnection.rollback();
+        }
+        catch(SQLException e) {
+            System.err.println("cannot roll back intermediate transaction: " + e.getLocalizedMessage());
+        }
+
+        this.elements = 0;
+        this.rollbacks++;
+    }
+
+    /**
+     * back to autocommit
+     */
+    void end() throws SQLException {
+        this.sourceConnection.setAutoCommit(true);
+        this.targetConnection.setAutoCommit(true);
+    }
+
+    long getCommits() {
+        return this.commits;
+    }
+
+    long getRollbacks() {
+        return this.rollbacks;
+    }
+}
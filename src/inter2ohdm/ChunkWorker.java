@@ -0,0 +1,233 @@
+package inter2ohdm;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import util.DB;
+import util.Parameter;
+import util.SQLStatementQueue;
+import util.Util;
+
+/**
+ * Extracts chunks from intermediate db into OHDM until chunk source 
+ * is drained. Each worker has its own connections, importer and extractor.
+ *
+ * @author thsc
+ */
+class ChunkWorker extends Thread {
+    private final Parameter sourceParameter;
+    private final Parameter targetParameter;
+    private final ChunkSource chunks;
+    private final int stepLen;
+    private final WayNodeCache wayNodeCache;
+    private final NodeCoordinateCache nodeCoordinateCache;
+    private final MemberExistenceIndex memberExistenceIndex;
+
+    private volatile OSMExtractor extractor = null;
+    private ChunkTransaction transaction = null;
+    private volatile ChunkRange currentChunk = null;
+    private volatile int chunksDone = 0;
+    private volatile int chunksFailed = 0;
+
+    ChunkWorker(String name, Parameter sourceParameter, Parameter targetParameter,
+            ChunkSource chunks, int stepLen, WayNodeCache wayNodeCache,
+            NodeCoordinateCache nodeCoordinateCache, 
+            MemberExistenceIndex memberExistenceIndex) {
+        
+        super(name);
+        this.sourceParameter = sourceParameter;
+        this.targetParameter = targetParameter;
+        this.chunks = chunks;
+        this.stepLen = stepLen;
+        this.wayNodeCache = wayNodeCache;
+        this.nodeCoordinateCache = nodeCoordinateCache;
+        this.memberExistenceIndex = memberExistenceIndex;
+    }
+
+    @Override
+    public void run() {
+        SQLStatementQueue sourceQueue = null;
+        OHDMImporter ohdmImporter = null;
+
+        try {
+            Connection sourceConnection = DB.createConnection(this.sourceParameter);
+            Connection targetConnection = DB.createConnection(this.targetParameter);
+
+            String sourceSchema = this.sourceParameter.getSchema();
+            String targetSchema = this.targetParameter.getSchema();
+
+            IntermediateDB intermediateDB = new IntermediateDB(sourceConnection, sourceSchema);
+            
+            SQLStatementQueue updateQueue;
+            if(this.sourceParameter.useChunkTransactions()) {
+                // updates must be part of chunk transaction
+                updateQueue = new SQLStatementQueue(sourceConnection);
+                this.transaction = new ChunkTransaction(sourceConnection, 
+                        targetConnection, this.sourceParameter.getCommitInterval());
+            } else {
+                updateQueue = new SQLStatementQueue(this.sourceParameter);
+            }
+
+            ohdmImporter = new OHDMImporter(intermediateDB, 
+                    this.targetParameter.getOsmfilecreationdate(),
+                    sourceConnection, targetConnection, 
+                    sourceSchema, targetSchema, updateQueue);
+            ohdmImporter.setIDBlockSize(this.targetParameter.getIDBlockSize());
+            ohdmImporter.setRowWriting(this.targetParameter.getConnectionType());
+            ohdmImporter.setIDMapping(this.sourceParameter);
+            
+            if(this.transaction != null) {
+                ohdmImporter.setChunkTransaction(this.transaction, 
+                        DB.createConnection(this.targetParameter));
+            }
+
+            OSMExtractor osmExtractor = new OSMExtractor(sourceConnection, 
+                    sourceSchema, ohdmImporter, this.stepLen);
+            
+            osmExtractor.setPrintProgress(false); // pool reports progress
+            osmExtractor.setWayNodeCache(this.wayNodeCache);
+            osmExtractor.setNodeCoordinateCache(this.nodeCoordinateCache);
+            osmExtractor.setMemberExistenceIndex(this.memberExistenceIndex);
+            // aborted transaction cannot go on
+            osmExtractor.setStopOnFailure(this.transaction != null);
+
+            if(this.sourceParameter.getPrefetchChunks() > 0) {
+                osmExtractor.setPrefetching(DB.createConnection(this.sourceParameter),
+                        this.sourceParameter.getPrefetchChunks());
+            }
+            
+            this.extractor = osmExtractor;
+
+            sourceQueue = DB.createSQLStatementQueue(sourceConnection, this.sourceParameter);
+
+            ChunkRange chunk = this.chunks.next();
+            while(chunk != null) {
+                this.currentChunk = chunk;
+
+                boolean success = this.transaction != null ?
+                        this.extractInTransaction(chunk, osmExtractor, ohdmImporter, sourceQueue) :
+                        this.extract(chunk, osmExtractor, ohdmImporter, sourceQueue);
+                if(success) {
+                    this.chunksDone++;
+                } else {
+                    this.chunksFailed++;
+                }
+
+                this.chunks.finished(chunk, success);
+                this.currentChunk = null;
+                chunk = this.chunks.next();
+            }
+        }
+        catch(IOException | SQLException | RuntimeException e) {
+            Util.printExceptionMessage(e, sourceQueue, "chunk worker " + this.getName() + " stops", true);
+            
+            // chunk must not stay claimed by a worker which is gone
+            ChunkRange chunk = this.currentChunk;
+            if(chunk != null) {
+                this.currentChunk = null;
+                this.chunksFailed++;
+                try {
+                    this.chunks.finished(chunk, false);
+                } catch (SQLException | RuntimeException ex) {
+                    Util.printExceptionMessage(ex, null, "chunk worker " + this.getName() + ": cannot report failed chunk: " + chunk, true);
+                }
+            }
+        }
+        finally {
+            if(ohdmImporter != null) {
+                try {
+                    ohdmImporter.close();
+                } catch (SQLException ex) {
+                    Util.printExceptionMessage(ex, null, "chunk worker " + this.getName() + ": when closing importer", true);
+                }
+            }
+        }
+    }
+
+    private boolean extract(ChunkRange chunk, OSMExtractor extractor, 
+            OHDMImporter ohdmImporter, SQLStatementQueue sourceQueue) {
+        
+        try {
+            this.process(chunk, extractor, sourceQueue);
+
+            ohdmImporter.forceExecute();
+            return true;
+        }
+        catch(SQLException | RuntimeException e) {
+            Util.printExceptionMessage(e, sourceQueue, "chunk worker " + this.getName() + ": chunk failed: " + chunk, true);
+            return false;
+        }
+    }
+
+    /**
+     * @throws SQLException first failure of extractor - chunk is incomplete
+     */
+    private void process(ChunkRange chunk, OSMExtractor extractor, 
+            SQLStatementQueue sourceQueue) throws SQLException {
+        
+        extractor.resetFailure();
+        switch(chunk.elementType) {
+            case OSMExtractor.NODE:
+                extractor.processNodes(sourceQueue, true, chunk.fromID, chunk.toID);
+                break;
+            case OSMExtractor.WAY:
+                extractor.processWays(sourceQueue, false, chunk.fromID, chunk.toID);
+                break;
+            case OSMExtractor.RELATION:
+                extractor.processRelations(sourceQueue, false, chunk.fromID, chunk.toID);
+                break;
+        }
+        
+        if(extractor.getFailure() != null) {
+            throw extractor.getFailure();
+        }
+    }
+
+    /**
+     * extract chunk within transactions - chunk is marked as done with 
+     * last commit
+     */
+    private boolean extractInTransaction(ChunkRange chunk, OSMExtractor extractor, 
+            OHDMImporter ohdmImporter, SQLStatementQueue sourceQueue) {
+        
+        try {
+            this.transaction.begin();
+            try {
+                this.process(chunk, extractor, sourceQueue);
+                this.transaction.commit(this.chunks, chunk);
+                return true;
+            }
+            catch(SQLException | RuntimeException e) {
+                Util.printExceptionMessage(e, sourceQueue, "chunk worker " + this.getName() + ": chunk rolled back: " + chunk, true);
+                this.transaction.rollback();
+                return false;
+            }
+            finally {
+                this.transaction.end();
+            }
+        }
+        catch(SQLException e) {
+            Util.printExceptionMessage(e, sourceQueue, "chunk worker " + this.getName() + ": chunk transaction failed: " + chunk, true);
+            return false;
+        }
+    }
+
+    /**
+     * @return extractor of that worker or null if not yet set up
+     */
+    OSMExtractor getExtractor() {
+        return this.extractor;
+    }
+
+    ChunkRange getCurrentChunk() {
+        return this.currentChunk;
+    }
+
+    int getChunksDone() {
+        return this.chunksDone;
+    }
+
+    int getChunksFailed() {
+        return this.chunksFailed;
+    }
+}
@@ -0,0 +1,178 @@
+package inter2ohdm;
+
+import java.util.ArrayList;
+import osm.OSMClassification;
+import util.Parameter;
+import util.TriggerRecipient;
+import util.Util;
+
+/**
+ * Runs a number of chunk workers within this process. Workers share
+ * a chunk source. Their statistics are merged into one progress report.
+ *
+ * @author thsc
+ */
+class ChunkWorkerPool implements TriggerRecipient {
+    private final ArrayList<ChunkWorker> workers = new ArrayList<>();
+    private final ChunkSource chunks;
+    private final long startTime;
+    private final WayNodeCache wayNodeCache;
+    private final NodeCoordinateCache nodeCoordinateCache;
+    private final MemberExistenceIndex memberExistenceIndex;
+
+    // speed since last report - guarded by getStatistics
+    private long lastCheckedEntities = 0;
+    private long lastCheckTime = 0;
+
+    ChunkWorkerPool(int numberWorkers, Parameter sourceParameter,
+            Parameter targetParameter, ChunkSource chunks, int stepLen) {
+
+        this.chunks = chunks;
+        this.startTime = System.currentTimeMillis();
+
+        if(numberWorkers < 1) numberWorkers = 1;
+
+        // chunks share ways and nodes - one cache of each for all workers, one index
+        this.wayNodeCache = WayNodeCache.create(sourceParameter);
+        this.nodeCoordinateCache = NodeCoordinateCache.create(sourceParameter);
+        this.memberExistenceIndex = MemberExistenceIndex.create(sourceParameter);
+
+        for(int i = 0; i < numberWorkers; i++) {
+            this.workers.add(new ChunkWorker("chunk worker " + i,
+                    sourceParameter, targetParameter, chunks, stepLen, 
+                    this.wayNodeCache, this.nodeCoordinateCache, 
+                    this.memberExistenceIndex));
+        }
+    }
+
+    void start() {
+        // all workers share one classification - read it once
+        OSMClassification.getOSMClassification();
+
+        for(ChunkWorker worker : this.workers) {
+            worker.start();
+        }
+    }
+
+    void join() throws InterruptedException {
+        for(ChunkWorker worker : this.workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * called by trigger thread and main thread
+     */
+    synchronized String getStatistics() {
+        long[] checked = new long[3];
+        long[] imported = new long[3];
+        long historic = 0;
+        int chunksDone = 0;
+        int chunksFailed = 0;
+
+        StringBuilder current = new StringBuilder();
+
+        for(ChunkWorker worker : this.workers) {
+            chunksDone += worker.getChunksDone();
+            chunksFailed += worker.getChunksFailed();
+
+            OSMExtractor extractor = worker.getExtractor();
+            if(extractor != null) {
+                for(int type = OSMExtractor.NODE; type <= OSMExtractor.RELATION; type++) {
+                    checked[type] += extractor.getNumberChecked(type);
+                    imported[type] += extractor.getNumberImported(type);
+                }
+                historic += extractor.getHistoricInfos();
+            }
+
+            ChunkRange chunk = worker.getCurrentChunk();
+            if(chunk != null) {
+                current.append("  ");
+                current.append(worker.getName());
+                current.append(": ");
+                current.append(chunk);
+                current.append("\n");
+            }
+        }
+
+        long checkedEntities = checked[0] + checked[1] + checked[2];
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(Util.getNowAsFormatedDateString());
+        sb.append(" | workers: ");
+        sb.append(this.workers.size());
+        sb.append(" | ");
+        sb.append(this.chunks.toString());
+        sb.append("\n");
+
+        sb.append("chunks done by workers: ");
+        sb.append(chunksDone);
+        sb.append(" | failed: ");
+        sb.append(chunksFailed);
+        sb.append("\n");
+
+        sb.append("checked : ");
+        sb.append(Util.getValueWithDots(checkedEntities));
+        sb.append(" (n:");
+        sb.append(Util.getValueWithDots(checked[OSMExtractor.NODE]));
+        sb.append(",w:");
+        sb.append(Util.getValueWithDots(checked[OSMExtractor.WAY]));
+        sb.append(",r:");
+        sb.append(Util.getValueWithDots(checked[OSMExtractor.RELATION]));
+        sb.append(")\n");
+
+        sb.append("imported: ");
+        sb.append(Util.getValueWithDots(imported[0] + imported[1] + imported[2]));
+        sb.append(" (n:");
+        sb.append(Util.getValueWithDots(imported[OSMExtractor.NODE]));
+        sb.append(",w:");
+        sb.append(Util.getValueWithDots(imported[OSMExtractor.WAY]));
+        sb.append(",r:");
+        sb.append(Util.getValueWithDots(imported[OSMExtractor.RELATION]));
+        sb.append(") historic: ");
+        sb.append(Util.getValueWithDots(historic));
+        sb.append(" | elapsed: ");
+        sb.append(Util.getElapsedTime(this.startTime));
+        sb.append("\n");
+
+        // speed since last report
+        this.lastCheckTime = this.lastCheckTime > 0 ? this.lastCheckTime : this.startTime;
+        long now = System.currentTimeMillis();
+        long diffInSeconds = (now - this.lastCheckTime) / 1000;
+        long diffCheckedEntities = checkedEntities - this.lastCheckedEntities;
+        this.lastCheckTime = now;
+        this.lastCheckedEntities = checkedEntities;
+
+        if(diffInSeconds > 0) {
+            sb.append("new     : ");
+            sb.append(Util.getValueWithDots(diffCheckedEntities));
+            sb.append(" | ");
+            sb.append(diffCheckedEntities / diffInSeconds);
+            sb.append(" per sec\n");
+        }
+
+        if(this.wayNodeCache != null) {
+            sb.append(this.wayNodeCache.getStatistics());
+            sb.append("\n");
+        }
+
+        if(this.nodeCoordinateCache != null) {
+            sb.append(this.nodeCoordinateCache.getStatistics());
+            sb.append("\n");
+        }
+
+        if(this.memberExistenceIndex != null && this.memberExistenceIndex.isBuilt()) {
+            sb.append(this.memberExistenceIndex.getStatistics());
+            sb.append("\n");
+        }
+
+        sb.append(current);
+
+        return sb.toString();
+    }
+
+    @Override
+    public void trigger() {
+        System.out.println("\n" + this.getStatistics());
+    }
+}
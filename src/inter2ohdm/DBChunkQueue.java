@@ -0,0 +1,417 @@
+package inter2ohdm;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import util.DB;
+import util.InterDB;
+import util.SQLStatementQueue;
+import util.Util;
+
+/**
+ * Chunks kept in a table in intermediate db. Any number of chunk extractor
+ * processes on any host can drain that queue concurrently.
+ *
+ * Workers claim chunks with SELECT .. FOR UPDATE SKIP LOCKED. A chunk is
+ * only handed out when all chunks of previous element types are done
+ * (nodes before ways before relations), relation chunks one at a time.
+ * Running chunks get a heartbeat as long as their worker thread is alive.
+ * Chunks whose worker went silent are marked failed. Failed chunks are
+ * handed out again until they were tried MAX_ATTEMPTS times.
+ *
+ * @author thsc
+ */
+class DBChunkQueue implements ChunkSource {
+    static final String OPEN = "open";
+    static final String RUNNING = "running";
+    static final String DONE = "done";
+    static final String FAILED = "failed";
+
+    static final int DEFAULT_HEARTBEAT_SECONDS = 60;
+    static final int DEFAULT_STALE_SECONDS = 10 * 60;
+
+    // failed chunks are retried until they were claimed that often
+    static final int MAX_ATTEMPTS = 3;
+
+    private static final long WAIT_MILLIS = 10 * 1000;
+
+    // serializes claims of all workers
+    private static final long CLAIM_LOCK_KEY = 6031987;
+
+    private final Connection connection;
+    private final String fullTableName;
+    private final String workerName;
+    private final int staleSeconds;
+
+    // queue id -> worker thread which claimed that chunk
+    private final HashMap<Long, Thread> runningChunks = new HashMap<>();
+    private final Heartbeat heartbeat;
+
+    /**
+     * @param connection used only by that queue
+     * @param staleSeconds running chunks without heartbeat for that time
+     * are given to other workers
+     */
+    DBChunkQueue(Connection connection, String schema, int heartbeatSeconds,
+            int staleSeconds) {
+
+        this.connection = connection;
+        this.fullTableName = DB.getFullTableName(schema, InterDB.CHUNKQUEUE);
+        this.staleSeconds = staleSeconds;
+
+        // e.g. 4711@hostname
+        this.workerName = ManagementFactory.getRuntimeMXBean().getName();
+
+        this.heartbeat = new Heartbeat(heartbeatSeconds * 1000L);
+        this.heartbeat.start();
+    }
+
+    /**
+     * drop and create queue table
+     */
+    static void create(SQLStatementQueue sql, String schema) throws SQLException {
+        DB.drop(sql, schema, InterDB.CHUNKQUEUE);
+
+        DB.createSequence(sql, schema, InterDB.CHUNKQUEUE);
+        sql.append(DB.getCreateTableBegin(schema, InterDB.CHUNKQUEUE));
+        sql.append(",");
+        sql.append("element_type int NOT NULL,");
+        sql.append("from_id bigint NOT NULL,");
+        sql.append("to_id bigint NOT NULL,");
+        sql.append("weight bigint,");
+        sql.append("state character varying DEFAULT '");
+        sql.append(OPEN);
+        sql.append("',");
+        sql.append("worker character varying,");
+        sql.append("attempts int DEFAULT 0,");
+        sql.append("heartbeat timestamp with time zone,");
+        sql.append("claimed timestamp with time zone,");
+        sql.append("finished timestamp with time zone");
+        sql.append(");");
+        sql.forceExecute();
+
+        sql.append("CREATE INDEX ");
+        sql.append(InterDB.CHUNKQUEUE);
+        sql.append("_state ON ");
+        sql.append(DB.getFullTableName(schema, InterDB.CHUNKQUEUE));
+        sql.append(" (state, element_type, id);");
+        sql.forceExecute();
+    }
+
+    /**
+     * add chunks to queue - they are handed out in that order
+     */
+    static void enqueue(SQLStatementQueue sql, String schema, List<ChunkRange> chunks) throws SQLException {
+        for(ChunkRange chunk : chunks) {
+            sql.append("INSERT INTO ");
+            sql.append(DB.getFullTableName(schema, InterDB.CHUNKQUEUE));
+            sql.append(" (element_type, from_id, to_id, weight) VALUES (");
+            sql.append(chunk.elementType);
+            sql.append(", ");
+            sql.append(chunk.fromID);
+            sql.append(", ");
+            sql.append(chunk.toID);
+            sql.append(", ");
+            sql.append(chunk.weight);
+            sql.append(");");
+            sql.couldExecute();
+        }
+
+        sql.forceExecute();
+    }
+
+    @Override
+    public ChunkRange next() throws SQLException {
+        for(;;) {
+            synchronized(this) {
+                this.requeueStaleChunks();
+
+                ChunkRange chunk = this.claim();
+                if(chunk != null) {
+                    this.runningChunks.put(chunk.queueID, Thread.currentThread());
+                    return chunk;
+                }
+
+                if(!this.hasUnfinishedChunks()) {
+                    // queue is drained
+                    return null;
+                }
+            }
+
+            // chunks of previous element types are still running - wait
+            try {
+                Thread.sleep(WAIT_MILLIS);
+            } catch (InterruptedException ex) {
+                return null;
+            }
+        }
+    }
+
+    private ChunkRange claim() throws SQLException {
+        SQLStatementQueue sql = new SQLStatementQueue(this.connection);
+
+        this.connection.setAutoCommit(false);
+        try {
+            // one claim at a time: check of previous element types is safe
+            sql.append("SELECT pg_advisory_xact_lock(");
+            sql.append(CLAIM_LOCK_KEY);
+            sql.append(");");
+            sql.executeWithResult().close();
+
+            String worker = this.workerName + " " + Thread.currentThread().getName();
+
+            /*
+            UPDATE chunk_queue SET state = 'running', ... WHERE id =
+                (SELECT id FROM chunk_queue q WHERE (state = 'open'
+                OR (state = 'failed' AND attempts < max))
+                AND NOT EXISTS (previous types unfinished)
+                AND (not a relation OR no relation running)
+                ORDER BY id LIMIT 1 FOR UPDATE SKIP LOCKED)
+            RETURNING id, element_type, from_id, to_id, weight, worker;
+            */
+            sql.append("UPDATE ");
+            sql.append(this.fullTableName);
+            sql.append(" SET state = '");
+            sql.append(RUNNING);
+            sql.append("', worker = '");
+            sql.append(Util.escapeSpecialChar4SQL(worker));
+            sql.append("', attempts = attempts + 1, claimed = now(), heartbeat = now(), finished = null");
+            sql.append(" WHERE id = (SELECT q.id FROM ");
+            sql.append(this.fullTableName);
+            sql.append(" AS q WHERE ");
+            this.appendUnfinished(sql, "q");
+            sql.append(" AND q.state != '");
+            sql.append(RUNNING);
+            sql.append("' AND NOT EXISTS (SELECT 1 FROM ");
+            sql.append(this.fullTableName);
+            sql.append(" AS p WHERE p.element_type < q.element_type AND ");
+            this.appendUnfinished(sql, "p");
+            sql.append(") AND (q.element_type != ");
+            sql.append(OSMExtractor.RELATION);
+            sql.append(" OR NOT EXISTS (SELECT 1 FROM ");
+            sql.append(this.fullTableName);
+            sql.append(" AS r WHERE r.element_type = ");
+            sql.append(OSMExtractor.RELATION);
+            sql.append(" AND r.state = '");
+            sql.append(RUNNING);
+            sql.append("')) ORDER BY q.element_type, q.id LIMIT 1 FOR UPDATE SKIP LOCKED)");
+            sql.append(" RETURNING id, element_type, from_id, to_id, weight, worker;");
+
+            ResultSet result = sql.executeWithResult();
+            ChunkRange chunk = null;
+            if(result.next()) {
+                chunk = new ChunkRange(result.getInt(2), result.getLong(3),
+                        result.getLong(4), result.getLong(5));
+                chunk.queueID = result.getLong(1);
+                chunk.queueWorker = result.getString(6);
+            }
+            result.close();
+
+            this.connection.commit();
+
+            return chunk;
+        }
+        catch(SQLException e) {
+            this.connection.rollback();
+            throw e;
+        }
+        finally {
+            this.connection.setAutoCommit(true);
+        }
+    }
+
+    private boolean hasUnfinishedChunks() throws SQLException {
+        SQLStatementQueue sql = new SQLStatementQueue(this.connection);
+        sql.append("SELECT count(id) FROM ");
+        sql.append(this.fullTableName);
+        sql.append(" AS q WHERE ");
+        this.appendUnfinished(sql, "q");
+        sql.append(";");
+
+        ResultSet result = sql.executeWithResult();
+        result.next();
+        long unfinished = result.getLong(1);
+        result.close();
+
+        return unfinished > 0;
+    }
+
+    /**
+     * open, running or failed but to be retried
+     */
+    private void appendUnfinished(SQLStatementQueue sql, String alias) {
+        sql.append("(");
+        sql.append(alias);
+        sql.append(".state IN ('");
+        sql.append(OPEN);
+        sql.append("', '");
+        sql.append(RUNNING);
+        sql.append("') OR (");
+        sql.append(alias);
+        sql.append(".state = '");
+        sql.append(FAILED);
+        sql.append("' AND ");
+        sql.append(alias);
+        sql.append(".attempts < ");
+        sql.append(MAX_ATTEMPTS);
+        sql.append("))");
+    }
+
+    /**
+     * chunks whose worker did not send a heartbeat failed - they are
+     * retried if attempts are left
+     */
+    private void requeueStaleChunks() throws SQLException {
+        SQLStatementQueue sql = new SQLStatementQueue(this.connection);
+        sql.append("UPDATE ");
+        sql.append(this.fullTableName);
+        sql.append(" SET state = '");
+        sql.append(FAILED);
+        sql.append("', worker = null WHERE state = '");
+        sql.append(RUNNING);
+        sql.append("' AND heartbeat < now() - interval '");
+        sql.append(this.staleSeconds);
+        sql.append(" seconds';");
+        sql.forceExecute();
+    }
+
+    @Override
+    public synchronized void finished(ChunkRange chunk, boolean success) throws SQLException {
+        this.runningChunks.remove(chunk.queueID);
+
+        if(!this.setState(this.connection, chunk, success)) {
+            System.err.println("chunk queue: " + chunk + " was given to another worker - state not changed");
+        }
+    }
+
+    /**
+     * @throws SQLException if chunk was given to another worker meanwhile - 
+     * transaction must not be committed
+     */
+    @Override
+    public void markDone(ChunkRange chunk, Connection connection) throws SQLException {
+        if(!this.setState(connection, chunk, true)) {
+            throw new SQLException("chunk queue: " + chunk + " was given to another worker");
+        }
+    }
+
+    /**
+     * @return false if that chunk is no longer held by worker which claimed it
+     */
+    private boolean setState(Connection connection, ChunkRange chunk, boolean success) throws SQLException {
+        StringBuilder sb = new StringBuilder("UPDATE ");
+        sb.append(this.fullTableName);
+        sb.append(" SET state = '");
+        sb.append(success ? DONE : FAILED);
+        sb.append("', finished = now() WHERE id = ? AND worker = ?;");
+
+        PreparedStatement stmt = connection.prepareStatement(sb.toString());
+        try {
+            stmt.setLong(1, chunk.queueID);
+            stmt.setString(2, chunk.queueWorker);
+            return stmt.executeUpdate() > 0;
+        }
+        finally {
+            stmt.close();
+        }
+    }
+
+    private synchronized void sendHeartbeat() throws SQLException {
+        // no heartbeat for chunks of dead workers - they become stale
+        ArrayList<Long> aliveChunks = new ArrayList<>();
+        for(Long id : this.runningChunks.keySet()) {
+            if(this.runningChunks.get(id).isAlive()) {
+                aliveChunks.add(id);
+            }
+        }
+        
+        if(aliveChunks.isEmpty()) return;
+
+        SQLStatementQueue sql = new SQLStatementQueue(this.connection);
+        sql.append("UPDATE ");
+        sql.append(this.fullTableName);
+        sql.append(" SET heartbeat = now() WHERE state = '");
+        sql.append(RUNNING);
+        sql.append("' AND id IN (");
+        boolean first = true;
+        for(Long id : aliveChunks) {
+            if(first) {
+                first = false;
+            } else {
+                sql.append(", ");
+            }
+            sql.append(id.toString());
+        }
+        sql.append(");");
+        sql.forceExecute();
+    }
+
+    /**
+     * stop heartbeat - call after last chunk
+     */
+    void close() {
+        this.heartbeat.stopped = true;
+        this.heartbeat.interrupt();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("chunk queue ");
+        sb.append(this.fullTableName);
+
+        try {
+            SQLStatementQueue sql = new SQLStatementQueue(this.connection);
+            sql.append("SELECT state, count(id) FROM ");
+            sql.append(this.fullTableName);
+            sql.append(" GROUP BY state ORDER BY state;");
+
+            ResultSet result = sql.executeWithResult();
+            while(result.next()) {
+                sb.append(" | ");
+                sb.append(result.getString(1));
+                sb.append(": ");
+                sb.append(result.getLong(2));
+            }
+            result.close();
+        }
+        catch(SQLException e) {
+            sb.append(" (no state: ");
+            sb.append(e.getLocalizedMessage());
+            sb.append(")");
+        }
+
+        return sb.toString();
+    }
+
+    private class Heartbeat extends Thread {
+        private final long millis;
+        private volatile boolean stopped = false;
+
+        Heartbeat(long millis) {
+            this.millis = millis;
+            this.setDaemon(true);
+            this.setName("chunk queue heartbeat");
+        }
+
+        @Override
+        public void run() {
+            while(!this.stopped) {
+                try {
+                    Thread.sleep(this.millis);
+                    DBChunkQueue.this.sendHeartbeat();
+                }
+                catch(InterruptedException e) {
+                    // stopped
+                }
+                catch(SQLException e) {
+                    System.err.println("chunk queue: cannot send heartbeat: " + e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+}
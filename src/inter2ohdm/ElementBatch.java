@@ -0,0 +1,44 @@
+package inter2ohdm;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+/**
+ * Elements of one id range which are already read and decoded from
+ * intermediate db. Ways contain their nodes, relations their members.
+ *
+ * @author thsc
+ */
+class ElementBatch {
+    final BigDecimal lowerID;
+    final BigDecimal upperID;
+
+    final ArrayList<OSMElement> elements = new ArrayList<>();
+
+    // relations only: false if not all members were found
+    final ArrayList<Boolean> complete = new ArrayList<>();
+
+    // time (ms) reader spent on selecting and decoding that batch
+    long fetchTime = 0;
+
+    // reader failed - that batch is incomplete and reading stopped
+    Throwable failure = null;
+
+    // no more batches will follow
+    final boolean last;
+
+    ElementBatch(BigDecimal lowerID, BigDecimal upperID, boolean last) {
+        this.lowerID = lowerID;
+        this.upperID = upperID;
+        this.last = last;
+    }
+
+    void add(OSMElement element, boolean complete) {
+        this.elements.add(element);
+        this.complete.add(complete);
+    }
+
+    int size() {
+        return this.elements.size();
+    }
+}
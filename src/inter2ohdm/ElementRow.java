@@ -0,0 +1,57 @@
+package inter2ohdm;
+
+import java.sql.Date;
+
+/**
+ * One row of nodes, ways or relations table in intermediate db - as it
+ * is read by ElementRowDecoder. Rows are immutable and can be handed
+ * over to other threads.
+ *
+ * @author thsc
+ */
+class ElementRow {
+    final long osmID;
+    final String classCodeString;
+    final String otherClassCodes;
+    final String sTags;
+    final String ohdmObjectIDString;
+    final String ohdmGeomIDString;
+    final boolean valid;
+    final boolean geom_changed;
+    final boolean object_changed;
+    final boolean deleted;
+    final boolean object_new;
+    final boolean has_name;
+    final Date tstamp;
+
+    // ways: node ids, relations: member ids, nodes: null
+    final String memberIDs;
+
+    // nodes only - text as stored in intermediate db, null otherwise
+    final String longitude;
+    final String latitude;
+
+    ElementRow(long osmID, String classCodeString, String otherClassCodes,
+            String sTags, String ohdmObjectIDString, String ohdmGeomIDString,
+            boolean valid, boolean geom_changed, boolean object_changed,
+            boolean deleted, boolean object_new, boolean has_name, Date tstamp,
+            String memberIDs, String longitude, String latitude) {
+
+        this.osmID = osmID;
+        this.classCodeString = classCodeString;
+        this.otherClassCodes = otherClassCodes;
+        this.sTags = sTags;
+        this.ohdmObjectIDString = ohdmObjectIDString;
+        this.ohdmGeomIDString = ohdmGeomIDString;
+        this.valid = valid;
+        this.geom_changed = geom_changed;
+        this.object_changed = object_changed;
+        this.deleted = deleted;
+        this.object_new = object_new;
+        this.has_name = has_name;
+        this.tstamp = tstamp;
+        this.memberIDs = memberIDs;
+        this.longitude = longitude;
+        this.latitude = latitude;
+    }
+}
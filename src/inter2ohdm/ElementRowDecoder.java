@@ -0,0 +1,128 @@
+package inter2ohdm;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * Reads rows of an intermediate db element table. Column indexes are
+ * resolved once per result set from its meta data, values are read by
+ * index. A decoder is immutable - it can be shared by threads, each thread
+ * reading its own result set, though.
+ *
+ * @author thsc
+ */
+class ElementRowDecoder {
+    private static final int MISSING = -1;
+
+    private final ResultSet resultSet;
+
+    private final int osmID;
+    private final int classCode;
+    private final int otherClassCodes;
+    private final int serializedTags;
+    private final int ohdmObjectID;
+    private final int ohdmGeomID;
+    private final int valid;
+    private final int geomChanged;
+    private final int objectChanged;
+    private final int deleted;
+    private final int objectNew;
+    private final int hasName;
+    private final int tstamp;
+    private final int nodeIDs;
+    private final int memberIDs;
+    private final int longitude;
+    private final int latitude;
+
+    ElementRowDecoder(ResultSet resultSet) throws SQLException {
+        this.resultSet = resultSet;
+
+        // column name -> index
+        HashMap<String, Integer> columns = new HashMap<>();
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        for(int i = metaData.getColumnCount(); i > 0; i--) {
+            // first column wins if a name appears twice
+            columns.put(metaData.getColumnLabel(i).toLowerCase(), i);
+        }
+
+        this.osmID = ElementRowDecoder.index(columns, "osm_id");
+        this.classCode = ElementRowDecoder.index(columns, "classcode");
+        this.otherClassCodes = ElementRowDecoder.index(columns, "otherclasscodes");
+        this.serializedTags = ElementRowDecoder.index(columns, "serializedtags");
+        this.ohdmObjectID = ElementRowDecoder.index(columns, "ohdm_object_id");
+        this.ohdmGeomID = ElementRowDecoder.index(columns, "ohdm_geom_id");
+        this.valid = ElementRowDecoder.index(columns, "valid");
+        this.geomChanged = ElementRowDecoder.index(columns, "geom_changed");
+        this.objectChanged = ElementRowDecoder.index(columns, "object_changed");
+        this.deleted = ElementRowDecoder.index(columns, "deleted");
+        this.objectNew = ElementRowDecoder.index(columns, "object_new");
+        this.hasName = ElementRowDecoder.index(columns, "has_name");
+        this.tstamp = ElementRowDecoder.index(columns, "tstamp");
+        this.nodeIDs = ElementRowDecoder.index(columns, "node_ids");
+        this.memberIDs = ElementRowDecoder.index(columns, "member_ids");
+        this.longitude = ElementRowDecoder.index(columns, "longitude");
+        this.latitude = ElementRowDecoder.index(columns, "latitude");
+
+        if(this.osmID == MISSING) {
+            throw new SQLException("result set has no osm_id column");
+        }
+    }
+
+    private static int index(HashMap<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index != null ? index : MISSING;
+    }
+
+    /**
+     * decoder was made for that result set
+     */
+    boolean decodes(ResultSet resultSet) {
+        return this.resultSet == resultSet;
+    }
+
+    /**
+     * read current row
+     */
+    ElementRow read() throws SQLException {
+        ResultSet r = this.resultSet;
+
+        String memberIDString = null;
+        if(this.nodeIDs != MISSING) {
+            memberIDString = r.getString(this.nodeIDs);
+        } else if(this.memberIDs != MISSING) {
+            memberIDString = r.getString(this.memberIDs);
+        }
+
+        return new ElementRow(
+                r.getLong(this.osmID),
+                // bigint columns: text is the number itself - no need to parse it
+                this.getString(this.classCode),
+                // maybe not yet implemented in that intermediate db version
+                this.getString(this.otherClassCodes),
+                this.getString(this.serializedTags),
+                this.getString(this.ohdmObjectID),
+                this.getString(this.ohdmGeomID),
+                this.getBoolean(this.valid),
+                this.getBoolean(this.geomChanged),
+                this.getBoolean(this.objectChanged),
+                this.getBoolean(this.deleted),
+                this.getBoolean(this.objectNew),
+                this.getBoolean(this.hasName),
+                this.tstamp != MISSING ? r.getDate(this.tstamp) : null,
+                memberIDString,
+                this.getString(this.longitude),
+                this.getString(this.latitude)
+        );
+    }
+
+    private String getString(int index) throws SQLException {
+        return index != MISSING ? this.resultSet.getString(index) : null;
+    }
+
+    private boolean getBoolean(int index) throws SQLException {
+        return index != MISSING && this.resultSet.getBoolean(index);
+    }
+
+}
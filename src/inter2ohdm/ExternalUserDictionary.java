@@ -0,0 +1,257 @@
+package inter2ohdm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import util.DB;
+import util.LongIntHashMap;
+import util.OHDM_DB;
+import util.SQLStatementQueue;
+
+/**
+ * OSM user ids and their OHDM external user ids. The whole external users
+ * table is loaded once per process and target db and shared by all
+ * importers (worker threads). New users are inserted in batches with
+ * INSERT .. ON CONFLICT .. RETURNING which is safe with other processes
+ * inserting the same users. User names are bound as parameters.
+ *
+ * @author thsc
+ */
+class ExternalUserDictionary {
+    static final int NOT_FOUND = -1;
+
+    private static final HashMap<String, ExternalUserDictionary> dictionaries = new HashMap<>();
+
+    private final String fullTableName;
+    private final int externalSystemID;
+    private final LongIntHashMap ids;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // unique index on (userid, external_system_id) exists - upsert can be used
+    private final boolean upsert;
+
+    /**
+     * dictionary of that target db and schema - loaded with that connection
+     * on first call
+     */
+    static synchronized ExternalUserDictionary getDictionary(Connection connection,
+            String schema) throws SQLException {
+
+        String key = connection.getMetaData().getURL() + "|" + schema;
+        ExternalUserDictionary dictionary = dictionaries.get(key);
+        if(dictionary == null) {
+            dictionary = new ExternalUserDictionary(connection, schema);
+            dictionaries.put(key, dictionary);
+        }
+
+        return dictionary;
+    }
+
+    private ExternalUserDictionary(Connection connection, String schema) throws SQLException {
+        this.fullTableName = DB.getFullTableName(schema, OHDM_DB.TABLE_EXTERNAL_USERS);
+
+        SQLStatementQueue sql = new SQLStatementQueue(connection);
+
+        // osm external system
+        sql.append("SELECT id FROM ");
+        sql.append(DB.getFullTableName(schema, OHDM_DB.TABLE_EXTERNAL_SYSTEMS));
+        sql.append(" where name = 'OSM' OR name = 'osm';");
+        ResultSet result = sql.executeWithResult();
+        if(!result.next()) {
+            result.close();
+            throw new SQLException("no osm entry in table " + OHDM_DB.TABLE_EXTERNAL_SYSTEMS);
+        }
+        this.externalSystemID = result.getInt(1);
+        result.close();
+
+        this.upsert = this.createUniqueIndex(connection);
+
+        // load all osm users
+        sql.append("SELECT userid, id FROM ");
+        sql.append(this.fullTableName);
+        sql.append(" WHERE userid IS NOT NULL AND external_system_id = ");
+        sql.append(this.externalSystemID);
+        sql.append(";");
+        result = sql.executeWithResult();
+
+        this.ids = new LongIntHashMap(10000, NOT_FOUND);
+        while(result.next()) {
+            this.ids.put(result.getLong(1), result.getInt(2));
+        }
+        result.close();
+    }
+
+    private boolean createUniqueIndex(Connection connection) {
+        SQLStatementQueue sql = new SQLStatementQueue(connection);
+        sql.append("CREATE UNIQUE INDEX IF NOT EXISTS ");
+        sql.append(OHDM_DB.TABLE_EXTERNAL_USERS);
+        sql.append("_userid_system ON ");
+        sql.append(this.fullTableName);
+        sql.append(" (userid, external_system_id);");
+
+        try {
+            sql.forceExecute();
+            return true;
+        }
+        catch(SQLException e) {
+            // e.g. duplicates from previous imports
+            System.err.println("cannot create unique index on external users - insert users one by one: " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    int getExternalSystemID() {
+        return this.externalSystemID;
+    }
+
+    /**
+     * @return OHDM id of that OSM user or NOT_FOUND
+     */
+    int getID(long userID) {
+        this.lock.readLock().lock();
+        try {
+            return this.ids.get(userID);
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.ids.size();
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Insert users which are not yet known. Their ids can be retrieved
+     * with getID afterwards.
+     * @param number number of entries in arrays to be taken
+     */
+    void addUsers(Connection connection, long[] userIDs, String[] userNames,
+            int number) throws SQLException {
+
+        this.lock.writeLock().lock();
+        try {
+            // users can come twice or have been added by another thread
+            LongIntHashMap newUsers = new LongIntHashMap(number, NOT_FOUND);
+            for(int i = 0; i < number; i++) {
+                if(this.ids.get(userIDs[i]) == NOT_FOUND
+                        && newUsers.get(userIDs[i]) == NOT_FOUND) {
+                    newUsers.put(userIDs[i], i);
+                }
+            }
+
+            if(newUsers.size() == 0) return;
+
+            if(this.upsert) {
+                this.upsertUsers(connection, userIDs, userNames, number, newUsers);
+            } else {
+                for(int i = 0; i < number; i++) {
+                    if(newUsers.get(userIDs[i]) == i) {
+                        this.addUser(connection, userIDs[i], userNames[i]);
+                    }
+                }
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void upsertUsers(Connection connection, long[] userIDs,
+            String[] userNames, int number, LongIntHashMap newUsers)
+            throws SQLException {
+
+        /*
+        INSERT INTO external_users (userid, username, external_system_id)
+        SELECT u.userid, u.username, [system] FROM unnest(?::bigint[], ?::text[]) AS u(userid, username)
+        ON CONFLICT (userid, external_system_id) DO UPDATE SET username = EXCLUDED.username
+        RETURNING userid, id;
+        */
+        SQLStatementQueue sql = new SQLStatementQueue();
+        sql.append("INSERT INTO ");
+        sql.append(this.fullTableName);
+        sql.append(" (userid, username, external_system_id) SELECT u.userid, u.username, ");
+        sql.append(this.externalSystemID);
+        sql.append(" FROM unnest(?::bigint[], ?::text[]) AS u(userid, username)");
+        // update is required - returns no id otherwise
+        sql.append(" ON CONFLICT (userid, external_system_id) DO UPDATE SET username = EXCLUDED.username");
+        sql.append(" RETURNING userid, id;");
+
+        ArrayList<Long> newUserIDs = new ArrayList<>();
+        ArrayList<String> newUserNames = new ArrayList<>();
+        for(int i = 0; i < number; i++) {
+            // first appearance of a new user only
+            if(newUsers.get(userIDs[i]) != i) continue;
+
+            newUserIDs.add(userIDs[i]);
+            newUserNames.add(userNames[i]);
+        }
+
+        PreparedStatement stmt = connection.prepareStatement(sql.getCurrentStatement());
+        try {
+            stmt.setArray(1, connection.createArrayOf("bigint", newUserIDs.toArray()));
+            stmt.setArray(2, connection.createArrayOf("text", newUserNames.toArray()));
+
+            ResultSet result = stmt.executeQuery();
+            while(result.next()) {
+                this.ids.put(result.getLong(1), result.getInt(2));
+            }
+            result.close();
+        }
+        finally {
+            stmt.close();
+        }
+    }
+
+    private void addUser(Connection connection, long userID, String userName) throws SQLException {
+        // search in db
+        SQLStatementQueue sql = new SQLStatementQueue(connection);
+        sql.append("SELECT id from ");
+        sql.append(this.fullTableName);
+        sql.append(" where userid = ");
+        sql.append(userID);
+        sql.append(" AND external_system_id = ");
+        sql.append(this.externalSystemID);
+        sql.append(";");
+
+        ResultSet result = sql.executeWithResult();
+        if(result.next()) {
+            this.ids.put(userID, result.getInt(1));
+            result.close();
+            return;
+        }
+        result.close();
+
+        // there is no entry
+        sql.append("INSERT INTO ");
+        sql.append(this.fullTableName);
+        sql.append(" (userid, username, external_system_id) VALUES (?, ?, ");
+        sql.append(this.externalSystemID);
+        sql.append(") RETURNING id;");
+
+        PreparedStatement stmt = connection.prepareStatement(sql.getCurrentStatement());
+        sql.resetStatement();
+        try {
+            stmt.setLong(1, userID);
+            stmt.setString(2, userName);
+
+            result = stmt.executeQuery();
+            result.next();
+            this.ids.put(userID, result.getInt(1));
+            result.close();
+        }
+        finally {
+            stmt.close();
+        }
+    }
+}
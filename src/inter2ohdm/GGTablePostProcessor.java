@@ -0,0 +1,393 @@
+package inter2ohdm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
+import org.postgresql.core.BaseConnection;
+import util.CopyBuffer;
+import util.DB;
+import util.InterDB;
+import util.OHDM_DB;
+import util.Parameter;
+import util.SQLStatementQueue;
+
+/**
+ * Relations can be referenced by their osm id in geoobject_geometry when
+ * they are imported after the relation that refers to them. Those
+ * references are replaced by ohdm object ids after import.
+ *
+ * Osm ids and ohdm ids of referenced relations are staged in a table of
+ * ohdm db - from id mapping if any or copied from intermediate db (which
+ * can be another database). Ids which are missing in id mapping are
+ * taken from intermediate db as well. Geoobject_geometry is updated by 
+ * one statement per id slice, slices run in parallel.
+ *
+ * @author thsc
+ */
+class GGTablePostProcessor {
+    private static final String REFERENCES_TABLE = "gg_relation_references"; // temporary, intermediate db
+    private static final String STAGING_TABLE = "gg_relation_ids"; // ohdm db
+
+    private final Connection sourceConnection;
+    private final String sourceSchema;
+    private final Connection targetConnection;
+    private final String targetSchema;
+    private final OHDMIDMapping idMapping;
+
+    private final String ggTableName;
+    private final String stagingTableName;
+
+    private long fixed = 0;
+    private long unresolved = 0;
+
+    /**
+     * @param idMapping null: ids are taken from intermediate db
+     */
+    GGTablePostProcessor(Connection sourceConnection, String sourceSchema,
+            Connection targetConnection, String targetSchema,
+            OHDMIDMapping idMapping) {
+
+        this.sourceConnection = sourceConnection;
+        this.sourceSchema = sourceSchema;
+        this.targetConnection = targetConnection;
+        this.targetSchema = targetSchema;
+        this.idMapping = idMapping;
+
+        this.ggTableName = DB.getFullTableName(targetSchema, OHDM_DB.TABLE_GEOOBJECT_GEOMETRY);
+        this.stagingTableName = DB.getFullTableName(targetSchema, STAGING_TABLE);
+    }
+
+    /**
+     * @param targetParameter used to open a connection for each slice
+     * @param slices number of slices updated in parallel
+     */
+    void process(Parameter targetParameter, int slices) throws SQLException {
+        SQLStatementQueue targetSQL = new SQLStatementQueue(this.targetConnection);
+
+        /*
+        DROP TABLE IF EXISTS [staging];
+        CREATE UNLOGGED TABLE [staging] (osm_id bigint, ohdm_object_id bigint NOT NULL);
+        */
+        targetSQL.append("DROP TABLE IF EXISTS ");
+        targetSQL.append(this.stagingTableName);
+        targetSQL.append("; CREATE UNLOGGED TABLE ");
+        targetSQL.append(this.stagingTableName);
+        targetSQL.append(" (osm_id bigint, ohdm_object_id bigint NOT NULL);");
+        targetSQL.forceExecute();
+
+        try {
+            long staged;
+            if(this.idMapping != null) {
+                staged = this.stageFromMapping();
+            } else {
+                staged = this.stageFromIntermediate();
+            }
+
+            System.out.println("post processing " + OHDM_DB.TABLE_GEOOBJECT_GEOMETRY
+                    + ": " + staged + " referenced relations have an ohdm id");
+
+            // index after filling is cheaper than during copy
+            targetSQL.append("CREATE INDEX ON ");
+            targetSQL.append(this.stagingTableName);
+            targetSQL.append(" (osm_id); ANALYZE ");
+            targetSQL.append(this.stagingTableName);
+            targetSQL.append(";");
+            targetSQL.forceExecute();
+
+            if(staged > 0) {
+                this.updateSlices(targetParameter, slices);
+            }
+
+            this.unresolved = this.countOSMIDReferences();
+        }
+        finally {
+            targetSQL.append("DROP TABLE IF EXISTS ");
+            targetSQL.append(this.stagingTableName);
+            targetSQL.append(";");
+            targetSQL.forceExecute();
+        }
+    }
+
+    /**
+     * @return number of rows which were fixed
+     */
+    long getFixed() {
+        return this.fixed;
+    }
+
+    /**
+     * @return number of rows that still refer to an osm id
+     */
+    long getUnresolved() {
+        return this.unresolved;
+    }
+
+    private void appendReferenceSelect(SQLStatementQueue sql) {
+        sql.append("SELECT DISTINCT id_target FROM ");
+        sql.append(this.ggTableName);
+        sql.append(" WHERE type_target = ");
+        sql.append(OHDM_DB.OHDM_GEOOBJECT_GEOMTYPE_OSM_ID);
+    }
+
+    private long stageFromMapping() throws SQLException {
+        SQLStatementQueue sql = new SQLStatementQueue(this.targetConnection);
+        this.appendReferenceSelect(sql);
+        sql.append(";");
+
+        ResultSet result = sql.executeWithResult();
+
+        CopyBuffer staging = new CopyBuffer(this.targetConnection,
+                this.stagingTableName, new String[] {"osm_id", "ohdm_object_id"},
+                CopyBuffer.DEFAULT_MAX_ROWS);
+
+        // not in mapping - e.g. mapping was created after that relation was imported
+        this.createReferencesTable();
+        CopyBuffer missing = new CopyBuffer(this.sourceConnection,
+                REFERENCES_TABLE, new String[] {"osm_id"},
+                CopyBuffer.DEFAULT_MAX_ROWS);
+
+        while(result.next()) {
+            long relationOSMID = result.getLong(1);
+            String ohdmIDString = this.idMapping.getRelationOHDMObjectID(relationOSMID);
+            if(ohdmIDString != null) {
+                staging.addRow(Long.toString(relationOSMID), ohdmIDString);
+                staging.couldFlush();
+            } else {
+                missing.addRow(Long.toString(relationOSMID));
+                missing.couldFlush();
+            }
+        }
+        result.close();
+        staging.flush();
+        missing.flush();
+
+        long staged = staging.getWrittenRows();
+        if(missing.getWrittenRows() > 0) {
+            long fromIntermediate = this.stageReferencesFromIntermediate();
+            System.out.println("post processing " + OHDM_DB.TABLE_GEOOBJECT_GEOMETRY
+                    + ": " + missing.getWrittenRows() + " referenced relations not in id mapping, "
+                    + fromIntermediate + " of them found in intermediate db");
+            
+            staged += fromIntermediate;
+        }
+
+        return staged;
+    }
+
+    private void createReferencesTable() throws SQLException {
+        SQLStatementQueue sourceSQL = new SQLStatementQueue(this.sourceConnection);
+        sourceSQL.append("CREATE TEMPORARY TABLE IF NOT EXISTS ");
+        sourceSQL.append(REFERENCES_TABLE);
+        sourceSQL.append(" (osm_id bigint); TRUNCATE ");
+        sourceSQL.append(REFERENCES_TABLE);
+        sourceSQL.append(";");
+        sourceSQL.forceExecute();
+    }
+
+    private long stageFromIntermediate() throws SQLException {
+        // referenced osm ids: ohdm db -> intermediate db
+        this.createReferencesTable();
+
+        SQLStatementQueue referenceSelect = new SQLStatementQueue();
+        this.appendReferenceSelect(referenceSelect);
+
+        GGTablePostProcessor.copy(this.targetConnection,
+                "COPY (" + referenceSelect.getCurrentStatement() + ") TO STDOUT",
+                this.sourceConnection,
+                "COPY " + REFERENCES_TABLE + " (osm_id) FROM STDIN");
+
+        return this.stageReferencesFromIntermediate();
+    }
+
+    /**
+     * stage ohdm ids of osm ids in references table of intermediate db
+     */
+    private long stageReferencesFromIntermediate() throws SQLException {
+        SQLStatementQueue sourceSQL = new SQLStatementQueue(this.sourceConnection);
+        sourceSQL.append("ANALYZE ");
+        sourceSQL.append(REFERENCES_TABLE);
+        sourceSQL.append(";");
+        sourceSQL.forceExecute();
+
+        // their ohdm ids: intermediate db -> ohdm db
+        String mappingSelect = "SELECT r.osm_id, r.ohdm_object_id FROM "
+                + DB.getFullTableName(this.sourceSchema, InterDB.RELATIONTABLE)
+                + " AS r JOIN " + REFERENCES_TABLE + " AS g ON r.osm_id = g.osm_id"
+                + " WHERE r.ohdm_object_id IS NOT NULL";
+
+        return GGTablePostProcessor.copy(this.sourceConnection,
+                "COPY (" + mappingSelect + ") TO STDOUT",
+                this.targetConnection,
+                "COPY " + this.stagingTableName + " (osm_id, ohdm_object_id) FROM STDIN");
+    }
+
+    /**
+     * stream rows from one db to another without keeping them in memory
+     * @return number of copied rows
+     */
+    private static long copy(Connection from, String copyOutSQL,
+            Connection to, String copyInSQL) throws SQLException {
+
+        CopyOut copyOut = new CopyManager((BaseConnection) from).copyOut(copyOutSQL);
+        CopyIn copyIn = null;
+        try {
+            copyIn = new CopyManager((BaseConnection) to).copyIn(copyInSQL);
+
+            byte[] data = copyOut.readFromCopy();
+            while(data != null) {
+                copyIn.writeToCopy(data, 0, data.length);
+                data = copyOut.readFromCopy();
+            }
+
+            return copyIn.endCopy();
+        }
+        catch(SQLException e) {
+            if(copyOut.isActive()) copyOut.cancelCopy();
+            if(copyIn != null && copyIn.isActive()) copyIn.cancelCopy();
+            throw e;
+        }
+    }
+
+    private long countOSMIDReferences() throws SQLException {
+        SQLStatementQueue sql = new SQLStatementQueue(this.targetConnection);
+        sql.append("SELECT count(*) FROM ");
+        sql.append(this.ggTableName);
+        sql.append(" WHERE type_target = ");
+        sql.append(OHDM_DB.OHDM_GEOOBJECT_GEOMTYPE_OSM_ID);
+        sql.append(";");
+
+        ResultSet result = sql.executeWithResult();
+        long number = result.next() ? result.getLong(1) : 0;
+        result.close();
+
+        return number;
+    }
+
+    private void updateSlices(Parameter targetParameter, int slices) throws SQLException {
+        SQLStatementQueue sql = new SQLStatementQueue(this.targetConnection);
+        sql.append("SELECT min(id), max(id) FROM ");
+        sql.append(this.ggTableName);
+        sql.append(" WHERE type_target = ");
+        sql.append(OHDM_DB.OHDM_GEOOBJECT_GEOMTYPE_OSM_ID);
+        sql.append(";");
+
+        ResultSet result = sql.executeWithResult();
+        if(!result.next() || result.getObject(1) == null) {
+            result.close();
+            return;
+        }
+        long minID = result.getLong(1);
+        long maxID = result.getLong(2);
+        result.close();
+
+        slices = slices > 0 ? slices : 1;
+        long sliceLength = (maxID - minID) / slices + 1;
+
+        List<SliceUpdate> updates = new ArrayList<>();
+        for(long fromID = minID; fromID <= maxID; fromID += sliceLength) {
+            long toID = Math.min(fromID + sliceLength - 1, maxID);
+
+            // first slice on this connection, others get their own one
+            Connection connection = updates.isEmpty() || targetParameter == null ?
+                    this.targetConnection : DB.createConnection(targetParameter);
+
+            updates.add(new SliceUpdate(connection, connection != this.targetConnection,
+                    this.getUpdateSQL(fromID, toID)));
+        }
+
+        if(targetParameter == null) {
+            // no further connections - one after another
+            for(SliceUpdate update : updates) {
+                update.run();
+            }
+        } else {
+            for(SliceUpdate update : updates) {
+                update.start();
+            }
+        }
+
+        SQLException failure = null;
+        for(SliceUpdate update : updates) {
+            try {
+                update.join();
+            } catch (InterruptedException e) {
+                // go ahead
+            }
+
+            this.fixed += update.updated;
+            if(update.failure != null) {
+                failure = update.failure;
+            }
+        }
+
+        if(failure != null) throw failure;
+    }
+
+    private String getUpdateSQL(long fromID, long toID) {
+        /*
+        UPDATE [gg] AS gg SET type_target = [geoobject], id_target = s.ohdm_object_id
+        FROM [staging] AS s WHERE gg.type_target = [osm id] AND gg.id_target = s.osm_id
+        AND gg.id >= [from] AND gg.id <= [to];
+        */
+        SQLStatementQueue sql = new SQLStatementQueue();
+        sql.append("UPDATE ");
+        sql.append(this.ggTableName);
+        sql.append(" AS gg SET type_target = ");
+        sql.append(OHDM_DB.OHDM_GEOOBJECT_GEOMTYPE);
+        sql.append(", id_target = s.ohdm_object_id FROM ");
+        sql.append(this.stagingTableName);
+        sql.append(" AS s WHERE gg.type_target = ");
+        sql.append(OHDM_DB.OHDM_GEOOBJECT_GEOMTYPE_OSM_ID);
+        sql.append(" AND gg.id_target = s.osm_id AND gg.id >= ");
+        sql.append(fromID);
+        sql.append(" AND gg.id <= ");
+        sql.append(toID);
+
+        return sql.getCurrentStatement();
+    }
+
+    /**
+     * updates rows of one id range
+     */
+    private static class SliceUpdate extends Thread {
+        private final Connection connection;
+        private final boolean closeConnection;
+        private final String updateSQL;
+
+        private long updated = 0;
+        private SQLException failure = null;
+
+        SliceUpdate(Connection connection, boolean closeConnection, String updateSQL) {
+            this.connection = connection;
+            this.closeConnection = closeConnection;
+            this.updateSQL = updateSQL;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PreparedStatement stmt = this.connection.prepareStatement(this.updateSQL);
+                this.updated = stmt.executeUpdate();
+                stmt.close();
+            }
+            catch(SQLException e) {
+                this.failure = e;
+            }
+            finally {
+                if(this.closeConnection) {
+                    try {
+                        this.connection.close();
+                    } catch (SQLException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+}
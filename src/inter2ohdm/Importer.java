@@ -6,6 +6,7 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Properties;
 import util.DB;
 import util.Parameter;
@@ -31,6 +32,27 @@ public abstract class Importer {
         this.targetConnection = DB.createConnection(targetParameter);
     }
     
+    /**
+     * called with elements of a chunk before they are imported one by one.
+     * Nothing to do by default.
+     */
+    void prepareImport(List<OSMElement> elements) {
+    }
+    
+    /**
+     * called after an element was processed - imported or not.
+     * Nothing to do by default.
+     */
+    void elementProcessed() throws SQLException {
+    }
+    
+    /**
+     * @return statistics of that importer - null if there are none
+     */
+    String getStatistics() {
+        return null;
+    }
+    
     protected ResultSet executeQueryOnTarget(String sql) throws SQLException {
         PreparedStatement stmt = this.targetConnection.prepareStatement(sql);
         ResultSet result = stmt.executeQuery();
@@ -1,16 +1,19 @@
 package inter2ohdm;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
-import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import static util.InterDB.NODETABLE;
 import static util.InterDB.RELATIONMEMBER;
 import static util.InterDB.RELATIONTABLE;
 import static util.InterDB.WAYMEMBER;
 import static util.InterDB.WAYTABLE;
 import util.DB;
+import util.FileSQLStatementQueue;
+import util.OHDM_DB;
 import util.SQLStatementQueue;
 
 /**
@@ -22,16 +25,31 @@ public class IntermediateDB {
     private final boolean debug = false;
     protected final Connection sourceConnection;
     private final String schema;
-    private boolean geom_changed;
-    private boolean object_changed;
-    private boolean deleted;
-    private boolean has_name;
-    private boolean object_new;
-    private Date tstamp;
+    
+    /* elements created by factory methods refer to that object. It is this
+    object itself unless elements are decoded by another thread on another 
+    connection (see ChunkPrefetcher) and are processed by the owner. 
+    */
+    private final IntermediateDB elementOwner;
 
     IntermediateDB(Connection sourceConnection, String schema) {
         this.sourceConnection = sourceConnection;
         this.schema = schema;
+        this.elementOwner = this;
+    }
+    
+    /**
+     * Intermediate db reader that creates elements on behalf of another 
+     * intermediate db object. 
+     * @param sourceConnection connection that is used for reading - must not
+     * be used by another thread
+     * @param schema
+     * @param elementOwner created elements refer to that object
+     */
+    IntermediateDB(Connection sourceConnection, String schema, IntermediateDB elementOwner) {
+        this.sourceConnection = sourceConnection;
+        this.schema = schema;
+        this.elementOwner = elementOwner;
     }
     
     protected String getIntermediateTableName(OSMElement element) {
@@ -44,6 +62,99 @@ public class IntermediateDB {
         } 
     }
     
+    private OHDMIDWriteBack idWriteBack = null;
+    
+    /**
+     * ohdm ids are collected and written per table instead of updating
+     * each row (see OHDMIDWriteBack). Updates are still written into 
+     * file based queues. 
+     * @param idWriteBack null: update each row
+     */
+    void setIDWriteBack(OHDMIDWriteBack idWriteBack) {
+        this.idWriteBack = idWriteBack;
+    }
+    
+    OHDMIDWriteBack getIDWriteBack() {
+        return this.idWriteBack;
+    }
+    
+    private OHDMIDMappingBuffer idMapping = null;
+    
+    /**
+     * ohdm ids are written into that mapping as well (see OHDMIDMapping)
+     * @param idMapping null: no mapping
+     */
+    void setIDMapping(OHDMIDMappingBuffer idMapping) {
+        this.idMapping = idMapping;
+    }
+    
+    OHDMIDMappingBuffer getIDMapping() {
+        return this.idMapping;
+    }
+    
+    private WayNodeCache wayNodeCache = null;
+    
+    /**
+     * nodes of relation member ways are taken from that cache if possible
+     * @param wayNodeCache null: no cache
+     */
+    void setWayNodeCache(WayNodeCache wayNodeCache) {
+        this.wayNodeCache = wayNodeCache;
+    }
+    
+    /**
+     * @return cache of element owner - reader threads share it
+     */
+    WayNodeCache getWayNodeCache() {
+        if(this.elementOwner != this) {
+            return this.elementOwner.getWayNodeCache();
+        }
+        
+        return this.wayNodeCache;
+    }
+    
+    private NodeCoordinateCache nodeCoordinateCache = null;
+    
+    /**
+     * coordinates of way nodes are taken from that cache if possible
+     * @param nodeCoordinateCache null: no cache
+     */
+    void setNodeCoordinateCache(NodeCoordinateCache nodeCoordinateCache) {
+        this.nodeCoordinateCache = nodeCoordinateCache;
+    }
+    
+    /**
+     * @return cache of element owner - reader threads share it
+     */
+    NodeCoordinateCache getNodeCoordinateCache() {
+        if(this.elementOwner != this) {
+            return this.elementOwner.getNodeCoordinateCache();
+        }
+        
+        return this.nodeCoordinateCache;
+    }
+    
+    private MemberExistenceIndex memberExistenceIndex = null;
+    
+    /**
+     * relation members are checked with that index before they are read
+     * @param memberExistenceIndex null: no check
+     */
+    void setMemberExistenceIndex(MemberExistenceIndex memberExistenceIndex) {
+        this.memberExistenceIndex = memberExistenceIndex;
+    }
+    
+    /**
+     * @return index of element owner - reader threads share it
+     */
+    MemberExistenceIndex getMemberExistenceIndex() {
+        if(this.elementOwner != this) {
+            return this.elementOwner.getMemberExistenceIndex();
+        }
+        
+        return this.memberExistenceIndex;
+    }
+    
     public void setOHDM_IDs(SQLStatementQueue sql, OSMElement element, String ohdmObjectIDString, 
             String ohdmGeomIDString) throws SQLException {
         
@@ -51,6 +162,22 @@ public class IntermediateDB {
         
         if(ohdmObjectIDString == null && ohdmGeomIDString == null) return;
         
+        if(this.idMapping != null) {
+            try {
+                this.idMapping.setOHDM_IDs(element, ohdmObjectIDString, ohdmGeomIDString);
+            }
+            catch(IOException e) {
+                // intermediate db is updated anyway
+                System.err.println("cannot write id mapping of osm element " 
+                        + element.getOSMIDString() + ": " + e.getLocalizedMessage());
+            }
+        }
+        
+        if(this.idWriteBack != null && !(sql instanceof FileSQLStatementQueue)) {
+            this.idWriteBack.setOHDM_IDs(element, ohdmObjectIDString, ohdmGeomIDString);
+            return;
+        }
+        
         /*
         UPDATE [waysTable] SET ohdm_id=[ohdmID] WHERE osm_id = [osmID];
         */
@@ -132,6 +259,11 @@ public class IntermediateDB {
     }
     
     OSMWay addNodes2OHDMWay(OSMWay way) throws SQLException {
+        NodeCoordinateCache cache = this.getNodeCoordinateCache();
+        if(cache != null) {
+            return this.addNodes2OHDMWay(way, cache);
+        }
+        
         // find all associated nodes and add to that way
         /* SQL Query is like this
             select * from nodes_table where osm_id IN 
@@ -159,94 +291,279 @@ public class IntermediateDB {
         return way;
     }
     
+    /**
+     * add nodes to way - coordinates of cached nodes are taken from cache,
+     * only missing nodes are read. Nodes without ohdm identity are cached.
+     */
+    OSMWay addNodes2OHDMWay(OSMWay way, NodeCoordinateCache cache) throws SQLException {
+        long[] nodeIDs = way.getNodeIDArray();
+        
+        SQLStatementQueue sql = null;
+        for(long nodeID : nodeIDs) {
+            long packed = cache.get(nodeID);
+            if(packed != NodeCoordinateCache.MISSING) {
+                way.addNode(OSMNode.createCoordinateNode(way.intermediateDB, nodeID,
+                        NodeCoordinateCache.getLongitude(packed), 
+                        NodeCoordinateCache.getLatitude(packed), 
+                        way.getTimeStamp()));
+                continue;
+            }
+            
+            // select * from nodes_table where osm_id IN (id, id, ..);
+            if(sql == null) {
+                sql = new SQLStatementQueue(this.sourceConnection);
+                sql.append("select * from ");
+                sql.append(DB.getFullTableName(this.schema, NODETABLE));
+                sql.append(" where osm_id IN (");
+            } else {
+                sql.append(", ");
+            }
+            sql.append(nodeID);
+        }
+        
+        if(sql == null) return way; // all cached
+        
+        sql.append(");");
+        
+        ResultSet qResultNode = sql.executeWithResult();
+        
+        while(qResultNode.next()) {
+            OSMNode node = this.createOSMNode(qResultNode);
+            way.addNode(node);
+            
+            if(!node.hasOHDMObjectID()) {
+                cache.put(node.getOSMID(), node.getLongitudeValue(), 
+                        node.getLatitudeValue());
+            }
+        }
+        
+        qResultNode.close();
+        
+        return way;
+    }
     
-    ///////////////////////////////////////////////////////////////////////
-    //                         factory methods                           //
-    ///////////////////////////////////////////////////////////////////////
-    
-    private String osmIDString;
-    private String classCodeString;
-    private String otherClassCodes;
-    private String sTags;
-    private String ohdmObjectIDString;
-    private String ohdmGeomIDString;
-    private String memberIDs;
-    private boolean valid;
-    
-    private void readCommonColumns(ResultSet qResult) throws SQLException {
-        osmIDString = this.extractBigDecimalAsString(qResult, "osm_id");
-        if(this.debug) {
-            System.out.print(", " + osmIDString);
+    /**
+     * add nodes to a way which is member of a relation. Those ways are 
+     * often shared by relations - nodes are taken from way cache if possible
+     */
+    OSMWay addCachedNodes2OHDMWay(OSMWay way) throws SQLException {
+        WayNodeCache cache = this.getWayNodeCache();
+        if(cache == null) {
+            return this.addNodes2OHDMWay(way);
         }
-        if(osmIDString.equalsIgnoreCase("1368193")) {
-            int i = 42;
+        
+        if(!cache.fill(way)) {
+            this.addNodes2OHDMWay(way);
+            cache.put(way);
         }
-        classCodeString = this.extractBigDecimalAsString(qResult, "classcode");
         
-        sTags = qResult.getString("serializedtags");
-        ohdmObjectIDString = this.extractBigDecimalAsString(qResult, "ohdm_object_id");
-        ohdmGeomIDString = this.extractBigDecimalAsString(qResult, "ohdm_geom_id");
-        valid = qResult.getBoolean("valid");
+        return way;
+    }
+    
+    /**
+     * find all members of a relation in intermediate db and add them 
+     * to that relation
+     * @param relation
+     * @return false if at least one member could not be found
+     * @throws SQLException 
+     */
+    boolean addMembers2Relation(OSMRelation relation) throws SQLException {
+        SQLStatementQueue sql = new SQLStatementQueue(this.sourceConnection);
         
-        this.geom_changed = qResult.getBoolean("geom_changed");
-        this.object_changed = qResult.getBoolean("object_changed");
-        this.deleted = qResult.getBoolean("deleted");
-        this.object_new = qResult.getBoolean("object_new");
-        this.has_name = qResult.getBoolean("has_name");
+        // find all associated nodes and add to that relation
+        sql.append("select * from ");
+        sql.append(DB.getFullTableName(this.schema, RELATIONMEMBER));
+        sql.append(" where relation_id = ");            
+        sql.append(relation.getOSMIDString());
+        sql.append(";");  
+
+        ResultSet qResultRelation = sql.executeWithResult();
+
+        // read member list first - members are checked before reading them
+        ArrayList<String> roles = new ArrayList<>();
+        ArrayList<Integer> types = new ArrayList<>();
+        ArrayList<BigDecimal> ids = new ArrayList<>();
+        
+        while(qResultRelation.next()) {
+            roles.add(qResultRelation.getString("role"));
+
+            BigDecimal id;
+            int type = -1;
 
-        this.tstamp = qResult.getDate("tstamp");
-        try {
-            otherClassCodes = qResult.getString("otherClassCodes");
+            id = qResultRelation.getBigDecimal("node_id");
+            if(id != null) {
+                type = OHDM_DB.POINT;
+            } else {
+                id = qResultRelation.getBigDecimal("way_id");
+                if(id != null) {
+                    type = OHDM_DB.LINESTRING;
+                } else {
+                    id = qResultRelation.getBigDecimal("member_rel_id");
+                    if(id != null) {
+                        type = OHDM_DB.RELATION;
+                    } else {
+                        // we have a serious problem here.. or no member
+                    }
+                }
+            }
+            
+            types.add(type);
+            ids.add(id);
         }
-        catch(SQLException sw) {
-            // maybe not yet implemented in that intermediate db version. ignore.
+        
+        qResultRelation.close();
+        
+        MemberExistenceIndex index = this.getMemberExistenceIndex();
+        if(index != null) {
+            index.build(this.sourceConnection, this.schema);
+            
+            // members outside our scope - no need to read any of them
+            for(int i = 0; i < ids.size(); i++) {
+                BigDecimal id = ids.get(i);
+                if(id == null || !index.exists(types.get(i), id.longValue())) {
+                    index.noteRelation(false);
+                    return false;
+                }
+            }
+            
+            index.noteRelation(true);
+        }
+
+        boolean relationMemberComplete = true; // assume we find all member
+
+        for(int i = 0; i < ids.size(); i++) {
+            String roleString = roles.get(i);
+            int type = types.get(i);
+            BigDecimal id = ids.get(i);
+            
+            if(id == null) {
+                relationMemberComplete = false;
+                break;
+            }
+
+            // extract member objects from their tables
+            sql.append("SELECT * FROM ");
+
+            switch(type) {
+                case OHDM_DB.POINT: 
+                    sql.append(DB.getFullTableName(this.schema, NODETABLE));
+                    break;
+                case OHDM_DB.LINESTRING:
+                    sql.append(DB.getFullTableName(this.schema, WAYTABLE));
+                    break;
+                case OHDM_DB.RELATION:
+                    sql.append(DB.getFullTableName(this.schema, RELATIONTABLE));
+                    break;
+            }
+            sql.append(" where osm_id = ");
+            sql.append(id.toString());
+            sql.append(";");
+
+            ResultSet memberResult = sql.executeWithResult();
+            if(memberResult.next()) {
+                // this call can fail, see else branch
+                OSMElement memberElement = null;
+                switch(type) {
+                    case OHDM_DB.POINT: 
+                        memberElement = this.createOSMNode(memberResult);
+                        break;
+                    case OHDM_DB.LINESTRING:
+                        memberElement = this.createOSMWay(memberResult);
+                        if(memberElement.noOHDMElement() && memberElement.isEmpty()) {
+                            /* that way isn't yet stored in OHDM
+                            fill it with all necessary data.
+                            */
+                            OSMWay wayMember = (OSMWay)memberElement;
+                            this.addCachedNodes2OHDMWay(wayMember);
+                        }
+                        break;
+                    case OHDM_DB.RELATION:
+                        memberElement = this.createOSMRelation(memberResult);
+                        break;
+                }
+
+                relation.addMember(memberElement, roleString);
+            } else {
+                /* this call can fail
+                a) if this program is buggy - which is most likely :) OR
+                b) intermediate DB has not imported whole world. In that
+                case, relation can refer to data which are not actually 
+                stored in intermediate db tables.. 
+                in that case .. remove whole relation: parts of it are 
+                outside our current scope
+                */
+                relationMemberComplete = false;
+            }
+            memberResult.close();
+
+            if(!relationMemberComplete) break;
         }
+        
+        return relationMemberComplete;
     }
     
-    private String extractBigDecimalAsString(ResultSet qResult, String columnName) throws SQLException {
-        BigDecimal bigDecimal = qResult.getBigDecimal(columnName);
-        if(bigDecimal != null) {
-            return bigDecimal.toString();
+    
+    ///////////////////////////////////////////////////////////////////////
+    //                         factory methods                           //
+    ///////////////////////////////////////////////////////////////////////
+    
+    /* decoder of the result set rows were taken from recently. Decoders
+    are immutable, a thread that finds another result set just creates
+    a new one.
+    */
+    private volatile ElementRowDecoder lastDecoder = null;
+    
+    private ElementRow readRow(ResultSet qResult) throws SQLException {
+        ElementRowDecoder decoder = this.lastDecoder;
+        if(decoder == null || !decoder.decodes(qResult)) {
+            decoder = new ElementRowDecoder(qResult);
+            this.lastDecoder = decoder;
+        }
+        
+        ElementRow row = decoder.read();
+        if(this.debug) {
+            System.out.print(", " + row.osmID);
         }
-        return null;
+        
+        return row;
     }
     
     protected OSMRelation createOSMRelation(ResultSet qResult) throws SQLException {
         // get all data to create an ohdm way object
-        this.readCommonColumns(qResult);
-        memberIDs = qResult.getString("member_ids");
+        ElementRow row = this.readRow(qResult);
 
-        OSMRelation relation = new OSMRelation(this, osmIDString, 
-                classCodeString, otherClassCodes, sTags, memberIDs, ohdmObjectIDString, 
-                ohdmGeomIDString, valid, this.geom_changed, this.object_changed, this.deleted,
-                this.has_name, this.tstamp, this.object_new
+        OSMRelation relation = new OSMRelation(this.elementOwner, row.osmID, 
+                row.classCodeString, row.otherClassCodes, row.sTags, row.memberIDs, 
+                row.ohdmObjectIDString, row.ohdmGeomIDString, row.valid, 
+                row.geom_changed, row.object_changed, row.deleted,
+                row.has_name, row.tstamp, row.object_new
         );
         
         return relation;
     }
     
     protected OSMWay createOSMWay(ResultSet qResult) throws SQLException {
-        this.readCommonColumns(qResult);
-        String nodeIDs = qResult.getString("node_ids");
+        ElementRow row = this.readRow(qResult);
 
-        OSMWay way = new OSMWay(this, osmIDString, classCodeString, otherClassCodes, sTags, 
-                nodeIDs, ohdmObjectIDString, ohdmGeomIDString, valid, 
-                this.geom_changed, this.object_changed, this.deleted,
-                this.has_name, this.tstamp, this.object_new
+        OSMWay way = new OSMWay(this.elementOwner, row.osmID, 
+                row.classCodeString, row.otherClassCodes, row.sTags, 
+                row.memberIDs, row.ohdmObjectIDString, row.ohdmGeomIDString, 
+                row.valid, row.geom_changed, row.object_changed, row.deleted,
+                row.has_name, row.tstamp, row.object_new
         );
 
         return way;
     }
     
     protected OSMNode createOSMNode(ResultSet qResult) throws SQLException {
-        this.readCommonColumns(qResult);
-        String longitude = qResult.getString("longitude");
-        String latitude = qResult.getString("latitude");
-        
-        OSMNode node = new OSMNode(this, osmIDString, classCodeString, otherClassCodes, sTags, 
-                longitude, latitude, ohdmObjectIDString, ohdmGeomIDString, 
-                valid, this.geom_changed, this.object_changed, this.deleted,
-                this.has_name, this.tstamp, this.object_new);
+        ElementRow row = this.readRow(qResult);
+        
+        OSMNode node = new OSMNode(this.elementOwner, row.osmID, 
+                row.classCodeString, row.otherClassCodes, row.sTags, 
+                row.longitude, row.latitude, row.ohdmObjectIDString, 
+                row.ohdmGeomIDString, row.valid, row.geom_changed, 
+                row.object_changed, row.deleted, row.has_name, row.tstamp, 
+                row.object_new);
 
         return node;
     } 
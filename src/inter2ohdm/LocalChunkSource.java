@@ -0,0 +1,49 @@
+package inter2ohdm;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chunks kept in memory - shared by workers in this process.
+ *
+ * @author thsc
+ */
+class LocalChunkSource implements ChunkSource {
+    private final ConcurrentLinkedQueue<ChunkRange> chunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger done = new AtomicInteger(0);
+    private final AtomicInteger failed = new AtomicInteger(0);
+    private final int total;
+
+    LocalChunkSource(List<ChunkRange> chunks) {
+        this.chunks.addAll(chunks);
+        this.total = chunks.size();
+    }
+
+    @Override
+    public ChunkRange next() {
+        return this.chunks.poll();
+    }
+
+    @Override
+    public void finished(ChunkRange chunk, boolean success) {
+        if(success) {
+            this.done.incrementAndGet();
+        } else {
+            this.failed.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void markDone(ChunkRange chunk, Connection connection) {
+        // nothing kept in db
+    }
+
+    @Override
+    public String toString() {
+        return "chunks: " + this.total + " | done: " + this.done.get() 
+                + " | failed: " + this.failed.get() 
+                + " | open: " + this.chunks.size();
+    }
+}
@@ -0,0 +1,147 @@
+package inter2ohdm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import static util.InterDB.NODETABLE;
+import static util.InterDB.RELATIONMEMBER;
+import static util.InterDB.RELATIONTABLE;
+import static util.InterDB.WAYTABLE;
+import util.DB;
+import util.IDBitmap;
+import util.OHDM_DB;
+import util.Parameter;
+import util.Util;
+
+/**
+ * Ids of nodes, ways and relations which are member of a relation and
+ * exist in intermediate db. Regional intermediate dbs contain relations
+ * with members outside that region - those relations are detected in
+ * memory before any member is read (see IntermediateDB.addMembers2Relation).
+ *
+ * Index is built once with three queries on first use. The db filters
+ * member ids by existence - bitmaps keep member ids only, not all
+ * elements. Index can be shared between threads.
+ *
+ * @author thsc
+ */
+class MemberExistenceIndex {
+    private static final int FETCH_SIZE = 10000;
+
+    private final IDBitmap nodes = new IDBitmap();
+    private final IDBitmap ways = new IDBitmap();
+    private final IDBitmap relations = new IDBitmap();
+
+    private volatile boolean built = false;
+    private long buildTime = 0;
+
+    private long completeRelations = 0;
+    private long skippedRelations = 0;
+
+    /**
+     * @return index as configured in parameter file, null if it is
+     * switched off (relationMemberIndex)
+     */
+    static MemberExistenceIndex create(Parameter parameter) {
+        if(!parameter.useRelationMemberIndex()) return null;
+
+        return new MemberExistenceIndex();
+    }
+
+    /**
+     * read index unless already done
+     */
+    synchronized void build(Connection sourceConnection, String schema) throws SQLException {
+        if(this.built) return;
+
+        long before = System.currentTimeMillis();
+
+        this.fill(sourceConnection, schema, NODETABLE, "node_id", this.nodes);
+        this.fill(sourceConnection, schema, WAYTABLE, "way_id", this.ways);
+        this.fill(sourceConnection, schema, RELATIONTABLE, "member_rel_id", this.relations);
+
+        this.buildTime = System.currentTimeMillis() - before;
+        this.built = true;
+    }
+
+    /**
+     * SELECT osm_id FROM [table] WHERE osm_id IN
+     * (SELECT [memberColumn] FROM relationmember);
+     */
+    private void fill(Connection sourceConnection, String schema, String tableName,
+            String memberColumn, IDBitmap bitmap) throws SQLException {
+
+        String sql = "SELECT osm_id FROM " + DB.getFullTableName(schema, tableName)
+                + " WHERE osm_id IN (SELECT " + memberColumn + " FROM "
+                + DB.getFullTableName(schema, RELATIONMEMBER)
+                + " WHERE " + memberColumn + " IS NOT NULL);";
+
+        // result is read with a cursor - requires a transaction
+        boolean autoCommit = sourceConnection.getAutoCommit();
+        if(autoCommit) sourceConnection.setAutoCommit(false);
+
+        PreparedStatement stmt = sourceConnection.prepareStatement(sql);
+        try {
+            stmt.setFetchSize(FETCH_SIZE);
+            ResultSet result = stmt.executeQuery();
+            while(result.next()) {
+                bitmap.add(result.getLong(1));
+            }
+            result.close();
+        }
+        finally {
+            stmt.close();
+            if(autoCommit) {
+                sourceConnection.commit();
+                sourceConnection.setAutoCommit(true);
+            }
+        }
+    }
+
+    boolean isBuilt() {
+        return this.built;
+    }
+
+    /**
+     * @param type member type, OHDM_DB.POINT, LINESTRING or RELATION
+     */
+    boolean exists(int type, long osmID) {
+        switch(type) {
+            case OHDM_DB.POINT: return this.nodes.contains(osmID);
+            case OHDM_DB.LINESTRING: return this.ways.contains(osmID);
+            case OHDM_DB.RELATION: return this.relations.contains(osmID);
+        }
+
+        return false;
+    }
+
+    synchronized void noteRelation(boolean complete) {
+        if(complete) {
+            this.completeRelations++;
+        } else {
+            this.skippedRelations++;
+        }
+    }
+
+    synchronized String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("member index: n:");
+        sb.append(Util.getValueWithDots(this.nodes.getCardinality()));
+        sb.append(",w:");
+        sb.append(Util.getValueWithDots(this.ways.getCardinality()));
+        sb.append(",r:");
+        sb.append(Util.getValueWithDots(this.relations.getCardinality()));
+        sb.append(" (");
+        sb.append(Util.getValueWithDots((this.nodes.getSizeInBytes()
+                + this.ways.getSizeInBytes() + this.relations.getSizeInBytes()) / 1024));
+        sb.append(" kByte, built in ");
+        sb.append(Util.getValueWithDots(this.buildTime));
+        sb.append(" ms) | complete relations: ");
+        sb.append(Util.getValueWithDots(this.completeRelations));
+        sb.append(" | skipped: ");
+        sb.append(Util.getValueWithDots(this.skippedRelations));
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package inter2ohdm;
+
+import java.util.Arrays;
+
+/**
+ * Positions of member ids within a way or relation. An id can appear
+ * more than once (e.g. first and last node of a closed way). Each position
+ * is handed out only once.
+ *
+ * Ids are kept in a sorted array, positions of same id are chained.
+ * No objects are created per member.
+ *
+ * @author thsc
+ */
+class MemberIndex {
+    private final long[] sortedIDs;
+
+    // first not yet handed out position of each sorted id, -1: none
+    private final int[] head;
+
+    // next position with same id, -1: none
+    private final int[] next;
+
+    /**
+     * @param ids member ids in member order - NO_ID entries are ignored
+     */
+    MemberIndex(long[] ids) {
+        long[] sorted = Arrays.copyOf(ids, ids.length);
+        Arrays.sort(sorted);
+
+        // remove duplicates
+        int unique = 0;
+        for(int i = 0; i < sorted.length; i++) {
+            if(unique == 0 || sorted[unique - 1] != sorted[i]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        this.sortedIDs = Arrays.copyOf(sorted, unique);
+
+        this.head = new int[unique];
+        Arrays.fill(this.head, -1);
+        this.next = new int[ids.length];
+
+        // walk backwards: chains start with smallest position
+        for(int position = ids.length - 1; position >= 0; position--) {
+            if(ids[position] == OSMElement.NO_ID) {
+                this.next[position] = -1;
+                continue;
+            }
+
+            int k = Arrays.binarySearch(this.sortedIDs, ids[position]);
+            this.next[position] = this.head[k];
+            this.head[k] = position;
+        }
+    }
+
+    /**
+     * @return smallest position of id not yet handed out, -1 if none
+     */
+    int nextPosition(long id) {
+        if(id == OSMElement.NO_ID) return -1;
+
+        int k = Arrays.binarySearch(this.sortedIDs, id);
+        if(k < 0) return -1;
+
+        int position = this.head[k];
+        if(position > -1) {
+            this.head[k] = this.next[position];
+        }
+
+        return position;
+    }
+}
@@ -0,0 +1,198 @@
+package inter2ohdm;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import util.Parameter;
+import util.Util;
+
+/**
+ * Coordinates of nodes which were recently part of a way. Junction nodes
+ * are shared by many ways - their coordinates are taken from here and
+ * neither read from intermediate db nor decoded into a full node with
+ * tags (see IntermediateDB.addNodes2OHDMWay).
+ *
+ * Table is kept off heap in direct buffers: osm id and coordinates packed
+ * into one long (OSM precision, 1e-7 degrees). It is divided into buckets
+ * of eight slots. A full bucket replaces an entry by clock: its hand
+ * passes entries which were used since last round and clears their mark.
+ * Entries are marked when used, not when added - nodes used by one way
+ * only are replaced first.
+ *
+ * Nodes with an ohdm identity are not cached (see WayNodeCache). Cache
+ * can be shared between threads.
+ *
+ * @author thsc
+ */
+class NodeCoordinateCache {
+    static final int DEFAULT_ENTRIES = 2 * 1024 * 1024;
+
+    /** returned by get if node is not cached */
+    static final long MISSING = Long.MIN_VALUE;
+
+    private static final int BUCKET_SLOTS = 8;
+    private static final int MAX_BUCKETS = 1 << 23; // 64M entries, 1 GByte
+    private static final double PRECISION = 1e7;
+    private static final long EMPTY = 0; // there is no node with osm id 0
+
+    // slot i: key at 2i, packed coordinates at 2i+1
+    private final LongBuffer table;
+    // slot i: 1 if used since last clock round
+    private final ByteBuffer used;
+    // clock hand of each bucket
+    private final byte[] hands;
+    private final int bucketMask;
+
+    private long entries = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param capacity number of entries - rounded up to power of two
+     */
+    NodeCoordinateCache(int capacity) {
+        if(capacity <= 0) capacity = DEFAULT_ENTRIES;
+
+        int buckets = 1;
+        while(buckets * BUCKET_SLOTS < capacity && buckets < MAX_BUCKETS) {
+            buckets <<= 1;
+        }
+
+        int slots = buckets * BUCKET_SLOTS;
+
+        // direct buffers are zero - all slots empty
+        this.table = ByteBuffer.allocateDirect(slots * 2 * Long.BYTES).asLongBuffer();
+        this.used = ByteBuffer.allocateDirect(slots);
+        this.hands = new byte[buckets];
+        this.bucketMask = buckets - 1;
+    }
+
+    /**
+     * @return cache as configured in parameter file, null if it is
+     * switched off (nodeCacheEntries: 0)
+     */
+    static NodeCoordinateCache create(Parameter parameter) {
+        if(parameter.getNodeCacheEntries() <= 0) return null;
+
+        return new NodeCoordinateCache(parameter.getNodeCacheEntries());
+    }
+
+    private int firstSlot(long osmID) {
+        // spread ids - neighbouring ids are common
+        long h = osmID * 0x9E3779B97F4A7C15L;
+        h ^= (h >>> 32);
+
+        return ((int) h & this.bucketMask) * BUCKET_SLOTS;
+    }
+
+    /**
+     * @return packed coordinates (see getLongitude, getLatitude) or
+     * MISSING
+     */
+    synchronized long get(long osmID) {
+        int first = this.firstSlot(osmID);
+        for(int slot = first; slot < first + BUCKET_SLOTS; slot++) {
+            long key = this.table.get(2 * slot);
+            if(key == osmID && key != EMPTY) {
+                this.used.put(slot, (byte) 1);
+                this.hits++;
+                return this.table.get(2 * slot + 1);
+            }
+
+            // buckets are filled from first slot on, nothing is removed
+            if(key == EMPTY) break;
+        }
+
+        this.misses++;
+        return MISSING;
+    }
+
+    /**
+     * @return false if coordinates cannot be kept in OSM precision
+     */
+    synchronized boolean put(long osmID, double longitude, double latitude) {
+        if(osmID == EMPTY) return false;
+
+        long packed = NodeCoordinateCache.pack(longitude, latitude);
+        if(packed == MISSING) return false;
+
+        int first = this.firstSlot(osmID);
+        for(int slot = first; slot < first + BUCKET_SLOTS; slot++) {
+            long key = this.table.get(2 * slot);
+            if(key == osmID || key == EMPTY) {
+                if(key == EMPTY) {
+                    this.table.put(2 * slot, osmID);
+                    this.entries++;
+                }
+                this.table.put(2 * slot + 1, packed);
+                return true;
+            }
+        }
+
+        // bucket is full - clock
+        int bucket = first / BUCKET_SLOTS;
+        for(;;) {
+            int slot = first + this.hands[bucket];
+            this.hands[bucket] = (byte) ((this.hands[bucket] + 1) % BUCKET_SLOTS);
+
+            if(this.used.get(slot) == 0) {
+                this.table.put(2 * slot, osmID);
+                this.table.put(2 * slot + 1, packed);
+                this.evictions++;
+                return true;
+            }
+
+            // second chance
+            this.used.put(slot, (byte) 0);
+        }
+    }
+
+    /**
+     * @return longitude and latitude in one long, MISSING if they cannot be
+     * restored exactly
+     */
+    static long pack(double longitude, double latitude) {
+        if(Double.isNaN(longitude) || Double.isNaN(latitude)) return MISSING;
+        if(Math.abs(longitude) > 180 || Math.abs(latitude) > 90) return MISSING;
+
+        int lon = (int) Math.round(longitude * PRECISION);
+        int lat = (int) Math.round(latitude * PRECISION);
+
+        if(lon / PRECISION != longitude || lat / PRECISION != latitude) {
+            return MISSING;
+        }
+
+        return ((long) lon << 32) | (lat & 0xFFFFFFFFL);
+    }
+
+    static double getLongitude(long packed) {
+        return (int) (packed >> 32) / PRECISION;
+    }
+
+    static double getLatitude(long packed) {
+        return (int) packed / PRECISION;
+    }
+
+    synchronized String getStatistics() {
+        long lookups = this.hits + this.misses;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("node cache: ");
+        sb.append(Util.getValueWithDots(this.entries));
+        sb.append(" / ");
+        sb.append(Util.getValueWithDots(this.used.capacity()));
+        sb.append(" nodes | hits: ");
+        sb.append(Util.getValueWithDots(this.hits));
+        sb.append(" | misses: ");
+        sb.append(Util.getValueWithDots(this.misses));
+        if(lookups > 0) {
+            sb.append(" (");
+            sb.append(this.hits * 100 / lookups);
+            sb.append("% hits)");
+        }
+        sb.append(" | evicted: ");
+        sb.append(Util.getValueWithDots(this.evictions));
+
+        return sb.toString();
+    }
+}
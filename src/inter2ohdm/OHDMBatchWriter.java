@@ -0,0 +1,170 @@
+package inter2ohdm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import util.DB;
+import util.OHDM_DB;
+import util.PreparedBatch;
+
+/**
+ * Writes rows of OHDM objects, geometries, validities and subsequent
+ * objects with prepared inserts (see PreparedBatch). Statements are
+ * prepared once for each table, values are bound - names and tags need
+ * no sql escaping. Ids must be known in advance (see IDBlockAllocator).
+ *
+ * @author thsc
+ */
+class OHDMBatchWriter implements OHDMRowWriter {
+    private final PreparedBatch objects;
+    private final PreparedBatch points;
+    private final PreparedBatch lines;
+    private final PreparedBatch polygons;
+    private final PreparedBatch validities;
+    private final PreparedBatch subsequents;
+
+    OHDMBatchWriter(Connection targetConnection, String targetSchema, int batchSize) {
+        this.objects = new PreparedBatch(targetConnection,
+                "INSERT INTO " + DB.getFullTableName(targetSchema, OHDM_DB.TABLE_GEOOBJECT)
+                + " (id, name, source_user_id) VALUES (?, ?, ?)",
+                new int[] {Types.BIGINT, Types.VARCHAR, Types.INTEGER}, batchSize);
+
+        this.points = OHDMBatchWriter.geometryBatch(targetConnection,
+                DB.getFullTableName(targetSchema, OHDM_DB.TABLE_POINTS), "point", batchSize);
+
+        this.lines = OHDMBatchWriter.geometryBatch(targetConnection,
+                DB.getFullTableName(targetSchema, OHDM_DB.TABLE_LINES), "line", batchSize);
+
+        this.polygons = OHDMBatchWriter.geometryBatch(targetConnection,
+                DB.getFullTableName(targetSchema, OHDM_DB.TABLE_POLYGONS), "polygon", batchSize);
+
+        this.validities = new PreparedBatch(targetConnection,
+                "INSERT INTO " + DB.getFullTableName(targetSchema, OHDM_DB.TABLE_GEOOBJECT_GEOMETRY)
+                + " (type_target, classification_id, id_geoobject_source, id_target,"
+                + " valid_since, valid_until, source_user_id, tags)"
+                + " VALUES (?, ?, ?, ?, ?::date, ?::date, ?, ?::hstore)",
+                new int[] {Types.INTEGER, Types.BIGINT, Types.BIGINT, Types.BIGINT,
+                    Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR}, batchSize);
+
+        this.subsequents = new PreparedBatch(targetConnection,
+                "INSERT INTO " + DB.getFullTableName(targetSchema, OHDM_DB.TABLE_SUBSEQUENT_GEOM_USER)
+                + " (target_id, point_id, line_id) VALUES (?, ?, ?)",
+                new int[] {Types.BIGINT, Types.BIGINT, Types.BIGINT}, batchSize);
+    }
+
+    /**
+     * geometry is bound as wkb (hex) or wkt and cast by PostGIS
+     */
+    private static PreparedBatch geometryBatch(Connection targetConnection,
+            String fullTableName, String geometryColumn, int batchSize) {
+
+        return new PreparedBatch(targetConnection,
+                "INSERT INTO " + fullTableName + " (id, " + geometryColumn
+                + ", source_user_id) VALUES (?, ?::geometry, ?)",
+                new int[] {Types.BIGINT, Types.VARCHAR, Types.INTEGER}, batchSize);
+    }
+
+    private static void setID(PreparedBatch batch, int column, String idString) {
+        if(idString == null || idString.length() == 0) {
+            batch.setNull(column);
+        } else {
+            batch.setLong(column, Long.parseLong(idString));
+        }
+    }
+
+    @Override
+    public void addObject(String objectID, String name, int externalUserID) throws SQLException {
+        OHDMBatchWriter.setID(this.objects, 1, objectID);
+        this.objects.setString(2, name);
+        this.objects.setInt(3, externalUserID);
+        this.objects.addBatch();
+    }
+
+    @Override
+    public void addGeometry(int geometryType, String geomID, String geometry, int externalUserID) throws SQLException {
+        PreparedBatch batch = null;
+        switch(geometryType) {
+            case OHDM_DB.POINT: batch = this.points; break;
+            case OHDM_DB.LINESTRING: batch = this.lines; break;
+            case OHDM_DB.POLYGON: batch = this.polygons; break;
+            default: throw new SQLException("unknown geometry type: " + geometryType);
+        }
+
+        OHDMBatchWriter.setID(batch, 1, geomID);
+        batch.setString(2, geometry);
+        batch.setInt(3, externalUserID);
+        batch.addBatch();
+    }
+
+    @Override
+    public void addValidity(int targetType, String classCodeString,
+            String sourceIDString, String targetIDString, String sinceString,
+            String untilString, int externalUserID, String hstoreValue)
+            throws SQLException {
+
+        // hstore value is escaped for sql literals - bound values are not
+        if(hstoreValue != null) {
+            hstoreValue = hstoreValue.replace("''", "'");
+        }
+
+        this.validities.setInt(1, targetType);
+        OHDMBatchWriter.setID(this.validities, 2, classCodeString);
+        OHDMBatchWriter.setID(this.validities, 3, sourceIDString);
+        OHDMBatchWriter.setID(this.validities, 4, targetIDString);
+        this.validities.setString(5, sinceString);
+        this.validities.setString(6, untilString);
+        this.validities.setInt(7, externalUserID);
+        this.validities.setString(8, hstoreValue);
+        this.validities.addBatch();
+    }
+
+    @Override
+    public void addSubsequent(String targetObjectID, int sourceType, String objectID) throws SQLException {
+        OHDMBatchWriter.setID(this.subsequents, 1, targetObjectID);
+        switch(sourceType) {
+            case OHDM_DB.POINT:
+                OHDMBatchWriter.setID(this.subsequents, 2, objectID);
+                this.subsequents.setNull(3);
+                break;
+            case OHDM_DB.LINESTRING:
+                this.subsequents.setNull(2);
+                OHDMBatchWriter.setID(this.subsequents, 3, objectID);
+                break;
+            default:
+                throw new SQLException("subsequent table only keeps point and ways");
+        }
+
+        this.subsequents.addBatch();
+    }
+
+    /**
+     * execute all buffered rows
+     */
+    @Override
+    public void flush() throws SQLException {
+        this.objects.executeBatch();
+        this.points.executeBatch();
+        this.lines.executeBatch();
+        this.polygons.executeBatch();
+        this.validities.executeBatch();
+        this.subsequents.executeBatch();
+    }
+
+    @Override
+    public void clear() {
+        this.objects.clear();
+        this.points.clear();
+        this.lines.clear();
+        this.polygons.clear();
+        this.validities.clear();
+        this.subsequents.clear();
+    }
+
+    @Override
+    public long getWrittenRows() {
+        return this.objects.getExecutedRows() + this.points.getExecutedRows()
+                + this.lines.getExecutedRows() + this.polygons.getExecutedRows()
+                + this.validities.getExecutedRows()
+                + this.subsequents.getExecutedRows();
+    }
+}
@@ -0,0 +1,137 @@
+package inter2ohdm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import util.CopyBuffer;
+import util.DB;
+import util.OHDM_DB;
+
+/**
+ * Writes rows of OHDM objects, geometries, validities and subsequent
+ * objects with COPY instead of INSERT statements. Ids must be known in
+ * advance (see IDBlockAllocator). Each table has its own buffer, each
+ * buffer is copied when full or when flush is called (end of chunk).
+ *
+ * @author thsc
+ */
+class OHDMCopyWriter implements OHDMRowWriter {
+    private final CopyBuffer objects;
+    private final CopyBuffer points;
+    private final CopyBuffer lines;
+    private final CopyBuffer polygons;
+    private final CopyBuffer validities;
+    private final CopyBuffer subsequents;
+
+    OHDMCopyWriter(Connection targetConnection, String targetSchema, int maxRows) {
+        this.objects = new CopyBuffer(targetConnection,
+                DB.getFullTableName(targetSchema, OHDM_DB.TABLE_GEOOBJECT),
+                new String[] {"id", "name", "source_user_id"}, maxRows);
+
+        this.points = new CopyBuffer(targetConnection,
+                DB.getFullTableName(targetSchema, OHDM_DB.TABLE_POINTS),
+                new String[] {"id", "point", "source_user_id"}, maxRows);
+
+        this.lines = new CopyBuffer(targetConnection,
+                DB.getFullTableName(targetSchema, OHDM_DB.TABLE_LINES),
+                new String[] {"id", "line", "source_user_id"}, maxRows);
+
+        this.polygons = new CopyBuffer(targetConnection,
+                DB.getFullTableName(targetSchema, OHDM_DB.TABLE_POLYGONS),
+                new String[] {"id", "polygon", "source_user_id"}, maxRows);
+
+        this.validities = new CopyBuffer(targetConnection,
+                DB.getFullTableName(targetSchema, OHDM_DB.TABLE_GEOOBJECT_GEOMETRY),
+                new String[] {"type_target", "classification_id",
+                    "id_geoobject_source", "id_target", "valid_since",
+                    "valid_until", "source_user_id", "tags"}, maxRows);
+
+        this.subsequents = new CopyBuffer(targetConnection,
+                DB.getFullTableName(targetSchema, OHDM_DB.TABLE_SUBSEQUENT_GEOM_USER),
+                new String[] {"target_id", "point_id", "line_id"}, maxRows);
+    }
+
+    @Override
+    public void addObject(String objectID, String name, int externalUserID) throws SQLException {
+        this.objects.addRow(objectID, name, Integer.toString(externalUserID));
+        this.objects.couldFlush();
+    }
+
+    @Override
+    public void addGeometry(int geometryType, String geomID, String geometry, int externalUserID) throws SQLException {
+        CopyBuffer buffer = null;
+        switch(geometryType) {
+            case OHDM_DB.POINT: buffer = this.points; break;
+            case OHDM_DB.LINESTRING: buffer = this.lines; break;
+            case OHDM_DB.POLYGON: buffer = this.polygons; break;
+            default: throw new SQLException("unknown geometry type: " + geometryType);
+        }
+
+        buffer.addRow(geomID, geometry, Integer.toString(externalUserID));
+        buffer.couldFlush();
+    }
+
+    @Override
+    public void addValidity(int targetType, String classCodeString,
+            String sourceIDString, String targetIDString, String sinceString,
+            String untilString, int externalUserID, String hstoreValue)
+            throws SQLException {
+
+        // hstore value is escaped for sql literals - copy takes it as it is
+        if(hstoreValue != null) {
+            hstoreValue = hstoreValue.replace("''", "'");
+        }
+
+        this.validities.addRow(Integer.toString(targetType), classCodeString,
+                sourceIDString, targetIDString, sinceString, untilString,
+                Integer.toString(externalUserID), hstoreValue);
+
+        this.validities.couldFlush();
+    }
+
+    @Override
+    public void addSubsequent(String targetObjectID, int sourceType, String objectID) throws SQLException {
+        switch(sourceType) {
+            case OHDM_DB.POINT:
+                this.subsequents.addRow(targetObjectID, objectID, null);
+                break;
+            case OHDM_DB.LINESTRING:
+                this.subsequents.addRow(targetObjectID, null, objectID);
+                break;
+            default:
+                throw new SQLException("subsequent table only keeps point and ways");
+        }
+
+        this.subsequents.couldFlush();
+    }
+
+    /**
+     * copy all buffered rows
+     */
+    @Override
+    public void flush() throws SQLException {
+        this.objects.flush();
+        this.points.flush();
+        this.lines.flush();
+        this.polygons.flush();
+        this.validities.flush();
+        this.subsequents.flush();
+    }
+
+    @Override
+    public void clear() {
+        this.objects.clear();
+        this.points.clear();
+        this.lines.clear();
+        this.polygons.clear();
+        this.validities.clear();
+        this.subsequents.clear();
+    }
+
+    @Override
+    public long getWrittenRows() {
+        return this.objects.getWrittenRows() + this.points.getWrittenRows()
+                + this.lines.getWrittenRows() + this.polygons.getWrittenRows()
+                + this.validities.getWrittenRows()
+                + this.subsequents.getWrittenRows();
+    }
+}
@@ -0,0 +1,416 @@
+package inter2ohdm;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashSet;
+import util.DB;
+import util.OHDM_DB;
+import util.SQLStatementQueue;
+
+/**
+ * Writes rows of OHDM objects, geometries, validities and subsequent
+ * objects with a single call of a server side function for each batch.
+ * Function is installed into target schema (see install) and gets all
+ * rows as arrays - inserts are performed set-based by the database.
+ * Ids must be known in advance (see IDBlockAllocator).
+ *
+ * A batch that fails is rolled back and written by prepared inserts
+ * which isolate failing rows (see OHDMBatchWriter).
+ *
+ * @author thsc
+ */
+class OHDMFunctionWriter implements OHDMRowWriter {
+    static final String FUNCTION_NAME = "ohdm_import_rows";
+    static final int DEFAULT_MAX_ROWS = 10000;
+
+    // url|schema of target databases with installed function
+    private static final HashSet<String> installed = new HashSet<>();
+
+    private final Connection targetConnection;
+    private final String targetSchema;
+    private final int maxRows;
+
+    private final String callSQL;
+    private PreparedStatement call = null;
+
+    // objects
+    private final ArrayList<Long> objectIDs = new ArrayList<>();
+    private final ArrayList<String> objectNames = new ArrayList<>();
+    private final ArrayList<Integer> objectUsers = new ArrayList<>();
+
+    // points, lines and polygons
+    private final ArrayList<Integer> geomTypes = new ArrayList<>();
+    private final ArrayList<Long> geomIDs = new ArrayList<>();
+    private final ArrayList<String> geometries = new ArrayList<>();
+    private final ArrayList<Integer> geomUsers = new ArrayList<>();
+
+    // validities
+    private final ArrayList<Integer> validTypes = new ArrayList<>();
+    private final ArrayList<Long> validClasses = new ArrayList<>();
+    private final ArrayList<Long> validSources = new ArrayList<>();
+    private final ArrayList<Long> validTargets = new ArrayList<>();
+    private final ArrayList<String> validSince = new ArrayList<>();
+    private final ArrayList<String> validUntil = new ArrayList<>();
+    private final ArrayList<Integer> validUsers = new ArrayList<>();
+    private final ArrayList<String> validTags = new ArrayList<>();
+
+    // subsequent objects
+    private final ArrayList<Long> subsequentTargets = new ArrayList<>();
+    private final ArrayList<Long> subsequentPoints = new ArrayList<>();
+    private final ArrayList<Long> subsequentLines = new ArrayList<>();
+
+    private int bufferedRows = 0;
+
+    private long writtenRows = 0;
+    private long calls = 0;
+    private long failedCalls = 0;
+
+    // rows of failed batches
+    private OHDMBatchWriter fallback = null;
+
+    OHDMFunctionWriter(Connection targetConnection, String targetSchema, int maxRows) throws SQLException {
+        this.targetConnection = targetConnection;
+        this.targetSchema = targetSchema;
+        this.maxRows = maxRows > 0 ? maxRows : DEFAULT_MAX_ROWS;
+
+        OHDMFunctionWriter.installOnce(targetConnection, targetSchema);
+
+        this.callSQL = "SELECT " + DB.getFullTableName(targetSchema, FUNCTION_NAME)
+                + "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    }
+
+    /**
+     * Install import function unless it was already installed by this
+     * process - workers would replace it concurrently otherwise which
+     * fails with "tuple concurrently updated".
+     */
+    static synchronized void installOnce(Connection targetConnection,
+            String targetSchema) throws SQLException {
+
+        String key = targetConnection.getMetaData().getURL() + "|" + targetSchema;
+        if(installed.contains(key)) return;
+
+        OHDMFunctionWriter.install(targetConnection, targetSchema);
+        installed.add(key);
+    }
+
+    /**
+     * create or replace import function in target schema. Arrays of each
+     * table must have same length, an array of length 0 is skipped.
+     */
+    static void install(Connection targetConnection, String targetSchema) throws SQLException {
+        SQLStatementQueue sql = new SQLStatementQueue(targetConnection);
+
+        sql.append("CREATE OR REPLACE FUNCTION ");
+        sql.append(DB.getFullTableName(targetSchema, FUNCTION_NAME));
+        sql.append("(object_ids bigint[], object_names text[], object_users integer[], ");
+        sql.append("geom_types integer[], geom_ids bigint[], geoms text[], geom_users integer[], ");
+        sql.append("valid_types integer[], valid_classes bigint[], valid_sources bigint[], ");
+        sql.append("valid_targets bigint[], valid_since text[], valid_until text[], ");
+        sql.append("valid_users integer[], valid_tags text[], ");
+        sql.append("subsequent_targets bigint[], subsequent_points bigint[], subsequent_lines bigint[]) ");
+        sql.append("RETURNS bigint AS $ohdm$ ");
+        sql.append("DECLARE written bigint := 0; n bigint; ");
+        sql.append("BEGIN ");
+
+        // objects
+        sql.append("INSERT INTO ");
+        sql.append(DB.getFullTableName(targetSchema, OHDM_DB.TABLE_GEOOBJECT));
+        sql.append(" (id, name, source_user_id) ");
+        sql.append("SELECT * FROM unnest(object_ids, object_names, object_users); ");
+        sql.append("GET DIAGNOSTICS n = ROW_COUNT; written := written + n; ");
+
+        // geometries
+        OHDMFunctionWriter.appendGeometryInsert(sql, targetSchema,
+                OHDM_DB.TABLE_POINTS, "point", OHDM_DB.POINT);
+        OHDMFunctionWriter.appendGeometryInsert(sql, targetSchema,
+                OHDM_DB.TABLE_LINES, "line", OHDM_DB.LINESTRING);
+        OHDMFunctionWriter.appendGeometryInsert(sql, targetSchema,
+                OHDM_DB.TABLE_POLYGONS, "polygon", OHDM_DB.POLYGON);
+
+        // validities
+        sql.append("INSERT INTO ");
+        sql.append(DB.getFullTableName(targetSchema, OHDM_DB.TABLE_GEOOBJECT_GEOMETRY));
+        sql.append(" (type_target, classification_id, id_geoobject_source, id_target,");
+        sql.append(" valid_since, valid_until, source_user_id, tags) ");
+        sql.append("SELECT t, c, s, g, since::date, until::date, u, tags::hstore FROM ");
+        sql.append("unnest(valid_types, valid_classes, valid_sources, valid_targets, ");
+        sql.append("valid_since, valid_until, valid_users, valid_tags) ");
+        sql.append("AS v(t, c, s, g, since, until, u, tags); ");
+        sql.append("GET DIAGNOSTICS n = ROW_COUNT; written := written + n; ");
+
+        // subsequent objects
+        sql.append("INSERT INTO ");
+        sql.append(DB.getFullTableName(targetSchema, OHDM_DB.TABLE_SUBSEQUENT_GEOM_USER));
+        sql.append(" (target_id, point_id, line_id) ");
+        sql.append("SELECT * FROM unnest(subsequent_targets, subsequent_points, subsequent_lines); ");
+        sql.append("GET DIAGNOSTICS n = ROW_COUNT; written := written + n; ");
+
+        sql.append("RETURN written; ");
+        sql.append("END; $ohdm$ LANGUAGE plpgsql;");
+
+        sql.forceExecute();
+    }
+
+    private static void appendGeometryInsert(SQLStatementQueue sql, String targetSchema,
+            String tableName, String geometryColumn, int geometryType) {
+
+        sql.append("INSERT INTO ");
+        sql.append(DB.getFullTableName(targetSchema, tableName));
+        sql.append(" (id, ");
+        sql.append(geometryColumn);
+        sql.append(", source_user_id) ");
+        sql.append("SELECT i, g::geometry, u FROM unnest(geom_types, geom_ids, geoms, geom_users) ");
+        sql.append("AS r(t, i, g, u) WHERE t = ");
+        sql.append(geometryType);
+        sql.append("; GET DIAGNOSTICS n = ROW_COUNT; written := written + n; ");
+    }
+
+    private static Long toID(String idString) {
+        if(idString == null || idString.length() == 0) return null;
+
+        return Long.parseLong(idString);
+    }
+
+    private void added() throws SQLException {
+        this.bufferedRows++;
+        if(this.bufferedRows >= this.maxRows) {
+            this.flush();
+        }
+    }
+
+    @Override
+    public void addObject(String objectID, String name, int externalUserID) throws SQLException {
+        this.objectIDs.add(OHDMFunctionWriter.toID(objectID));
+        this.objectNames.add(name);
+        this.objectUsers.add(externalUserID);
+        this.added();
+    }
+
+    @Override
+    public void addGeometry(int geometryType, String geomID, String geometry, int externalUserID) throws SQLException {
+        switch(geometryType) {
+            case OHDM_DB.POINT:
+            case OHDM_DB.LINESTRING:
+            case OHDM_DB.POLYGON: break;
+            default: throw new SQLException("unknown geometry type: " + geometryType);
+        }
+
+        this.geomTypes.add(geometryType);
+        this.geomIDs.add(OHDMFunctionWriter.toID(geomID));
+        this.geometries.add(geometry);
+        this.geomUsers.add(externalUserID);
+        this.added();
+    }
+
+    @Override
+    public void addValidity(int targetType, String classCodeString,
+            String sourceIDString, String targetIDString, String sinceString,
+            String untilString, int externalUserID, String hstoreValue)
+            throws SQLException {
+
+        // hstore value is escaped for sql literals - array elements are not
+        if(hstoreValue != null) {
+            hstoreValue = hstoreValue.replace("''", "'");
+        }
+
+        this.validTypes.add(targetType);
+        this.validClasses.add(OHDMFunctionWriter.toID(classCodeString));
+        this.validSources.add(OHDMFunctionWriter.toID(sourceIDString));
+        this.validTargets.add(OHDMFunctionWriter.toID(targetIDString));
+        this.validSince.add(sinceString);
+        this.validUntil.add(untilString);
+        this.validUsers.add(externalUserID);
+        this.validTags.add(hstoreValue);
+        this.added();
+    }
+
+    @Override
+    public void addSubsequent(String targetObjectID, int sourceType, String objectID) throws SQLException {
+        switch(sourceType) {
+            case OHDM_DB.POINT:
+                this.subsequentPoints.add(OHDMFunctionWriter.toID(objectID));
+                this.subsequentLines.add(null);
+                break;
+            case OHDM_DB.LINESTRING:
+                this.subsequentPoints.add(null);
+                this.subsequentLines.add(OHDMFunctionWriter.toID(objectID));
+                break;
+            default:
+                throw new SQLException("subsequent table only keeps point and ways");
+        }
+
+        this.subsequentTargets.add(OHDMFunctionWriter.toID(targetObjectID));
+        this.added();
+    }
+
+    private Array array(String typeName, ArrayList<?> values) throws SQLException {
+        return this.targetConnection.createArrayOf(typeName, values.toArray());
+    }
+
+    /**
+     * write all buffered rows with one function call
+     */
+    @Override
+    public void flush() throws SQLException {
+        if(this.bufferedRows == 0) return;
+
+        if(this.call == null) {
+            this.call = this.targetConnection.prepareStatement(this.callSQL);
+        }
+
+        Savepoint savepoint = this.targetConnection.getAutoCommit() ? null
+                : this.targetConnection.setSavepoint();
+        try {
+            this.call.setArray(1, this.array("int8", this.objectIDs));
+            this.call.setArray(2, this.array("text", this.objectNames));
+            this.call.setArray(3, this.array("int4", this.objectUsers));
+            this.call.setArray(4, this.array("int4", this.geomTypes));
+            this.call.setArray(5, this.array("int8", this.geomIDs));
+            this.call.setArray(6, this.array("text", this.geometries));
+            this.call.setArray(7, this.array("int4", this.geomUsers));
+            this.call.setArray(8, this.array("int4", this.validTypes));
+            this.call.setArray(9, this.array("int8", this.validClasses));
+            this.call.setArray(10, this.array("int8", this.validSources));
+            this.call.setArray(11, this.array("int8", this.validTargets));
+            this.call.setArray(12, this.array("text", this.validSince));
+            this.call.setArray(13, this.array("text", this.validUntil));
+            this.call.setArray(14, this.array("int4", this.validUsers));
+            this.call.setArray(15, this.array("text", this.validTags));
+            this.call.setArray(16, this.array("int8", this.subsequentTargets));
+            this.call.setArray(17, this.array("int8", this.subsequentPoints));
+            this.call.setArray(18, this.array("int8", this.subsequentLines));
+
+            ResultSet result = this.call.executeQuery();
+            if(result.next()) {
+                this.writtenRows += result.getLong(1);
+            }
+            result.close();
+
+            if(savepoint != null) this.targetConnection.releaseSavepoint(savepoint);
+            this.calls++;
+        }
+        catch(SQLException e) {
+            // no row can be written
+            if(this.isConnectionFailure(e)) throw e;
+
+            if(savepoint != null) this.targetConnection.rollback(savepoint);
+            this.failedCalls++;
+
+            this.writeRowByRow();
+        }
+
+        this.clear();
+    }
+
+    private boolean isConnectionFailure(SQLException e) {
+        // sql state class 08: connection exception
+        String state = e.getSQLState();
+        if(state != null && state.startsWith("08")) return true;
+
+        try {
+            return this.targetConnection.isClosed();
+        }
+        catch(SQLException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * failed batch: prepared inserts isolate failing rows
+     */
+    private void writeRowByRow() throws SQLException {
+        if(this.fallback == null) {
+            this.fallback = new OHDMBatchWriter(this.targetConnection,
+                    this.targetSchema, this.maxRows);
+        }
+
+        for(int i = 0; i < this.objectIDs.size(); i++) {
+            this.fallback.addObject(OHDMFunctionWriter.toString(this.objectIDs.get(i)),
+                    this.objectNames.get(i), this.objectUsers.get(i));
+        }
+
+        for(int i = 0; i < this.geomIDs.size(); i++) {
+            this.fallback.addGeometry(this.geomTypes.get(i),
+                    OHDMFunctionWriter.toString(this.geomIDs.get(i)),
+                    this.geometries.get(i), this.geomUsers.get(i));
+        }
+
+        for(int i = 0; i < this.validTypes.size(); i++) {
+            String tags = this.validTags.get(i);
+            // batch writer expects sql escaped tags
+            if(tags != null) tags = tags.replace("'", "''");
+
+            this.fallback.addValidity(this.validTypes.get(i),
+                    OHDMFunctionWriter.toString(this.validClasses.get(i)),
+                    OHDMFunctionWriter.toString(this.validSources.get(i)),
+                    OHDMFunctionWriter.toString(this.validTargets.get(i)),
+                    this.validSince.get(i), this.validUntil.get(i),
+                    this.validUsers.get(i), tags);
+        }
+
+        for(int i = 0; i < this.subsequentTargets.size(); i++) {
+            Long pointID = this.subsequentPoints.get(i);
+            this.fallback.addSubsequent(
+                    OHDMFunctionWriter.toString(this.subsequentTargets.get(i)),
+                    pointID != null ? OHDM_DB.POINT : OHDM_DB.LINESTRING,
+                    OHDMFunctionWriter.toString(pointID != null ? pointID
+                            : this.subsequentLines.get(i)));
+        }
+
+        long before = this.fallback.getWrittenRows();
+        this.fallback.flush();
+        this.writtenRows += this.fallback.getWrittenRows() - before;
+    }
+
+    private static String toString(Long id) {
+        return id != null ? id.toString() : null;
+    }
+
+    @Override
+    public void clear() {
+        this.objectIDs.clear();
+        this.objectNames.clear();
+        this.objectUsers.clear();
+        this.geomTypes.clear();
+        this.geomIDs.clear();
+        this.geometries.clear();
+        this.geomUsers.clear();
+        this.validTypes.clear();
+        this.validClasses.clear();
+        this.validSources.clear();
+        this.validTargets.clear();
+        this.validSince.clear();
+        this.validUntil.clear();
+        this.validUsers.clear();
+        this.validTags.clear();
+        this.subsequentTargets.clear();
+        this.subsequentPoints.clear();
+        this.subsequentLines.clear();
+
+        this.bufferedRows = 0;
+
+        if(this.fallback != null) this.fallback.clear();
+    }
+
+    @Override
+    public long getWrittenRows() {
+        return this.writtenRows;
+    }
+
+    /**
+     * @return number of function calls, failed calls were written row by row
+     */
+    long getCalls() {
+        return this.calls;
+    }
+
+    long getFailedCalls() {
+        return this.failedCalls;
+    }
+}
@@ -0,0 +1,250 @@
+package inter2ohdm;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import static util.InterDB.NODETABLE;
+import static util.InterDB.RELATIONTABLE;
+import static util.InterDB.WAYTABLE;
+import util.DB;
+import util.MappedLongPairMap;
+import util.SQLStatementQueue;
+
+/**
+ * OSM ids of imported elements and their OHDM object and geometry ids.
+ * There is a memory mapped map (see MappedLongPairMap) for each element
+ * type in a directory. Ids are written during import. Relation import and
+ * post processing look up ids without asking intermediate db. Ids are
+ * also known before they are written into intermediate db
+ * (see OHDMIDWriteBack).
+ *
+ * Mapping files can be rebuilt from intermediate db. Each file keeps
+ * highest id of its intermediate table as marker. Mapping is rebuilt if
+ * that marker differs from intermediate db, e.g. after a new import or
+ * an update. Mapping of a directory is shared by all importers of a
+ * process. Importers write ids through an OHDMIDMappingBuffer - only
+ * committed ids get into that mapping.
+ *
+ * @author thsc
+ */
+class OHDMIDMapping {
+    private static final String NODES_FILE = "nodes.idmap";
+    private static final String WAYS_FILE = "ways.idmap";
+    private static final String RELATIONS_FILE = "relations.idmap";
+
+    private static final long EXPECTED_SIZE = 1000000;
+    private static final int REBUILD_STEP = 100000;
+
+    private static final HashMap<String, OHDMIDMapping> mappings = new HashMap<>();
+
+    private final MappedLongPairMap nodes;
+    private final MappedLongPairMap ways;
+    private final MappedLongPairMap relations;
+
+    /**
+     * mapping in that directory - created and filled from intermediate db
+     * if there are no mapping files yet or if they do not fit to 
+     * intermediate db
+     */
+    static synchronized OHDMIDMapping getMapping(File directory,
+            Connection sourceConnection, String schema)
+            throws IOException, SQLException {
+
+        String key = directory.getCanonicalPath();
+        OHDMIDMapping mapping = mappings.get(key);
+        if(mapping == null) {
+            mapping = new OHDMIDMapping(directory);
+            if(!mapping.isCurrent(sourceConnection, schema)) {
+                System.out.println("ohdm id mapping in " + key 
+                        + " does not fit to intermediate db - rebuild it");
+                mapping.rebuild(sourceConnection, schema);
+            }
+            mappings.put(key, mapping);
+        }
+
+        return mapping;
+    }
+
+    private OHDMIDMapping(File directory) throws IOException {
+        if(!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("cannot create directory " + directory.getAbsolutePath());
+        }
+
+        this.nodes = new MappedLongPairMap(new File(directory, NODES_FILE), EXPECTED_SIZE);
+        this.ways = new MappedLongPairMap(new File(directory, WAYS_FILE), EXPECTED_SIZE);
+        this.relations = new MappedLongPairMap(new File(directory, RELATIONS_FILE), EXPECTED_SIZE);
+    }
+
+    /**
+     * @return OSMExtractor.NODE, WAY or RELATION
+     */
+    static int getElementType(OSMElement element) {
+        if(element instanceof OSMNode) {
+            return OSMExtractor.NODE;
+        } else if(element instanceof OSMWay) {
+            return OSMExtractor.WAY;
+        } else {
+            return OSMExtractor.RELATION;
+        }
+    }
+
+    private MappedLongPairMap getMap(int elementType) {
+        switch(elementType) {
+            case OSMExtractor.NODE: return this.nodes;
+            case OSMExtractor.WAY: return this.ways;
+            default: return this.relations;
+        }
+    }
+
+    /**
+     * @return NO_VALUE if there is no id
+     */
+    static long parseID(String idString) {
+        if(idString == null || idString.length() == 0) return MappedLongPairMap.NO_VALUE;
+
+        return Long.parseLong(idString);
+    }
+
+    /**
+     * @return null if there is no id
+     */
+    static String toIDString(long id) {
+        return id == MappedLongPairMap.NO_VALUE ? null : Long.toString(id);
+    }
+
+    /**
+     * remember ids of that element - NO_VALUE ids are left unchanged
+     */
+    void setOHDM_IDs(int elementType, long osmID, long ohdmObjectID,
+            long ohdmGeomID) throws IOException {
+
+        // key 0 marks free slots
+        if(osmID == 0) return;
+
+        this.getMap(elementType).put(osmID, ohdmObjectID, ohdmGeomID);
+    }
+
+    /**
+     * @return ohdm object id or NO_VALUE if unknown
+     */
+    long getOHDMObjectID(int elementType, long osmID) {
+        return this.getMap(elementType).getFirst(osmID);
+    }
+
+    /**
+     * @return ohdm geometry id or NO_VALUE if unknown
+     */
+    long getOHDMGeomID(int elementType, long osmID) {
+        return this.getMap(elementType).getSecond(osmID);
+    }
+
+    /**
+     * @return ohdm object id of that relation or null if unknown
+     */
+    String getRelationOHDMObjectID(long osmID) {
+        return OHDMIDMapping.toIDString(this.relations.getFirst(osmID));
+    }
+
+    /**
+     * remove all mappings - e.g. when previous import is forgotten
+     */
+    void clear() throws IOException {
+        this.nodes.clear();
+        this.ways.clear();
+        this.relations.clear();
+    }
+
+    /**
+     * fill mapping with ohdm ids which are stored in intermediate db
+     */
+    void rebuild(Connection sourceConnection, String schema) throws SQLException, IOException {
+        this.clear();
+
+        OHDMIDMapping.rebuild(this.nodes, sourceConnection, DB.getFullTableName(schema, NODETABLE));
+        OHDMIDMapping.rebuild(this.ways, sourceConnection, DB.getFullTableName(schema, WAYTABLE));
+        OHDMIDMapping.rebuild(this.relations, sourceConnection, DB.getFullTableName(schema, RELATIONTABLE));
+
+        this.force();
+    }
+
+    /**
+     * @return true if markers of all mapping files fit to intermediate db
+     */
+    private boolean isCurrent(Connection sourceConnection, String schema) throws SQLException {
+        return this.nodes.getMarker() == OHDMIDMapping.getMaxID(sourceConnection, DB.getFullTableName(schema, NODETABLE))
+            && this.ways.getMarker() == OHDMIDMapping.getMaxID(sourceConnection, DB.getFullTableName(schema, WAYTABLE))
+            && this.relations.getMarker() == OHDMIDMapping.getMaxID(sourceConnection, DB.getFullTableName(schema, RELATIONTABLE));
+    }
+
+    /**
+     * @return highest id in that table, 0 if table is empty
+     */
+    private static long getMaxID(Connection sourceConnection, String tableName) throws SQLException {
+        SQLStatementQueue sql = new SQLStatementQueue(sourceConnection);
+        sql.append("SELECT max(id) FROM ");
+        sql.append(tableName);
+        sql.append(";");
+
+        ResultSet result = sql.executeWithResult();
+        result.next();
+        // null is returned as 0
+        long maxID = result.getLong(1);
+        result.close();
+
+        return maxID;
+    }
+
+    private static void rebuild(MappedLongPairMap map, Connection sourceConnection,
+            String tableName) throws SQLException, IOException {
+
+        // marker first - rows added meanwhile cause another rebuild
+        map.setMarker(OHDMIDMapping.getMaxID(sourceConnection, tableName));
+
+        SQLStatementQueue sql = new SQLStatementQueue(sourceConnection);
+
+        // read in steps - result of a whole table would not fit into memory
+        long lastOSMID = Long.MIN_VALUE;
+        boolean more = true;
+        while(more) {
+            /*
+            SELECT osm_id, ohdm_object_id, ohdm_geom_id FROM [table]
+            WHERE osm_id > [last] AND (ohdm_object_id IS NOT NULL OR ohdm_geom_id IS NOT NULL)
+            ORDER BY osm_id LIMIT [step];
+            */
+            sql.append("SELECT osm_id, ohdm_object_id, ohdm_geom_id FROM ");
+            sql.append(tableName);
+            sql.append(" WHERE osm_id > ");
+            sql.append(lastOSMID);
+            sql.append(" AND (ohdm_object_id IS NOT NULL OR ohdm_geom_id IS NOT NULL) ORDER BY osm_id LIMIT ");
+            sql.append(REBUILD_STEP);
+            sql.append(";");
+
+            ResultSet result = sql.executeWithResult();
+            int number = 0;
+            while(result.next()) {
+                lastOSMID = result.getLong(1);
+                number++;
+                if(lastOSMID == 0) continue;
+
+                // null is returned as 0 which is no value
+                map.put(lastOSMID, result.getLong(2), result.getLong(3));
+            }
+            result.close();
+
+            more = number == REBUILD_STEP;
+        }
+    }
+
+    void force() {
+        this.nodes.force();
+        this.ways.force();
+        this.relations.force();
+    }
+
+    long size() {
+        return this.nodes.size() + this.ways.size() + this.relations.size();
+    }
+}
@@ -0,0 +1,204 @@
+package inter2ohdm;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import util.LongIntHashMap;
+import util.MappedLongPairMap;
+
+/**
+ * Ohdm ids of one importer on their way into the shared OHDMIDMapping.
+ * Within chunk transactions (see ChunkTransaction) ids are kept until
+ * the transaction is committed and forgotten if it is rolled back -
+ * mapping never knows ids which are not in intermediate db. Lookups of
+ * that importer see its pending ids. Without transaction ids are written
+ * into mapping immediately.
+ *
+ * @author thsc
+ */
+class OHDMIDMappingBuffer {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final OHDMIDMapping mapping;
+    private boolean buffered = false;
+
+    private final Entries nodes = new Entries();
+    private final Entries ways = new Entries();
+    private final Entries relations = new Entries();
+
+    OHDMIDMappingBuffer(OHDMIDMapping mapping) {
+        this.mapping = mapping;
+    }
+
+    /**
+     * @param buffered true: ids are kept until flush
+     */
+    synchronized void setBuffered(boolean buffered) throws IOException {
+        if(!buffered) this.flush();
+
+        this.buffered = buffered;
+    }
+
+    OHDMIDMapping getMapping() {
+        return this.mapping;
+    }
+
+    private Entries getEntries(int elementType) {
+        switch(elementType) {
+            case OSMExtractor.NODE: return this.nodes;
+            case OSMExtractor.WAY: return this.ways;
+            default: return this.relations;
+        }
+    }
+
+    /**
+     * remember ids of that element - null ids are left unchanged
+     */
+    synchronized void setOHDM_IDs(OSMElement element, String ohdmObjectIDString,
+            String ohdmGeomIDString) throws IOException {
+
+        int elementType = OHDMIDMapping.getElementType(element);
+        long objectID = OHDMIDMapping.parseID(ohdmObjectIDString);
+        long geomID = OHDMIDMapping.parseID(ohdmGeomIDString);
+
+        if(this.buffered) {
+            this.getEntries(elementType).set(element.getOSMID(), objectID, geomID);
+        } else {
+            this.mapping.setOHDM_IDs(elementType, element.getOSMID(), objectID, geomID);
+        }
+    }
+
+    /**
+     * @return ohdm object id or null if unknown
+     */
+    synchronized String getOHDMObjectID(OSMElement element) {
+        int elementType = OHDMIDMapping.getElementType(element);
+
+        long id = this.getEntries(elementType).getObjectID(element.getOSMID());
+        if(id == MappedLongPairMap.NO_VALUE) {
+            id = this.mapping.getOHDMObjectID(elementType, element.getOSMID());
+        }
+
+        return OHDMIDMapping.toIDString(id);
+    }
+
+    /**
+     * @return ohdm geometry id or null if unknown
+     */
+    synchronized String getOHDMGeomID(OSMElement element) {
+        int elementType = OHDMIDMapping.getElementType(element);
+
+        long id = this.getEntries(elementType).getGeomID(element.getOSMID());
+        if(id == MappedLongPairMap.NO_VALUE) {
+            id = this.mapping.getOHDMGeomID(elementType, element.getOSMID());
+        }
+
+        return OHDMIDMapping.toIDString(id);
+    }
+
+    /**
+     * Element has no ids - take ids from mapping if any. That element
+     * might have been imported after it was read from intermediate db.
+     * @return true if element got an id
+     */
+    boolean resolve(OSMElement element) throws SQLException {
+        if(element.getOHDMObjectID() != null || element.getOHDMGeomID() != null) {
+            return false;
+        }
+
+        String objectID = this.getOHDMObjectID(element);
+        String geomID = this.getOHDMGeomID(element);
+        if(objectID == null && geomID == null) return false;
+
+        // already stored - don't write again
+        element.setOHDM_IDs(null, objectID, geomID, false);
+
+        return true;
+    }
+
+    /**
+     * write pending ids into mapping - their transaction is committed
+     */
+    synchronized void flush() throws IOException {
+        this.flush(OSMExtractor.NODE, this.nodes);
+        this.flush(OSMExtractor.WAY, this.ways);
+        this.flush(OSMExtractor.RELATION, this.relations);
+    }
+
+    private void flush(int elementType, Entries entries) throws IOException {
+        for(int i = 0; i < entries.number; i++) {
+            this.mapping.setOHDM_IDs(elementType, entries.osmIDs[i],
+                    entries.objectIDs[i], entries.geomIDs[i]);
+        }
+
+        entries.clear();
+    }
+
+    /**
+     * forget pending ids - their transaction was rolled back
+     */
+    synchronized void clear() {
+        this.nodes.clear();
+        this.ways.clear();
+        this.relations.clear();
+    }
+
+    /**
+     * ids of one element type - osm id is unique
+     */
+    private static class Entries {
+        private LongIntHashMap positions;
+        private long[] osmIDs;
+        private long[] objectIDs;
+        private long[] geomIDs;
+        private int number;
+
+        Entries() {
+            this.clear();
+        }
+
+        final void clear() {
+            this.positions = new LongIntHashMap(INITIAL_CAPACITY, -1);
+            this.osmIDs = new long[INITIAL_CAPACITY];
+            this.objectIDs = new long[INITIAL_CAPACITY];
+            this.geomIDs = new long[INITIAL_CAPACITY];
+            this.number = 0;
+        }
+
+        void set(long osmID, long objectID, long geomID) {
+            int i = this.positions.get(osmID);
+            if(i == -1) {
+                if(this.number == this.osmIDs.length) {
+                    int capacity = this.number * 2;
+                    this.osmIDs = Arrays.copyOf(this.osmIDs, capacity);
+                    this.objectIDs = Arrays.copyOf(this.objectIDs, capacity);
+                    this.geomIDs = Arrays.copyOf(this.geomIDs, capacity);
+                }
+
+                i = this.number++;
+                this.positions.put(osmID, i);
+                this.osmIDs[i] = osmID;
+                this.objectIDs[i] = MappedLongPairMap.NO_VALUE;
+                this.geomIDs[i] = MappedLongPairMap.NO_VALUE;
+            }
+
+            if(objectID != MappedLongPairMap.NO_VALUE) {
+                this.objectIDs[i] = objectID;
+            }
+
+            if(geomID != MappedLongPairMap.NO_VALUE) {
+                this.geomIDs[i] = geomID;
+            }
+        }
+
+        long getObjectID(long osmID) {
+            int i = this.positions.get(osmID);
+            return i == -1 ? MappedLongPairMap.NO_VALUE : this.objectIDs[i];
+        }
+
+        long getGeomID(long osmID) {
+            int i = this.positions.get(osmID);
+            return i == -1 ? MappedLongPairMap.NO_VALUE : this.geomIDs[i];
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package inter2ohdm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import static util.InterDB.NODETABLE;
+import static util.InterDB.RELATIONTABLE;
+import static util.InterDB.WAYTABLE;
+import util.CopyBuffer;
+import util.DB;
+import util.LongIntHashMap;
+import util.SQLStatementQueue;
+
+/**
+ * Collects ohdm object and geometry ids of imported elements instead of
+ * updating intermediate tables row by row. Ids are written with one
+ * statement per table: rows are copied into a temporary table which is
+ * joined in an UPDATE .. FROM. Ids of the same element are merged - an
+ * element can get its object id and its geometry id in separate calls.
+ *
+ * Ids are written with flush (end of chunk) or when a table collected
+ * maxEntries elements.
+ *
+ * @author thsc
+ */
+class OHDMIDWriteBack {
+    static final int DEFAULT_MAX_ENTRIES = 50000;
+
+    private static final String TMP_TABLE = "ohdm_id_writeback";
+    private static final int NO_GEOMETRY_TYPE = -1;
+    private static final String[] TMP_COLUMNS = new String[] {
+        "osm_id", "ohdm_object_id", "ohdm_geom_id", "ohdm_geom_type"};
+
+    private final Connection sourceConnection;
+    private final String schema;
+    private final int maxEntries;
+
+    private final Entries nodes;
+    private final Entries ways;
+    private final Entries relations;
+
+    private long writtenRows = 0;
+
+    OHDMIDWriteBack(Connection sourceConnection, String schema, int maxEntries) {
+        this.sourceConnection = sourceConnection;
+        this.schema = schema;
+        this.maxEntries = maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES;
+
+        this.nodes = new Entries(DB.getFullTableName(schema, NODETABLE), this.maxEntries);
+        this.ways = new Entries(DB.getFullTableName(schema, WAYTABLE), this.maxEntries);
+        this.relations = new Entries(DB.getFullTableName(schema, RELATIONTABLE), this.maxEntries);
+    }
+
+    /**
+     * remember ids of that element - null ids are left unchanged
+     */
+    synchronized void setOHDM_IDs(OSMElement element, String ohdmObjectIDString,
+            String ohdmGeomIDString) throws SQLException {
+
+        Entries entries = this.getEntries(element);
+
+        int geomType = ohdmGeomIDString != null ?
+                element.getGeometryType() : NO_GEOMETRY_TYPE;
+
+        entries.set(element.getOSMID(), ohdmObjectIDString, ohdmGeomIDString, geomType);
+
+        if(entries.size() >= this.maxEntries) {
+            this.write(entries);
+        }
+    }
+
+    private Entries getEntries(OSMElement element) {
+        if(element instanceof OSMNode) {
+            return this.nodes;
+        } else if(element instanceof OSMWay) {
+            return this.ways;
+        } else {
+            return this.relations;
+        }
+    }
+
+    /**
+     * write all collected ids
+     */
+    synchronized void flush() throws SQLException {
+        this.write(this.nodes);
+        this.write(this.ways);
+        this.write(this.relations);
+    }
+
+    /**
+     * forget collected ids - their transaction was rolled back
+     */
+    synchronized void clear() {
+        this.nodes.clear();
+        this.ways.clear();
+        this.relations.clear();
+    }
+
+    synchronized long getWrittenRows() {
+        return this.writtenRows;
+    }
+
+    private void write(Entries entries) throws SQLException {
+        if(entries.size() == 0) return;
+
+        SQLStatementQueue sql = new SQLStatementQueue(this.sourceConnection);
+
+        /* temporary tables live as long as the session - but within a
+        chunk transaction its creation is undone with a rollback. Ask 
+        each time.
+        */
+        sql.append("CREATE TEMPORARY TABLE IF NOT EXISTS ");
+        sql.append(TMP_TABLE);
+        sql.append(" (osm_id bigint, ohdm_object_id bigint, ohdm_geom_id bigint, ohdm_geom_type integer);");
+        sql.forceExecute();
+
+        sql.append("TRUNCATE ");
+        sql.append(TMP_TABLE);
+        sql.append(";");
+        sql.forceExecute();
+
+        CopyBuffer copy = this.createCopyBuffer(entries.size());
+
+        for(int i = 0; i < entries.size(); i++) {
+            copy.addRow(Long.toString(entries.osmIDs[i]),
+                    entries.objectIDs[i],
+                    entries.geomIDs[i],
+                    entries.geomTypes[i] == NO_GEOMETRY_TYPE ?
+                            null : Integer.toString(entries.geomTypes[i]));
+        }
+        copy.flush();
+
+        /*
+        ANALYZE ohdm_id_writeback;
+        UPDATE [table] AS t SET
+            ohdm_object_id = COALESCE(w.ohdm_object_id, t.ohdm_object_id),
+            ohdm_geom_id = COALESCE(w.ohdm_geom_id, t.ohdm_geom_id),
+            ohdm_geom_type = COALESCE(w.ohdm_geom_type, t.ohdm_geom_type)
+        FROM ohdm_id_writeback AS w WHERE t.osm_id = w.osm_id;
+        */
+        // statistics let planner use the osm_id index for small batches
+        sql.append("ANALYZE ");
+        sql.append(TMP_TABLE);
+        sql.append("; UPDATE ");
+        sql.append(entries.tableName);
+        sql.append(" AS t SET ");
+        sql.append("ohdm_object_id = COALESCE(w.ohdm_object_id, t.ohdm_object_id), ");
+        sql.append("ohdm_geom_id = COALESCE(w.ohdm_geom_id, t.ohdm_geom_id), ");
+        sql.append("ohdm_geom_type = COALESCE(w.ohdm_geom_type, t.ohdm_geom_type) FROM ");
+        sql.append(TMP_TABLE);
+        sql.append(" AS w WHERE t.osm_id = w.osm_id;");
+        sql.forceExecute();
+
+        this.writtenRows += entries.size();
+        entries.clear();
+    }
+
+    /**
+     * @return buffer of rows copied into temporary table
+     */
+    CopyBuffer createCopyBuffer(int maxRows) {
+        return new CopyBuffer(this.sourceConnection, TMP_TABLE, TMP_COLUMNS, maxRows);
+    }
+
+    /**
+     * ids of one intermediate table - osm id is unique
+     */
+    private static class Entries {
+        private final String tableName;
+        private final int capacity;
+
+        private LongIntHashMap positions;
+        private long[] osmIDs;
+        private String[] objectIDs;
+        private String[] geomIDs;
+        private int[] geomTypes;
+        private int number;
+
+        Entries(String tableName, int capacity) {
+            this.tableName = tableName;
+            this.capacity = capacity;
+            this.clear();
+        }
+
+        final void clear() {
+            this.positions = new LongIntHashMap(this.capacity, -1);
+            this.osmIDs = new long[this.capacity];
+            this.objectIDs = new String[this.capacity];
+            this.geomIDs = new String[this.capacity];
+            this.geomTypes = new int[this.capacity];
+            this.number = 0;
+        }
+
+        int size() {
+            return this.number;
+        }
+
+        void set(long osmID, String objectID, String geomID, int geomType) {
+            int i = this.positions.get(osmID);
+            if(i == -1) {
+                i = this.number++;
+                this.positions.put(osmID, i);
+                this.osmIDs[i] = osmID;
+                this.geomTypes[i] = NO_GEOMETRY_TYPE;
+            }
+
+            if(objectID != null) {
+                this.objectIDs[i] = objectID;
+            }
+
+            if(geomID != null) {
+                this.geomIDs[i] = geomID;
+                this.geomTypes[i] = geomType;
+            }
+        }
+    }
+}
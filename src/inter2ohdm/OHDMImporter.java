@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
@@ -16,7 +17,10 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import util.DB;
 import util.OHDM_DB;
+import util.PreparedBatch;
 import util.FileSQLStatementQueue;
+import util.CopyBuffer;
+import util.IDBlockAllocator;
 import util.InterDB;
 import util.SQLStatementQueue;
 import util.Parameter;
@@ -36,6 +40,9 @@ public class OHDMImporter extends Importer {
     private final SQLStatementQueue sourceUpdateQueue;
     private final SQLStatementQueue targetSelectQueue;
     private final SQLStatementQueue targetInsertQueue;
+    private OHDMIDWriteBack idWriteBack = null;
+    private OHDMIDMapping idMapping = null;
+    private OHDMIDMappingBuffer idMappingBuffer = null;
 
 
     private String defaultSince = "1970-01-01";
@@ -54,6 +61,13 @@ public class OHDMImporter extends Importer {
 //        this.sourceUpdateQueue = new SQLStatementQueue(sourceConnection);
         this.sourceUpdateQueue = updateQueue;
         
+        // ids are written per chunk - file queues get an update per row
+        if(!(updateQueue instanceof FileSQLStatementQueue)) {
+            this.idWriteBack = new OHDMIDWriteBack(sourceConnection, 
+                    sourceSchema, OHDMIDWriteBack.DEFAULT_MAX_ENTRIES);
+            this.intermediateDB.setIDWriteBack(this.idWriteBack);
+        }
+        
         this.targetSelectQueue = new SQLStatementQueue(targetConnection);
         this.targetInsertQueue = new SQLStatementQueue(targetConnection);
         
@@ -61,13 +75,269 @@ public class OHDMImporter extends Importer {
         this.defaultUntil = validUntilString;
     }
     
+    ///////////////////////////////////////////////////////////////////////
+    //                          id allocation                            //
+    ///////////////////////////////////////////////////////////////////////
+    
+    private IDBlockAllocator objectIDBlocks = null;
+    private IDBlockAllocator pointIDBlocks = null;
+    private IDBlockAllocator lineIDBlocks = null;
+    private IDBlockAllocator polygonIDBlocks = null;
+    
+    /**
+     * Object and geometry ids are taken from blocks of reserved ids. Rows are
+     * queued and written in batches instead of inserting each row and
+     * waiting for its id. Rows are written by prepared batches unless 
+     * another row writer is set (see setRowWriting).
+     * @param blockSize number of ids reserved at once, 0 or less: ids are
+     * returned by each insert
+     */
+    void setIDBlockSize(int blockSize) {
+        if(blockSize < 1) {
+            this.objectIDBlocks = null;
+            this.pointIDBlocks = null;
+            this.lineIDBlocks = null;
+            this.polygonIDBlocks = null;
+            return;
+        }
+        
+        this.objectIDBlocks = new IDBlockAllocator(this.targetConnection, 
+                this.targetSchema, OHDM_DB.TABLE_GEOOBJECT, blockSize);
+        this.pointIDBlocks = new IDBlockAllocator(this.targetConnection, 
+                this.targetSchema, OHDM_DB.TABLE_POINTS, blockSize);
+        this.lineIDBlocks = new IDBlockAllocator(this.targetConnection, 
+                this.targetSchema, OHDM_DB.TABLE_LINES, blockSize);
+        this.polygonIDBlocks = new IDBlockAllocator(this.targetConnection, 
+                this.targetSchema, OHDM_DB.TABLE_POLYGONS, blockSize);
+        
+        if(this.rowWriter == null) {
+            this.rowWriter = new OHDMBatchWriter(this.targetConnection, 
+                    this.targetSchema, PreparedBatch.DEFAULT_BATCH_SIZE);
+        }
+    }
+    
+    private OHDMRowWriter rowWriter = null;
+    
+    /**
+     * Objects, geometries, validities and subsequent objects are written 
+     * with COPY. Requires id blocks, default block size is used if not 
+     * yet set. Rows are copied when buffers are full and with forceExecute.
+     * 
+     * Otherwise, those rows are written by prepared batches if id blocks
+     * are used (see OHDMBatchWriter).
+     */
+    void setCopyWriting(boolean copy) throws SQLException {
+        if(!copy) {
+            if(this.rowWriter != null) this.rowWriter.flush();
+            this.rowWriter = null;
+            
+            if(this.objectIDBlocks != null) {
+                this.rowWriter = new OHDMBatchWriter(this.targetConnection, 
+                        this.targetSchema, PreparedBatch.DEFAULT_BATCH_SIZE);
+            }
+            return;
+        }
+        
+        if(this.objectIDBlocks == null) {
+            this.setIDBlockSize(IDBlockAllocator.DEFAULT_BLOCK_SIZE);
+        }
+        
+        this.rowWriter = new OHDMCopyWriter(this.targetConnection, 
+                this.targetSchema, CopyBuffer.DEFAULT_MAX_ROWS);
+    }
+    
+    /**
+     * Objects, geometries, validities and subsequent objects are written 
+     * by a server side function - one call for each batch of rows (see 
+     * OHDMFunctionWriter). Requires id blocks, default block size is used 
+     * if not yet set.
+     */
+    void setFunctionWriting() throws SQLException {
+        if(this.rowWriter != null) this.rowWriter.flush();
+        
+        if(this.objectIDBlocks == null) {
+            this.setIDBlockSize(IDBlockAllocator.DEFAULT_BLOCK_SIZE);
+        }
+        
+        this.rowWriter = new OHDMFunctionWriter(this.targetConnection, 
+                this.targetSchema, OHDMFunctionWriter.DEFAULT_MAX_ROWS);
+    }
+    
+    /**
+     * @param connectionType of target parameter: copy, function or insert
+     */
+    void setRowWriting(String connectionType) throws SQLException {
+        if(connectionType.equalsIgnoreCase("function")) {
+            this.setFunctionWriting();
+        } else {
+            this.setCopyWriting(connectionType.equalsIgnoreCase("copy"));
+        }
+    }
+    
+    private IDBlockAllocator getGeometryIDs(int geometryType) {
+        switch(geometryType) {
+            case OHDM_DB.POINT: return this.pointIDBlocks;
+            case OHDM_DB.LINESTRING: return this.lineIDBlocks;
+            case OHDM_DB.POLYGON: return this.polygonIDBlocks;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * @return buffer of ohdm ids which are written into intermediate db - 
+     * null if each row is updated
+     */
+    OHDMIDWriteBack getIDWriteBack() {
+        return this.idWriteBack;
+    }
+    
+    /**
+     * Ohdm ids are kept in mapping files in idMappingDirectory of 
+     * intermediate parameters. Mapping is built from intermediate db if 
+     * there are no files yet. Must be called before extractor is created.
+     */
+    void setIDMapping(Parameter sourceParameter) throws IOException, SQLException {
+        String directory = sourceParameter.getIDMappingDirectory();
+        if(directory == null || directory.length() == 0) {
+            this.idMapping = null;
+            this.idMappingBuffer = null;
+        } else {
+            this.idMapping = OHDMIDMapping.getMapping(new File(directory), 
+                    this.sourceConnection, this.sourceSchema);
+            
+            // ids of chunk transactions get into mapping when committed
+            this.idMappingBuffer = new OHDMIDMappingBuffer(this.idMapping);
+            this.idMappingBuffer.setBuffered(this.transaction != null);
+            
+            System.out.println("ohdm id mapping in " + directory 
+                    + " with " + this.idMapping.size() + " entries");
+        }
+        
+        this.intermediateDB.setIDMapping(this.idMappingBuffer);
+    }
+    
+    /**
+     * @return osm id to ohdm ids mapping - null if there is none
+     */
+    OHDMIDMapping getIDMapping() {
+        return this.idMapping;
+    }
+    
+    /**
+     * @return ids of that importer on their way into mapping - null if 
+     * there is no mapping
+     */
+    OHDMIDMappingBuffer getIDMappingBuffer() {
+        return this.idMappingBuffer;
+    }
+    
+    ///////////////////////////////////////////////////////////////////////
+    //                          transactions                             //
+    ///////////////////////////////////////////////////////////////////////
+    
+    private ChunkTransaction transaction = null;
+    
+    /**
+     * Writes of that importer are done within transactions of chunks.
+     * Source update queue must use source connection of that transaction.
+     * @param userConnection external users are added with that connection 
+     * (autocommit) - they are shared by all importers on target db
+     */
+    void setChunkTransaction(ChunkTransaction transaction, Connection userConnection) {
+        this.transaction = transaction;
+        this.userConnection = userConnection;
+        
+        transaction.setImporter(this);
+        
+        if(this.idMappingBuffer != null) {
+            try {
+                this.idMappingBuffer.setBuffered(true);
+            }
+            catch(IOException e) {
+                System.err.println("cannot write id mapping: " + e.getLocalizedMessage());
+            }
+        }
+    }
+    
+    @Override
+    void elementProcessed() throws SQLException {
+        if(this.transaction != null) {
+            this.transaction.elementProcessed();
+        }
+    }
+    
+    /**
+     * forget all buffered writes - their transaction is rolled back
+     */
+    void discard() {
+        this.sourceUpdateQueue.resetStatement();
+        this.sourceUpdateQueue.join();
+        this.targetInsertQueue.resetStatement();
+        this.targetInsertQueue.join();
+        this.targetSelectQueue.resetStatement();
+        this.targetSelectQueue.join();
+        
+        if(this.idWriteBack != null) this.idWriteBack.clear();
+        if(this.idMappingBuffer != null) this.idMappingBuffer.clear();
+        if(this.rowWriter != null) this.rowWriter.clear();
+    }
+    
+    /**
+     * transaction is committed - its ids can be seen by other importers
+     */
+    void committed() {
+        if(this.idMappingBuffer == null) return;
+        
+        try {
+            this.idMappingBuffer.flush();
+        }
+        catch(IOException e) {
+            // intermediate db has those ids anyway
+            System.err.println("cannot write id mapping: " + e.getLocalizedMessage());
+        }
+    }
+    
+    @Override
+    String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("intermediate update queue: ");
+        sb.append(this.sourceUpdateQueue.getStatistics());
+        sb.append("\nohdm insert queue       : ");
+        sb.append(this.targetInsertQueue.getStatistics());
+        if(this.rowWriter != null) {
+            sb.append("\nohdm rows written       : ");
+            sb.append(Util.getValueWithDots(this.rowWriter.getWrittenRows()));
+            if(this.rowWriter instanceof OHDMFunctionWriter) {
+                OHDMFunctionWriter functionWriter = (OHDMFunctionWriter) this.rowWriter;
+                sb.append(" | function calls: ");
+                sb.append(Util.getValueWithDots(functionWriter.getCalls()));
+                sb.append(" | failed: ");
+                sb.append(Util.getValueWithDots(functionWriter.getFailedCalls()));
+            }
+        }
+        if(this.transaction != null) {
+            sb.append("\nchunk transactions      : commits: ");
+            sb.append(Util.getValueWithDots(this.transaction.getCommits()));
+            sb.append(" | rollbacks: ");
+            sb.append(Util.getValueWithDots(this.transaction.getRollbacks()));
+        }
+        
+        return sb.toString();
+    }
+    
     void close() throws SQLException {
+        if(this.idWriteBack != null) this.idWriteBack.flush();
+        if(this.idMapping != null) this.idMapping.force();
+        if(this.rowWriter != null) this.rowWriter.flush();
         this.targetInsertQueue.forceExecute();
         this.targetInsertQueue.close();
     }
     
     void forceExecute() throws SQLException {
         this.sourceUpdateQueue.forceExecute();
+        if(this.idWriteBack != null) this.idWriteBack.flush();
+        if(this.rowWriter != null) this.rowWriter.flush();
         this.targetInsertQueue.forceExecute();
     }
     
@@ -104,6 +374,14 @@ public class OHDMImporter extends Importer {
 //        SQLStatementQueue sql = new SQLStatementQueue(this.targetConnection);
 
         try {
+            if(this.rowWriter != null) {
+                for(OSMElement node : iNodesList) {
+                    this.rowWriter.addSubsequent(way.getOHDMObjectID(), 
+                            OHDM_DB.POINT, node.getOHDMObjectID());
+                }
+                return true;
+            }
+            
             this.saveSubsequentObjects(this.targetInsertQueue, way.getOHDMObjectID(), 
                     OHDM_DB.POINT, iNodesList.iterator());
         
@@ -296,26 +574,30 @@ public class OHDMImporter extends Importer {
         return true;
     }
     
-    private int idExternalSystemOSM = -1;
-    private int getOHDM_ID_externalSystemOSM() {
-        if(this.idExternalSystemOSM == -1) {
-            try {
-                StringBuilder sb = new StringBuilder();
-                sb.append("SELECT id FROM ");
-                sb.append(DB.getFullTableName(targetSchema, OHDM_DB.TABLE_EXTERNAL_SYSTEMS));
-                sb.append(" where name = 'OSM' OR name = 'osm';");
-                ResultSet result = 
-                        this.executeQueryOnTarget(sb.toString());
-                
-                result.next();
-                this.idExternalSystemOSM = result.getInt(1);
-
-            } catch (SQLException ex) {
-                Logger.getLogger(OHDMImporter.class.getName()).log(Level.SEVERE, null, ex);
-            }
+    private ExternalUserDictionary externalUsers = null;
+    
+    // users are shared by importers - not added within chunk transactions
+    private Connection userConnection = this.targetConnection;
+    
+    /**
+     * external users - shared with other importers on that target
+     */
+    private ExternalUserDictionary getExternalUsers() throws SQLException {
+        if(this.externalUsers == null) {
+            this.externalUsers = ExternalUserDictionary.getDictionary(
+                    this.userConnection, this.targetSchema);
         }
         
-        return this.idExternalSystemOSM;
+        return this.externalUsers;
+    }
+    
+    private int getOHDM_ID_externalSystemOSM() {
+        try {
+            return this.getExternalUsers().getExternalSystemID();
+        } catch (SQLException ex) {
+            Logger.getLogger(OHDMImporter.class.getName()).log(Level.SEVERE, null, ex);
+            return -1;
+        }
     }
 
     boolean validUserID(String userID) {
@@ -327,8 +609,6 @@ public class OHDMImporter extends Importer {
     }
     
     
-    private final HashMap<String, Integer> idExternalUsers = new HashMap<>();
-    
     private int getOHDM_ID_ExternalUser(OSMElement ohdmElement) {
         // create user entry or find user primary key
         String externalUserID = ohdmElement.getUserID();
@@ -341,53 +621,21 @@ public class OHDMImporter extends Importer {
     private int getOHDM_ID_ExternalUser(String externalUserID, String externalUserName) {
         if(!this.validUserID(externalUserID)) return OHDM_DB.UNKNOWN_USER_ID;
         
-        Integer idInteger = this.idExternalUsers.get(externalUserID);
-        if(idInteger != null) { // already in memory
-            return idInteger;
-        }
-        
-        int osm_id = this.getOHDM_ID_externalSystemOSM();
-        
         int ohdmID = -1; // -1 means failure
         try {
-            // search in db
-            // SELECT id from external_users where userid = '43566';
-            StringBuilder sb = new StringBuilder();
-            sb.append("SELECT id from ");
-            sb.append(DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_EXTERNAL_USERS));
-            sb.append(" where userid = '");
-            sb.append(externalUserID);
-            sb.append("' AND external_system_id = '");
-            sb.append(osm_id);
-            sb.append("';");
+            long userID = Long.parseLong(externalUserID);
             
-            ResultSet result = this.executeQueryOnTarget(sb.toString());
-            
-            if(result.next()) {
-                // there is an entry
-                ohdmID = result.getInt(1);
-
-                // keep it
-                this.idExternalUsers.put(externalUserID, ohdmID);
-            } else {
-                // there is no entry
-                StringBuilder s = new StringBuilder();
-                //SQLStatementQueue s = new SQLStatementQueue(this.targetConnection);
-                s.append("INSERT INTO ");
-                s.append(DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_EXTERNAL_USERS));
-                s.append(" (userid, username, external_system_id) VALUES ('");
-                s.append(externalUserID);
-                s.append("', '");
-                s.append(externalUserName);
-                s.append("', ");
-                s.append(this.getOHDM_ID_externalSystemOSM());
-                s.append(") RETURNING id;");
-                //s.flush();
+            ExternalUserDictionary users = this.getExternalUsers();
+            ohdmID = users.getID(userID);
+            if(ohdmID == ExternalUserDictionary.NOT_FOUND) {
+                // not yet in db
+                users.addUsers(this.userConnection, new long[] {userID}, 
+                        new String[] {externalUserName}, 1);
                 
-                ResultSet insertResult = this.executeQueryOnTarget(s.toString());
-                insertResult.next();
-                ohdmID = insertResult.getInt(1);
+                ohdmID = users.getID(userID);
             }
+        } catch (NumberFormatException ex) {
+            return OHDM_DB.UNKNOWN_USER_ID;
         } catch (SQLException ex) {
             // TODO serious probleme
             System.err.println("thats a serious problem, cannot insert/select external user id: " + ex.getMessage());
@@ -397,6 +645,46 @@ public class OHDMImporter extends Importer {
         
     }
     
+    /**
+     * add users of those elements which are not yet known - with one 
+     * statement instead of one per user
+     */
+    @Override
+    void prepareImport(List<OSMElement> elements) {
+        try {
+            ExternalUserDictionary users = this.getExternalUsers();
+            
+            long[] userIDs = new long[elements.size()];
+            String[] userNames = new String[elements.size()];
+            int number = 0;
+            
+            for(OSMElement element : elements) {
+                String externalUserID = element.getUserID();
+                if(!this.validUserID(externalUserID)) continue;
+                
+                try {
+                    long userID = Long.parseLong(externalUserID);
+                    if(users.getID(userID) == ExternalUserDictionary.NOT_FOUND) {
+                        userIDs[number] = userID;
+                        userNames[number] = element.getUsername();
+                        number++;
+                    }
+                }
+                catch(NumberFormatException e) {
+                    // unknown user
+                }
+            }
+            
+            if(number > 0) {
+                users.addUsers(this.userConnection, userIDs, userNames, number);
+            }
+        }
+        catch(SQLException ex) {
+            // users are added one by one later
+            System.err.println("cannot add external users in a batch: " + ex.getMessage());
+        }
+    }
+    
     String getOHDMObjectID(OSMElement osmElement, boolean namedEntitiesOnly) throws SQLException {
         // already in OHDM DB?
         String ohdmIDString = osmElement.getOHDMObjectID();
@@ -457,18 +745,29 @@ public class OHDMImporter extends Importer {
     }
     
     String addOHDMObject(String name, int externalUserID) throws SQLException {
-        SQLStatementQueue sql = new SQLStatementQueue(this.targetConnection);
-        sql.append("INSERT INTO ");
-        sql.append(DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_GEOOBJECT));
-        sql.append(" (name, source_user_id) VALUES ('");
-        sql.append(name);
-        sql.append("', ");
-        sql.append(externalUserID);
-        sql.append(") RETURNING id;");
+        if(this.objectIDBlocks != null) {
+            // id is known - just queue that row (id blocks come with a row writer)
+            String objectIDString = this.objectIDBlocks.nextIDString();
+            this.rowWriter.addObject(objectIDString, name, externalUserID);
+            
+            return objectIDString;
+        }
         
-        ResultSet result = sql.executeWithResult();
-        result.next();
-        return result.getBigDecimal(1).toString();
+        // name is bound - no escaping
+        PreparedStatement stmt = this.targetConnection.prepareStatement(
+                "INSERT INTO " + DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_GEOOBJECT)
+                + " (name, source_user_id) VALUES (?, ?) RETURNING id");
+        try {
+            stmt.setString(1, name);
+            stmt.setInt(2, externalUserID);
+            
+            ResultSet result = stmt.executeQuery();
+            result.next();
+            return result.getBigDecimal(1).toString();
+        }
+        finally {
+            stmt.close();
+        }
     }
     
     String addGeometry(OSMElement osmElement) throws SQLException {
@@ -478,8 +777,29 @@ public class OHDMImporter extends Importer {
     }
     
     String addGeometry(OSMElement osmElement, int externalUserID) throws SQLException {
-        String wkt = osmElement.getWKTGeometry();
-        if(wkt == null || wkt.length() < 1) return null;
+        // wkb is taken as it is - wkt has to be parsed by PostGIS
+        String geometry = osmElement.getWKBGeometry();
+        if(geometry == null) {
+            geometry = osmElement.getWKTGeometry();
+        }
+        if(geometry == null || geometry.length() < 1) return null;
+        
+        IDBlockAllocator geometryIDs = this.getGeometryIDs(osmElement.getGeometryType());
+        if(geometryIDs != null) {
+            // id is known - just queue that insert
+            String geomIDString = geometryIDs.nextIDString();
+            if(this.rowWriter != null) {
+                this.rowWriter.addGeometry(osmElement.getGeometryType(), 
+                        geomIDString, geometry, externalUserID);
+            } else {
+                this.appendGeometryInsert(this.targetInsertQueue, 
+                        osmElement.getGeometryType(), geomIDString, geometry, externalUserID);
+                this.targetInsertQueue.couldExecute();
+            }
+            
+            osmElement.setOHDMGeometryID(this.sourceUpdateQueue, geomIDString);
+            return geomIDString;
+        }
         
 //        SQLStatementQueue targetQueue = new SQLStatementQueue(this.targetConnection);
         
@@ -507,7 +827,7 @@ public class OHDMImporter extends Importer {
         
         targetSelectQueue.append(" source_user_id) VALUES ('");
         
-        targetSelectQueue.append(wkt);
+        targetSelectQueue.append(geometry);
         targetSelectQueue.append("', ");
         targetSelectQueue.append(externalUserID);
         targetSelectQueue.append(") RETURNING id;");
@@ -520,13 +840,45 @@ public class OHDMImporter extends Importer {
             return geomIDString;
         }
         catch(SQLException e) {
-            System.err.println("failure when inserting geometry, wkt:\n" + wkt + "\nosm_id: " + osmElement.getOSMIDString());
+            System.err.println("failure when inserting geometry, geometry:\n" + geometry + "\nosm_id: " + osmElement.getOSMIDString());
             throw e;
         }
     }
     
     
 
+    /**
+     * INSERT INTO [points|lines|polygons] (id, [point|line|polygon], source_user_id) 
+     * VALUES (id, 'wkb or wkt', userID);
+     */
+    private void appendGeometryInsert(SQLStatementQueue sql, int geometryType, 
+            String geomIDString, String geometry, int externalUserID) {
+        
+        sql.append("INSERT INTO ");
+        switch(geometryType) {
+            case OHDM_DB.POINT: 
+                sql.append(DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_POINTS));
+                sql.append(" (id, point, ");
+                break;
+            case OHDM_DB.LINESTRING: 
+                sql.append(DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_LINES));
+                sql.append(" (id, line, ");
+                break;
+            case OHDM_DB.POLYGON: 
+                sql.append(DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_POLYGONS));
+                sql.append(" (id, polygon, ");
+                break;
+        }
+        
+        sql.append("source_user_id) VALUES (");
+        sql.append(geomIDString);
+        sql.append(", '");
+        sql.append(geometry);
+        sql.append("', ");
+        sql.append(externalUserID);
+        sql.append(");");
+    }
+
     void addValidity(OSMElement osmElement, String ohdmIDString, String ohdmGeomIDString, int externalUserID)
             throws SQLException {
         // what table is reference by id_geometry
@@ -545,6 +897,13 @@ public class OHDMImporter extends Importer {
         
         // there can be more than one classcode...
         
+        if(this.rowWriter != null) {
+            this.writeValidities(osmElement, targetType, 
+                    osmElement.getClassCodeString(), ohdmIDString, 
+                    ohdmGeomIDString, externalUserID);
+            return;
+        }
+        
         this.addValidity(this.targetInsertQueue, osmElement, targetType, 
                 osmElement.getClassCodeString(), ohdmIDString, 
                 ohdmGeomIDString, externalUserID);
@@ -553,6 +912,28 @@ public class OHDMImporter extends Importer {
         this.targetInsertQueue.couldExecute();
     }
     
+    /**
+     * add validities with row writer - one for each class of that element
+     */
+    private void writeValidities(OSMElement osmElement, int targetType, 
+            String classCodeString, String sourceIDString, 
+            String targetIDString, int externalUserID) throws SQLException {
+        
+        String sinceString = this.getSinceString(osmElement);
+        String hstoreValue = osmElement.hasFreeAttributes() ? 
+                osmElement.getFreeAttributesASHStoreValue() : null;
+
+        Iterator<String> classIDIter = osmElement.getOtherClassIDs();
+        for(;;) {
+            this.rowWriter.addValidity(targetType, classCodeString, 
+                    sourceIDString, targetIDString, sinceString, 
+                    this.defaultUntil, externalUserID, hstoreValue);
+
+            if(!classIDIter.hasNext()) break;
+            classCodeString = classIDIter.next();
+        }
+    }
+    
     private String formatDateString(String sinceValue) {
         // assume we have only got the year
         if(sinceValue.length() == 4) {
@@ -568,6 +949,12 @@ public class OHDMImporter extends Importer {
             String classCodeString, String sourceIDString, 
             String targetIDString, int externalUserID) throws SQLException {
         
+        this.addValidity(sq, osmElement, targetType, classCodeString, 
+                sourceIDString, targetIDString, externalUserID, 
+                this.getSinceString(osmElement), this.defaultUntil);
+    }
+    
+    private String getSinceString(OSMElement osmElement) {
         String sinceString = null;
         /* 
         is there since tag in osm origin?
@@ -588,9 +975,7 @@ public class OHDMImporter extends Importer {
             sinceString = this.defaultSince;
         }
         
-        this.addValidity(sq, osmElement, targetType, classCodeString, 
-                sourceIDString, targetIDString, externalUserID, 
-                sinceString, this.defaultUntil);
+        return sinceString;
     }
     
     void addValidity(SQLStatementQueue sq, OSMElement osmElement, int targetType, 
@@ -893,6 +1278,9 @@ public class OHDMImporter extends Importer {
             
             ohdmImporter = new OHDMImporter(iDB, targetParameter.getOsmfilecreationdate(), sourceConnection,
                     targetConnection, sourceSchema, targetSchema, updateQueue);
+            ohdmImporter.setIDBlockSize(targetParameter.getIDBlockSize());
+            ohdmImporter.setRowWriting(targetParameter.getConnectionType());
+            ohdmImporter.setIDMapping(sourceParameter);
 
             try {
                 if(targetParameter.forgetPreviousImport()) {
@@ -900,6 +1288,9 @@ public class OHDMImporter extends Importer {
                         ohdmImporter.forgetPreviousNodesImport();
                         ohdmImporter.forgetPreviousWaysImport();
                         ohdmImporter.forgetPreviousRelationsImport();
+                        if(ohdmImporter.getIDMapping() != null) {
+                            ohdmImporter.getIDMapping().clear();
+                        }
                 }
                 
                 OHDM_DB.dropOHDMTables(targetConnection, targetSchema);
@@ -922,6 +1313,16 @@ public class OHDMImporter extends Importer {
             }
 
             extractor = new OSMExtractor(sourceConnection, sourceSchema, ohdmImporter, stepLen);
+            extractor.setWayNodeCache(WayNodeCache.create(sourceParameter));
+            extractor.setNodeCoordinateCache(NodeCoordinateCache.create(sourceParameter));
+            extractor.setMemberExistenceIndex(MemberExistenceIndex.create(sourceParameter));
+
+            if(sourceParameter.getPrefetchChunks() > 0) {
+                // read next chunk while processing current one
+                System.out.println("intermediate chunks are prefetched by reader thread");
+                extractor.setPrefetching(DB.createConnection(sourceParameter),
+                        sourceParameter.getPrefetchChunks());
+            }
             
             System.out.println("intermediate select queue uses jdbc");
             sourceQueue = DB.createSQLStatementQueue(sourceConnection, sourceParameter);
@@ -1002,7 +1403,7 @@ public class OHDMImporter extends Importer {
                 OHDM ID in geoobject_geometry table. That problem can be fixed after
                 importing all relations. Do it here.
                 */
-                ohdmImporter.postProcessGGTable();
+                ohdmImporter.postProcessGGTable(targetParameter);
                 
                 if(fileUpdateQueue != null) {
                     // close update stream and let psql process that stuff
@@ -1085,6 +1486,11 @@ public class OHDMImporter extends Importer {
             boolean isObject = false;
             boolean useOSMID = false;
             
+            // imported after member was read (e.g. relation in same chunk)?
+            if(this.idMappingBuffer != null) {
+                this.idMappingBuffer.resolve(member);
+            }
+            
             // try to get OHDM ID
             String memberOHDMIDString = member.getOHDMObjectID();
             
@@ -1181,9 +1587,9 @@ public class OHDMImporter extends Importer {
     }
 
     private boolean saveRelationAsMultipolygon(OSMRelation relation) throws SQLException {
-        /* sometimes (actually quite often) relations contain only an inner
-        and outer member but inner comes first which is not compatible with
-        definition of a multipolygon.. We correct that problem here
+        /* sometimes (actually quite often) members of relations are not
+        in ring order or inner comes first. Member order doesn't matter,
+        rings are assembled and classified by containment (see RingAssembler)
         */
         
         // debugging stop
@@ -1191,12 +1597,6 @@ public class OHDMImporter extends Importer {
             int i = 42;
         }
         
-        /* 
-            if a multipolygon relation has only two member, inner and outer,
-            bring them into right order.
-        */
-        if(!relation.checkMultipolygonMemberOrder()) return false;
-        
         // option b) it is a polygone or probably a multipolygon
         ArrayList<String> polygonIDs = new ArrayList<>();
         ArrayList<String> polygonWKT = new ArrayList<>();
@@ -1214,7 +1614,19 @@ public class OHDMImporter extends Importer {
 //        SQLStatementQueue targetQueue = new SQLStatementQueue(this.targetConnection);
         for(int i = 0; i < polygonIDs.size(); i++) {
             String pID = polygonIDs.get(i);
-            if(pID.equalsIgnoreCase("-1")) {
+            if(pID.equalsIgnoreCase("-1") && this.polygonIDBlocks != null) {
+                // id is known - queue that insert with other relation rows
+                String geomIDString = this.polygonIDBlocks.nextIDString();
+                if(this.rowWriter != null) {
+                    this.rowWriter.addGeometry(OHDM_DB.POLYGON, geomIDString, 
+                            polygonWKT.get(i), this.getOHDM_ID_ExternalUser(relation));
+                } else {
+                    this.appendGeometryInsert(targetSelectQueue, OHDM_DB.POLYGON, 
+                            geomIDString, polygonWKT.get(i), 
+                            this.getOHDM_ID_ExternalUser(relation));
+                }
+                polygonIDs.set(i, geomIDString);
+            } else if(pID.equalsIgnoreCase("-1")) {
                 // this geometry is not yet in the database.. insert that polygon
                 targetSelectQueue.append("INSERT INTO ");
                 targetSelectQueue.append(DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_POLYGONS));
@@ -1253,6 +1665,25 @@ public class OHDMImporter extends Importer {
         }
         int externalUserID = this.getOHDM_ID_ExternalUser(relation);
         
+        if(this.rowWriter != null) {
+            for(String targetIDString : polygonIDs) {
+                this.writeValidities(relation, targetType, classCodeString, 
+                        sourceIDString, targetIDString, externalUserID);
+            }
+            
+            for(OSMElement way : waysWithIdentity) {
+                this.rowWriter.addSubsequent(relation.getOHDMObjectID(), 
+                        OHDM_DB.LINESTRING, way.getOHDMObjectID());
+            }
+            
+            for(OSMElement node : nodesWithIdentity) {
+                this.rowWriter.addSubsequent(relation.getOHDMObjectID(), 
+                        OHDM_DB.POINT, node.getOHDMObjectID());
+            }
+            
+            return true;
+        }
+        
         // void addValidity(int targetType, String classCodeString, String sourceIDString, String targetIDString, int externalUserID) throws SQLException {
         for(String targetIDString : polygonIDs) {
             this.addValidity(targetSelectQueue, relation, targetType, classCodeString, sourceIDString, targetIDString, externalUserID);
@@ -1284,69 +1715,44 @@ public class OHDMImporter extends Importer {
         this.forgetPreviousWaysImport();
     }
 
-    void postProcessGGTable() throws SQLException {
-        /*
-        In some rare cases, relations are referenced by their OSM id an not
-        OHDM ID in geoobject_geometry table. That problem can be fixed after
-        importing all relations. Do it here.
-        */
+    /**
+     * In some rare cases, relations are referenced by their OSM id an not
+     * OHDM ID in geoobject_geometry table. That problem can be fixed after
+     * importing all relations. Do it here - set based, see GGTablePostProcessor.
+     * @param targetParameter slices are updated in parallel on maxThreads
+     * connections, null: one after another on target connection
+     */
+    void postProcessGGTable(Parameter targetParameter) throws SQLException {
+        // queued rows must be in geoobject_geometry
+        this.forceExecute();
         
-        this.targetSelectQueue.append("SELECT id_target FROM ");
-        this.targetSelectQueue.append(DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_GEOOBJECT_GEOMETRY));
-        this.targetSelectQueue.append(" WHERE type_target = ");
-        this.targetSelectQueue.append(OHDM_DB.OHDM_GEOOBJECT_GEOMTYPE_OSM_ID);
-        this.targetSelectQueue.append(";");
+        int slices = 1;
+        if(targetParameter != null) {
+            try {
+                slices = Integer.parseInt(targetParameter.getMaxThread().trim());
+            }
+            catch(NumberFormatException e) {
+                // single slice
+            }
+        }
         
-        ResultSet qResult = this.targetSelectQueue.executeWithResult();
+        GGTablePostProcessor postProcessor = new GGTablePostProcessor(
+                this.sourceConnection, this.sourceSchema, 
+                this.targetConnection, this.targetSchema, this.idMapping);
         
-        SQLStatementQueue sourceSelectQueue = new SQLStatementQueue(this.sourceConnection);
+        postProcessor.process(targetParameter, slices);
         
-        StringBuilder sourceSelectStartBuilder = new StringBuilder("SELECT ohdm_object_id FROM ");
-        sourceSelectStartBuilder.append(DB.getFullTableName(this.sourceSchema, InterDB.RELATIONTABLE));
-        sourceSelectStartBuilder.append(" WHERE osm_id = ");
-        String sourceSelectStart = sourceSelectStartBuilder.toString();
-
-        StringBuilder targetUpdateStartBuilder = new StringBuilder("UPDATE ");
-        targetUpdateStartBuilder.append(DB.getFullTableName(this.targetSchema, OHDM_DB.TABLE_GEOOBJECT_GEOMETRY));
-        targetUpdateStartBuilder.append(" SET type_target = ");
-        targetUpdateStartBuilder.append(OHDM_DB.OHDM_GEOOBJECT_GEOMTYPE);
-        targetUpdateStartBuilder.append(", id_target = ");
-        String targetUpdateStart = targetUpdateStartBuilder.toString();
+        System.out.println("post processing " + OHDM_DB.TABLE_GEOOBJECT_GEOMETRY
+                + ": " + postProcessor.getFixed() + " relation references fixed, "
+                + postProcessor.getUnresolved() + " unresolved");
         
-        while(qResult.next()) {
-            BigDecimal relationOSMID = qResult.getBigDecimal(1);
-            
-            sourceSelectQueue.append(sourceSelectStart);
-            sourceSelectQueue.append(relationOSMID.toString());
-            sourceSelectQueue.append(";");
-            
-            ResultSet sResult = sourceSelectQueue.executeWithResult();
-            if (sResult.next()) {
-                BigDecimal ohdmID = sResult.getBigDecimal(1);
-
-                if (ohdmID != null) {
-                    this.targetInsertQueue.append(targetUpdateStart);
-                    this.targetInsertQueue.append(ohdmID.toString());
-                    this.targetInsertQueue.append(" WHERE type_target = ");
-                    this.targetInsertQueue.append(OHDM_DB.OHDM_GEOOBJECT_GEOMTYPE_OSM_ID);
-                    this.targetInsertQueue.append(" AND id_target = ");
-                    this.targetInsertQueue.append(relationOSMID.toString());
-                    this.targetInsertQueue.append(";");
-                    this.targetInsertQueue.couldExecute();
-                }
-
-            } else {
-                // failure
-                System.err.println("-----------------------------------------------------");
-                System.err.println("cannot update object osm by it ohdm id in geoobject_geometry table.. fatal");
-                System.err.println("methode OHDMImporter.postProcessGGTable()");
-                System.err.println("relation (OSM): " + relationOSMID.toString());
-                System.err.println("-----------------------------------------------------");
-            }
+        if(postProcessor.getUnresolved() > 0) {
+            System.err.println("-----------------------------------------------------");
+            System.err.println("cannot update object osm by it ohdm id in geoobject_geometry table");
+            System.err.println("methode OHDMImporter.postProcessGGTable()");
+            System.err.println("rows still referring to relations by osm id: " + postProcessor.getUnresolved());
+            System.err.println("-----------------------------------------------------");
         }
-        
-        // force updating
-        this.targetInsertQueue.forceExecute();
     }
     
     
@@ -0,0 +1,36 @@
+package inter2ohdm;
+
+import java.sql.SQLException;
+
+/**
+ * Writes rows of OHDM objects, geometries, validities and subsequent
+ * objects whose ids are known in advance (see IDBlockAllocator). Rows are
+ * buffered, flush writes all of them (end of chunk).
+ *
+ * @author thsc
+ */
+interface OHDMRowWriter {
+    void addObject(String objectID, String name, int externalUserID) throws SQLException;
+
+    void addGeometry(int geometryType, String geomID, String geometry, int externalUserID) throws SQLException;
+
+    /**
+     * @param hstoreValue tags as produced by getFreeAttributesASHStoreValue
+     * or null
+     */
+    void addValidity(int targetType, String classCodeString,
+            String sourceIDString, String targetIDString, String sinceString,
+            String untilString, int externalUserID, String hstoreValue)
+            throws SQLException;
+
+    void addSubsequent(String targetObjectID, int sourceType, String objectID) throws SQLException;
+
+    void flush() throws SQLException;
+
+    /**
+     * forget buffered rows - their transaction was rolled back
+     */
+    void clear();
+
+    long getWrittenRows();
+}
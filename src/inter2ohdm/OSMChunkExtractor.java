@@ -36,7 +36,7 @@ public class OSMChunkExtractor {
             usage.append("-from [OSM_ID (start with this id (default: 0)] ");
             long fromOSM_ID = 0;
 
-            usage.append("-to [OSM_ID (stop before(!) this id (default: maxID] ");
+            usage.append("-to [OSM_ID (stop with this id, it is included (default: maxID] ");
             long toOSM_ID = 0;
 
             usage.append("-nodes (nodes are imported) - default: false");
@@ -48,6 +48,20 @@ public class OSMChunkExtractor {
             usage.append("-relations (relations are imported) - default: false");
             boolean importRelations = false;
 
+            usage.append("-threads [number] (extract chunks of -size ids with that number of worker threads within this process) - default: 0 (no workers, whole range in one go)");
+            int threads = 0;
+
+            usage.append("-size [number] (number of ids in a chunk when using worker threads) - default: 1.000.000");
+            long chunkSize = 1000000;
+
+            usage.append("-balanced (with -threads: -size is number of elements in a chunk instead of ids) - default: false");
+            boolean balanced = false;
+
+            usage.append("-queue (take chunks of any type from chunk queue table in intermediate db, see ");
+            usage.append(OHDMConverter.CHUNK_FACTORY);
+            usage.append(" -queue) - default: false");
+            boolean useQueue = false;
+
             // now get real parameters
             HashMap<String, String> argumentMap = Util.parametersToMap(args, false, usage.toString());
 
@@ -68,14 +82,27 @@ public class OSMChunkExtractor {
 
                     value = argumentMap.get("-from");
                     if (value != null) {
-                        fromOSM_ID = Integer.parseInt(value);
+                        fromOSM_ID = Long.parseLong(value);
                     }
 
                     value = argumentMap.get("-to");
                     if (value != null) {
-                        toOSM_ID = Integer.parseInt(value);
+                        toOSM_ID = Long.parseLong(value);
+                    }
+
+                    value = argumentMap.get("-threads");
+                    if (value != null) {
+                        threads = Integer.parseInt(value);
+                    }
+
+                    value = argumentMap.get("-size");
+                    if (value != null) {
+                        chunkSize = Long.parseLong(value);
                     }
 
+                    balanced = argumentMap.containsKey("-balanced");
+                    useQueue = argumentMap.containsKey("-queue");
+
                     importNodes = argumentMap.containsKey("-nodes");
                     importWays = argumentMap.containsKey("-ways");
                     importRelations = argumentMap.containsKey("-relations");
@@ -86,7 +113,7 @@ public class OSMChunkExtractor {
                     counter = importWays ? counter+1 : counter;
                     counter = importRelations ? counter+1 : counter;
 
-                    if(counter != 1) {
+                    if(counter != 1 && !useQueue) {
                         System.err.println("only one type (nodes, ways, relations) can be extracted at once");
                         System.err.println("importNodes == " + importNodes);
                         System.err.println("importWays == " + importWays);
@@ -106,19 +133,9 @@ public class OSMChunkExtractor {
             Connection sourceConnection = DB.createConnection(sourceParameter);
             Connection targetConnection = DB.createConnection(targetParameter);
 
-            IntermediateDB intermediateDB = new IntermediateDB(sourceConnection, sourceParameter.getSchema());
-
             String sourceSchema = sourceParameter.getSchema();
             String targetSchema = targetParameter.getSchema();
 
-            System.out.println("intermediate update queue uses jdbc");
-            SQLStatementQueue updateQueue = new SQLStatementQueue(sourceParameter);
-
-            // Importer to OHDM database
-            ohdmImporter = new OHDMImporter(intermediateDB, targetParameter.getOsmfilecreationdate(),
-                    sourceConnection,
-                    targetConnection, sourceSchema, targetSchema, updateQueue);
-
             int stepLen = 10000; // default
             String stepLenString = sourceParameter.getReadStepLen();
             try {
@@ -129,9 +146,6 @@ public class OSMChunkExtractor {
                 // ignore and work with default
             }
 
-            // extractor from intermediate to importer
-            extractor = new OSMExtractor(sourceConnection, sourceSchema, ohdmImporter, stepLen);
-            
             try {
                 if (reset) {
 /*
@@ -160,9 +174,114 @@ public class OSMChunkExtractor {
                 System.exit(0);
             }
 
+            if(useQueue) {
+                if(threads < 1) threads = 1;
+                
+                // workers open their own connections
+                sourceConnection.close();
+                targetConnection.close();
+                
+                DBChunkQueue queue = new DBChunkQueue(DB.createConnection(sourceParameter),
+                        sourceSchema, DBChunkQueue.DEFAULT_HEARTBEAT_SECONDS, 
+                        DBChunkQueue.DEFAULT_STALE_SECONDS);
+                
+                System.out.println("start " + threads + " worker threads on " + queue);
+                ChunkWorkerPool pool = new ChunkWorkerPool(threads, 
+                        sourceParameter, targetParameter, queue, stepLen);
+
+                trigger = new Trigger(pool, 1000 * 60 * targetParameter.getLogMessageInterval());
+                trigger.start();
+
+                pool.start();
+                try {
+                    pool.join();
+                } catch (InterruptedException ex) {
+                    // end
+                }
+                queue.close();
+                
+                System.out.println("chunk queue drained");
+                System.out.println(pool.getStatistics());
+                return;
+            }
+            
             System.out.println("intermediate select queue uses jdbc");
             sourceQueue = DB.createSQLStatementQueue(sourceConnection, sourceParameter);
 
+            if(threads > 0) {
+                int elementType = importNodes ? OSMExtractor.NODE : 
+                        importWays ? OSMExtractor.WAY : OSMExtractor.RELATION;
+                
+                if(importRelations && threads > 1) {
+                    System.out.println("relations must be imported sequentially - use one worker thread");
+                    threads = 1;
+                }
+                
+                if(toOSM_ID == 0) {
+                    toOSM_ID = ChunkPlanner.getMaxID(sourceQueue, 
+                            sourceSchema, elementType);
+                }
+                
+                ChunkSource chunks;
+                if(balanced) {
+                    chunks = new LocalChunkSource(ChunkPlanner.planBalanced(
+                            sourceQueue, sourceSchema, elementType, 
+                            fromOSM_ID, toOSM_ID, chunkSize));
+                } else {
+                    chunks = new LocalChunkSource(ChunkPlanner.planFixedWidth(
+                            elementType, fromOSM_ID, toOSM_ID, chunkSize));
+                }
+                
+                // chunks are planned - workers open their own connections
+                sourceConnection.close();
+                targetConnection.close();
+                
+                System.out.println("start " + threads + " worker threads on " + chunks);
+                ChunkWorkerPool pool = new ChunkWorkerPool(threads, 
+                        sourceParameter, targetParameter, chunks, stepLen);
+
+                trigger = new Trigger(pool, 1000 * 60 * targetParameter.getLogMessageInterval());
+                trigger.start();
+
+                pool.start();
+                try {
+                    pool.join();
+                } catch (InterruptedException ex) {
+                    // end
+                }
+                
+                System.out.println("chunk workers finished");
+                System.out.println(pool.getStatistics());
+                return;
+            }
+
+            // single threaded extraction of whole range
+            IntermediateDB intermediateDB = new IntermediateDB(sourceConnection, sourceParameter.getSchema());
+
+            System.out.println("intermediate update queue uses jdbc");
+            SQLStatementQueue updateQueue = new SQLStatementQueue(sourceParameter);
+
+            // Importer to OHDM database
+            ohdmImporter = new OHDMImporter(intermediateDB, targetParameter.getOsmfilecreationdate(),
+                    sourceConnection,
+                    targetConnection, sourceSchema, targetSchema, updateQueue);
+            ohdmImporter.setIDBlockSize(targetParameter.getIDBlockSize());
+            ohdmImporter.setRowWriting(targetParameter.getConnectionType());
+            ohdmImporter.setIDMapping(sourceParameter);
+
+            // extractor from intermediate to importer
+            extractor = new OSMExtractor(sourceConnection, sourceSchema, ohdmImporter, stepLen);
+            extractor.setWayNodeCache(WayNodeCache.create(sourceParameter));
+            extractor.setNodeCoordinateCache(NodeCoordinateCache.create(sourceParameter));
+            extractor.setMemberExistenceIndex(MemberExistenceIndex.create(sourceParameter));
+            
+            if(sourceParameter.getPrefetchChunks() > 0) {
+                // read next chunk while processing current one
+                System.out.println("intermediate chunks are prefetched by reader thread");
+                extractor.setPrefetching(DB.createConnection(sourceParameter),
+                        sourceParameter.getPrefetchChunks());
+            }
+
             System.out.println("ohdm insert queue uses jdbc");
             targetQueue = new SQLStatementQueue(targetParameter);
 
@@ -55,6 +55,16 @@ public class OSMChunkExtractorCommandBuilder {
         usage.append("\n");
         boolean nice = false;
 
+        usage.append("-balanced [if set - chunk boundaries are calculated from row distribution: -size is number of elements in a chunk (default: false)]");
+        usage.append("\n");
+        boolean balanced = false;
+
+        usage.append("-queue [if set - chunks are written into chunk queue table in intermediate db instead of producing commands. Run any number of ");
+        usage.append(OHDMConverter.CHUNK_PROCESS);
+        usage.append(" -queue processes on any host to drain it (default: false)]");
+        usage.append("\n");
+        boolean useQueue = false;
+
         // now get real parameters
         HashMap<String, String> argumentMap = Util.parametersToMap(args, false, usage.toString());
         if(argumentMap != null) {
@@ -88,6 +98,28 @@ public class OSMChunkExtractorCommandBuilder {
             if(argumentMap.containsKey("-nice")) {
                 nice = true;
             }
+
+            if(argumentMap.containsKey("-balanced")) {
+                balanced = true;
+            }
+
+            if(argumentMap.containsKey("-queue")) {
+                useQueue = true;
+            }
+        }
+
+        if(useQueue) {
+            try {
+                Parameter sourceParameter = new Parameter(sourceParameterFileName);
+                SQLStatementQueue sourceSQL = new SQLStatementQueue(sourceParameter);
+                
+                OSMChunkExtractorCommandBuilder.fillQueue(sourceSQL, 
+                        sourceParameter.getSchema(), size, balanced);
+            }
+            catch(Throwable t) {
+                System.err.println("catched something while filling chunk queue: " + t.getLocalizedMessage());
+            }
+            System.exit(0);
         }
 
         if(jarFileNames == null) {
@@ -115,6 +147,14 @@ public class OSMChunkExtractorCommandBuilder {
             String entityTypes[] = new String[] {"nodes", "ways", "relations"};
 
             for(String entityType : entityTypes) {
+                if(balanced) {
+                    first = cef.writeBalancedCommands(sourceSQL, sourceParameter.getSchema(),
+                            entityType, size, jarFileNames, sourceParameterFileName,
+                            targetParameterFileName, first, logFile, errorLogFile,
+                            parallelProcs, nice);
+                    continue;
+                }
+
                 String fullTableName = null;
 
                 switch(entityType) {
@@ -201,6 +241,110 @@ public class OSMChunkExtractorCommandBuilder {
 
     }
 
+    /**
+     * write commands for chunks with about the same number of elements
+     * @return false if a command was written, first otherwise
+     */
+    private boolean writeBalancedCommands(SQLStatementQueue sql, String schema,
+            String entityType, long rowsPerChunk, String jarFileNames, 
+            String sourceParameterFileName, String targetParameterFileName, 
+            boolean first, String logFile, String errorLogFile, 
+            int parallelProcs, boolean nice) throws SQLException, IOException {
+        
+        int elementType = OSMExtractor.NODE;
+        switch(entityType) {
+            case "ways":
+                elementType = OSMExtractor.WAY;
+                break;
+            case "relations":
+                elementType = OSMExtractor.RELATION;
+                parallelProcs = 0; // relations must be imported sequentially
+                break;
+        }
+        
+        this.getMaxID(sql, DB.getFullTableName(schema, ChunkPlanner.getTableName(elementType)));
+        
+        List<ChunkRange> chunks = ChunkPlanner.planBalanced(sql, schema, 
+                elementType, this.minID, this.maxID, rowsPerChunk);
+        
+        int parallelCounter = parallelProcs;
+        
+        for(int i = 0; i < chunks.size(); i++) {
+            ChunkRange chunk = chunks.get(i);
+            boolean parallel = false;
+            
+            /* first process (may reset) and last couple of processes are 
+            not parallel to end import of one entity before starting another one
+            */
+            if(i > 0 && i < chunks.size() - 5) {
+                if (parallelCounter < 0){
+                    // rewind
+                    parallelCounter = parallelProcs;
+                }
+
+                if(parallelCounter == 0) {
+                    if(parallelProcs > 0) {
+                        // ready for rewind next round
+                        parallelCounter = -1;
+                    }
+                }
+
+                if(parallelCounter > 0) {
+                    parallelCounter--;
+                    parallel = true;
+                }
+            }
+            
+            this.writeCommand(
+                    jarFileNames,
+                    sourceParameterFileName,
+                    targetParameterFileName,
+                    first,
+                    chunk.fromID, chunk.toID,
+                    entityType,
+                    logFile,
+                    errorLogFile,
+                    parallel,
+                    nice
+            );
+            
+            first = false;
+        }
+        
+        return first;
+    }
+
+    /**
+     * (re-)create chunk queue table and fill it with chunks of nodes, ways 
+     * and relations
+     */
+    static void fillQueue(SQLStatementQueue sql, String schema, long size, 
+            boolean balanced) throws SQLException {
+        
+        DBChunkQueue.create(sql, schema);
+        
+        OSMChunkExtractorCommandBuilder cef = new OSMChunkExtractorCommandBuilder();
+        
+        int[] elementTypes = new int[] {OSMExtractor.NODE, OSMExtractor.WAY, OSMExtractor.RELATION};
+        for(int elementType : elementTypes) {
+            cef.getMaxID(sql, DB.getFullTableName(schema, ChunkPlanner.getTableName(elementType)));
+            
+            List<ChunkRange> chunks;
+            if(balanced) {
+                chunks = ChunkPlanner.planBalanced(sql, schema, elementType, 
+                        cef.minID, cef.maxID, size);
+            } else {
+                chunks = ChunkPlanner.planFixedWidth(elementType, 
+                        cef.minID, cef.maxID, size);
+            }
+            
+            DBChunkQueue.enqueue(sql, schema, chunks);
+            
+            System.out.println(ChunkRange.getTypeName(elementType) + ": " 
+                    + chunks.size() + " chunks queued");
+        }
+    }
+
     private String jvmPath = null;
 
     private void setJVMPath() {
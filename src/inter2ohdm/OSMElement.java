@@ -16,7 +16,10 @@ import util.SQLStatementQueue;
  * @author thsc
  */
 public abstract class OSMElement extends AbstractElement {
-    private final String osmIDString;
+    // no (or unused) id in id arrays
+    static final long NO_ID = -1;
+    
+    private final long osmID;
     private final String classCodeString;
     List<String> otherClassCodeList;
     
@@ -58,7 +61,7 @@ public abstract class OSMElement extends AbstractElement {
         return this.tstamp;
     }
 
-    OSMElement(IntermediateDB intermediateDB, String osmIDString,
+    OSMElement(IntermediateDB intermediateDB, long osmID,
                String classCodeString, String otherClassCodes, String sTags,
                String ohdmObjectIDString, String ohdmGeomIDString,
                boolean valid,
@@ -68,14 +71,14 @@ public abstract class OSMElement extends AbstractElement {
         
         super(sTags);
 
-        if(osmIDString.equalsIgnoreCase("28245535")) {
+        if(osmID == 28245535L) {
             int i = 42; // debug break
         }
         
         this.intermediateDB = intermediateDB;
         this.getUserID();
         this.getUsername();
-        this.osmIDString = osmIDString;
+        this.osmID = osmID;
         this.classCodeString = classCodeString;
         this.ohdmObjectIDString = ohdmObjectIDString;
         this.ohdmGeomIDString = ohdmGeomIDString;
@@ -130,6 +133,15 @@ public abstract class OSMElement extends AbstractElement {
         return this.wktString;
     }
     
+    /**
+     * geometry as hex encoded extended wkb - PostGIS takes it without
+     * parsing text.
+     * @return null if that element cannot produce wkb - use wkt instead
+     */
+    String getWKBGeometry() {
+        return null;
+    }
+    
     abstract int getGeometryType();
     
     void setOHDM_IDs(SQLStatementQueue sql, String ohdmObjectIDString, String ohdmGeomIDString, boolean persist) throws SQLException {
@@ -178,8 +190,12 @@ public abstract class OSMElement extends AbstractElement {
         this.intermediateDB.remove(this);
     }
     
+    long getOSMID() {
+        return this.osmID;
+    }
+    
     String getOSMIDString() {
-        return osmIDString;
+        return Long.toString(this.osmID);
     }
     
     String getClassCodeString() {
@@ -244,6 +260,54 @@ public abstract class OSMElement extends AbstractElement {
         return this.username;
     }
     
+    /**
+     * parse comma separated ids, e.g. 12,13,42
+     */
+    protected static long[] setupIDArray(String idString) {
+        if(idString == null) return new long[0];
+        
+        // count ids first
+        int number = 0;
+        boolean inID = false;
+        for(int i = 0; i < idString.length(); i++) {
+            char c = idString.charAt(i);
+            if(c == ',') {
+                inID = false;
+            } else if(!inID && c != ' ') {
+                inID = true;
+                number++;
+            }
+        }
+        
+        long[] ids = new long[number];
+        int index = 0;
+        long value = 0;
+        boolean negative = false;
+        inID = false;
+        for(int i = 0; i < idString.length(); i++) {
+            char c = idString.charAt(i);
+            if(c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                inID = true;
+            } else if(c == '-') {
+                negative = true;
+                inID = true;
+            } else if(c == ',') {
+                if(inID) {
+                    ids[index++] = negative ? -value : value;
+                }
+                value = 0;
+                negative = false;
+                inID = false;
+            }
+        }
+        if(inID) {
+            ids[index++] = negative ? -value : value;
+        }
+        
+        return ids;
+    }
+    
     protected ArrayList<String> setupIDList(String idString) {
         ArrayList<String> idList = new ArrayList<>();
         if (idString != null) {
@@ -280,41 +344,35 @@ public abstract class OSMElement extends AbstractElement {
         return this.tstampDate;
     }
     
-    protected int addMember(OSMElement newElement, ArrayList memberList, ArrayList<String> idList, boolean setall) {
-        String idString = newElement.getOSMIDString();
-        
-        int position = idList.indexOf(idString);
+    /**
+     * put new element in each slot (setall) or the next unused slot of 
+     * member list at which its id appears in id array
+     * @return position (not setall) or -1
+     */
+    protected int addMember(OSMElement newElement, ArrayList memberList, MemberIndex idIndex, boolean setall) {
+        int position = idIndex.nextPosition(newElement.getOSMID());
         while(position > -1) {
             /* pay attention! a node can be appeare more than once on a string!
-            indexof would produce the smallest index each time. Thus, we have
-            to overwrite each entry after its usage
+            index returns each position only once
              */
-            idList.set(position, "-1");
-
-            if (position > -1) {
-                // add
-                if (position > memberList.size() - 1) {
-                    // list to short?? that's a failure
-                    System.err.print("OHDMElement.addMember(): memberList must have same size as memberIDList.. run into exception");
-                }
-
-                memberList.set(position, newElement);
-            } else {
-                // position not found?? TODO
-                System.err.print("OHDMElement.addMember(): member not found in id list - must not happen");
+            if (position > memberList.size() - 1) {
+                // list to short?? that's a failure
+                System.err.print("OHDMElement.addMember(): memberList must have same size as memberIDList.. run into exception");
             }
+
+            memberList.set(position, newElement);
             
             // a member can appear more than once.. set all slots?
             if(setall) {
                 // find next position, if any
-                position = idList.indexOf(idString);
+                position = idIndex.nextPosition(newElement.getOSMID());
             } else {
                 // only one insert, we are done here
                 return position;
             }
         }
         
-        return position; // last position
+        return position; // -1: no (more) position
     }
     
     boolean isPolygon() {
@@ -331,8 +389,8 @@ public abstract class OSMElement extends AbstractElement {
         
         sb.append(super.toString());
         
-        sb.append("osmIDString: ");
-        sb.append(osmIDString);
+        sb.append("osmID: ");
+        sb.append(osmID);
         sb.append("\t");
         
         sb.append("ohdmGeomIDString: ");
@@ -9,12 +9,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import util.InterDB;
 import static util.InterDB.NODETABLE;
-import static util.InterDB.RELATIONMEMBER;
-import static util.InterDB.RELATIONTABLE;
-import static util.InterDB.WAYTABLE;
 import util.DB;
 import static util.InterDB.WAYMEMBER;
-import util.OHDM_DB;
 import util.SQLStatementQueue;
 import util.TriggerRecipient;
 import util.Util;
@@ -64,6 +60,12 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
         this.schema = schema;
         this.importer = importer;
         
+        // elements write their ohdm ids into the same buffer as the importer
+        if(importer instanceof OHDMImporter) {
+            this.setIDWriteBack(((OHDMImporter)importer).getIDWriteBack());
+            this.setIDMapping(((OHDMImporter)importer).getIDMappingBuffer());
+        }
+        
         this.steplen = steplen;
         
         if(this.steplen < 1) {
@@ -122,9 +124,17 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
     }
     
     void processNode(ResultSet qResult, SQLStatementQueue sql, boolean importUnnamedEntities) {
-        OSMNode node = null;
         try {
-            node = this.createOSMNode(qResult);
+            this.processNode(this.createOSMNode(qResult), sql, importUnnamedEntities);
+        }
+        catch(SQLException se) {
+            this.noteFailure(se);
+            Util.printExceptionMessage(se, sql, "failure when reading node.. non fatal", true);
+        }
+    }
+    
+    void processNode(OSMNode node, SQLStatementQueue sql, boolean importUnnamedEntities) {
+        try {
             this.currentElement = node;
             
             if(node.getOSMIDString().equalsIgnoreCase("20246240")) {
@@ -149,6 +159,7 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
         catch(SQLException se) {
             System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
             System.err.println("exception when handling node osm_id: " + node.getOSMIDString());
+            this.noteFailure(se);
             Util.printExceptionMessage(se, sql, "failure when processing node.. non fatal", true);
             System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
         }
@@ -165,14 +176,39 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
             way = this.createOSMWay(qResult);
             this.currentElement = way;
             
-            if(way.getOSMIDString().equalsIgnoreCase("4557344")) {
-                int i = 42;
-            }
-
 //            if(!way.isPart() && way.getName() == null) notPartNumber++;
 
             this.addNodes2OHDMWay(way);
+        }
+        catch(SQLException se) {
+            System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+            System.err.println("exception when reading way: " + way);
+            this.noteFailure(se);
+            Util.printExceptionMessage(se, sql, "failure when reading way.. non fatal", true);
+            System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+            return;
+        }
+        
+        this.processWay(way, sql, importUnnamedEntities);
+    }
+    
+    /**
+     * process a way which nodes are already added
+     */
+    void processWay(OSMWay way, SQLStatementQueue sql, boolean importUnnamedEntities) {
+        try {
+            this.currentElement = way;
             
+            if(way.getOSMIDString().equalsIgnoreCase("4557344")) {
+                int i = 42;
+            }
+            
+            // relations of this run find their ways in cache
+            WayNodeCache cache = this.getWayNodeCache();
+            if(cache != null && cache.isWarmStart()) {
+                cache.put(way);
+            }
+
             this.numberCheckedWays++;
 
             if(way.isConsistent(System.err)) {
@@ -191,6 +227,7 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
         catch(SQLException se) {
             System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
             System.err.println("exception when processing way: " + way);
+            this.noteFailure(se);
             Util.printExceptionMessage(se, sql, "failure when processing way.. non fatal", true);
             System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
         }
@@ -198,10 +235,34 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
     
     void processRelation(ResultSet qResult, SQLStatementQueue sql, boolean importUnnamedEntities) {
         OSMRelation relation = null;
+        boolean relationMemberComplete;
         
         try {
             relation = this.createOSMRelation(qResult);
-            
+            this.currentElement = relation;
+
+            relationMemberComplete = this.addMembers2Relation(relation);
+        }
+        catch(SQLException se) {
+            System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+            System.err.println("relation: " + relation);
+            this.noteFailure(se);
+            Util.printExceptionMessage(se, sql, "failure when reading relation members.. non fatal", true);
+            System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+            return;
+        }
+        
+        this.processRelation(relation, relationMemberComplete, sql, importUnnamedEntities);
+    }
+    
+    /**
+     * process a relation which members are already added
+     * @param relationMemberComplete false if not all members could be found
+     */
+    void processRelation(OSMRelation relation, boolean relationMemberComplete, 
+            SQLStatementQueue sql, boolean importUnnamedEntities) {
+        
+        try {
             String r_id = relation.getOSMIDString();
             if(r_id.equalsIgnoreCase("6780946")) {
                 int i = 42;
@@ -209,94 +270,6 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
 
             this.currentElement = relation;
 
-            // find all associated nodes and add to that relation
-            sql.append("select * from ");
-            sql.append(DB.getFullTableName(this.schema, RELATIONMEMBER));
-            sql.append(" where relation_id = ");            
-            sql.append(relation.getOSMIDString());
-            sql.append(";");  
-
-            ResultSet qResultRelation = sql.executeWithResult();
-
-            boolean relationMemberComplete = true; // assume we find all member
-
-            while(qResultRelation.next()) {
-                String roleString =  qResultRelation.getString("role");
-
-                // extract member objects from their tables
-                BigDecimal id;
-                int type = -1;
-
-                sql.append("SELECT * FROM ");
-
-                id = qResultRelation.getBigDecimal("node_id");
-                if(id != null) {
-                    sql.append(DB.getFullTableName(this.schema, NODETABLE));
-                    type = OHDM_DB.POINT;
-                } else {
-                    id = qResultRelation.getBigDecimal("way_id");
-                    if(id != null) {
-                        sql.append(DB.getFullTableName(this.schema, WAYTABLE));
-                        type = OHDM_DB.LINESTRING;
-                    } else {
-                        id = qResultRelation.getBigDecimal("member_rel_id");
-                        if(id != null) {
-                            sql.append(DB.getFullTableName(this.schema, RELATIONTABLE));
-                            type = OHDM_DB.RELATION;
-                        } else {
-                            // we have a serious problem here.. or no member
-                        }
-                    }
-                }
-                sql.append(" where osm_id = ");
-                sql.append(id.toString());
-                sql.append(";");
-
-                // debug stop
-                if(id.toString().equalsIgnoreCase("245960580")) {
-                    int i = 42;
-                }
-
-                ResultSet memberResult = sql.executeWithResult();
-                if(memberResult.next()) {
-                    // this call can fail, see else branch
-                    OSMElement memberElement = null;
-                    switch(type) {
-                        case OHDM_DB.POINT: 
-                            memberElement = this.createOSMNode(memberResult);
-                            break;
-                        case OHDM_DB.LINESTRING:
-                            memberElement = this.createOSMWay(memberResult);
-                            if(memberElement.noOHDMElement() && memberElement.isEmpty()) {
-                                /* that way isn't yet stored in OHDM
-                                fill it with all necessary data.
-                                */
-                                OSMWay wayMember = (OSMWay)memberElement;
-                                this.addNodes2OHDMWay(wayMember);
-                            }
-                            break;
-                        case OHDM_DB.RELATION:
-                            memberElement = this.createOSMRelation(memberResult);
-                            break;
-                    }
-                    
-                    relation.addMember(memberElement, roleString);
-                } else {
-                    /* this call can fail
-                    a) if this program is buggy - which is most likely :) OR
-                    b) intermediate DB has not imported whole world. In that
-                    case, relation can refer to data which are not actually 
-                    stored in intermediate db tables.. 
-                    in that case .. remove whole relation: parts of it are 
-                    outside our current scope
-                    */
-                    relationMemberComplete = false;
-                }
-                memberResult.close();
-
-                if(!relationMemberComplete) break;
-            }
-            
             this.numberCheckedRelations++;
             
             if(!relationMemberComplete) {
@@ -323,6 +296,7 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
             System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
             System.err.println("relation osm_id: " + relation.getOSMIDString());
             System.err.println("relation ohdm object id: " + relation.getOHDMObjectID());
+            this.noteFailure(se);
             Util.printExceptionMessage(se, sql, "failure when processing relation.. non fatal", true);
             System.err.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
         }
@@ -439,8 +413,10 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
         this.upperIDString = Util.setDotsInStringValue(this.upperID.toPlainString());
         this.lowerIDString = Util.setDotsInStringValue(lowerID.toPlainString());
 
-        System.out.println("Start importing entites from " + elementTableName);
-        System.out.println("with ID within [" + fromID + ", " + toID + "]");
+        if(this.printProgress) {
+            System.out.println("Start importing entites from " + elementTableName);
+            System.out.println("with ID within [" + fromID + ", " + toID + "]");
+        }
         //System.out.println(this.getStatistics());
         boolean lastRound = false;
         boolean again = true;
@@ -448,33 +424,25 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
         try {
             this.printStarted(elementTableName);
             this.era = 0; // start new element type - reset for statistics
-            do {
+            if(this.prefetchConnection != null) {
+                this.processPrefetchedElements(sql, elementTableName, elementType, 
+                        namedEntitiesOnly, fromID, toID);
+                again = false;
+            }
+            
+            while(again) {
                 long before = System.currentTimeMillis();
-                sql.append("SELECT * FROM ");
-                sql.append(DB.getFullTableName(this.schema, elementTableName));
-                sql.append(" where id >= "); // including lower
-                sql.append(lowerID.toString());
-                sql.append(" AND id < "); // excluding lower
-                sql.append(this.upperID.toString());
-                sql.append(" AND classcode != -1 "); // excluding untyped entities 
-                if(namedEntitiesOnly) {
-                    sql.append(" AND (serializedtags like '%004name%' OR classcode != -1)"); // entities with a name OR classcode
-                }
-                sql.append(";");
+                OSMExtractor.appendSelectElements(sql, this.schema, elementTableName, 
+                        lowerID, this.upperID, namedEntitiesOnly);
                 ResultSet qResult = sql.executeWithResult();
+                ElementBatch batch = this.readElements(qResult, sql, 
+                        elementType, lowerID, this.upperID);
                 long after = System.currentTimeMillis();
                 this.noteTime(after-before, TIME_SELECT_ELEMENTS);
                 
-                while(qResult.next()) {
-                    this.number++;
-                    this.printStatistics();
-                    before = System.currentTimeMillis();
-                    this.processElement(qResult, sql, elementType, namedEntitiesOnly);
-                    after = System.currentTimeMillis();
-                    this.noteTime(after-before, TIME_PROCESS_ELEMENTS);
-                }
+                this.processElements(batch, sql, elementType, namedEntitiesOnly);
 
-                if(lastRound) {
+                if(lastRound || this.stopped()) {
                     // we already have had our last round
                     again = false;
                     break;
@@ -498,15 +466,164 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
                 this.upperIDString = Util.setDotsInStringValue(this.upperID.toPlainString());
                 this.lowerIDString = Util.setDotsInStringValue(lowerID.toPlainString());
 
-            } while(again);
+            }
         } 
         catch (SQLException ex) {
             // fatal exception.. do not continue
+            this.noteFailure(ex);
             Util.printExceptionMessage(ex, sql, "when selecting nodes/ways/relation", false);
         }
         this.printFinished(elementTableName);
     }
         
+    /**
+     * select all elements (without untyped ones) with lowerID =< id < upperID
+     */
+    static void appendSelectElements(SQLStatementQueue sql, String schema, 
+            String elementTableName, BigDecimal lowerID, BigDecimal upperID, 
+            boolean namedEntitiesOnly) {
+        
+        sql.append("SELECT * FROM ");
+        sql.append(DB.getFullTableName(schema, elementTableName));
+        sql.append(" where id >= "); // including lower
+        sql.append(lowerID.toString());
+        sql.append(" AND id < "); // excluding lower
+        sql.append(upperID.toString());
+        sql.append(" AND classcode != -1 "); // excluding untyped entities 
+        if(namedEntitiesOnly) {
+            sql.append(" AND (serializedtags like '%004name%' OR classcode != -1)"); // entities with a name OR classcode
+        }
+        sql.append(";");
+    }
+    
+    ///////////////////////////////////////////////////////////////////////
+    //                          prefetching                              //
+    ///////////////////////////////////////////////////////////////////////
+    
+    private Connection prefetchConnection = null;
+    private int prefetchDepth = ChunkPrefetcher.DEFAULT_DEPTH;
+    
+    private long prefetchBatches = 0;
+    private long prefetchFetchTime = 0;
+    private long prefetchWaitTime = 0;
+    
+    /**
+     * Next chunk is read and decoded in background while current one 
+     * is processed.
+     * @param readConnection connection used by reader thread only. Reading
+     * is done in that thread if null.
+     * @param depth maximum number of chunks read in advance
+     */
+    void setPrefetching(Connection readConnection, int depth) {
+        this.prefetchConnection = readConnection;
+        this.prefetchDepth = depth;
+    }
+    
+    private void processPrefetchedElements(SQLStatementQueue sql, 
+            String elementTableName, int elementType, boolean namedEntitiesOnly, 
+            BigDecimal fromID, BigDecimal toID) throws SQLException {
+        
+        ChunkPrefetcher prefetcher = new ChunkPrefetcher(this.prefetchConnection, 
+                this.schema, this, elementTableName, elementType, 
+                namedEntitiesOnly, fromID, toID, this.steps, this.prefetchDepth);
+        
+        prefetcher.start();
+        
+        try {
+            boolean again = true;
+            while(again) {
+                long before = System.currentTimeMillis();
+                ElementBatch batch = prefetcher.take();
+                long after = System.currentTimeMillis();
+                
+                this.prefetchWaitTime += after - before;
+                this.prefetchFetchTime += batch.fetchTime;
+                this.prefetchBatches++;
+                this.noteTime(batch.fetchTime, TIME_SELECT_ELEMENTS);
+                
+                if(batch.failure != null) {
+                    if(batch.failure instanceof SQLException) {
+                        throw (SQLException) batch.failure;
+                    }
+                    throw new SQLException(batch.failure);
+                }
+                
+                // for statistics output
+                this.upperID = batch.upperID;
+                this.upperIDString = Util.setDotsInStringValue(batch.upperID.toPlainString());
+                this.lowerIDString = Util.setDotsInStringValue(batch.lowerID.toPlainString());
+                
+                this.processElements(batch, sql, elementType, namedEntitiesOnly);
+                
+                again = !batch.last && !this.stopped();
+            }
+        }
+        catch(InterruptedException e) {
+            throw new SQLException("interrupted while waiting for prefetched elements");
+        }
+        finally {
+            prefetcher.end();
+        }
+    }
+    
+    /**
+     * read and decode elements of a selected id range. Failures of single
+     * elements are non fatal - like when processing them.
+     */
+    private ElementBatch readElements(ResultSet qResult, SQLStatementQueue sql, 
+            int elementType, BigDecimal lowerID, BigDecimal upperID) throws SQLException {
+        
+        ElementBatch batch = new ElementBatch(lowerID, upperID, false);
+        
+        while(!this.stopped() && qResult.next()) {
+            try {
+                switch(elementType) {
+                    case NODE:
+                        batch.add(this.createOSMNode(qResult), true);
+                        break;
+                    case WAY:
+                        OSMWay way = this.createOSMWay(qResult);
+                        this.addNodes2OHDMWay(way);
+                        batch.add(way, true);
+                        break;
+                    case RELATION:
+                        OSMRelation relation = this.createOSMRelation(qResult);
+                        boolean complete = this.addMembers2Relation(relation);
+                        batch.add(relation, complete);
+                        break;
+                }
+            }
+            catch(SQLException se) {
+                this.noteFailure(se);
+                Util.printExceptionMessage(se, sql, "failure when reading element.. non fatal", true);
+            }
+        }
+        
+        qResult.close();
+        
+        return batch;
+    }
+    
+    /**
+     * process elements which are already read from intermediate db
+     */
+    private void processElements(ElementBatch batch, SQLStatementQueue sql, 
+            int elementType, boolean namedEntitiesOnly) {
+        
+        // e.g. add new users with one statement
+        this.importer.prepareImport(batch.elements);
+
+        for(int i = 0; i < batch.size() && !this.stopped(); i++) {
+            this.number++;
+            this.printStatistics();
+            long before = System.currentTimeMillis();
+            this.processElement(batch.elements.get(i), 
+                    batch.complete.get(i), sql, elementType, namedEntitiesOnly);
+            long after = System.currentTimeMillis();
+            this.noteTime(after-before, TIME_PROCESS_ELEMENTS);
+        }
+    }
+    
     private void printExceptionMessage(Exception ex, SQLStatementQueue sql, OSMElement element) {
         if(element != null) {
             System.err.print("inter2ohdm: exception when processing ");
@@ -537,6 +654,13 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
 
         long before = System.currentTimeMillis();
         
+        NodeCoordinateCache cache = this.getNodeCoordinateCache();
+        if(cache != null) {
+            this.addNodes2OHDMWay(way, cache);
+            this.noteTime(System.currentTimeMillis() - before, TIME_ADD_NODES);
+            return way;
+        }
+        
         // believe it or not but that's faster with index on waynodemember
         // I don't believe it's true for huge data
         SQLStatementQueue sql = new SQLStatementQueue(this.sourceConnection);
@@ -570,7 +694,41 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
     private int progresslineCount = 0;
     private long era = 0;
 
+    private boolean printProgress = true;
+    
+    /**
+     * @param printProgress false: no progress messages on stdout, e.g. 
+     * if statistics of several extractors are merged
+     */
+    void setPrintProgress(boolean printProgress) {
+        this.printProgress = printProgress;
+    }
+    
+    long getNumberChecked(int elementType) {
+        switch(elementType) {
+            case NODE: return this.numberCheckedNodes;
+            case WAY: return this.numberCheckedWays;
+            case RELATION: return this.numberCheckedRelations;
+        }
+        return 0;
+    }
+    
+    long getNumberImported(int elementType) {
+        switch(elementType) {
+            case NODE: return this.numberImportedNodes;
+            case WAY: return this.numberImportedWays;
+            case RELATION: return this.numberImportedRelations;
+        }
+        return 0;
+    }
+    
+    long getHistoricInfos() {
+        return this.historicInfos;
+    }
+    
     private void printStarted(String what) {
+        if(!this.printProgress) return;
+        
         System.out.println("--------------------------------------------------------------------------------");
         System.out.print("Start importing ");
         System.out.println(what);
@@ -579,6 +737,8 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
     }
     
     private void printFinished(String what) {
+        if(!this.printProgress) return;
+        
         System.out.println("\n--------------------------------------------------------------------------------");
         System.out.print("Finished importing ");
         System.out.println(what);
@@ -738,6 +898,54 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
             sb.append("\n");
         }
         
+        if(this.prefetchBatches > 0) {
+            /* reading time which was hidden behind processing: reader 
+            worked in background unless we had to wait for it 
+            */
+            long overlap = this.prefetchFetchTime - this.prefetchWaitTime;
+            if(overlap < 0) overlap = 0;
+            
+            sb.append("prefetch: ");
+            sb.append(Util.getValueWithDots(this.prefetchBatches));
+            sb.append(" chunks | read: ");
+            sb.append(Util.getValueWithDots(this.prefetchFetchTime));
+            sb.append(" ms | waited: ");
+            sb.append(Util.getValueWithDots(this.prefetchWaitTime));
+            sb.append(" ms | overlap: ");
+            sb.append(Util.getValueWithDots(overlap));
+            sb.append(" ms");
+            if(this.prefetchFetchTime > 0) {
+                sb.append(" (");
+                sb.append(overlap * 100 / this.prefetchFetchTime);
+                sb.append("%)");
+            }
+            sb.append("\n");
+        }
+        
+        WayNodeCache wayNodeCache = this.getWayNodeCache();
+        if(wayNodeCache != null) {
+            sb.append(wayNodeCache.getStatistics());
+            sb.append("\n");
+        }
+        
+        NodeCoordinateCache nodeCoordinateCache = this.getNodeCoordinateCache();
+        if(nodeCoordinateCache != null) {
+            sb.append(nodeCoordinateCache.getStatistics());
+            sb.append("\n");
+        }
+        
+        MemberExistenceIndex memberExistenceIndex = this.getMemberExistenceIndex();
+        if(memberExistenceIndex != null && memberExistenceIndex.isBuilt()) {
+            sb.append(memberExistenceIndex.getStatistics());
+            sb.append("\n");
+        }
+        
+        String importerStatistics = this.importer.getStatistics();
+        if(importerStatistics != null) {
+            sb.append(importerStatistics);
+            sb.append("\n");
+        }
+        
         return sb.toString();
     }
     
@@ -760,13 +968,55 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
 //        }
         
         // show big steps
-        if(++this.printEra > PRINT_ERA_LENGTH) {
+        if(++this.printEra > PRINT_ERA_LENGTH && this.printProgress) {
             this.printEra = 0;
             System.out.println("\n" + this.getStatistics());
         }
     }
     
     OSMElement currentElement = null;
+    
+    ///////////////////////////////////////////////////////////////////////
+    //                          failures                                 //
+    ///////////////////////////////////////////////////////////////////////
+    
+    private SQLException failure = null;
+    private boolean stopOnFailure = false;
+    
+    /**
+     * Failures when processing an element are non fatal - processing goes 
+     * on with next element. Chunk workers within a transaction cannot go
+     * on: transaction is aborted and must be rolled back.
+     * @param stop true: processing stops with first failure
+     */
+    void setStopOnFailure(boolean stop) {
+        this.stopOnFailure = stop;
+    }
+    
+    private void noteFailure(Throwable t) {
+        if(this.failure != null) return; // keep first one
+        
+        if(t instanceof SQLException) {
+            this.failure = (SQLException) t;
+        } else {
+            this.failure = new SQLException("failure when processing element", t);
+        }
+    }
+    
+    private boolean stopped() {
+        return this.stopOnFailure && this.failure != null;
+    }
+    
+    /**
+     * @return first failure since last reset or null if none
+     */
+    SQLException getFailure() {
+        return this.failure;
+    }
+    
+    void resetFailure() {
+        this.failure = null;
+    }
 
     void processElement(ResultSet qResult, SQLStatementQueue sql, int elementType, boolean importUnnamedEntities) {
         this.currentElement = null;
@@ -782,6 +1032,8 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
                     this.processRelation(qResult, sql, importUnnamedEntities);
                     break;
             }
+            
+            this.importer.elementProcessed();
         }
         catch(Throwable t) {
             System.err.println("---------------------------------------------------------------------------");
@@ -802,6 +1054,36 @@ public class OSMExtractor extends IntermediateDB implements TriggerRecipient {
             } else {
                 System.err.println("current element is null");
             }
+            this.noteFailure(t);
+            Util.printExceptionMessage(t, sql, "uncatched throwable when processing element from intermediate db", true);
+            System.err.println("---------------------------------------------------------------------------");
+        }
+    }
+
+    /**
+     * process an element which is already read from intermediate db
+     */
+    void processElement(OSMElement element, boolean complete, SQLStatementQueue sql, int elementType, boolean importUnnamedEntities) {
+        this.currentElement = element;
+        try {
+            switch(elementType) {
+                case NODE:
+                    this.processNode((OSMNode)element, sql, importUnnamedEntities);
+                    break;
+                case WAY:
+                    this.processWay((OSMWay)element, sql, importUnnamedEntities);
+                    break;
+                case RELATION:
+                    this.processRelation((OSMRelation)element, complete, sql, importUnnamedEntities);
+                    break;
+            }
+            
+            this.importer.elementProcessed();
+        }
+        catch(Throwable t) {
+            System.err.println("---------------------------------------------------------------------------");
+            System.err.println("current element osm id: " + element.getOSMIDString());
+            this.noteFailure(t);
             Util.printExceptionMessage(t, sql, "uncatched throwable when processing element from intermediate db", true);
             System.err.println("---------------------------------------------------------------------------");
         }
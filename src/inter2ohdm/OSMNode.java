@@ -1,17 +1,23 @@
 package inter2ohdm;
 
+import java.math.BigDecimal;
 import java.sql.Date;
 import util.OHDM_DB;
+import util.WKB;
 
 /**
  *
  * @author thsc
  */
 public class OSMNode extends OSMElement {
-    private String longitude;
-    private String latitude;
+    // coordinates as stored in intermediate db - taken as they are for wkt
+    private String longitude = null;
+    private String latitude = null;
+    
+    private double longitudeValue = Double.NaN;
+    private double latitudeValue = Double.NaN;
 
-    OSMNode(IntermediateDB intermediateDB, String osmIDString, 
+    OSMNode(IntermediateDB intermediateDB, long osmID, 
             String classCodeString, String otherClassCodes, String sTags, 
             String ohdmObjectIDString, String ohdmGeomIDString, 
             boolean valid,
@@ -19,12 +25,12 @@ public class OSMNode extends OSMElement {
             boolean deleted,
             boolean has_name, Date tstampDate, boolean object_new) {
         
-        super(intermediateDB, osmIDString, classCodeString, otherClassCodes, sTags, 
+        super(intermediateDB, osmID, classCodeString, otherClassCodes, sTags, 
                 ohdmObjectIDString, ohdmGeomIDString, valid,
                 geom_changed, object_changed, deleted, has_name, tstampDate, object_new);
     }
 
-    OSMNode(IntermediateDB intermediateDB, String osmIDString, 
+    OSMNode(IntermediateDB intermediateDB, long osmID, 
             String classCodeString, String otherClassCodes, String sTags, String longitude, 
             String latitude, String ohdmObjectIDString, 
             String ohdmGeomIDString, boolean valid,
@@ -34,12 +40,31 @@ public class OSMNode extends OSMElement {
     ) {
         
         
-        this(intermediateDB, osmIDString, classCodeString, otherClassCodes, sTags, 
+        this(intermediateDB, osmID, classCodeString, otherClassCodes, sTags, 
                 ohdmObjectIDString, ohdmGeomIDString, valid,
                 geom_changed, object_changed, deleted, has_name, tstampDate, object_new);
         
         this.longitude = longitude;
         this.latitude = latitude;
+        this.longitudeValue = OSMNode.parseCoordinate(longitude);
+        this.latitudeValue = OSMNode.parseCoordinate(latitude);
+    }
+    
+    /**
+     * node with coordinates only - no tags, no ohdm ids. Sufficient as 
+     * part of a way geometry (see WayNodeCache). There is no stored text
+     * of those coordinates - wkt is produced from values.
+     */
+    static OSMNode createCoordinateNode(IntermediateDB intermediateDB, long osmID,
+            double longitude, double latitude, Date tstampDate) {
+        
+        OSMNode node = new OSMNode(intermediateDB, osmID, "-1", null, null, 
+                null, null, true, false, false, false, false, tstampDate, false);
+        
+        node.longitudeValue = longitude;
+        node.latitudeValue = latitude;
+        
+        return node;
     }
     
     @Override
@@ -54,16 +79,62 @@ public class OSMNode extends OSMElement {
         this.wktStringProduced = true;
     }
     
+    @Override
+    String getWKBGeometry() {
+        if(!this.hasCoordinates()) return null;
+        
+        return WKB.pointToHexEWKB(this.longitudeValue, this.latitudeValue, WKB.SRID_WGS84);
+    }
+    
     String getWKTPointsOnly() {
         return this.getLongitude() + " " + this.getLatitude();
     }
     
     String getLongitude() {
-        return this.longitude;
+        if(this.longitude != null) return this.longitude;
+        
+        return OSMNode.getCoordinateString(this.longitudeValue);
     }
     
     String getLatitude() {
-        return this.latitude;
+        if(this.latitude != null) return this.latitude;
+        
+        return OSMNode.getCoordinateString(this.latitudeValue);
+    }
+    
+    double getLongitudeValue() {
+        return this.longitudeValue;
+    }
+    
+    double getLatitudeValue() {
+        return this.latitudeValue;
+    }
+    
+    boolean hasCoordinates() {
+        return !Double.isNaN(this.longitudeValue) && !Double.isNaN(this.latitudeValue);
+    }
+    
+    /**
+     * NaN if missing or malformed
+     */
+    static double parseCoordinate(String value) {
+        if(value == null) return Double.NaN;
+        
+        try {
+            return Double.parseDouble(value);
+        }
+        catch(NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+    
+    /**
+     * coordinate as plain decimal string (no exponent) - "null" if missing
+     */
+    static String getCoordinateString(double value) {
+        if(Double.isNaN(value)) return "null";
+        
+        return BigDecimal.valueOf(value).toPlainString();
     }
 
     @Override
@@ -74,8 +145,8 @@ public class OSMNode extends OSMElement {
     boolean identical(OSMNode node) {
         if(node == null) return false;
         return (
-            node.getLatitude().equals(this.getLatitude()) &&
-            node.getLongitude().equals(this.getLongitude())
+            node.latitudeValue == this.latitudeValue &&
+            node.longitudeValue == this.longitudeValue
         );
     }
 }
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import util.OHDM_DB;
+import util.WKB;
 
 /**
  *
@@ -13,10 +14,11 @@ import util.OHDM_DB;
  */
 public class OSMWay extends OSMElement {
     private ArrayList<OSMNode> nodes;
-    private ArrayList<String> nodeIDList;
+    private long[] nodeIDArray;
+    private MemberIndex nodeIndex;
     private final String nodeIDs;
 
-    OSMWay(IntermediateDB intermediateDB, String osmIDString,
+    OSMWay(IntermediateDB intermediateDB, long osmID,
            String classCodeString, String otherClassCodes, String sTags, String nodeIDs,
            String ohdmObjectIDString, String ohdmGeomIDString,
            boolean valid,
@@ -24,7 +26,7 @@ public class OSMWay extends OSMElement {
            boolean has_name, Date tstampDate, boolean object_new) {
         
         // handle tags as attributes..
-        super(intermediateDB, osmIDString, classCodeString, otherClassCodes, sTags, 
+        super(intermediateDB, osmID, classCodeString, otherClassCodes, sTags, 
                 ohdmObjectIDString, ohdmGeomIDString, valid,
                 geom_changed, object_changed, deleted, has_name, tstampDate, object_new);
         
@@ -40,7 +42,7 @@ public class OSMWay extends OSMElement {
         }
         
         int i = this.isPolygon ? 1 : 0;
-        if(this.nodes.size() + i != this.nodeIDList.size()) {
+        if(this.nodes.size() + i != this.nodeIDArray.length) {
             p.println("isConsistent: nodes list and nodes id list have different length");
             return false;
         }
@@ -50,7 +52,7 @@ public class OSMWay extends OSMElement {
     
     @Override
     boolean isEmpty() {
-        return(this.nodeIDList == null || this.nodeIDList.isEmpty() 
+        return(this.nodeIDArray == null || this.nodeIDArray.length == 0 
                 || this.nodes == null || this.nodes.isEmpty());
         
     }
@@ -85,6 +87,38 @@ public class OSMWay extends OSMElement {
         this.wktStringProduced = true;
     }
     
+    @Override
+    boolean hasGeometry() {
+        // same condition as in produceWKTGeometry - without producing it
+        return this.nodes != null && !this.nodes.isEmpty();
+    }
+    
+    @Override
+    String getWKBGeometry() {
+        if(this.nodes == null || this.nodes.isEmpty()) return null;
+        
+        // we don't store last duplicate node of a polygon internally
+        int numberPoints = this.isPolygon ? this.nodes.size() + 1 : this.nodes.size();
+        double[] xy = new double[numberPoints * 2];
+        
+        int i = 0;
+        for(OSMNode node : this.nodes) {
+            if(node == null || !node.hasCoordinates()) return null;
+            
+            xy[i++] = node.getLongitudeValue();
+            xy[i++] = node.getLatitudeValue();
+        }
+        
+        if(this.isPolygon) {
+            xy[xy.length - 2] = xy[0];
+            xy[xy.length - 1] = xy[1];
+            
+            return WKB.polygonToHexEWKB(new double[][] {xy}, WKB.SRID_WGS84);
+        }
+        
+        return WKB.lineStringToHexEWKB(xy, numberPoints, WKB.SRID_WGS84);
+    }
+    
     String getWKTPointsOnly() {
         if(this.nodes == null || this.nodes.isEmpty()) {
             return "";
@@ -162,29 +196,36 @@ public class OSMWay extends OSMElement {
         return this.setupIDList(this.nodeIDs).iterator();
     }
 
+    /**
+     * @return ids of all nodes - a polygon repeats first id at the end
+     */
+    long[] getNodeIDArray() {
+        return OSMElement.setupIDArray(this.nodeIDs);
+    }
+
     void addNode(OSMNode node) {
         if (this.nodes == null) {
             // setup position list
-            this.nodeIDList = this.setupIDList(this.nodeIDs);
+            this.nodeIDArray = OSMElement.setupIDArray(this.nodeIDs);
 
             // is it a ring?
-            String firstElement = this.nodeIDList.get(0);
-            String lastElement = this.nodeIDList.get(this.nodeIDList.size() - 1);
-            if (firstElement.equalsIgnoreCase(lastElement)) {
+            long firstElement = this.nodeIDArray[0];
+            long lastElement = this.nodeIDArray[this.nodeIDArray.length - 1];
+            if (firstElement == lastElement) {
                 /*
                 there are a number cases in which a way has three (!) nodes and 
                 first and third are identical. It a stroke from first to 
                 second and back. Thats not a polygon.
                 */
-                if(this.nodeIDList.size() == 3) {
-                    ArrayList<String> realList = new ArrayList<>();
-                    realList.add(this.nodeIDList.get(0));
-                    realList.add(this.nodeIDList.get(1));
-                    this.nodeIDList = realList;
+                if(this.nodeIDArray.length == 3) {
+                    long[] realList = new long[2];
+                    realList[0] = this.nodeIDArray[0];
+                    realList[1] = this.nodeIDArray[1];
+                    this.nodeIDArray = realList;
                 } else {
                     this.isPolygon = true;
                     // remove last entry in idlist
-                    this.nodeIDList.set(this.nodeIDList.size()-1, "-1");
+                    this.nodeIDArray[this.nodeIDArray.length-1] = OSMElement.NO_ID;
                 }
             }
             
@@ -192,16 +233,18 @@ public class OSMWay extends OSMElement {
             /* if this is a polygon, one slot can be spared because copy of
             first node is not kept in this list
             */
-            int length = this.isPolygon ? this.nodeIDList.size() - 1 : this.nodeIDList.size();
+            int length = this.isPolygon ? this.nodeIDArray.length - 1 : this.nodeIDArray.length;
             this.nodes = new ArrayList<>(length);
             
             // dummy must be added..
             for(int i = 0; i < length; i++) {
                 this.nodes.add(null);
             }
+            
+            this.nodeIndex = new MemberIndex(this.nodeIDArray);
         }
         
-        this.addMember(node, this.nodes, this.nodeIDList, true);
+        this.addMember(node, this.nodes, this.nodeIndex, true);
     }
 
     OSMNode getLastPoint() {
@@ -242,8 +285,8 @@ public class OSMWay extends OSMElement {
         sb.append("nodes.size()");
         sb.append(this.nodes.size());
         sb.append("\t");
-        sb.append("nodeIDList.size()");
-        sb.append(this.nodeIDList.size());
+        sb.append("nodeIDArray.length");
+        sb.append(this.nodeIDArray.length);
         sb.append("\t");
         
         return sb.toString();
@@ -0,0 +1,457 @@
+package inter2ohdm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Assembles member ways of a multipolygon relation into polygons.
+ *
+ * Ways can come in any order and direction. Endpoints of open ways are
+ * indexed by node id, ways are chained along that index into closed
+ * rings - each way is touched once. Rings which cannot be closed are
+ * closed with their first node (OSM users often chose a similar but not
+ * identical point).
+ *
+ * Roles are not trusted: a ring is outer or inner by containment. Rings
+ * are sorted by area, a ring lies in the smallest ring containing it
+ * (bounding box first, point in ring test after). Rings inside an even
+ * number of rings are outer boundaries, others are holes of their
+ * parent. An outer ring with its holes makes a polygon.
+ *
+ * @author thsc
+ */
+class RingAssembler {
+    private static final String SRID_PREFIX = "SRID=4326;";
+
+    // added ways
+    private final ArrayList<long[]> wayIDs = new ArrayList<>();
+    private final ArrayList<double[]> wayX = new ArrayList<>();
+    private final ArrayList<double[]> wayY = new ArrayList<>();
+
+    // assembled
+    private ArrayList<Ring> rings = null;
+    private ArrayList<Ring> outerRings = null;
+
+    private int fixedRings = 0;
+    private int droppedRings = 0;
+
+    /**
+     * ring made of one or more ways
+     */
+    private static class Ring {
+        long[] ids;
+        double[] x;
+        double[] y;
+        int length;
+
+        // way index if ring is exactly one closed way, -1 otherwise
+        int sourceWay = -1;
+
+        double minX, minY, maxX, maxY;
+        double area;
+
+        int depth = 0;
+        Ring parent = null;
+        ArrayList<Ring> holes = null;
+        HashSet<Long> idSet = null;
+
+        Ring(int capacity) {
+            this.ids = new long[capacity];
+            this.x = new double[capacity];
+            this.y = new double[capacity];
+        }
+
+        void add(long id, double px, double py) {
+            if(this.length == this.ids.length) {
+                int newCapacity = this.ids.length * 2 + 4;
+                this.ids = Arrays.copyOf(this.ids, newCapacity);
+                this.x = Arrays.copyOf(this.x, newCapacity);
+                this.y = Arrays.copyOf(this.y, newCapacity);
+            }
+
+            this.ids[this.length] = id;
+            this.x[this.length] = px;
+            this.y[this.length] = py;
+            this.length++;
+        }
+
+        boolean isClosed() {
+            return this.length > 1 && this.ids[0] == this.ids[this.length - 1];
+        }
+
+        /**
+         * bounding box and signed area (shoelace) - ring must be closed
+         */
+        void measure() {
+            this.minX = this.maxX = this.x[0];
+            this.minY = this.maxY = this.y[0];
+
+            double sum = 0;
+            for(int i = 1; i < this.length; i++) {
+                this.minX = Math.min(this.minX, this.x[i]);
+                this.maxX = Math.max(this.maxX, this.x[i]);
+                this.minY = Math.min(this.minY, this.y[i]);
+                this.maxY = Math.max(this.maxY, this.y[i]);
+
+                sum += this.x[i - 1] * this.y[i] - this.x[i] * this.y[i - 1];
+            }
+
+            this.area = sum / 2;
+        }
+
+        boolean bboxContains(Ring r) {
+            return r.minX >= this.minX && r.maxX <= this.maxX
+                    && r.minY >= this.minY && r.maxY <= this.maxY;
+        }
+
+        /**
+         * ray casting - points on boundary are undefined
+         */
+        boolean contains(double px, double py) {
+            boolean inside = false;
+            for(int i = 0, j = this.length - 1; i < this.length; j = i++) {
+                if((this.y[i] > py) != (this.y[j] > py)
+                        && px < (this.x[j] - this.x[i]) * (py - this.y[i])
+                        / (this.y[j] - this.y[i]) + this.x[i]) {
+                    inside = !inside;
+                }
+            }
+
+            return inside;
+        }
+
+        /**
+         * rings can touch each other in shared nodes. Test first node
+         * which is not part of r
+         */
+        boolean contains(Ring r) {
+            if(!this.bboxContains(r)) return false;
+
+            if(this.idSet == null) {
+                this.idSet = new HashSet<>(this.length * 2);
+                for(int i = 0; i < this.length; i++) {
+                    this.idSet.add(this.ids[i]);
+                }
+            }
+
+            for(int i = 0; i < r.length - 1; i++) {
+                if(!this.idSet.contains(r.ids[i])) {
+                    return this.contains(r.x[i], r.y[i]);
+                }
+            }
+
+            // all nodes shared - take middle of first segment
+            return this.contains((r.x[0] + r.x[1]) / 2, (r.y[0] + r.y[1]) / 2);
+        }
+
+        /**
+         * outer rings counterclockwise, holes clockwise
+         */
+        void orient(boolean counterclockwise) {
+            if((this.area > 0) == counterclockwise) return;
+
+            for(int i = 0, j = this.length - 1; i < j; i++, j--) {
+                long id = this.ids[i]; this.ids[i] = this.ids[j]; this.ids[j] = id;
+                double v = this.x[i]; this.x[i] = this.x[j]; this.x[j] = v;
+                v = this.y[i]; this.y[i] = this.y[j]; this.y[j] = v;
+            }
+
+            this.area = -this.area;
+        }
+
+        void appendWKT(StringBuilder sb) {
+            sb.append("(");
+            for(int i = 0; i < this.length; i++) {
+                if(i > 0) sb.append(", ");
+                sb.append(OSMNode.getCoordinateString(this.x[i]));
+                sb.append(" ");
+                sb.append(OSMNode.getCoordinateString(this.y[i]));
+            }
+            sb.append(")");
+        }
+    }
+
+    /**
+     * add a member way. A closed way repeats its first node at the end.
+     * @param ids node ids
+     * @param x longitudes
+     * @param y latitudes
+     * @return index of that way
+     */
+    int addWay(long[] ids, double[] x, double[] y) {
+        this.wayIDs.add(ids);
+        this.wayX.add(x);
+        this.wayY.add(y);
+        this.rings = null;
+
+        return this.wayIDs.size() - 1;
+    }
+
+    /**
+     * chain ways into rings and classify them
+     * @return false if no polygon could be assembled
+     */
+    boolean assemble() {
+        this.rings = new ArrayList<>();
+        this.outerRings = new ArrayList<>();
+        this.fixedRings = 0;
+        this.droppedRings = 0;
+
+        this.chain();
+        this.classify();
+
+        return !this.outerRings.isEmpty();
+    }
+
+    private void chain() {
+        int wayNumber = this.wayIDs.size();
+        boolean[] used = new boolean[wayNumber];
+
+        // endpoints of open ways: node id -> way indices
+        HashMap<Long, ArrayList<Integer>> endpoints = new HashMap<>(wayNumber * 4);
+
+        for(int w = 0; w < wayNumber; w++) {
+            long[] ids = this.wayIDs.get(w);
+            if(ids == null || ids.length < 2) {
+                used[w] = true;
+                continue;
+            }
+
+            if(ids[0] == ids[ids.length - 1]) {
+                // already a ring
+                used[w] = true;
+                Ring ring = new Ring(ids.length);
+                this.append(ring, w, false, false);
+                ring.sourceWay = w;
+                this.addRing(ring);
+                continue;
+            }
+
+            this.putEndpoint(endpoints, ids[0], w);
+            this.putEndpoint(endpoints, ids[ids.length - 1], w);
+        }
+
+        for(int w = 0; w < wayNumber; w++) {
+            if(used[w]) continue;
+            used[w] = true;
+
+            Ring ring = new Ring(this.wayIDs.get(w).length * 2);
+            this.append(ring, w, false, false);
+
+            // walk forward
+            while(!ring.isClosed()) {
+                int next = this.takeNext(endpoints, ring.ids[ring.length - 1], used);
+                if(next < 0) break;
+
+                long[] ids = this.wayIDs.get(next);
+                boolean reverse = ids[0] != ring.ids[ring.length - 1];
+                this.append(ring, next, reverse, true);
+            }
+
+            if(!ring.isClosed()) {
+                // dead end - walk backward from first node
+                Ring head = new Ring(ring.length);
+                long end = ring.ids[0];
+                ArrayList<Integer> prepended = new ArrayList<>();
+                ArrayList<Boolean> prependedReverse = new ArrayList<>();
+                for(;;) {
+                    int previous = this.takeNext(endpoints, end, used);
+                    if(previous < 0) break;
+
+                    long[] ids = this.wayIDs.get(previous);
+                    // previous way must end at current start
+                    boolean reverse = ids[ids.length - 1] != end;
+                    prepended.add(previous);
+                    prependedReverse.add(reverse);
+                    end = reverse ? ids[ids.length - 1] : ids[0];
+                }
+
+                if(!prepended.isEmpty()) {
+                    for(int i = prepended.size() - 1; i >= 0; i--) {
+                        this.append(head, prepended.get(i), prependedReverse.get(i),
+                                head.length > 0);
+                    }
+                    for(int i = 1; i < ring.length; i++) {
+                        head.add(ring.ids[i], ring.x[i], ring.y[i]);
+                    }
+                    ring = head;
+                }
+            }
+
+            if(!ring.isClosed()) {
+                ring.add(ring.ids[0], ring.x[0], ring.y[0]);
+                this.fixedRings++;
+            }
+
+            this.addRing(ring);
+        }
+    }
+
+    private void putEndpoint(HashMap<Long, ArrayList<Integer>> endpoints, long id, int way) {
+        ArrayList<Integer> ways = endpoints.get(id);
+        if(ways == null) {
+            ways = new ArrayList<>(2);
+            endpoints.put(id, ways);
+        }
+
+        ways.add(way);
+    }
+
+    /**
+     * find an unused way starting or ending at node and mark it used
+     * @return way index, -1 if there is none
+     */
+    private int takeNext(HashMap<Long, ArrayList<Integer>> endpoints, long id, boolean[] used) {
+        ArrayList<Integer> ways = endpoints.get(id);
+        if(ways == null) return -1;
+
+        while(!ways.isEmpty()) {
+            int way = ways.remove(ways.size() - 1);
+            if(!used[way]) {
+                used[way] = true;
+                return way;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param skipFirst first node is already last node of ring
+     */
+    private void append(Ring ring, int way, boolean reverse, boolean skipFirst) {
+        long[] ids = this.wayIDs.get(way);
+        double[] x = this.wayX.get(way);
+        double[] y = this.wayY.get(way);
+
+        int first = skipFirst ? 1 : 0;
+        for(int i = first; i < ids.length; i++) {
+            int p = reverse ? ids.length - 1 - i : i;
+            ring.add(ids[p], x[p], y[p]);
+        }
+    }
+
+    private void addRing(Ring ring) {
+        // triangle at least: three points and the closing one
+        if(ring.length < 4) {
+            this.droppedRings++;
+            return;
+        }
+
+        ring.measure();
+        if(ring.area == 0) {
+            this.droppedRings++;
+            return;
+        }
+
+        this.rings.add(ring);
+    }
+
+    private void classify() {
+        ArrayList<Ring> sorted = new ArrayList<>(this.rings);
+        sorted.sort(new Comparator<Ring>() {
+            @Override
+            public int compare(Ring a, Ring b) {
+                return Double.compare(Math.abs(b.area), Math.abs(a.area));
+            }
+        });
+
+        for(int i = 0; i < sorted.size(); i++) {
+            Ring ring = sorted.get(i);
+
+            // smallest larger ring containing that ring
+            for(int j = i - 1; j >= 0; j--) {
+                Ring candidate = sorted.get(j);
+                if(candidate.contains(ring)) {
+                    ring.parent = candidate;
+                    ring.depth = candidate.depth + 1;
+                    break;
+                }
+            }
+
+            if(ring.depth % 2 == 0) {
+                ring.orient(true);
+                this.outerRings.add(ring);
+            } else {
+                ring.orient(false);
+                if(ring.parent.holes == null) {
+                    ring.parent.holes = new ArrayList<>();
+                }
+                ring.parent.holes.add(ring);
+            }
+        }
+    }
+
+    /**
+     * @return number of assembled polygons
+     */
+    int getPolygonNumber() {
+        return this.outerRings == null ? 0 : this.outerRings.size();
+    }
+
+    /**
+     * @return ewkt of polygon i, e.g. SRID=4326;POLYGON((..), (hole))
+     */
+    String getPolygonWKT(int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(SRID_PREFIX);
+        sb.append("POLYGON");
+        this.appendPolygon(sb, this.outerRings.get(i));
+
+        return sb.toString();
+    }
+
+    /**
+     * @return index of added way if polygon i is that closed way without
+     * holes, -1 otherwise
+     */
+    int getPolygonSourceWay(int i) {
+        Ring ring = this.outerRings.get(i);
+        return ring.holes == null ? ring.sourceWay : -1;
+    }
+
+    /**
+     * @return all polygons as ewkt multipolygon
+     */
+    String getMultiPolygonWKT() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(SRID_PREFIX);
+        sb.append("MULTIPOLYGON(");
+        for(int i = 0; i < this.getPolygonNumber(); i++) {
+            if(i > 0) sb.append(", ");
+            this.appendPolygon(sb, this.outerRings.get(i));
+        }
+        sb.append(")");
+
+        return sb.toString();
+    }
+
+    private void appendPolygon(StringBuilder sb, Ring outer) {
+        sb.append("(");
+        outer.appendWKT(sb);
+        if(outer.holes != null) {
+            for(Ring hole : outer.holes) {
+                sb.append(", ");
+                hole.appendWKT(sb);
+            }
+        }
+        sb.append(")");
+    }
+
+    /**
+     * @return number of rings which were closed with their first node
+     */
+    int getFixedRings() {
+        return this.fixedRings;
+    }
+
+    /**
+     * @return number of degenerated rings which were ignored
+     */
+    int getDroppedRings() {
+        return this.droppedRings;
+    }
+}
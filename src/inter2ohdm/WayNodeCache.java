@@ -0,0 +1,194 @@
+package inter2ohdm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import util.Parameter;
+import util.Util;
+
+/**
+ * Nodes of recently assembled ways, keyed by way osm id. Relations share
+ * ways (e.g. a river is border of several admin areas) - those ways are
+ * read once from intermediate db and taken from this cache afterwards.
+ *
+ * Coordinates and node ids are kept in arrays. Nodes with their own ohdm
+ * identity are kept as they are because relations refer to them. Other
+ * nodes are re-created with coordinates only.
+ *
+ * Size is limited by number of cached nodes, least recently used ways are
+ * evicted. Cache can be shared between threads.
+ *
+ * @author thsc
+ */
+class WayNodeCache {
+    static final int DEFAULT_MAX_NODES = 2000000;
+
+    private final long maxNodes;
+    private final boolean warmStart;
+
+    private final LinkedHashMap<Long, CachedWay> ways;
+    private long nodes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private static class CachedWay {
+        final long[] ids;
+        final double[] longitudes;
+        final double[] latitudes;
+
+        // nodes with ohdm identity, null if there is none
+        final OSMNode[] identityNodes;
+
+        CachedWay(long[] ids, double[] longitudes, double[] latitudes,
+                OSMNode[] identityNodes) {
+
+            this.ids = ids;
+            this.longitudes = longitudes;
+            this.latitudes = latitudes;
+            this.identityNodes = identityNodes;
+        }
+    }
+
+    /**
+     * @param maxNodes maximum number of cached nodes
+     * @param warmStart ways are cached when they are processed in way stage
+     * (see OSMExtractor.processWay) - not only when used by relations
+     */
+    WayNodeCache(long maxNodes, boolean warmStart) {
+        this.maxNodes = maxNodes > 0 ? maxNodes : DEFAULT_MAX_NODES;
+        this.warmStart = warmStart;
+
+        // access order: least recently used first
+        this.ways = new LinkedHashMap<>(1024, 0.75f, true);
+    }
+
+    /**
+     * @return cache as configured in parameter file, null if it is
+     * switched off (wayCacheNodes: 0)
+     */
+    static WayNodeCache create(Parameter parameter) {
+        if(parameter.getWayCacheNodes() <= 0) return null;
+
+        return new WayNodeCache(parameter.getWayCacheNodes(),
+                parameter.useWayCacheWarmStart());
+    }
+
+    boolean isWarmStart() {
+        return this.warmStart;
+    }
+
+    /**
+     * add cached nodes to way
+     * @return false if way is not cached
+     */
+    boolean fill(OSMWay way) {
+        CachedWay cached;
+        synchronized(this) {
+            cached = this.ways.get(way.getOSMID());
+            if(cached == null) {
+                this.misses++;
+                return false;
+            }
+            this.hits++;
+        }
+
+        for(int i = 0; i < cached.ids.length; i++) {
+            OSMNode node = cached.identityNodes != null ? cached.identityNodes[i] : null;
+            if(node == null) {
+                node = OSMNode.createCoordinateNode(way.intermediateDB, cached.ids[i],
+                        cached.longitudes[i], cached.latitudes[i], way.getTimeStamp());
+            }
+
+            way.addNode(node);
+        }
+
+        return true;
+    }
+
+    /**
+     * remember nodes of that way
+     */
+    void put(OSMWay way) {
+        Iterator<OSMNode> nodeIter = way.getNodeIter();
+        if(nodeIter == null) return;
+
+        ArrayList<OSMNode> wayNodes = new ArrayList<>();
+        boolean hasIdentityNodes = false;
+        while(nodeIter.hasNext()) {
+            OSMNode node = nodeIter.next();
+            // not found in intermediate db
+            if(node == null) continue;
+
+            wayNodes.add(node);
+            hasIdentityNodes |= node.hasOHDMObjectID();
+        }
+
+        if(wayNodes.isEmpty()) return;
+
+        int size = wayNodes.size();
+        long[] ids = new long[size];
+        double[] longitudes = new double[size];
+        double[] latitudes = new double[size];
+        OSMNode[] identityNodes = hasIdentityNodes ? new OSMNode[size] : null;
+
+        for(int i = 0; i < size; i++) {
+            OSMNode node = wayNodes.get(i);
+            ids[i] = node.getOSMID();
+            longitudes[i] = node.getLongitudeValue();
+            latitudes[i] = node.getLatitudeValue();
+
+            if(hasIdentityNodes && node.hasOHDMObjectID()) {
+                identityNodes[i] = node;
+            }
+        }
+
+        synchronized(this) {
+            CachedWay previous = this.ways.put(way.getOSMID(),
+                    new CachedWay(ids, longitudes, latitudes, identityNodes));
+
+            if(previous != null) {
+                this.nodes -= previous.ids.length;
+            }
+            this.nodes += size;
+
+            this.evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, CachedWay>> iter = this.ways.entrySet().iterator();
+        while(this.nodes > this.maxNodes && iter.hasNext()) {
+            CachedWay eldest = iter.next().getValue();
+            iter.remove();
+
+            this.nodes -= eldest.ids.length;
+            this.evictions++;
+        }
+    }
+
+    synchronized String getStatistics() {
+        long lookups = this.hits + this.misses;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("way cache: ");
+        sb.append(Util.getValueWithDots(this.ways.size()));
+        sb.append(" ways / ");
+        sb.append(Util.getValueWithDots(this.nodes));
+        sb.append(" nodes | hits: ");
+        sb.append(Util.getValueWithDots(this.hits));
+        sb.append(" | misses: ");
+        sb.append(Util.getValueWithDots(this.misses));
+        if(lookups > 0) {
+            sb.append(" (");
+            sb.append(this.hits * 100 / lookups);
+            sb.append("% hits)");
+        }
+        sb.append(" | evicted: ");
+        sb.append(Util.getValueWithDots(this.evictions));
+
+        return sb.toString();
+    }
+}
@@ -157,7 +157,7 @@ SELECT st_astext(st_transform(line, 4326)), name, classid, valid_since
 
         if(this.linesTableNames != null) {
             for(String tableName : this.linesTableNames) {
-                sql.append("SELECT ST_AsText(st_transform(line, 4326)), name, classid,  ");
+                sql.append("SELECT ST_AsBinary(st_transform(line, 4326)), name, classid,  ");
                 sql.append("valid_since, text(tags)::varchar as tags FROM ");
                 sql.append(util.DB.getFullTableName(this.sourceParameter.getSchema(), tableName));
                 sql.append(" WHERE valid_since <= '");
@@ -172,7 +172,7 @@ SELECT st_astext(st_transform(line, 4326)), name, classid, valid_since
                 while(resultSet.next()) {
                     this.printWay(
                             resultSet.getDate("valid_since"),
-                            resultSet.getString(1),
+                            resultSet.getBytes(1),
                             resultSet.getBigDecimal("classid"),
                             resultSet.getString("name"),
                             resultSet.getString("tags"),
@@ -201,7 +201,7 @@ st_astext(ST_InteriorRingN(polygon, 1)), subclassname, name, valid_since
 
         if(this.polygonTableNames != null) {
             for(String tableName : this.polygonTableNames) {
-                sql.append("SELECT st_astext(st_transform((ST_ExteriorRing(polygon)),4326)), " +
+                sql.append("SELECT ST_AsBinary(st_transform((ST_ExteriorRing(polygon)),4326)), " +
                         "ST_NumInteriorRings(polygon), classid, name, valid_since, geom_id, text(tags)::varchar as tags FROM ");
                 sql.append(util.DB.getFullTableName(this.sourceParameter.getSchema(), tableName));
                 sql.append(" WHERE valid_since <= '");
@@ -222,11 +222,11 @@ st_astext(ST_InteriorRingN(polygon, 1)), subclassname, name, valid_since
 
                     if(numberInteriorRings == 0) {
                         // just a closed way
-                        this.printWay(valid_since, resultSet.getString(1),
+                        this.printWay(valid_since, resultSet.getBytes(1),
                                 classid, name, tags,true);
                     } else {
                         // becomes a multipolygon
-                        this.printWay(valid_since, resultSet.getString(1),
+                        this.printWay(valid_since, resultSet.getBytes(1),
                                 null, null, null,true);
                         // TODO: classid and name null or to be set?!
 
@@ -240,10 +240,10 @@ st_astext(ST_InteriorRingN(polygon, 1)), subclassname, name, valid_since
 
                         for(int indexInterior = 1; indexInterior <= numberInteriorRings; indexInterior++) {
                         /*
-SELECT st_astext(ST_TRANSFORM(ST_InteriorRingN(polygon, 1), 4326))
+SELECT ST_AsBinary(ST_TRANSFORM(ST_InteriorRingN(polygon, 1), 4326))
  FROM public.building_apartments where geom_id = ;
                          */
-                            sql.append("SELECT st_astext(ST_TRANSFORM(ST_InteriorRingN(polygon, ");
+                            sql.append("SELECT ST_AsBinary(ST_TRANSFORM(ST_InteriorRingN(polygon, ");
                             sql.append(indexInterior);
                             sql.append("), 4326)) FROM ");
                             sql.append(util.DB.getFullTableName(this.sourceParameter.getSchema(), tableName));
@@ -252,7 +252,7 @@ SELECT st_astext(ST_TRANSFORM(ST_InteriorRingN(polygon, 1), 4326))
 
                             resultSet = sql.executeWithResult();
                             if(resultSet.next()) {
-                                this.printWay(valid_since, resultSet.getString(1),
+                                this.printWay(valid_since, resultSet.getBytes(1),
                                         null, null, null,true);
 
                                 innerIDs.add(this.ldfID-1);
@@ -419,51 +419,28 @@ SELECT st_astext(ST_TRANSFORM(ST_InteriorRingN(polygon, 1), 4326))
         ps.println("' />");
     }
 
-    List<String> getLatLongFromLineString(String linestring) {
-        List<String> latLongList = new ArrayList<>();
-        if(linestring == null) {
-            return latLongList;
-        }
-
-        // extract linestring
-        int open = linestring.indexOf("(");
-        int close = linestring.indexOf(")");
-
-        String coordStrings = linestring.substring(open+1, close);
-        StringTokenizer st = new StringTokenizer(coordStrings, ",");
-
-        // walk through coordinates
-        while(st.hasMoreTokens()) {
-            String coordString = st.nextToken();
-            // split
-            int i = coordString.indexOf(" ");
-            latLongList.add(coordString.substring(i+1)); // latitude
-            latLongList.add(coordString.substring(0, i)); // longitude
-        }
-
-        return latLongList;
+    /**
+     * coordinate as plain decimal string - no exponent
+     */
+    String getCoordinateString(double value) {
+        return BigDecimal.valueOf(value).toPlainString();
     }
 
-    private void printWay(java.sql.Date valid_since, String linestring, BigDecimal classid, String name, String tags,
+    private void printWay(java.sql.Date valid_since, byte[] wkb, BigDecimal classid, String name, String tags,
                           boolean isPolygon) {
         int firstNodeID = this.ldfID;
-        // extract nodes from linestring
-        List<String> latLongList = this.getLatLongFromLineString(linestring);
-        Iterator<String> iterator = latLongList.iterator();
-
-        // look ahead
-        String latString = iterator.next();
-        String longString = iterator.next();
-
-        do {
-            this.printNode(valid_since, latString, longString, null, null, null);
-            latString = iterator.next();
-            longString = iterator.next();
-        } while(iterator.hasNext());
-
-        if(!isPolygon) {
-            // it is a way - save final node - in a polygon: it is the same point
-            this.printNode(valid_since, latString, longString, null, null, null);
+        // extract nodes from linestring: x (longitude), y (latitude) pairs
+        double[] xy = WKB.decodeCoordinates(wkb);
+        int numberPoints = xy.length / 2;
+
+        // in a polygon: final node is the same point as first one
+        int numberNodes = isPolygon ? numberPoints - 1 : numberPoints;
+
+        for(int i = 0; i < numberNodes; i++) {
+            this.printNode(valid_since,
+                    this.getCoordinateString(xy[2 * i + 1]),
+                    this.getCoordinateString(xy[2 * i]),
+                    null, null, null);
         }
 
         int lastNodeID = this.ldfID-1;
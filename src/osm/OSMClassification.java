@@ -25,7 +25,7 @@ public class OSMClassification {
     public static final String UNDEFINED = "undefined";
     private static OSMClassification osmClassification = null;
     
-    public static OSMClassification getOSMClassification() {
+    public static synchronized OSMClassification getOSMClassification() {
         if(OSMClassification.osmClassification == null) {
             OSMClassification.osmClassification = new OSMClassification();
         }
@@ -0,0 +1,853 @@
+package osm2inter;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import osm.OSMClassification;
+import util.DB;
+import util.InterDB;
+import util.Parameter;
+import util.PreparedBatch;
+import util.SQLStatementQueue;
+import util.Util;
+
+/**
+ * Applies an osmChange file (.osc or .osc.gz) to an intermediate db.
+ * Elements of create, modify and delete blocks are collected in batches,
+ * existing rows of a batch are read with one query, compared in memory
+ * and written with prepared batches. Flags are set like the full diff of
+ * two intermediate dbs (see OHDMUpdateInter): changed and deleted rows
+ * are no longer valid, geom_changed and object_changed mark what has
+ * changed, created rows are object_new. Geometry changes of nodes, ways
+ * and relations are passed to the ways and relations they are part of,
+ * deleted elements are removed at the end.
+ *
+ * Only elements of the change file and their members are touched - cost
+ * depends on size of the change, not on size of intermediate db.
+ *
+ * @author thsc
+ */
+public class OSMChangeImporter extends DefaultHandler {
+    private static final int STATUS_OUTSIDE = 0;
+    private static final int STATUS_NODE = 1;
+    private static final int STATUS_WAY = 2;
+    private static final int STATUS_RELATION = 3;
+
+    static final int ACTION_NONE = 0;
+    static final int ACTION_CREATE = 1;
+    static final int ACTION_MODIFY = 2;
+    static final int ACTION_DELETE = 3;
+
+    // ids per statement when changes are passed to ways and relations
+    private static final int ID_CHUNK_SIZE = 10000;
+
+    private final Connection connection;
+    private final String schema;
+    private final int batchSize;
+    private final PrintStream outStream;
+
+    private final OSMClassification osmClassification;
+    private final int boundaryAdminClassID;
+
+    private int status = STATUS_OUTSIDE;
+    private int action = ACTION_NONE;
+    private Change current = null;
+
+    private final ElementTable nodes;
+    private final ElementTable ways;
+    private final ElementTable relations;
+
+    private final PreparedBatch wayMemberDeletes;
+    private final PreparedBatch wayMemberInserts;
+    private final PreparedBatch relationMemberDeletes;
+    private final PreparedBatch relationMemberInserts;
+
+    private final long startTime;
+
+    /**
+     * an element of the change file
+     */
+    private static class Change {
+        int action;
+        long osmID;
+        String timestamp;
+        int classID = -1;
+        List<Integer> otherClassIDs = null;
+        int adminLevel = 0;
+        boolean hasName = false;
+        final StringBuilder sAttributes = new StringBuilder();
+
+        // node
+        String longitude;
+        String latitude;
+
+        // way: node ids, relation: member ids
+        final StringBuilder memberIDs = new StringBuilder();
+        final ArrayList<Long> refs = new ArrayList<>();
+        // relation only
+        final ArrayList<String> types = new ArrayList<>();
+        final ArrayList<String> roles = new ArrayList<>();
+    }
+
+    /**
+     * how a change is written into intermediate db. Each written row 
+     * becomes invalid.
+     */
+    static class Flags {
+        static final int SKIP = 0;
+        static final int INSERT = 1;
+        static final int UPDATE = 2;
+        static final int DELETE = 3;
+
+        final int write;
+        final boolean objectNew;
+        final boolean deleted;
+        final boolean geometryChanged;
+        final boolean objectChanged;
+
+        Flags(int write, boolean objectNew, boolean deleted,
+                boolean geometryChanged, boolean objectChanged) {
+
+            this.write = write;
+            this.objectNew = objectNew;
+            this.deleted = deleted;
+            this.geometryChanged = geometryChanged;
+            this.objectChanged = objectChanged;
+        }
+    }
+
+    /**
+     * prepared statements, buffered changes and results of one of
+     * the intermediate tables nodes, ways or relations
+     */
+    private static class ElementTable {
+        final String tableName;
+        final String[] geometryColumns;
+
+        final PreparedBatch inserts;
+        final PreparedBatch updates;
+        final PreparedBatch deletes;
+
+        // latest change of each element in current batch
+        final LinkedHashMap<Long, Change> buffer = new LinkedHashMap<>();
+
+        // ids of elements with changed geometry and of deleted elements
+        final LinkedHashSet<Long> geometryChanged = new LinkedHashSet<>();
+        final LinkedHashSet<Long> deleted = new LinkedHashSet<>();
+
+        long created = 0;
+        long modified = 0;
+        long removed = 0;
+        long objectChanged = 0;
+        long indirectlyChanged = 0;
+
+        ElementTable(Connection connection, String schema, String tableName,
+                String[] geometryColumns, int batchSize) {
+
+            this.tableName = tableName;
+            this.geometryColumns = geometryColumns;
+
+            String fullTableName = DB.getFullTableName(schema, tableName);
+
+            /*
+            INSERT INTO [table] (valid, object_new, osm_id, tstamp, classcode,
+            otherclasscodes, serializedtags, has_name, [geometry]) VALUES (false, true, ?, ..);
+            */
+            StringBuilder columns = new StringBuilder();
+            StringBuilder values = new StringBuilder();
+            StringBuilder sets = new StringBuilder();
+            int[] types = new int[6 + geometryColumns.length];
+            types[0] = Types.BIGINT;
+            types[1] = Types.VARCHAR;
+            types[2] = Types.BIGINT;
+            types[3] = Types.VARCHAR;
+            types[4] = Types.VARCHAR;
+            types[5] = Types.BOOLEAN;
+            for(int i = 0; i < geometryColumns.length; i++) {
+                columns.append(", ");
+                columns.append(geometryColumns[i]);
+                values.append(", ?");
+                sets.append(", ");
+                sets.append(geometryColumns[i]);
+                sets.append(" = ?");
+                types[6 + i] = Types.VARCHAR;
+            }
+
+            this.inserts = new PreparedBatch(connection,
+                    "INSERT INTO " + fullTableName
+                    + " (valid, object_new, osm_id, tstamp, classcode,"
+                    + " otherclasscodes, serializedtags, has_name" + columns + ")"
+                    + " VALUES (false, true, ?, ?::date, ?, ?, ?, ?" + values + ")",
+                    types, batchSize);
+
+            /*
+            UPDATE [table] SET valid = false, deleted = false, tstamp = ?::date, ..
+            geom_changed = geom_changed OR ?, object_changed = object_changed OR ?
+            WHERE osm_id = ?;
+            */
+            int[] updateTypes = new int[types.length + 2];
+            System.arraycopy(types, 1, updateTypes, 0, types.length - 1);
+            updateTypes[types.length - 1] = Types.BOOLEAN;
+            updateTypes[types.length] = Types.BOOLEAN;
+            updateTypes[types.length + 1] = Types.BIGINT;
+
+            this.updates = new PreparedBatch(connection,
+                    "UPDATE " + fullTableName
+                    + " SET valid = false, deleted = false, tstamp = ?::date, classcode = ?,"
+                    + " otherclasscodes = ?, serializedtags = ?, has_name = ?" + sets + ","
+                    + " geom_changed = geom_changed OR ?,"
+                    + " object_changed = object_changed OR ? WHERE osm_id = ?",
+                    updateTypes, batchSize);
+
+            this.deletes = new PreparedBatch(connection,
+                    "UPDATE " + fullTableName
+                    + " SET valid = false, deleted = true WHERE osm_id = ?",
+                    new int[] {Types.BIGINT}, batchSize);
+        }
+
+        void executeBatches() throws SQLException {
+            this.inserts.executeBatch();
+            this.updates.executeBatch();
+            this.deletes.executeBatch();
+        }
+
+        String getStatistics() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(this.tableName);
+            sb.append(": created: ");
+            sb.append(Util.getValueWithDots(this.created));
+            sb.append(" | modified: ");
+            sb.append(Util.getValueWithDots(this.modified));
+            sb.append(" (geometry: ");
+            sb.append(Util.getValueWithDots(this.geometryChanged.size() - this.indirectlyChanged));
+            sb.append(", object: ");
+            sb.append(Util.getValueWithDots(this.objectChanged));
+            sb.append(") | geometry changed by members: ");
+            sb.append(Util.getValueWithDots(this.indirectlyChanged));
+            sb.append(" | deleted: ");
+            sb.append(Util.getValueWithDots(this.removed));
+
+            return sb.toString();
+        }
+    }
+
+    public OSMChangeImporter(Parameter parameter, OSMClassification osmClassification) throws SQLException, FileNotFoundException {
+        this.schema = parameter.getSchema();
+        this.outStream = parameter.getOutStream();
+        this.batchSize = PreparedBatch.DEFAULT_BATCH_SIZE;
+
+        this.osmClassification = osmClassification;
+        this.boundaryAdminClassID = osmClassification.getOHDMClassID("boundary", "administrative");
+
+        this.connection = DB.createConnection(parameter);
+
+        this.nodes = new ElementTable(this.connection, this.schema,
+                InterDB.NODETABLE, new String[] {"longitude", "latitude"}, this.batchSize);
+        this.ways = new ElementTable(this.connection, this.schema,
+                InterDB.WAYTABLE, new String[] {"node_ids"}, this.batchSize);
+        this.relations = new ElementTable(this.connection, this.schema,
+                InterDB.RELATIONTABLE, new String[] {"member_ids"}, this.batchSize);
+
+        this.wayMemberDeletes = new PreparedBatch(this.connection,
+                "DELETE FROM " + DB.getFullTableName(this.schema, InterDB.WAYMEMBER)
+                + " WHERE way_id = ?",
+                new int[] {Types.BIGINT}, this.batchSize);
+
+        this.wayMemberInserts = new PreparedBatch(this.connection,
+                "INSERT INTO " + DB.getFullTableName(this.schema, InterDB.WAYMEMBER)
+                + " (way_id, node_id) VALUES (?, ?)",
+                new int[] {Types.BIGINT, Types.BIGINT}, this.batchSize);
+
+        this.relationMemberDeletes = new PreparedBatch(this.connection,
+                "DELETE FROM " + DB.getFullTableName(this.schema, InterDB.RELATIONMEMBER)
+                + " WHERE relation_id = ?",
+                new int[] {Types.BIGINT}, this.batchSize);
+
+        // one of node_id, way_id, member_rel_id is set
+        this.relationMemberInserts = new PreparedBatch(this.connection,
+                "INSERT INTO " + DB.getFullTableName(this.schema, InterDB.RELATIONMEMBER)
+                + " (relation_id, role, node_id, way_id, member_rel_id)"
+                + " VALUES (?, ?, ?, ?, ?)",
+                new int[] {Types.BIGINT, Types.VARCHAR, Types.BIGINT,
+                    Types.BIGINT, Types.BIGINT}, this.batchSize);
+
+        this.startTime = System.currentTimeMillis();
+    }
+
+    public static void main(String[] args) {
+        if(args.length < 2) {
+            System.err.println("parameter required: osmChange file (.osc or .osc.gz), intermediate");
+            System.exit(1);
+        }
+
+        long past = System.currentTimeMillis();
+        Parameter parameter = null;
+        try {
+            parameter = new Parameter(args[1]);
+
+            System.out.println("reset update flags in intermediate");
+            OSMChangeImporter.resetFlags(parameter);
+
+            OSMChangeImporter changeImporter = new OSMChangeImporter(parameter,
+                    OSMClassification.getOSMClassification());
+
+            InputStream is = new BufferedInputStream(new FileInputStream(args[0]));
+            if(args[0].endsWith(".gz")) {
+                is = new GZIPInputStream(is);
+            }
+
+            try {
+                SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+                parser.parse(is, changeImporter);
+            }
+            finally {
+                is.close();
+            }
+        } catch (Exception t) {
+            PrintStream err = System.err;
+            // maybe another stream was defined and could be opened
+            try {
+                err = parameter.getErrStream();
+            }
+            catch(Exception tt) {
+            }
+
+            Util.printExceptionMessage(err, t, null, "in main OSMChangeImporter", false);
+            
+            // change is not applied (completely) - scripts must not go on
+            System.exit(1);
+        }
+
+        System.out.println("That took " + (System.currentTimeMillis() - past) + " ms");
+    }
+
+    /**
+     * flags of a previous update are reset - only flagged rows are written
+     */
+    public static void resetFlags(Parameter parameter) throws SQLException, FileNotFoundException {
+        SQLStatementQueue sql = new SQLStatementQueue(parameter);
+
+        String[] tableNames = new String[] {InterDB.NODETABLE,
+            InterDB.WAYTABLE, InterDB.RELATIONTABLE};
+
+        for(String tableName : tableNames) {
+            sql.append("UPDATE ");
+            sql.append(DB.getFullTableName(parameter.getSchema(), tableName));
+            sql.append(" SET valid = true, deleted = false, geom_changed = false,");
+            sql.append(" object_changed = false, object_new = false");
+            sql.append(" WHERE valid IS NOT TRUE OR deleted OR geom_changed");
+            sql.append(" OR object_changed OR object_new;");
+            sql.forceExecute();
+        }
+
+        sql.close();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //                               parsing                              //
+    ////////////////////////////////////////////////////////////////////////
+
+    private void newElement(Attributes attributes) {
+        this.current = new Change();
+        this.current.action = this.action;
+        this.current.osmID = Long.parseLong(attributes.getValue("id"));
+        this.current.timestamp = attributes.getValue("timestamp");
+
+        // serialize uid and user like an import
+        Util.serializeAttributes(this.current.sAttributes, "uid", attributes.getValue("uid"));
+        Util.serializeAttributes(this.current.sAttributes, "user", attributes.getValue("user"));
+
+        if(this.status == STATUS_NODE) {
+            this.current.longitude = attributes.getValue("lon");
+            this.current.latitude = attributes.getValue("lat");
+        }
+    }
+
+    /**
+     * same class codes and serialized tags as an import (see
+     * SQL_OSMImporter.addAttributesFromTag)
+     */
+    private void addAttributesFromTag(Attributes attributes) {
+        Change change = this.current;
+        int number = attributes.getLength();
+
+        // they come as key value pairs
+        int i = 0;
+        while(i < number) {
+            String key = attributes.getValue(i);
+            String value = attributes.getValue(i+1);
+
+            if(this.osmClassification.osmFeatureClasses.keySet().contains(key)) {
+                int classID = this.osmClassification.getOHDMClassID(key, value);
+
+                if(change.classID == -1) {
+                    change.classID = classID;
+                } else {
+                    if(change.otherClassIDs == null) {
+                        change.otherClassIDs = new ArrayList<>();
+                    }
+                    change.otherClassIDs.add(classID);
+                }
+            } else if(key.equalsIgnoreCase("admin_level")) {
+                try {
+                    change.adminLevel = Integer.parseInt(value);
+                }
+                catch(NumberFormatException nfe) {
+                    System.err.println("not an integer in admin_level: " + value);
+                }
+            } else {
+                Util.serializeAttributes(change.sAttributes, key, value);
+
+                if(key.equalsIgnoreCase("name")) {
+                    change.hasName = true;
+                }
+            }
+            i+=2;
+        }
+    }
+
+    private void addND(Attributes attributes) {
+        if(this.current.refs.size() > 0) {
+            this.current.memberIDs.append(",");
+        }
+
+        this.current.memberIDs.append(attributes.getValue("ref"));
+        this.current.refs.add(Long.parseLong(attributes.getValue("ref")));
+    }
+
+    private void addMember(Attributes attributes) {
+        this.addND(attributes);
+        this.current.types.add(attributes.getValue("type"));
+        this.current.roles.add(attributes.getValue("role"));
+    }
+
+    private void adjustClasscode(Change change) {
+        // boundary / adminstrative / admin_level x becomes ohdm_boundary / admin_level_[level]
+        if(this.boundaryAdminClassID == change.classID && change.adminLevel > 0) {
+            change.classID = this.osmClassification.getOHDMClassID(
+                        "ohdm_boundary", "adminlevel_" + change.adminLevel);
+        }
+    }
+
+    private void endElement(ElementTable table) throws SQLException {
+        if(this.current.action == ACTION_NONE) {
+            System.err.println("element outside create, modify or delete block - ignored: "
+                    + this.current.osmID);
+        } else {
+            this.adjustClasscode(this.current);
+
+            // latest version of that element wins
+            table.buffer.remove(this.current.osmID);
+            table.buffer.put(this.current.osmID, this.current);
+
+            if(table.buffer.size() >= this.batchSize) {
+                this.applyBatch(table);
+            }
+        }
+
+        this.current = null;
+        this.status = STATUS_OUTSIDE;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+            Attributes attributes) throws SAXException {
+
+        switch (qName) {
+            case "create": this.action = ACTION_CREATE; break;
+            case "modify": this.action = ACTION_MODIFY; break;
+            case "delete": this.action = ACTION_DELETE; break;
+            case "node":
+                this.status = STATUS_NODE;
+                this.newElement(attributes);
+                break;
+            case "way":
+                this.status = STATUS_WAY;
+                this.newElement(attributes);
+                break;
+            case "relation":
+                this.status = STATUS_RELATION;
+                this.newElement(attributes);
+                break;
+            case "tag":
+                if(this.current != null) this.addAttributesFromTag(attributes);
+                break;
+            case "nd":
+                if(this.current != null) this.addND(attributes);
+                break;
+            case "member":
+                if(this.current != null) this.addMember(attributes);
+                break;
+            default:
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        try {
+            switch (qName) {
+                case "create":
+                case "modify":
+                case "delete":
+                    this.action = ACTION_NONE;
+                    break;
+                case "node": this.endElement(this.nodes); break;
+                case "way": this.endElement(this.ways); break;
+                case "relation": this.endElement(this.relations); break;
+                default:
+            }
+        }
+        catch(SQLException e) {
+            throw new SAXException("while applying changes to " + qName + "s", e);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        try {
+            this.applyBatch(this.nodes);
+            this.applyBatch(this.ways);
+            this.applyBatch(this.relations);
+            this.printStatus("changes applied");
+
+            this.passGeometryChanges();
+            this.printStatus("geometry changes passed to ways and relations");
+
+            this.removeDeleted();
+            this.printStatus("deleted elements removed");
+
+            this.connection.close();
+        }
+        catch(SQLException e) {
+            throw new SAXException("while finishing change import", e);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //                           write changes                            //
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * geometry of a change - compared with [geometry columns] of table
+     */
+    private String[] getGeometry(ElementTable table, Change change) {
+        if(table == this.nodes) {
+            return new String[] {change.longitude, change.latitude};
+        }
+
+        return new String[] {change.memberIDs.toString()};
+    }
+
+    /**
+     * SELECT osm_id, serializedtags, [geometry columns] FROM [table]
+     * WHERE osm_id = ANY(?)
+     * @return serialized tags and geometry of existing elements
+     */
+    private HashMap<Long, String[]> readExisting(ElementTable table) throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT osm_id, serializedtags");
+        for(String column : table.geometryColumns) {
+            sql.append(", ");
+            sql.append(column);
+        }
+        sql.append(" FROM ");
+        sql.append(DB.getFullTableName(this.schema, table.tableName));
+        sql.append(" WHERE osm_id = ANY(?)");
+
+        HashMap<Long, String[]> existing = new HashMap<>();
+
+        PreparedStatement stmt = this.connection.prepareStatement(sql.toString());
+        try {
+            stmt.setArray(1, this.connection.createArrayOf("int8", table.buffer.keySet().toArray()));
+            ResultSet result = stmt.executeQuery();
+            while(result.next()) {
+                String[] values = new String[1 + table.geometryColumns.length];
+                for(int i = 0; i < values.length; i++) {
+                    values[i] = result.getString(i + 2);
+                }
+                existing.put(result.getLong(1), values);
+            }
+            result.close();
+        }
+        finally {
+            stmt.close();
+        }
+
+        return existing;
+    }
+
+    /**
+     * bind osm id, timestamp, class codes, tags and has_name of a change
+     * @return next column
+     */
+    private int bindElement(PreparedBatch batch, int column, Change change, boolean withID) {
+        if(withID) batch.setLong(column++, change.osmID);
+        batch.setString(column++, change.timestamp);
+        batch.setLong(column++, change.classID);
+        batch.setString(column++, InterDB.getString(change.otherClassIDs));
+        batch.setString(column++, change.sAttributes.toString());
+        batch.setBoolean(column++, change.hasName);
+
+        return column;
+    }
+
+    private void addMembers(ElementTable table, Change change) throws SQLException {
+        if(table == this.ways) {
+            for(Long nodeID : change.refs) {
+                this.wayMemberInserts.setLong(1, change.osmID);
+                this.wayMemberInserts.setLong(2, nodeID);
+                this.wayMemberInserts.addBatch();
+            }
+        } else if(table == this.relations) {
+            for(int i = 0; i < change.refs.size(); i++) {
+                this.relationMemberInserts.setLong(1, change.osmID);
+                this.relationMemberInserts.setString(2, change.roles.get(i));
+                this.relationMemberInserts.setNull(3);
+                this.relationMemberInserts.setNull(4);
+                this.relationMemberInserts.setNull(5);
+                switch(change.types.get(i)) {
+                    case "node": this.relationMemberInserts.setLong(3, change.refs.get(i)); break;
+                    case "way": this.relationMemberInserts.setLong(4, change.refs.get(i)); break;
+                    case "relation": this.relationMemberInserts.setLong(5, change.refs.get(i)); break;
+                }
+                this.relationMemberInserts.addBatch();
+            }
+        }
+    }
+
+    private void removeMembers(ElementTable table, Change change) throws SQLException {
+        if(table == this.ways) {
+            this.wayMemberDeletes.setLong(1, change.osmID);
+            this.wayMemberDeletes.addBatch();
+        } else if(table == this.relations) {
+            this.relationMemberDeletes.setLong(1, change.osmID);
+            this.relationMemberDeletes.addBatch();
+        }
+    }
+
+    /**
+     * Flags of a change. Created elements and modified ones which are
+     * unknown so far are new objects. Known elements are updated - also 
+     * when they were created again after a delete, which resets their 
+     * deleted flag. Unknown elements cannot be deleted, e.g. they are 
+     * outside region of intermediate db.
+     * @param previous serialized tags and geometry of existing row, null 
+     * if there is none
+     */
+    static Flags getFlags(int action, String[] previous, String serializedTags, 
+            String[] geometry) {
+        
+        if(action == ACTION_DELETE) {
+            if(previous == null) {
+                return new Flags(Flags.SKIP, false, false, false, false);
+            }
+            
+            return new Flags(Flags.DELETE, false, true, false, false);
+        }
+        
+        if(previous == null) {
+            return new Flags(Flags.INSERT, true, false, false, false);
+        }
+        
+        boolean objectChanged = !serializedTags.equals(previous[0]);
+        boolean geometryChanged = !Arrays.equals(geometry,
+                Arrays.copyOfRange(previous, 1, previous.length));
+
+        return new Flags(Flags.UPDATE, false, false, geometryChanged, objectChanged);
+    }
+
+    /**
+     * compare buffered changes with existing rows and write them
+     */
+    private void applyBatch(ElementTable table) throws SQLException {
+        if(table.buffer.isEmpty()) return;
+
+        HashMap<Long, String[]> existing = this.readExisting(table);
+
+        for(Change change : table.buffer.values()) {
+            String[] geometry = this.getGeometry(table, change);
+            Flags flags = OSMChangeImporter.getFlags(change.action, 
+                    existing.get(change.osmID), change.sAttributes.toString(), 
+                    geometry);
+
+            if(flags.write == Flags.SKIP) continue;
+
+            if(flags.deleted) {
+                table.deletes.setLong(1, change.osmID);
+                table.deletes.addBatch();
+                table.deleted.add(change.osmID);
+                table.removed++;
+                continue;
+            }
+
+            table.deleted.remove(change.osmID);
+
+            if(flags.objectNew) {
+                int column = this.bindElement(table.inserts, 1, change, true);
+                for(String value : geometry) {
+                    table.inserts.setString(column++, value);
+                }
+                table.inserts.addBatch();
+                this.addMembers(table, change);
+                table.created++;
+                continue;
+            }
+
+            int column = this.bindElement(table.updates, 1, change, false);
+            for(String value : geometry) {
+                table.updates.setString(column++, value);
+            }
+            table.updates.setBoolean(column++, flags.geometryChanged);
+            table.updates.setBoolean(column++, flags.objectChanged);
+            table.updates.setLong(column, change.osmID);
+            table.updates.addBatch();
+
+            if(flags.geometryChanged) {
+                this.removeMembers(table, change);
+                this.addMembers(table, change);
+                table.geometryChanged.add(change.osmID);
+            }
+            if(flags.objectChanged) table.objectChanged++;
+            table.modified++;
+        }
+
+        table.buffer.clear();
+
+        // members are removed before they are added again
+        this.wayMemberDeletes.executeBatch();
+        this.relationMemberDeletes.executeBatch();
+        table.executeBatches();
+        this.wayMemberInserts.executeBatch();
+        this.relationMemberInserts.executeBatch();
+    }
+
+    /**
+     * execute sql with an array of ids as only parameter - in chunks
+     * @param returnedIDs ids returned by sql are added - can be null
+     */
+    private void executeWithIDs(String sql, Collection<Long> ids,
+            Collection<Long> returnedIDs) throws SQLException {
+
+        if(ids.isEmpty()) return;
+
+        PreparedStatement stmt = this.connection.prepareStatement(sql);
+        try {
+            Long[] all = ids.toArray(new Long[ids.size()]);
+            for(int from = 0; from < all.length; from += ID_CHUNK_SIZE) {
+                int to = Math.min(all.length, from + ID_CHUNK_SIZE);
+                Array idArray = this.connection.createArrayOf("int8",
+                        Arrays.copyOfRange(all, from, to));
+                stmt.setArray(1, idArray);
+
+                if(returnedIDs == null) {
+                    stmt.executeUpdate();
+                } else {
+                    ResultSet result = stmt.executeQuery();
+                    while(result.next()) {
+                        returnedIDs.add(result.getLong(1));
+                    }
+                    result.close();
+                }
+            }
+        }
+        finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * UPDATE [table] SET geom_changed = true WHERE NOT geom_changed AND
+     * osm_id IN (SELECT [ownerColumn] FROM [memberTable] WHERE [memberColumn] = ANY(?))
+     * RETURNING osm_id;
+     */
+    private void passGeometryChanges(ElementTable table, String memberTable,
+            String ownerColumn, String memberColumn, Collection<Long> memberIDs)
+            throws SQLException {
+
+        ArrayList<Long> changed = new ArrayList<>();
+
+        this.executeWithIDs("UPDATE " + DB.getFullTableName(this.schema, table.tableName)
+                + " SET geom_changed = true WHERE NOT geom_changed AND NOT deleted"
+                + " AND osm_id IN (SELECT " + ownerColumn + " FROM "
+                + DB.getFullTableName(this.schema, memberTable)
+                + " WHERE " + memberColumn + " = ANY(?)) RETURNING osm_id",
+                memberIDs, changed);
+
+        table.geometryChanged.addAll(changed);
+        table.indirectlyChanged += changed.size();
+    }
+
+    /**
+     * changed or deleted nodes change geometry of ways and relations,
+     * changed or deleted ways and relations those of relations - same
+     * order as full diff (OHDMUpdateInter)
+     */
+    private void passGeometryChanges() throws SQLException {
+        LinkedHashSet<Long> nodeIDs = new LinkedHashSet<>(this.nodes.geometryChanged);
+        nodeIDs.addAll(this.nodes.deleted);
+
+        this.passGeometryChanges(this.ways, InterDB.WAYMEMBER, "way_id", "node_id", nodeIDs);
+        this.passGeometryChanges(this.relations, InterDB.RELATIONMEMBER, "relation_id", "node_id", nodeIDs);
+
+        LinkedHashSet<Long> wayIDs = new LinkedHashSet<>(this.ways.geometryChanged);
+        wayIDs.addAll(this.ways.deleted);
+        this.passGeometryChanges(this.relations, InterDB.RELATIONMEMBER, "relation_id", "way_id", wayIDs);
+
+        LinkedHashSet<Long> relationIDs = new LinkedHashSet<>(this.relations.geometryChanged);
+        relationIDs.addAll(this.relations.deleted);
+        this.passGeometryChanges(this.relations, InterDB.RELATIONMEMBER, "relation_id", "member_rel_id", relationIDs);
+    }
+
+    private void delete(String tableName, String column, Collection<Long> ids) throws SQLException {
+        this.executeWithIDs("DELETE FROM " + DB.getFullTableName(this.schema, tableName)
+                + " WHERE " + column + " = ANY(?)", ids, null);
+    }
+
+    /**
+     * remove deleted elements and their member entries
+     */
+    private void removeDeleted() throws SQLException {
+        this.delete(InterDB.WAYMEMBER, "node_id", this.nodes.deleted);
+        this.delete(InterDB.RELATIONMEMBER, "node_id", this.nodes.deleted);
+        this.delete(InterDB.NODETABLE, "osm_id", this.nodes.deleted);
+
+        this.delete(InterDB.RELATIONMEMBER, "way_id", this.ways.deleted);
+        this.delete(InterDB.WAYMEMBER, "way_id", this.ways.deleted);
+        this.delete(InterDB.WAYTABLE, "osm_id", this.ways.deleted);
+
+        this.delete(InterDB.RELATIONMEMBER, "member_rel_id", this.relations.deleted);
+        this.delete(InterDB.RELATIONMEMBER, "relation_id", this.relations.deleted);
+        this.delete(InterDB.RELATIONTABLE, "osm_id", this.relations.deleted);
+    }
+
+    private void printStatus(String message) {
+        this.outStream.println("----------------------------------------------------------------");
+        this.outStream.println(message);
+        this.outStream.println(this.nodes.getStatistics());
+        this.outStream.println(this.ways.getStatistics());
+        this.outStream.println(this.relations.getStatistics());
+        this.outStream.print("elapsed time:  ");
+        this.outStream.println(Util.getElapsedTime(this.startTime));
+    }
+}
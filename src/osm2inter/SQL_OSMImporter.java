@@ -10,12 +10,14 @@ import osm.OSMClassification;
 import inter2ohdm.AbstractElement;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
 
 import util.DB;
 import util.ManagedFileSQLStatementQueue;
 import util.Parameter;
+import util.PreparedBatch;
 import util.SQLStatementQueue;
 import util.Util;
 
@@ -54,7 +56,18 @@ public class SQL_OSMImporter extends DefaultHandler {
     private final SQLStatementQueue insertQueue;
     private SQLStatementQueue memberQueue;
     
+    // prepared inserts - null if sql files are written for psql
+    private Connection memberConnection = null;
+    private PreparedBatch nodeInserts = null;
+    private PreparedBatch wayInserts = null;
+    private PreparedBatch relationInserts = null;
+    private PreparedBatch wayMemberInserts = null;
+    private PreparedBatch relationMemberInserts = null;
+    
     private String currentElementID;
+    private String currentLongitude;
+    private String currentLatitude;
+    private String currentTimestamp;
 
     private static final int LOG_STEPS = 100000;
 
@@ -107,10 +120,20 @@ public class SQL_OSMImporter extends DefaultHandler {
             System.out.println("intermediate insert-member queue uses psql and sql files.");
             this.memberQueue = new ManagedFileSQLStatementQueue("sql_O2I_memberOSM2Inter", parameter);
         } else {
-            System.out.println("intermediate insert-osm-element queue uses jdbc");
-            this.insertQueue = new SQLStatementQueue(this.parameter, this.maxThreads);
-            System.out.println("intermediate insert-member queue uses jdbc");
-            this.memberQueue = new SQLStatementQueue(this.parameter, this.maxThreads);
+            /* one connection for elements and one for members - no parallel
+            writers like the sql queues had. A prepared batch is parsed once
+            and sent as multi-row inserts (reWriteBatchedInserts) - server 
+            does not parse each row like in a sql string. Parser is single 
+            threaded anyway.
+            */
+            System.out.println("intermediate insert-osm-element queue uses jdbc prepared batches");
+            this.insertQueue = null;
+            this.targetConnection = DB.createConnection(this.parameter);
+            System.out.println("intermediate insert-member queue uses jdbc prepared batches");
+            this.memberQueue = null;
+            this.memberConnection = DB.createConnection(this.parameter);
+            
+            this.prepareInserts();
         }
 
         InterDB.createTables(managementQueue, schema);
@@ -122,6 +145,69 @@ public class SQL_OSMImporter extends DefaultHandler {
         this.lastReconnect = this.startTime;
     }
     
+    /**
+     * prepare inserts of elements and members - values are bound, they
+     * need no sql escaping
+     */
+    private void prepareInserts() {
+        /*
+        INSERT INTO [nodes] (valid, longitude, latitude, osm_id, tstamp, 
+        classcode, otherclasscodes, serializedtags, has_name) VALUES (true, ?, ..);
+        */
+        this.nodeInserts = new PreparedBatch(this.targetConnection, 
+                "INSERT INTO " + DB.getFullTableName(schema, InterDB.NODETABLE)
+                + " (valid, longitude, latitude, osm_id, tstamp, classcode,"
+                + " otherclasscodes, serializedtags, has_name)"
+                + " VALUES (true, ?, ?, ?, ?::date, ?, ?, ?, ?)", 
+                new int[] {Types.VARCHAR, Types.VARCHAR, Types.BIGINT, 
+                    Types.VARCHAR, Types.BIGINT, Types.VARCHAR, Types.VARCHAR, 
+                    Types.BOOLEAN}, PreparedBatch.DEFAULT_BATCH_SIZE);
+        
+        this.wayInserts = new PreparedBatch(this.targetConnection, 
+                "INSERT INTO " + DB.getFullTableName(schema, InterDB.WAYTABLE)
+                + " (valid, osm_id, tstamp, classcode, otherclasscodes,"
+                + " serializedtags, has_name, node_ids)"
+                + " VALUES (true, ?, ?::date, ?, ?, ?, ?, ?)", 
+                new int[] {Types.BIGINT, Types.VARCHAR, Types.BIGINT, 
+                    Types.VARCHAR, Types.VARCHAR, Types.BOOLEAN, Types.VARCHAR}, 
+                PreparedBatch.DEFAULT_BATCH_SIZE);
+        
+        this.relationInserts = new PreparedBatch(this.targetConnection, 
+                "INSERT INTO " + DB.getFullTableName(schema, InterDB.RELATIONTABLE)
+                + " (valid, osm_id, tstamp, classcode, otherclasscodes,"
+                + " serializedtags, has_name, member_ids)"
+                + " VALUES (true, ?, ?::date, ?, ?, ?, ?, ?)", 
+                new int[] {Types.BIGINT, Types.VARCHAR, Types.BIGINT, 
+                    Types.VARCHAR, Types.VARCHAR, Types.BOOLEAN, Types.VARCHAR}, 
+                PreparedBatch.DEFAULT_BATCH_SIZE);
+        
+        this.wayMemberInserts = new PreparedBatch(this.memberConnection, 
+                "INSERT INTO " + DB.getFullTableName(schema, InterDB.WAYMEMBER)
+                + " (way_id, node_id) VALUES (?, ?)", 
+                new int[] {Types.BIGINT, Types.BIGINT}, 
+                PreparedBatch.DEFAULT_BATCH_SIZE);
+        
+        // one of node_id, way_id, member_rel_id is set
+        this.relationMemberInserts = new PreparedBatch(this.memberConnection, 
+                "INSERT INTO " + DB.getFullTableName(schema, InterDB.RELATIONMEMBER)
+                + " (relation_id, role, node_id, way_id, member_rel_id)"
+                + " VALUES (?, ?, ?, ?, ?)", 
+                new int[] {Types.BIGINT, Types.VARCHAR, Types.BIGINT, 
+                    Types.BIGINT, Types.BIGINT}, 
+                PreparedBatch.DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * execute all prepared inserts
+     */
+    private void executeInserts() throws SQLException {
+        this.nodeInserts.executeBatch();
+        this.wayInserts.executeBatch();
+        this.relationInserts.executeBatch();
+        this.wayMemberInserts.executeBatch();
+        this.relationMemberInserts.executeBatch();
+    }
+    
     /*
     there are following different sql statements:
     node:
@@ -158,6 +244,7 @@ public class SQL_OSMImporter extends DefaultHandler {
         this.hasName = false;
         this.admin_level = 0;
         this.currentElementID = attributes.getValue("id");
+        this.currentTimestamp = attributes.getValue("timestamp");
         
         // could flush sql streams
         
@@ -169,16 +256,10 @@ public class SQL_OSMImporter extends DefaultHandler {
         Util.serializeAttributes(this.sAttributes, "uid", attributes.getValue("uid"));
         Util.serializeAttributes(this.sAttributes, "user", attributes.getValue("user"));
         
-        this.insertQueue.append("INSERT INTO ");
         switch(this.status) {
             case STATUS_NODE: 
-                
-                this.insertQueue.append(DB.getFullTableName(schema, InterDB.NODETABLE));
-                this.insertQueue.append("(valid, longitude, latitude, osm_id, tstamp, classcode, otherclasscodes, serializedtags, has_name) VALUES (true, ");
-                this.insertQueue.append(attributes.getValue("lon"));
-                this.insertQueue.append(", ");
-                this.insertQueue.append(attributes.getValue("lat"));
-                this.insertQueue.append(", ");
+                this.currentLongitude = attributes.getValue("lon");
+                this.currentLatitude = attributes.getValue("lat");
                 break;
             case STATUS_WAY:
                 if(this.nodeIDs == null || this.nodeIDs.length() > 0) {
@@ -188,12 +269,11 @@ public class SQL_OSMImporter extends DefaultHandler {
                     // could to initial stuff here
                     this.wayProcessed = true;
                 }
-                this.insertQueue.append(DB.getFullTableName(schema, InterDB.WAYTABLE));
-                this.insertQueue.append("(valid, osm_id, tstamp, classcode, otherclasscodes, serializedtags, has_name, node_ids) VALUES (true, ");
-                
-                this.memberQueue.append("INSERT INTO ");
-                this.memberQueue.append(DB.getFullTableName(schema, InterDB.WAYMEMBER));
-                this.memberQueue.append(" (way_id, node_id) VALUES ");
+                if(this.memberQueue != null) {
+                    this.memberQueue.append("INSERT INTO ");
+                    this.memberQueue.append(DB.getFullTableName(schema, InterDB.WAYMEMBER));
+                    this.memberQueue.append(" (way_id, node_id) VALUES ");
+                }
                 
                 break;
             case STATUS_RELATION: 
@@ -214,16 +294,8 @@ public class SQL_OSMImporter extends DefaultHandler {
                     // could to initial stuff here
                     this.relationProcessed = true;
                 }
-                this.insertQueue.append(DB.getFullTableName(schema, InterDB.RELATIONTABLE));
-                this.insertQueue.append("(valid, osm_id, tstamp, classcode, otherclasscodes, serializedtags, has_name, member_ids) VALUES (true, ");
-
                 break;
         }
-        
-        this.insertQueue.append(this.currentElementID);
-        this.insertQueue.append(", '");
-        this.insertQueue.append(attributes.getValue("timestamp"));
-        this.insertQueue.append("', ");
     }
     
     OSMClassification osmClassification = OSMClassification.getOSMClassification();
@@ -290,7 +362,7 @@ public class SQL_OSMImporter extends DefaultHandler {
     }
 
     boolean ndFound = false;
-    private void addND(Attributes attributes) {
+    private void addND(Attributes attributes) throws SQLException {
         // a new node reference like this: <nd ref='4406823158' />
         // only be found inside way
         
@@ -305,13 +377,22 @@ public class SQL_OSMImporter extends DefaultHandler {
 //            this.updateNodesQueue.append(DB.getFullTableName(schema, InterDB.NODETABLE));
 //            this.updateNodesQueue.append(" SET is_part=true WHERE ");
         } else {
-            this.memberQueue.append(", ");
+            if(this.memberQueue != null) {
+                this.memberQueue.append(", ");
+            }
 //            this.updateNodesQueue.append(" OR ");
             
             this.nodeIDs.append(",");
         }
         this.nodeIDs.append(attributes.getValue("ref"));
         
+        if(this.wayMemberInserts != null) {
+            this.wayMemberInserts.setLong(1, Long.parseLong(this.currentElementID));
+            this.wayMemberInserts.setLong(2, Long.parseLong(attributes.getValue("ref")));
+            this.wayMemberInserts.addBatch();
+            return;
+        }
+        
         this.memberQueue.append("(");
         this.memberQueue.append(this.currentElementID);
         this.memberQueue.append(", ");
@@ -340,12 +421,24 @@ public class SQL_OSMImporter extends DefaultHandler {
             this.memberIDs.append(attributes.getValue("ref")); 
 //        }
         
-        this.memberQueue.append("INSERT INTO ");
-        this.memberQueue.append(DB.getFullTableName(schema, InterDB.RELATIONMEMBER));
-        this.memberQueue.append(" (relation_id, role, ");
+        long ref = 0;
+        if(this.relationMemberInserts != null) {
+            // role is bound as it is
+            ref = Long.parseLong(attributes.getValue("ref"));
+            this.relationMemberInserts.setLong(1, Long.parseLong(this.currentElementID));
+            this.relationMemberInserts.setString(2, attributes.getValue("role"));
+        } else {
+            this.memberQueue.append("INSERT INTO ");
+            this.memberQueue.append(DB.getFullTableName(schema, InterDB.RELATIONMEMBER));
+            this.memberQueue.append(" (relation_id, role, ");
+        }
         switch(attributes.getValue("type")) {
             case "node":
-                this.memberQueue.append(" node_id) ");
+                if(this.relationMemberInserts != null) {
+                    this.relationMemberInserts.setLong(3, ref);
+                } else {
+                    this.memberQueue.append(" node_id) ");
+                }
                 
                 // update nodes
                 if(!this.ndFound) {
@@ -361,7 +454,11 @@ public class SQL_OSMImporter extends DefaultHandler {
 //                this.updateNodesQueue.append(attributes.getValue("ref"));
                 break;
             case "way":
-                this.memberQueue.append(" way_id) ");
+                if(this.relationMemberInserts != null) {
+                    this.relationMemberInserts.setLong(4, ref);
+                } else {
+                    this.memberQueue.append(" way_id) ");
+                }
                 
                 // update ways
                 if(!this.wayFound) {
@@ -378,10 +475,19 @@ public class SQL_OSMImporter extends DefaultHandler {
                 break;
             case "relation":
                 this.relationMemberFound = true;
-                this.memberQueue.append(" member_rel_id) ");
+                if(this.relationMemberInserts != null) {
+                    this.relationMemberInserts.setLong(5, ref);
+                } else {
+                    this.memberQueue.append(" member_rel_id) ");
+                }
                 break;
         }
         
+        if(this.relationMemberInserts != null) {
+            this.relationMemberInserts.addBatch();
+            return;
+        }
+        
         // end member statement
         // end member statement
         this.memberQueue.append(" VALUES ( ");
@@ -398,9 +504,20 @@ public class SQL_OSMImporter extends DefaultHandler {
 
     private AbstractElement dummyElement = new AbstractElement();
     
-    private void beginEnd() {
+    /**
+     * begin insert statement of current element in insert queue - all
+     * columns except node or member ids
+     */
+    private void beginEnd(String tableName, String columns) {
         this.adjustClasscode();
         
+        this.insertQueue.append("INSERT INTO ");
+        this.insertQueue.append(DB.getFullTableName(schema, tableName));
+        this.insertQueue.append(columns);
+        this.insertQueue.append(this.currentElementID);
+        this.insertQueue.append(", '");
+        this.insertQueue.append(this.currentTimestamp);
+        this.insertQueue.append("', ");
         this.insertQueue.append(this.currentClassID);
         this.insertQueue.append(", '");
         this.insertQueue.append(InterDB.getString(this.otherClassIDs));
@@ -410,25 +527,64 @@ public class SQL_OSMImporter extends DefaultHandler {
         this.insertQueue.append(Boolean.toString(this.hasName));
     }
     
-    private void endNode() {
+    /**
+     * bind osm id, timestamp, class codes, tags and has_name of current
+     * element
+     * @return next column
+     */
+    private int bindElement(PreparedBatch batch, int column) {
+        this.adjustClasscode();
+        
+        batch.setLong(column++, Long.parseLong(this.currentElementID));
+        batch.setString(column++, this.currentTimestamp);
+        batch.setLong(column++, this.currentClassID);
+        batch.setString(column++, InterDB.getString(this.otherClassIDs));
+        batch.setString(column++, this.sAttributes.toString());
+        batch.setBoolean(column++, this.hasName);
+        
+        return column;
+    }
+    
+    private void endNode() throws SQLException {
         /*
         insert into nodes (osm_id, longitude, latitude, classcode, serializedtags, valid) VALUES (..);
         */
-        this.beginEnd();
+        if(this.nodeInserts != null) {
+            this.nodeInserts.setString(1, this.currentLongitude);
+            this.nodeInserts.setString(2, this.currentLatitude);
+            this.bindElement(this.nodeInserts, 3);
+            this.nodeInserts.addBatch();
+            return;
+        }
+        
+        StringBuilder columns = new StringBuilder();
+        columns.append("(valid, longitude, latitude, osm_id, tstamp, classcode, otherclasscodes, serializedtags, has_name) VALUES (true, ");
+        columns.append(this.currentLongitude);
+        columns.append(", ");
+        columns.append(this.currentLatitude);
+        columns.append(", ");
+        
+        this.beginEnd(InterDB.NODETABLE, columns.toString());
         this.insertQueue.append(");");
     }
 
-    private void endWay() {
+    private void endWay() throws SQLException {
         /*
         insert into ways (valid, osm_id, classcode, serializedtags, node_ids) VALUES ();
 
         INSERT INTO WAYMEMBER (way_id, node_id) VALUES ();
         UPDATE nodes SET is_part=true WHERE id = id_nodes OR ...
         */
+        if(this.wayInserts != null) {
+            int column = this.bindElement(this.wayInserts, 1);
+            this.wayInserts.setString(column, this.nodeIDs.toString());
+            this.wayInserts.addBatch();
+            return;
+        }
         
 //        try {
             // add remaining parameter; 
-            this.beginEnd();
+            this.beginEnd(InterDB.WAYTABLE, "(valid, osm_id, tstamp, classcode, otherclasscodes, serializedtags, has_name, node_ids) VALUES (true, ");
             this.insertQueue.append(", '");
             this.insertQueue.append(this.nodeIDs.toString());
             this.insertQueue.append("');");
@@ -437,7 +593,7 @@ public class SQL_OSMImporter extends DefaultHandler {
             this.memberQueue.append(";");
     }
 
-    private void endRelation() {
+    private void endRelation() throws SQLException {
         /*
         insert into relations (valid, osm_id, classcode, serializedtags, member_ids) VALUES ();
 
@@ -445,9 +601,15 @@ public class SQL_OSMImporter extends DefaultHandler {
         UPDATE nodes SET is_part=true WHERE osm_id = ?? OR osm_id = ??;
         UPDATE ways SET is_part=true WHERE osm_id = ?? OR osm_id = ??;
         */
+        if(this.relationInserts != null) {
+            int column = this.bindElement(this.relationInserts, 1);
+            this.relationInserts.setString(column, this.memberIDs.toString());
+            this.relationInserts.addBatch();
+            return;
+        }
         
 //        try {
-            this.beginEnd();
+            this.beginEnd(InterDB.RELATIONTABLE, "(valid, osm_id, tstamp, classcode, otherclasscodes, serializedtags, has_name, member_ids) VALUES (true, ");
             this.insertQueue.append(", '");
             this.insertQueue.append(this.memberIDs.toString());
             this.insertQueue.append("');");
@@ -472,8 +634,14 @@ public class SQL_OSMImporter extends DefaultHandler {
         try {
 //            this.outStream.println("last member queue sql query");
 //            this.outStream.println(this.memberQueue);
-            this.memberQueue.close(); // executes psql process
-            this.insertQueue.close();
+            if(this.nodeInserts != null) {
+                this.executeInserts();
+                this.memberConnection.close();
+                this.targetConnection.close();
+            } else {
+                this.memberQueue.close(); // executes psql process
+                this.insertQueue.close();
+            }
     
             // do the rest with jdbc
             this.managementQueue = new SQLStatementQueue(this.parameter, this.maxThreads);
@@ -572,8 +740,10 @@ public class SQL_OSMImporter extends DefaultHandler {
             this.outStream.println("index creation successfully");
             
             // wait for outstanding psql processes
-            this.memberQueue.join();
-            this.insertQueue.join();
+            if(this.nodeInserts == null) {
+                this.memberQueue.join();
+                this.insertQueue.join();
+            }
 
             this.outStream.println("----------------------------------------------------------------");
             this.outStream.println("OSM import ended");
@@ -667,7 +837,7 @@ public class SQL_OSMImporter extends DefaultHandler {
                 case "way":
                     if(!this.wayProcessed) {
                         // join with all inserts
-                        this.insertQueue.join();
+                        this.joinInserts();
                         this.printStatus();
                     }
                     this.wA++;
@@ -682,7 +852,7 @@ public class SQL_OSMImporter extends DefaultHandler {
                 case "relation":
                     if(!this.relationProcessed) {
                         // join with all inserts
-                        this.insertQueue.join();
+                        this.joinInserts();
                         this.printStatus();
                     }
                     this.rA++;
@@ -706,11 +876,22 @@ public class SQL_OSMImporter extends DefaultHandler {
         }
     }
     
+    private void joinInserts() throws SQLException {
+        if(this.nodeInserts != null) {
+            this.executeInserts();
+        } else {
+            this.insertQueue.join();
+        }
+    }
+    
     private void flush() {
         try {
             this.all++;
-            this.insertQueue.couldExecute();
-            this.memberQueue.couldExecute();
+            // prepared inserts are executed when their batch is full
+            if(this.insertQueue != null) {
+                this.insertQueue.couldExecute();
+                this.memberQueue.couldExecute();
+            }
             
             if(this.flushSteps <= this.all) {
                 this.all = 0;
@@ -723,7 +904,7 @@ public class SQL_OSMImporter extends DefaultHandler {
                 } 
             }
         } catch (SQLException sqlE) {
-            this.errStream.println("while saving element: " + sqlE.getMessage() + "\n" + this.insertQueue.toString());
+            this.errStream.println("while saving element: " + sqlE.getMessage() + "\n" + this.insertQueue);
             sqlE.printStackTrace(this.errStream);
         } catch (Throwable eE) {
             this.errStream.println("while saving element: " + eE.getClass().getName() + "\n" + eE.getMessage());
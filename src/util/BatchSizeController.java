@@ -0,0 +1,99 @@
+package util;
+
+/**
+ * Chooses the length of sql batches of a queue (AIMD). Length grows by a
+ * fixed step as long as throughput (bytes per ms) keeps up with its
+ * average. It is halved if throughput drops clearly or a batch takes
+ * too long. Length stays within bounds, equal bounds mean fixed length.
+ *
+ * @author thsc
+ */
+class BatchSizeController {
+    static final long DEFAULT_MIN_LENGTH = 16 * 1024; // 16 kByte
+    static final long DEFAULT_LENGTH = 60 * 1024; // 60 kByte
+    static final long DEFAULT_MAX_LENGTH = 4 * 1024 * 1024; // 4 MByte
+
+    private static final long MAX_LATENCY = 2000; // ms
+    private static final double DECREASE_THROUGHPUT = 0.7; // of average
+    private static final double AVERAGE_WEIGHT = 0.2; // of newest batch
+
+    private long minLength = DEFAULT_MIN_LENGTH;
+    private long maxLength = DEFAULT_MAX_LENGTH;
+    private long length = DEFAULT_LENGTH;
+
+    private double averageThroughput = 0;
+
+    private long batches = 0;
+    private long batchBytes = 0;
+    private long batchTime = 0;
+
+    /**
+     * @param minLength bytes
+     * @param maxLength bytes
+     */
+    synchronized void setBounds(long minLength, long maxLength) {
+        this.minLength = Math.max(1, minLength);
+        this.maxLength = Math.max(this.minLength, maxLength);
+        this.length = Math.min(Math.max(this.length, this.minLength), this.maxLength);
+    }
+
+    /**
+     * @return current batch length in bytes
+     */
+    synchronized long getLength() {
+        return this.length;
+    }
+
+    /**
+     * take measurement of an executed batch
+     * @param bytes length of batch
+     * @param millis execution time
+     */
+    synchronized void executed(long bytes, long millis) {
+        this.batches++;
+        this.batchBytes += bytes;
+        this.batchTime += millis;
+
+        // forced short batches tell nothing about that length
+        if(bytes < this.length / 2) return;
+
+        double throughput = (double) bytes / Math.max(1, millis);
+
+        if(millis > MAX_LATENCY ||
+                (this.averageThroughput > 0 && throughput < this.averageThroughput * DECREASE_THROUGHPUT)) {
+            // multiplicative decrease
+            this.length = Math.max(this.minLength, this.length / 2);
+        } else {
+            // additive increase
+            this.length = Math.min(this.maxLength, this.length + this.minLength);
+        }
+
+        if(this.averageThroughput == 0) {
+            this.averageThroughput = throughput;
+        } else {
+            this.averageThroughput = AVERAGE_WEIGHT * throughput
+                    + (1 - AVERAGE_WEIGHT) * this.averageThroughput;
+        }
+    }
+
+    synchronized String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("batch: ");
+        sb.append(Util.getValueWithDots(this.length / 1024));
+        sb.append(" kB (");
+        sb.append(Util.getValueWithDots(this.minLength / 1024));
+        sb.append("..");
+        sb.append(Util.getValueWithDots(this.maxLength / 1024));
+        sb.append(" kB) | executed: ");
+        sb.append(Util.getValueWithDots(this.batches));
+        if(this.batches > 0) {
+            sb.append(" | avg: ");
+            sb.append(Util.getValueWithDots(this.batchBytes / this.batches / 1024));
+            sb.append(" kB in ");
+            sb.append(Util.getValueWithDots(this.batchTime / this.batches));
+            sb.append(" ms");
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+
+/**
+ * Collects rows of one table and writes them with a single COPY .. FROM
+ * STDIN. Rows are kept in COPY text format (tab separated, \N is null).
+ * Unlike CopyConnector, no COPY is kept open on that connection -
+ * other statements can use it between two flushes.
+ *
+ * @author thsc
+ */
+public class CopyBuffer {
+    public static final int DEFAULT_MAX_ROWS = 10000;
+
+    private final Connection connection;
+    private final String fullTableName;
+    private final String copySQL;
+    private final int maxRows;
+
+    private StringBuilder rows = new StringBuilder();
+    private int numberRows = 0;
+    private long writtenRows = 0;
+
+    public CopyBuffer(Connection connection, String fullTableName,
+            String[] columns, int maxRows) {
+
+        this.connection = connection;
+        this.fullTableName = fullTableName;
+        this.maxRows = maxRows > 0 ? maxRows : DEFAULT_MAX_ROWS;
+
+        this.copySQL = "COPY " + fullTableName + " ("
+                + String.join(", ", columns) + ") FROM STDIN";
+    }
+
+    /**
+     * add a row - values in order of columns, null is written as null
+     */
+    public void addRow(String... values) {
+        for(int i = 0; i < values.length; i++) {
+            if(i > 0) this.rows.append('\t');
+            this.appendValue(values[i]);
+        }
+        this.rows.append('\n');
+        this.numberRows++;
+    }
+
+    private void appendValue(String value) {
+        if(value == null) {
+            this.rows.append("\\N");
+            return;
+        }
+
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '\\': this.rows.append("\\\\"); break;
+                case '\t': this.rows.append("\\t"); break;
+                case '\n': this.rows.append("\\n"); break;
+                case '\r': this.rows.append("\\r"); break;
+                default: this.rows.append(c);
+            }
+        }
+    }
+
+    public int size() {
+        return this.numberRows;
+    }
+
+    /**
+     * forget collected rows - e.g. when their transaction is rolled back
+     */
+    public void clear() {
+        this.rows = new StringBuilder();
+        this.numberRows = 0;
+    }
+
+    /**
+     * flush if enough rows are collected
+     */
+    public void couldFlush() throws SQLException {
+        if(this.numberRows >= this.maxRows) {
+            this.flush();
+        }
+    }
+
+    /**
+     * write all collected rows
+     * @return number of rows written
+     */
+    public long flush() throws SQLException {
+        if(this.numberRows == 0) return 0;
+
+        String data = this.rows.toString();
+        this.rows = new StringBuilder();
+        this.numberRows = 0;
+
+        try {
+            CopyManager copyManager = new CopyManager((BaseConnection) this.connection);
+            long written = copyManager.copyIn(this.copySQL, new StringReader(data));
+            this.writtenRows += written;
+
+            return written;
+        }
+        catch(IOException e) {
+            throw new SQLException("cannot copy into " + this.fullTableName + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    public long getWrittenRows() {
+        return this.writtenRows;
+    }
+
+    public String getTableName() {
+        return this.fullTableName;
+    }
+}
@@ -113,7 +113,10 @@ public class DB {
         connProps.put("password", parameter.getPWD());
         
         connProps.put("tcpKeepAlive", "true");
-        
+
+        // batches of a PreparedBatch are sent as multi row inserts
+        connProps.put("reWriteBatchedInserts", "true");
+
         Driver d = null;
 //        System.out.println("debugging: find jdbc driver by class name: org.postgresql.Driver");
 //        if(!drivers.hasMoreElements()) {
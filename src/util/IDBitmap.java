@@ -0,0 +1,153 @@
+package util;
+
+import java.util.HashMap;
+
+/**
+ * Compressed set of osm ids, organized like a roaring bitmap: ids are
+ * split into a high part (id / 65536) and a low part (16 bit). Low parts
+ * of a high part are kept in a container - a sorted short array while it
+ * is sparse, a bitset of 65536 bits (8 kByte) if it has more than 4096
+ * entries. Dense id ranges take one bit per id, sparse ranges two bytes
+ * per id.
+ *
+ * Not synchronized - fill it first, read it from any thread afterwards.
+ *
+ * @author thsc
+ */
+public class IDBitmap {
+    private static final int CONTAINER_BITS = 16;
+    private static final int LOW_MASK = 0xFFFF;
+    private static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITSET_WORDS = 1024; // 65536 bits
+
+    private final HashMap<Long, Container> containers = new HashMap<>();
+    private long cardinality = 0;
+
+    private static class Container {
+        // sparse: sorted low parts, null if bitset is used
+        char[] array = new char[4];
+        int size = 0;
+
+        // dense
+        long[] bitset = null;
+
+        /**
+         * @return false if value was already in container
+         */
+        boolean add(int low) {
+            if(this.bitset != null) {
+                long mask = 1L << low;
+                int word = low >>> 6;
+                if((this.bitset[word] & mask) != 0) return false;
+
+                this.bitset[word] |= mask;
+                this.size++;
+                return true;
+            }
+
+            int position = this.find(low);
+            if(position >= 0) return false;
+            position = -position - 1;
+
+            if(this.size == MAX_ARRAY_SIZE) {
+                this.toBitset();
+                return this.add(low);
+            }
+
+            if(this.size == this.array.length) {
+                char[] bigger = new char[Math.min(this.size * 2, MAX_ARRAY_SIZE)];
+                System.arraycopy(this.array, 0, bigger, 0, this.size);
+                this.array = bigger;
+            }
+
+            System.arraycopy(this.array, position, this.array, position + 1,
+                    this.size - position);
+            this.array[position] = (char) low;
+            this.size++;
+
+            return true;
+        }
+
+        boolean contains(int low) {
+            if(this.bitset != null) {
+                return (this.bitset[low >>> 6] & (1L << low)) != 0;
+            }
+
+            return this.find(low) >= 0;
+        }
+
+        /**
+         * binary search
+         * @return position or (-(insertion point) - 1)
+         */
+        private int find(int low) {
+            int from = 0;
+            int to = this.size - 1;
+            while(from <= to) {
+                int middle = (from + to) >>> 1;
+                int value = this.array[middle];
+                if(value < low) {
+                    from = middle + 1;
+                } else if(value > low) {
+                    to = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+
+            return -(from + 1);
+        }
+
+        private void toBitset() {
+            this.bitset = new long[BITSET_WORDS];
+            for(int i = 0; i < this.size; i++) {
+                int low = this.array[i];
+                this.bitset[low >>> 6] |= 1L << low;
+            }
+            this.array = null;
+        }
+
+        long getSizeInBytes() {
+            return this.bitset != null ? BITSET_WORDS * 8 : this.array.length * 2;
+        }
+    }
+
+    public void add(long id) {
+        Long high = id >> CONTAINER_BITS;
+        Container container = this.containers.get(high);
+        if(container == null) {
+            container = new Container();
+            this.containers.put(high, container);
+        }
+
+        if(container.add((int) (id & LOW_MASK))) {
+            this.cardinality++;
+        }
+    }
+
+    public boolean contains(long id) {
+        Container container = this.containers.get(id >> CONTAINER_BITS);
+        if(container == null) return false;
+
+        return container.contains((int) (id & LOW_MASK));
+    }
+
+    /**
+     * @return number of ids
+     */
+    public long getCardinality() {
+        return this.cardinality;
+    }
+
+    /**
+     * @return memory used by containers (without map overhead)
+     */
+    public long getSizeInBytes() {
+        long size = 0;
+        for(Container container : this.containers.values()) {
+            size += container.getSizeInBytes();
+        }
+
+        return size;
+    }
+}
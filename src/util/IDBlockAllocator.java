@@ -0,0 +1,77 @@
+package util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out primary keys of a table without a round trip per row. Ids are
+ * reserved in blocks from the table sequence (see DB.createSequence).
+ * A sequence never returns an id twice - ids are unique across threads and
+ * processes. Ids which are reserved but not used are lost, which leaves
+ * gaps but no harm.
+ *
+ * @author thsc
+ */
+public class IDBlockAllocator {
+    public static final int DEFAULT_BLOCK_SIZE = 10000;
+
+    private final Connection connection;
+    private final String sequenceName;
+    private final int blockSize;
+
+    private long[] block = null;
+    private int next = 0;
+
+    public IDBlockAllocator(Connection connection, String schema, String tableName, int blockSize) {
+        this.connection = connection;
+        this.sequenceName = DB.getSequenceName(DB.getFullTableName(schema, tableName)).trim();
+        this.blockSize = blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE;
+    }
+
+    public synchronized long nextID() throws SQLException {
+        if(this.block == null || this.next >= this.block.length) {
+            this.reserveBlock();
+        }
+
+        return this.block[this.next++];
+    }
+
+    public String nextIDString() throws SQLException {
+        return Long.toString(this.nextID());
+    }
+
+    private void reserveBlock() throws SQLException {
+        /*
+        SELECT nextval('schema.table_id') FROM generate_series(1, 10000);
+        */
+        SQLStatementQueue sql = new SQLStatementQueue(this.connection);
+        sql.append("SELECT nextval('");
+        sql.append(this.sequenceName);
+        sql.append("') FROM generate_series(1, ");
+        sql.append(this.blockSize);
+        sql.append(");");
+
+        ResultSet result = sql.executeWithResult();
+
+        long[] newBlock = new long[this.blockSize];
+        int i = 0;
+        while(result.next() && i < newBlock.length) {
+            newBlock[i++] = result.getLong(1);
+        }
+        result.close();
+
+        if(i == 0) {
+            throw new SQLException("cannot reserve ids from sequence " + this.sequenceName);
+        }
+
+        if(i < newBlock.length) {
+            long[] shortBlock = new long[i];
+            System.arraycopy(newBlock, 0, shortBlock, 0, i);
+            newBlock = shortBlock;
+        }
+
+        this.block = newBlock;
+        this.next = 0;
+    }
+}
@@ -15,6 +15,7 @@ public class InterDB {
     public static final String RELATIONTABLE = "relations";
     public static final String WAYMEMBER = "waynodes";
     public static final String WAYTABLE = "ways";
+    public static final String CHUNKQUEUE = "chunk_queue";
     public static final String STRING_DELIMITER = ",";
     
     public static void dropTables(SQLStatementQueue sql, String targetSchema) throws SQLException {
@@ -0,0 +1,118 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Map from long keys to int values without boxing. Open addressing with
+ * linear probing. Not synchronized.
+ *
+ * @author thsc
+ */
+public class LongIntHashMap {
+    private static final long FREE = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private final int missingValue;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+    private int mask;
+
+    /**
+     * @param expectedSize number of entries which can be kept without growing
+     * @param missingValue returned by get if key is not in map
+     */
+    public LongIntHashMap(int expectedSize, int missingValue) {
+        this.missingValue = missingValue;
+        this.allocate(LongIntHashMap.capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // keep load below one half
+        int capacity = MIN_CAPACITY;
+        while(capacity < expectedSize * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, FREE);
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        // spread bits of key
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & this.mask;
+    }
+
+    public int get(long key) {
+        if(key == FREE) return this.missingValue;
+
+        int i = this.slot(key);
+        while(this.keys[i] != FREE) {
+            if(this.keys[i] == key) return this.values[i];
+            i = (i + 1) & this.mask;
+        }
+
+        return this.missingValue;
+    }
+
+    public boolean containsKey(long key) {
+        if(key == FREE) return false;
+
+        int i = this.slot(key);
+        while(this.keys[i] != FREE) {
+            if(this.keys[i] == key) return true;
+            i = (i + 1) & this.mask;
+        }
+
+        return false;
+    }
+
+    public void put(long key, int value) {
+        if(key == FREE) {
+            throw new IllegalArgumentException("key not supported: " + key);
+        }
+
+        int i = this.slot(key);
+        while(this.keys[i] != FREE) {
+            if(this.keys[i] == key) {
+                this.values[i] = value;
+                return;
+            }
+            i = (i + 1) & this.mask;
+        }
+
+        this.keys[i] = key;
+        this.values[i] = value;
+        this.size++;
+
+        if(this.size * 2 > this.keys.length) {
+            this.grow();
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+
+        this.allocate(oldKeys.length * 2);
+        this.size = 0;
+
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != FREE) {
+                this.put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,369 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Hash map long -&gt; (long, long) kept in a memory mapped file. It uses
+ * open addressing with linear probing - each slot holds key, first and
+ * second value. Data survive the process and are read by the os page
+ * cache - no heap is used beside some buffer objects.
+ *
+ * Key 0 cannot be stored (marks free slots). Values 0 are taken as
+ * NO_VALUE. Table is rehashed in place with doubled capacity when it
+ * becomes too full. A mapped file cannot be shortened, replaced or deleted
+ * on each os - file is only extended. A file whose rehash was interrupted
+ * is opened as empty map.
+ *
+ * Header keeps a marker for users of that map, e.g. to detect if map
+ * and its source are out of sync.
+ *
+ * File is locked - it can only be opened by one process at a time.
+ *
+ * @author thsc
+ */
+public class MappedLongPairMap {
+    public static final long NO_VALUE = 0;
+
+    private static final long MAGIC = 0x4F48444D4D415031L; // OHDMMAP1
+    private static final long REHASH_MAGIC = 0x4F48444D52454831L; // OHDMREH1
+    private static final int HEADER_LENGTH = 32; // magic, capacity, size, marker
+    private static final int SLOT_LENGTH = 24; // key, first, second
+    private static final int SEGMENT_BITS = 25; // slots per mapped segment: 2^25 (768 MB)
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private static final double MAX_LOAD = 0.6;
+
+    private final File file;
+    private final long initialCapacity;
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private FileLock lock;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] segments;
+    private long capacity;
+    private long mask;
+    private long size;
+
+    /**
+     * open that file or create an empty map
+     * @param expectedSize number of entries a new file is prepared for
+     */
+    public MappedLongPairMap(File file, long expectedSize) throws IOException {
+        this.file = file;
+        this.initialCapacity = MappedLongPairMap.getCapacity(expectedSize);
+
+        this.open(file.exists() && file.length() >= HEADER_LENGTH ? 0 : this.initialCapacity);
+    }
+
+    private static long getCapacity(long expectedSize) {
+        long minCapacity = (long) (Math.max(expectedSize, 16) / MAX_LOAD) + 1;
+
+        long capacity = 16;
+        while(capacity < minCapacity) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+
+    /**
+     * @param newCapacity 0: take capacity from file header
+     */
+    private void open(long newCapacity) throws IOException {
+        this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+        this.channel = this.randomAccessFile.getChannel();
+
+        this.lock = this.channel.tryLock();
+        if(this.lock == null) {
+            this.randomAccessFile.close();
+            throw new IOException("map file is used by another process: " + this.file.getAbsolutePath());
+        }
+
+        if(newCapacity == 0) {
+            // read before anything is mapped - file can still be truncated
+            this.randomAccessFile.seek(0);
+            long magic = this.randomAccessFile.readLong();
+            if(magic == REHASH_MAGIC) {
+                System.err.println("rehash of map file was interrupted - start with empty map: " 
+                        + this.file.getAbsolutePath());
+                newCapacity = this.initialCapacity;
+            } else if(magic != MAGIC) {
+                this.lock.release();
+                this.randomAccessFile.close();
+                throw new IOException("not a map file: " + this.file.getAbsolutePath());
+            }
+        }
+
+        if(newCapacity > 0) {
+            // new file - sparse, filled with zeros
+            this.randomAccessFile.setLength(0);
+            this.randomAccessFile.setLength(HEADER_LENGTH + newCapacity * SLOT_LENGTH);
+        }
+
+        this.header = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+
+        if(newCapacity > 0) {
+            this.header.putLong(0, MAGIC);
+            this.header.putLong(8, newCapacity);
+            this.header.putLong(16, 0);
+            this.header.putLong(24, 0);
+        }
+
+        this.size = this.header.getLong(16);
+        this.mapSegments(this.header.getLong(8));
+    }
+
+    /**
+     * map slots - file is extended if needed
+     */
+    private void mapSegments(long newCapacity) throws IOException {
+        this.capacity = newCapacity;
+        this.mask = this.capacity - 1;
+
+        int numberSegments = (int) ((this.capacity + SEGMENT_MASK) >>> SEGMENT_BITS);
+        this.segments = new MappedByteBuffer[numberSegments];
+        for(int i = 0; i < numberSegments; i++) {
+            long firstSlot = (long) i << SEGMENT_BITS;
+            long slots = Math.min(this.capacity - firstSlot, 1L << SEGMENT_BITS);
+
+            this.segments[i] = this.channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_LENGTH + firstSlot * SLOT_LENGTH, slots * SLOT_LENGTH);
+        }
+    }
+
+    private static long hash(long key) {
+        // murmur3 finalizer
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+
+        return key;
+    }
+
+    private MappedByteBuffer segment(long slot) {
+        return this.segments[(int) (slot >>> SEGMENT_BITS)];
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot & SEGMENT_MASK) * SLOT_LENGTH;
+    }
+
+    /**
+     * @return slot of that key or free slot where it is to be placed
+     */
+    private long findSlot(long key) {
+        long slot = MappedLongPairMap.hash(key) & this.mask;
+        while(true) {
+            long slotKey = this.segment(slot).getLong(MappedLongPairMap.offset(slot));
+            if(slotKey == key || slotKey == 0) return slot;
+
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * set values of that key
+     * @param first NO_VALUE: an existing value is kept
+     * @param second NO_VALUE: an existing value is kept
+     */
+    public synchronized void put(long key, long first, long second) throws IOException {
+        if(key == 0) {
+            throw new IllegalArgumentException("key 0 cannot be stored");
+        }
+
+        long slot = this.findSlot(key);
+        MappedByteBuffer segment = this.segment(slot);
+        int offset = MappedLongPairMap.offset(slot);
+
+        if(segment.getLong(offset) == 0) {
+            segment.putLong(offset, key);
+            this.size++;
+            this.header.putLong(16, this.size);
+        }
+
+        if(first != NO_VALUE) segment.putLong(offset + 8, first);
+        if(second != NO_VALUE) segment.putLong(offset + 16, second);
+
+        if(this.size > this.capacity * MAX_LOAD) {
+            this.rehash(this.capacity << 1);
+        }
+    }
+
+    /**
+     * @return first value or NO_VALUE if key is unknown
+     */
+    public synchronized long getFirst(long key) {
+        return this.get(key, 8);
+    }
+
+    /**
+     * @return second value or NO_VALUE if key is unknown
+     */
+    public synchronized long getSecond(long key) {
+        return this.get(key, 16);
+    }
+
+    private long get(long key, int valueOffset) {
+        if(key == 0) return NO_VALUE;
+
+        long slot = this.findSlot(key);
+        MappedByteBuffer segment = this.segment(slot);
+        int offset = MappedLongPairMap.offset(slot);
+
+        if(segment.getLong(offset) == 0) return NO_VALUE;
+
+        return segment.getLong(offset + valueOffset);
+    }
+
+    public synchronized boolean containsKey(long key) {
+        if(key == 0) return false;
+
+        long slot = this.findSlot(key);
+        return this.segment(slot).getLong(MappedLongPairMap.offset(slot)) != 0;
+    }
+
+    public synchronized long size() {
+        return this.size;
+    }
+
+    /**
+     * @return marker as set by user of that map, 0 in a new map
+     */
+    public synchronized long getMarker() {
+        return this.header.getLong(24);
+    }
+
+    public synchronized void setMarker(long marker) {
+        this.header.putLong(24, marker);
+    }
+
+    /**
+     * remove all entries - capacity is kept, a mapped file cannot be 
+     * shortened
+     */
+    public synchronized void clear() throws IOException {
+        this.header.putLong(0, REHASH_MAGIC);
+        this.header.force();
+
+        this.zeroSlots();
+        this.size = 0;
+        this.header.putLong(16, 0);
+
+        this.header.putLong(0, MAGIC);
+        this.header.force();
+    }
+
+    /**
+     * Entries are parked in a plain file which is never mapped and can
+     * be deleted afterwards. Map file is extended to new capacity and 
+     * entries are put back. Map file is marked as incomplete meanwhile.
+     */
+    private void rehash(long newCapacity) throws IOException {
+        File entriesFile = new File(this.file.getPath() + ".rehash");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(entriesFile)));
+        try {
+            for(long slot = 0; slot < this.capacity; slot++) {
+                MappedByteBuffer segment = this.segment(slot);
+                int offset = MappedLongPairMap.offset(slot);
+
+                long key = segment.getLong(offset);
+                if(key == 0) continue;
+
+                out.writeLong(key);
+                out.writeLong(segment.getLong(offset + 8));
+                out.writeLong(segment.getLong(offset + 16));
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        long entries = this.size;
+
+        this.header.putLong(0, REHASH_MAGIC);
+        this.header.force();
+
+        // extended part of file is filled with zeros
+        this.zeroSlots();
+        this.header.putLong(8, newCapacity);
+        this.mapSegments(newCapacity);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(entriesFile)));
+        try {
+            for(long i = 0; i < entries; i++) {
+                long key = in.readLong();
+                long slot = this.findSlot(key);
+                MappedByteBuffer segment = this.segment(slot);
+                int offset = MappedLongPairMap.offset(slot);
+
+                segment.putLong(offset, key);
+                segment.putLong(offset + 8, in.readLong());
+                segment.putLong(offset + 16, in.readLong());
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        if(!entriesFile.delete()) {
+            System.err.println("cannot delete " + entriesFile.getAbsolutePath());
+        }
+
+        this.size = entries;
+        this.header.putLong(16, this.size);
+        this.force();
+
+        this.header.putLong(0, MAGIC);
+        this.header.force();
+    }
+
+    private void zeroSlots() {
+        byte[] zeros = new byte[SLOT_LENGTH * 4096];
+        for(MappedByteBuffer segment : this.segments) {
+            ByteBuffer buffer = segment.duplicate();
+            buffer.clear();
+            while(buffer.hasRemaining()) {
+                buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+            }
+        }
+    }
+
+    /**
+     * write changes to disk
+     */
+    public synchronized void force() {
+        this.header.force();
+        for(MappedByteBuffer segment : this.segments) {
+            segment.force();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if(this.channel == null || !this.channel.isOpen()) return;
+
+        this.force();
+        if(this.lock != null && this.lock.isValid()) this.lock.release();
+        this.randomAccessFile.close();
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+}
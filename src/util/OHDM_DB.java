@@ -107,6 +107,14 @@ public class OHDM_DB {
         sq.append(");");
         sq.forceExecute();
         
+        // one entry per user and system
+        sq.append("CREATE UNIQUE INDEX ");
+        sq.append(TABLE_EXTERNAL_USERS);
+        sq.append("_userid_system ON ");
+        sq.append(DB.getFullTableName(schema, TABLE_EXTERNAL_USERS));
+        sq.append(" (userid, external_system_id);");
+        sq.forceExecute();
+        
         // CLASSIFICATION
         DB.createSequence(targetConnection, schema, TABLE_CLASSIFICATION);
         sq = new SQLStatementQueue(targetConnection);
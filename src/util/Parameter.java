@@ -48,6 +48,18 @@ public class Parameter {
     private int logMessageInterval = 5;
     private int SerTagsSize = 200000;
     private String osmfilecreationdatestring;
+    private int prefetchChunks = 0; // chunks read in advance from intermediate db, 0: no prefetching
+    private int idBlockSize = IDBlockAllocator.DEFAULT_BLOCK_SIZE; // ohdm ids reserved at once, 0: insert returns id
+    private String idMappingDirectory = null; // intermediate: files with osm id -> ohdm ids, null: no mapping files
+    private int minBatchSize = (int) (BatchSizeController.DEFAULT_MIN_LENGTH / 1024); // kByte, sql batches adapt between min and max
+    private int maxBatchSize = (int) (BatchSizeController.DEFAULT_MAX_LENGTH / 1024); // kByte, equal to min: fixed batch size
+    private String deadLetterFile = null; // failed statements of sql batches, null: see SQLDeadLetters
+    private boolean chunkTransactions = false; // writes of a chunk in one transaction with its done mark
+    private int commitInterval = 0; // elements per chunk transaction, 0: commit at end of chunk only
+    private int wayCacheNodes = 2000000; // nodes of relation member ways kept in memory, 0: no way cache
+    private boolean wayCacheWarmStart = false; // ways are cached in way stage already
+    private int nodeCacheEntries = 2 * 1024 * 1024; // off heap coordinates of way nodes, 0: no node cache
+    private boolean relationMemberIndex = false; // existence of relation members is checked in memory first
 
     public String getConnectionType() {
         return connectionType;
@@ -58,7 +70,7 @@ public class Parameter {
     }
 
     // added parameters for 'COPY' support
-    private String connectionType = "insert"; // use 'copy' to init connectors as Copy Connectors
+    private String connectionType = "insert"; // use 'copy' to init connectors as Copy Connectors; target: write ohdm tables with COPY, 'function': with a server side function per batch
     private String delimiter = "|";
     private String[] nodesColumnNames;
     private String[] relationmemberColumnNames;
@@ -166,6 +178,18 @@ public class Parameter {
                             case "waysColumnNames": this.waysColumnNames = value.split("\\|"); break;
                             case "serTagsSize": this.SerTagsSize = Integer.parseInt(value); break;
                             case "osmfilecreationdate": this.checkDateFormat(value); break;
+                            case "prefetchChunks": this.prefetchChunks = Integer.parseInt(value); break;
+                            case "idBlockSize": this.idBlockSize = Integer.parseInt(value); break;
+                            case "idMappingDirectory": this.idMappingDirectory = value; break;
+                            case "minBatchSize": this.minBatchSize = Integer.parseInt(value); break;
+                            case "maxBatchSize": this.maxBatchSize = Integer.parseInt(value); break;
+                            case "deadLetterFile": this.deadLetterFile = value; break;
+                            case "chunkTransactions": this.chunkTransactions = this.getTrueOrFalse(value); break;
+                            case "commitInterval": this.commitInterval = Integer.parseInt(value); break;
+                            case "wayCacheNodes": this.wayCacheNodes = Integer.parseInt(value); break;
+                            case "wayCacheWarmStart": this.wayCacheWarmStart = this.getTrueOrFalse(value); break;
+                            case "nodeCacheEntries": this.nodeCacheEntries = Integer.parseInt(value); break;
+                            case "relationMemberIndex": this.relationMemberIndex = this.getTrueOrFalse(value); break;
                         }
                     }
                 }
@@ -242,6 +266,30 @@ public class Parameter {
     
     public int getSerTagsSize() { return this.SerTagsSize;  }
 
+    public int getPrefetchChunks() { return this.prefetchChunks;  }
+
+    public int getIDBlockSize() { return this.idBlockSize;  }
+
+    public String getIDMappingDirectory() { return this.idMappingDirectory;  }
+
+    public int getMinBatchSize() { return this.minBatchSize;  }
+
+    public int getMaxBatchSize() { return this.maxBatchSize;  }
+
+    public String getDeadLetterFile() { return this.deadLetterFile;  }
+
+    public boolean useChunkTransactions() { return this.chunkTransactions;  }
+
+    public int getCommitInterval() { return this.commitInterval;  }
+
+    public int getWayCacheNodes() { return this.wayCacheNodes;  }
+
+    public boolean useWayCacheWarmStart() { return this.wayCacheWarmStart;  }
+
+    public int getNodeCacheEntries() { return this.nodeCacheEntries;  }
+
+    public boolean useRelationMemberIndex() { return this.relationMemberIndex;  }
+
     public PrintStream getOutStream() throws FileNotFoundException {
         if(this.outStream == null) {
             this.outStream = this.getOutStream(this.outFile);
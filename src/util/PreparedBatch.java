@@ -0,0 +1,221 @@
+package util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+
+/**
+ * Insert statement which is prepared once. Values of a row are bound by
+ * column (first column is 1, like jdbc), addBatch finishes a row. Rows are
+ * sent in batches - connections of DB.createConnection rewrite them into
+ * multi row inserts (reWriteBatchedInserts).
+ *
+ * Rows are kept until their batch is executed. A failing batch is split
+ * in halves until failing rows are isolated, those are written to the
+ * dead letter file (see SQLDeadLetters). Connection failures are thrown.
+ * Within a transaction, each part gets a savepoint like in SQLExecute.
+ *
+ * @author thsc
+ */
+public class PreparedBatch {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final Connection connection;
+    private final String sql;
+    private final int[] types;
+    private final int batchSize;
+
+    private PreparedStatement statement = null;
+    private Object[] row;
+    private ArrayList<Object[]> rows = new ArrayList<>();
+
+    private long executedRows = 0;
+    private long deadLetters = 0;
+
+    /**
+     * @param sql statement with one ? per column, casts can be added, e.g.
+     * ?::date
+     * @param types sql type of each column (see java.sql.Types) - used
+     * when null is bound
+     * @param batchSize rows are executed when that number is reached
+     */
+    public PreparedBatch(Connection connection, String sql, int[] types,
+            int batchSize) {
+
+        this.connection = connection;
+        this.sql = sql;
+        this.types = types;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+
+        this.row = new Object[types.length];
+    }
+
+    public void setLong(int column, long value) {
+        this.row[column - 1] = value;
+    }
+
+    public void setInt(int column, int value) {
+        this.row[column - 1] = value;
+    }
+
+    public void setBoolean(int column, boolean value) {
+        this.row[column - 1] = value;
+    }
+
+    /**
+     * @param value null binds null
+     */
+    public void setString(int column, String value) {
+        this.row[column - 1] = value;
+    }
+
+    public void setNull(int column) {
+        this.row[column - 1] = null;
+    }
+
+    /**
+     * finish current row - batch is executed when full
+     */
+    public void addBatch() throws SQLException {
+        this.rows.add(this.row);
+        this.row = new Object[this.types.length];
+
+        if(this.rows.size() >= this.batchSize) {
+            this.executeBatch();
+        }
+    }
+
+    public int size() {
+        return this.rows.size();
+    }
+
+    /**
+     * forget collected rows - e.g. when their transaction is rolled back
+     */
+    public void clear() {
+        this.rows = new ArrayList<>();
+        this.row = new Object[this.types.length];
+    }
+
+    /**
+     * execute all collected rows
+     * @return number of rows written
+     */
+    public long executeBatch() throws SQLException {
+        if(this.rows.isEmpty()) return 0;
+
+        ArrayList<Object[]> batch = this.rows;
+        this.rows = new ArrayList<>();
+
+        if(this.statement == null) {
+            this.statement = this.connection.prepareStatement(this.sql);
+        }
+
+        int failed = this.bisect(batch, 0, batch.size());
+        this.deadLetters += failed;
+
+        long written = batch.size() - failed;
+        this.executedRows += written;
+
+        return written;
+    }
+
+    /**
+     * execute rows first (incl.) to last (excl.)
+     * @return number of dead letters
+     */
+    private int bisect(ArrayList<Object[]> batch, int first, int last) throws SQLException {
+        Savepoint savepoint = this.connection.getAutoCommit() ? null : this.connection.setSavepoint();
+        try {
+            for(int i = first; i < last; i++) {
+                this.bind(batch.get(i));
+                this.statement.addBatch();
+            }
+            this.statement.executeBatch();
+            if(savepoint != null) this.connection.releaseSavepoint(savepoint);
+            return 0;
+        }
+        catch(SQLException e) {
+            this.statement.clearBatch();
+
+            // no row can be written
+            if(SQLExecute.isConnectionFailure(this.connection, e)) throw e;
+
+            if(savepoint != null) this.connection.rollback(savepoint);
+
+            if(last - first == 1) {
+                SQLException cause = e.getNextException() != null ? e.getNextException() : e;
+                SQLDeadLetters.write(this.sql + "\n-- values: "
+                        + this.toString(batch.get(first)), cause);
+                return 1;
+            }
+
+            int middle = (first + last) / 2;
+
+            return this.bisect(batch, first, middle)
+                    + this.bisect(batch, middle, last);
+        }
+    }
+
+    private void bind(Object[] values) throws SQLException {
+        for(int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            int column = i + 1;
+
+            if(value == null) {
+                this.statement.setNull(column, this.types[i]);
+            } else if(value instanceof Long) {
+                this.statement.setLong(column, (Long) value);
+            } else if(value instanceof Integer) {
+                this.statement.setInt(column, (Integer) value);
+            } else if(value instanceof Boolean) {
+                this.statement.setBoolean(column, (Boolean) value);
+            } else {
+                this.statement.setString(column, (String) value);
+            }
+        }
+    }
+
+    private String toString(Object[] values) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("(");
+        for(int i = 0; i < values.length; i++) {
+            if(i > 0) sb.append(", ");
+            sb.append(values[i] == null ? "null" : values[i].toString());
+        }
+        sb.append(")");
+
+        return sb.toString();
+    }
+
+    /**
+     * @return number of rows written so far
+     */
+    public long getExecutedRows() {
+        return this.executedRows;
+    }
+
+    /**
+     * @return number of rows which could not be written
+     */
+    public long getDeadLetters() {
+        return this.deadLetters;
+    }
+
+    /**
+     * execute remaining rows and release statement - connection stays open
+     */
+    public void close() throws SQLException {
+        try {
+            this.executeBatch();
+        }
+        finally {
+            if(this.statement != null) {
+                this.statement.close();
+                this.statement = null;
+            }
+        }
+    }
+}
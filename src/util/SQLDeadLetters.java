@@ -0,0 +1,60 @@
+package util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Statements which failed and were taken out of their batch (see
+ * SQLExecute) are appended to a file with their error message. They can
+ * be fixed and fed to psql later. There is one file per process.
+ *
+ * @author thsc
+ */
+public class SQLDeadLetters {
+    public static final String DEFAULT_FILE_NAME = "sql_deadletters.sql";
+
+    private static File file = new File(DEFAULT_FILE_NAME);
+    private static long number = 0;
+
+    public static synchronized void setFile(File deadLetterFile) {
+        SQLDeadLetters.file = deadLetterFile;
+    }
+
+    public static synchronized File getFile() {
+        return SQLDeadLetters.file;
+    }
+
+    /**
+     * @return number of dead letters written by that process
+     */
+    public static synchronized long getNumber() {
+        return SQLDeadLetters.number;
+    }
+
+    static synchronized void write(String statement, SQLException e) {
+        SQLDeadLetters.number++;
+
+        String message = e.getMessage() != null ? e.getMessage().replace('\n', ' ') : e.getClass().getName();
+
+        try {
+            FileWriter fw = new FileWriter(SQLDeadLetters.file, true);
+            fw.write("-- ");
+            fw.write(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+            fw.write(" ");
+            fw.write(message);
+            fw.write("\n");
+            fw.write(statement.trim());
+            fw.write("\n");
+            fw.close();
+        }
+        catch(IOException ex) {
+            System.err.println("cannot write dead letter file " + SQLDeadLetters.file.getAbsolutePath()
+                    + ": " + ex.getLocalizedMessage());
+            System.err.println("failed statement: " + message + "\n" + statement);
+        }
+    }
+}
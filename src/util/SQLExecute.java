@@ -4,31 +4,49 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.concurrent.CompletableFuture;
 
 /**
+ * Batch of sql statements executed by a worker of a SQLStatementQueue.
+ * Worker takes a free connection of that queue. Result is reported by
+ * a future.
+ *
+ * A batch is executed in one transaction. If it fails it is split in
+ * halves which are executed again until failing statements are isolated.
+ * Those are written to the dead letter file (see SQLDeadLetters), all
+ * other statements are executed. Within a transaction (autocommit off)
+ * each part gets a savepoint - a failing part does not abort it.
  *
  * @author thsc
  */
-class SQLExecute extends Thread {
-    private final Connection connection;
-    private String sqlStatement; 
-    private String recordEntry;
+class SQLExecute implements Runnable {
+    private final String sqlStatement;
+    private final int[] statementEnds;
+    private final String recordEntry;
     private final SQLStatementQueue recordKeeper;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
 
-    SQLExecute(Connection connection, String sqlStatement, String recordEntry, SQLStatementQueue recordKeeper) {
-        this.connection = connection;
+    /**
+     * @param statementEnds end positions of statements in that batch, 
+     * null: cannot be split
+     */
+    SQLExecute(String sqlStatement, int[] statementEnds, String recordEntry, 
+            SQLStatementQueue recordKeeper) {
+        
         this.sqlStatement = sqlStatement;
+        this.statementEnds = statementEnds;
         this.recordEntry = recordEntry;
         this.recordKeeper = recordKeeper;
     }
-    
+
     static void doExec(Connection connection, String sqlStatement) throws SQLException {
         if(sqlStatement == null) return;
 
         SQLException e = null;
-        
+
         PreparedStatement stmt = null;
-        
+
         try {
             if(connection == null) {
                 System.err.println("no connection to database - cannot perform sql statement");
@@ -53,36 +71,109 @@ class SQLExecute extends Thread {
             if(e != null) throw e;
         }
     }
+
+    /**
+     * Execute batch - failing statements are isolated and written into 
+     * dead letter file if batch consists of more than one statement. 
+     * Otherwise, exception is thrown.
+     * @param statementEnds end positions of statements in that batch, 
+     * null: cannot be split
+     * @return number of dead letters
+     */
+    static int doExec(Connection connection, String sqlStatement, 
+            int[] statementEnds) throws SQLException {
+        
+        if(statementEnds == null || statementEnds.length < 2) {
+            SQLExecute.doExec(connection, sqlStatement);
+            return 0;
+        }
+        
+        return SQLExecute.bisect(connection, sqlStatement, statementEnds, 0, statementEnds.length);
+    }
+    
+    /**
+     * execute statements first (incl.) to last (excl.)
+     */
+    private static int bisect(Connection connection, String sqlStatement, 
+            int[] statementEnds, int first, int last) throws SQLException {
+        
+        int from = first == 0 ? 0 : statementEnds[first - 1];
+        int to = statementEnds[last - 1];
+        String statements = sqlStatement.substring(from, to);
+        
+        Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+        try {
+            SQLExecute.doExec(connection, statements);
+            if(savepoint != null) connection.releaseSavepoint(savepoint);
+            return 0;
+        }
+        catch(SQLException e) {
+            // no statement can be executed
+            if(SQLExecute.isConnectionFailure(connection, e)) throw e;
+            
+            if(savepoint != null) connection.rollback(savepoint);
+            
+            if(last - first == 1) {
+                SQLDeadLetters.write(statements, e);
+                return 1;
+            }
+            
+            int middle = (first + last) / 2;
+            
+            return SQLExecute.bisect(connection, sqlStatement, statementEnds, first, middle)
+                    + SQLExecute.bisect(connection, sqlStatement, statementEnds, middle, last);
+        }
+    }
     
-    private boolean done = false;
-    boolean isDone() {
-        return this.done;
+    static boolean isConnectionFailure(Connection connection, SQLException e) {
+        // sql state class 08: connection exception
+        String state = e.getSQLState();
+        if(state != null && state.startsWith("08")) return true;
+        
+        try {
+            return connection == null || connection.isClosed();
+        }
+        catch(SQLException ex) {
+            return true;
+        }
     }
     
+    /**
+     * @return completes when batch is executed - exceptionally with the
+     * SQLException of that batch
+     */
+    CompletableFuture<Void> getResult() {
+        return this.result;
+    }
+
     @Override
     public void run() {
-        // do exec
-//        System.out.println("exec threat issues sql statement " + this.recordEntry);
+        Connection connection = this.recordKeeper.takeConnection();
         try {
-            SQLExecute.doExec(connection, sqlStatement);
+            long start = System.currentTimeMillis();
+            int deadLetters = SQLExecute.doExec(connection, this.sqlStatement, 
+                    this.statementEnds);
+            this.recordKeeper.executed(this.sqlStatement.length(), 
+                    System.currentTimeMillis() - start, deadLetters);
 
             // ok, statement executed
             this.recordKeeper.writeLog(this.recordEntry);
-            this.recordKeeper.done(this);
-//            System.out.print(this.recordEntry + ", ");
-//            System.out.println("exec threat successfully issued sql statement: " + this.recordEntry);
+            this.result.complete(null);
         }
         catch(SQLException e) {
             System.err.println("sql error: (error / statement): \n" + e.getMessage() + "\n" + this.sqlStatement);
+            this.result.completeExceptionally(e);
         } catch (IOException ex) {
             System.err.println("cannot write record entry: " + this.recordEntry);
-        } 
+            // statement was executed
+            this.result.complete(null);
+        }
+        catch(RuntimeException re) {
+            this.result.completeExceptionally(re);
+        }
         finally {
-            this.done = true; // in any case.. we are ready here
+            // in any case.. we are ready here
+            this.recordKeeper.done(this, connection);
         }
     }
-
-    Connection getConnection() {
-        return this.connection;
-    }
 }
@@ -14,24 +14,56 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 /**
- *
+ * Collects sql statements and executes them in batches. Batches can be 
+ * executed in parallel by a fixed number of workers - one connection
+ * each. Number of pending batches is limited: producers are blocked
+ * when workers fall behind. Errors of parallel batches are thrown by
+ * flush (and forceExecute / close which flush as well).
+ * 
+ * Each method call is atomic - several threads can use that queue. 
+ * Statements which are composed by several append calls must not be 
+ * interleaved by other threads, though.
+ * 
  * @author thsc
  */
 public class SQLStatementQueue {
     private List<Connection> connections = new ArrayList<>();
     private List<Boolean> freeConnection = new ArrayList<>();
+    private final Object connectionLock = new Object();
     
 //    protected static final long MAX_BUFFER_LENGTH = 1; // 1 Byte Debugging
-    protected static final long MAX_BUFFER_LENGTH = 60 * 1024; // 60 kByte
+    protected static final long MAX_BUFFER_LENGTH = BatchSizeController.DEFAULT_LENGTH; // files
 //    private static final long MAX_BUFFER_LENGTH = 200; // 500 kByte
     
-    private final ArrayList<SQLExecute> execThreads = new ArrayList<>();
+    // batch length of jdbc queues adapts to measured throughput
+    private final BatchSizeController batchSize = new BatchSizeController();
+    
     private static final int DEFAULT_MAX_EXEC_THREADS = 1;
     
+    // batches waiting for a worker per worker
+    private static final int PENDING_BATCHES_PER_WORKER = 1;
+    
+    private ExecutorService executor = null;
+    private Semaphore batchPermits = null;
+    private final Set<CompletableFuture<Void>> pendingBatches = ConcurrentHashMap.newKeySet();
+    
     protected StringBuilder sqlQueue;
     
+    // statement ends in sqlQueue - taken with couldExecute
+    private int[] statementEnds = new int[64];
+    private int numberStatementEnds = 0;
+    private long deadLetters = 0;
+    
     private int number = 0;
     private File recordFile = null;
     private int maxThreads = 1;
@@ -94,6 +126,13 @@ public class SQLStatementQueue {
         this.freeConnection.clear();
         this.maxThreads = maxThreads;
         
+        this.setBatchSizeBounds(parameter.getMinBatchSize() * 1024L, 
+                parameter.getMaxBatchSize() * 1024L);
+        
+        if(parameter.getDeadLetterFile() != null) {
+            SQLDeadLetters.setFile(new File(parameter.getDeadLetterFile()));
+        }
+        
         if(parameter.usePSQL() || forceJDBC) {
             // set up connections
             try {
@@ -121,9 +160,18 @@ public class SQLStatementQueue {
         }
     }
     
-    public void close() throws SQLException {
-        this.forceExecute();
-        this.join();
+    public synchronized void close() throws SQLException {
+        try {
+            this.forceExecute();
+        }
+        finally {
+            this.join();
+            if(this.executor != null) {
+                this.executor.shutdown();
+                this.executor = null;
+            }
+        }
+        
         if(this.connections != null) {
             for(Connection conn : this.connections) {
                 conn.close();
@@ -132,40 +180,137 @@ public class SQLStatementQueue {
         }
     }
     
+    /**
+     * @return free connection - waits until a worker releases one
+     */
     private Connection getFreeConnection() {
-        if(this.connections != null) {
-            for(int i = 0; i < this.freeConnection.size(); i++) {
-                if(this.freeConnection.get(i)) {
-                    this.freeConnection.set(i, Boolean.FALSE);
-    //                System.out.println(this.hashCode() + ": connection taken #"+ this.connections.get(i).hashCode());
-                    return this.connections.get(i);
+        if(this.connections == null) return null;
+        
+        synchronized(this.connectionLock) {
+            while(true) {
+                for(int i = 0; i < this.freeConnection.size(); i++) {
+                    if(this.freeConnection.get(i)) {
+                        this.freeConnection.set(i, Boolean.FALSE);
+                        return this.connections.get(i);
+                    }
                 }
-            }
 
-            // wait for all threads to end
-            this.join();
-            return this.getFreeConnection();
+                try {
+                    this.connectionLock.wait();
+                } catch (InterruptedException ex) {
+                    // try again
+                }
+            }
         }
-        
-        return null;
     }
     
     private void setFreeConnection(Connection conn) {
-        if(this.connections != null) {
+        if(this.connections == null) return;
+        
+        synchronized(this.connectionLock) {
             for(int i = 0; i < this.connections.size(); i++) {
                 if(this.connections.get(i) == conn) {
                     this.freeConnection.set(i, Boolean.TRUE);
-    //                System.out.println(this.hashCode() + ": connection free " + conn.hashCode());
                 }
             }
+            this.connectionLock.notifyAll();
+        }
+    }
+    
+    Connection takeConnection() {
+        return this.getFreeConnection();
+    }
+    
+    /**
+     * Batches are executed when they exceed a length between those bounds.
+     * Length adapts to measured throughput - equal bounds: fixed length
+     * @param minLength bytes
+     * @param maxLength bytes
+     */
+    public void setBatchSizeBounds(long minLength, long maxLength) {
+        this.batchSize.setBounds(minLength, maxLength);
+    }
+    
+    /**
+     * @return current batch length in bytes
+     */
+    public long getBatchSize() {
+        return this.batchSize.getLength();
+    }
+    
+    /**
+     * take measurement of an executed batch
+     */
+    void executed(long bytes, long millis, int deadLetters) {
+        this.batchSize.executed(bytes, millis);
+        
+        if(deadLetters > 0) {
+            synchronized(this.connectionLock) {
+                this.deadLetters += deadLetters;
+            }
+            System.err.println(deadLetters + " failed sql statement(s) written to " 
+                    + SQLDeadLetters.getFile().getAbsolutePath());
+        }
+    }
+    
+    /**
+     * @return chosen and average batch length and execution time
+     */
+    public String getStatistics() {
+        String statistics = this.batchSize.getStatistics();
+        
+        synchronized(this.connectionLock) {
+            if(this.deadLetters > 0) {
+                statistics += " | dead letters: " + Util.getValueWithDots(this.deadLetters);
+            }
+        }
+        
+        return statistics;
+    }
+    
+    /**
+     * remember end of a statement - batch can be split there if it fails
+     */
+    private void markStatementEnd() {
+        int end = this.sqlQueue.length();
+        if(this.numberStatementEnds > 0 && 
+                this.statementEnds[this.numberStatementEnds - 1] >= end) {
+            return;
+        }
+        
+        if(this.numberStatementEnds == this.statementEnds.length) {
+            int[] newEnds = new int[this.statementEnds.length * 2];
+            System.arraycopy(this.statementEnds, 0, newEnds, 0, this.numberStatementEnds);
+            this.statementEnds = newEnds;
         }
+        
+        this.statementEnds[this.numberStatementEnds++] = end;
+    }
+    
+    /**
+     * @return statement ends of current batch, null if it cannot be split
+     */
+    private int[] getStatementEnds() {
+        if(this.numberStatementEnds == 0) return null;
+        
+        int end = this.sqlQueue.length();
+        boolean tail = this.statementEnds[this.numberStatementEnds - 1] < end;
+        
+        int[] ends = new int[this.numberStatementEnds + (tail ? 1 : 0)];
+        System.arraycopy(this.statementEnds, 0, ends, 0, this.numberStatementEnds);
+        if(tail) {
+            // statements appended after last couldExecute
+            ends[ends.length - 1] = end;
+        }
+        
+        return ends;
     }
     
     /**
      * when using only this method, flush *must* be called.
      * @param a 
      */
-    public void append(String a) {
+    public synchronized void append(String a) {
         if(this.sqlQueue == null) {
             this.sqlQueue = new StringBuilder(a);
         } else {
@@ -217,7 +362,7 @@ public class SQLStatementQueue {
         this.resetStatement();
     }
             
-    public void forceExecute(boolean parallel, String recordEntry) 
+    public synchronized void forceExecute(boolean parallel, String recordEntry) 
             throws SQLException, IOException {
         
         if(this.sqlQueue == null || this.sqlQueue.length() < 1) {
@@ -234,69 +379,87 @@ public class SQLStatementQueue {
                 // that point is reached if no sql exception has been thrown. write log
                 this.writeLog(recordEntry);
             } else {
-                // find thread
-                boolean found = false;
-                while(!found) {
-                    if(this.execThreads.size() < this.maxThreads) {
-                        // create new thread
-                        Connection conn = this.getFreeConnection();
-                        SQLExecute se = new SQLExecute(conn, this.sqlQueue.toString(), 
-                                recordEntry, this);
-                        this.execThreads.add(se);
-                        se.start();
-                        found = true;
-                    } else {
-                        try {
-                            // no more thread allowed.. make an educated guess and wait for
-                            // first one to end
-                            Thread jThread = this.execThreads.get(0);
-    //                        System.out.println("sqlQueue: no sql thread found.. wait for first one to die");
-                            if(jThread != null) {
-                                jThread.join();
-                            }
-    //                        System.out.println("sqlQueue: first sql thread died");
-                        } catch (InterruptedException ex) {
-                            // ignore and go ahead
-                        }
-                        catch(IndexOutOfBoundsException e) {
-                            // was to slowly .. list already empty.. go ahead
-                        }
-                    }
-                }
+                this.submit(this.sqlQueue.toString(), this.getStatementEnds(), recordEntry);
                 this.resetStatement();
             }
         }
     }
     
     /**
-     * wait until all issued threads are finished
-     * 
+     * hand batch to a worker - blocks if too many batches are pending
      */
-    public void join() {
-        if(!this.useJDBC()) return;
-        
-        boolean done = false;
-        while(!done) {
-            if(this.execThreads.isEmpty()) return;
-                try {
-                    SQLExecute execThread = this.execThreads.get(0);
-                if(execThread != null) {
-                    try {
-                        execThread.join();
-                    } catch (InterruptedException ex) {
-                        // wont happen
-                    }
-                } else {
-                    /* it assumed that now other threads are created after this
-                    method was called - it can be assumed that failing a single
-                    thread in the list indicates that all threads are finished
-                    */
-                    done = true;
+    private void submit(String batch, int[] statementEnds, String recordEntry) {
+        if(this.executor == null) {
+            // a worker per connection - more workers would wait for connections
+            int workers = Math.max(1, Math.min(this.maxThreads, this.connections.size()));
+            
+            this.executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread worker = new Thread(r, "sql queue worker");
+                    worker.setDaemon(true);
+                    return worker;
                 }
+            });
+            this.batchPermits = new Semaphore(workers * (1 + PENDING_BATCHES_PER_WORKER));
+        }
+        
+        this.batchPermits.acquireUninterruptibly();
+        
+        SQLExecute execute = new SQLExecute(batch, statementEnds, recordEntry, this);
+        this.pendingBatches.add(execute.getResult());
+        this.executor.execute(execute);
+    }
+    
+    /**
+     * called by worker when batch is done
+     */
+    void done(SQLExecute execute, Connection connection) {
+        this.setFreeConnection(connection);
+        
+        // failures are kept until flush
+        if(!execute.getResult().isCompletedExceptionally()) {
+            this.pendingBatches.remove(execute.getResult());
+        }
+        
+        this.batchPermits.release();
+    }
+    
+    /**
+     * Waits until all batches issued so far are executed. 
+     * @throws SQLException first failure of a batch since last flush
+     */
+    public void flush() throws SQLException {
+        SQLException failure = null;
+        
+        for(CompletableFuture<Void> batch : new ArrayList<>(this.pendingBatches)) {
+            try {
+                batch.join();
             }
-            catch(IndexOutOfBoundsException e) {
-                // was to slowly .. empty.. again
+            catch(CompletionException e) {
+                if(failure == null) {
+                    failure = e.getCause() instanceof SQLException ? 
+                            (SQLException) e.getCause() : new SQLException(e.getCause());
+                }
             }
+            this.pendingBatches.remove(batch);
+        }
+        
+        if(failure != null) throw failure;
+    }
+    
+    /**
+     * wait until all issued batches are executed - failures were reported
+     * by workers
+     */
+    public void join() {
+        if(!this.useJDBC()) return;
+        
+        try {
+            this.flush();
+        }
+        catch(SQLException e) {
+            // already printed by worker
         }
     }
     
@@ -305,14 +468,16 @@ public class SQLStatementQueue {
      * Use that method as often as possible. Can increase performance dramatically.
      * @throws java.sql.SQLException
      */
-    public void couldExecute() throws SQLException {
+    public synchronized void couldExecute() throws SQLException {
         if(this.sqlQueue == null) return;
         
+        this.markStatementEnd();
+        
         if(this.alwaysForce) {
             this.forceExecute();
         }
         
-        if(this.sqlQueue.length() > SQLStatementQueue.MAX_BUFFER_LENGTH) {
+        if(this.sqlQueue.length() > this.batchSize.getLength()) {
             this.forceExecute(true);
         }
     }
@@ -329,11 +494,13 @@ public class SQLStatementQueue {
     }
     
     /**
-     * sequential execution of sql statement
+     * sequential execution of sql statement - waits for batches in parallel
+     * execution as well
      * @throws SQLException 
      */
-    public void forceExecute() throws SQLException {
+    public synchronized void forceExecute() throws SQLException {
         if(this.sqlQueue == null || this.sqlQueue.length() < 1) {
+            if(this.useJDBC()) this.flush();
             return;
         }
         
@@ -343,7 +510,10 @@ public class SQLStatementQueue {
         } else { // JDBC
             Connection conn = this.getFreeConnection();
             try {
-                SQLExecute.doExec(conn, this.sqlQueue.toString());
+                long start = System.currentTimeMillis();
+                int failed = SQLExecute.doExec(conn, this.sqlQueue.toString(), 
+                        this.getStatementEnds());
+                this.executed(this.sqlQueue.length(), System.currentTimeMillis() - start, failed);
             }
             catch(SQLException e) {
                 Util.printExceptionMessage(errStream, e, this);
@@ -354,6 +524,8 @@ public class SQLStatementQueue {
                 this.resetStatement();
                 this.setFreeConnection(conn);
             }
+            
+            this.flush();
         }
     }
     
@@ -365,7 +537,7 @@ public class SQLStatementQueue {
         fw.close();
     }
     
-    public ResultSet executeWithResult() throws SQLException {
+    public synchronized ResultSet executeWithResult() throws SQLException {
         Connection conn = this.getFreeConnection();
         PreparedStatement stmt = conn.prepareStatement(this.sqlQueue.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE,
                 ResultSet.CONCUR_READ_ONLY);
@@ -386,7 +558,8 @@ public class SQLStatementQueue {
     }
     
     private String debugLastStatement;
-    public void resetStatement() {
+    public synchronized void resetStatement() {
+        this.numberStatementEnds = 0;
         if(this.sqlQueue != null) {
             this.debugLastStatement = this.sqlQueue.toString();
             this.sqlQueue = null;
@@ -414,7 +587,7 @@ public class SQLStatementQueue {
         return sb.toString();
     }
     
-    public String getCurrentStatement() {
+    public synchronized String getCurrentStatement() {
         if(this.sqlQueue == null) {
             return null;
         }
@@ -422,27 +595,10 @@ public class SQLStatementQueue {
         return this.sqlQueue.toString();
     }
 
-    synchronized void done(SQLExecute execThread) {
-        this.execThreads.remove(execThread);
-        Connection conn = execThread.getConnection();
-        this.setFreeConnection(conn);
-//        System.out.println("sqlQueue: exec thread removed");
-    }
-    
     /**
-     * Wait until all pending threads came to end end.. flushes that queue
+     * Wait until all pending batches are executed
      */
     public void flushThreads() {
-//        System.out.println("sqlQueue: flush called... wait for threads to finish");
-        while(!this.execThreads.isEmpty()) {
-            try {
-                // each loop we wait for the first thread to finish until
-                // array is empty
-                this.execThreads.get(0).join();
-            } catch (InterruptedException ex) {
-                // go ahead
-            }
-        }
-//        System.out.println("sqlQueue: flush finished");
+        this.join();
     }
 }
@@ -0,0 +1,219 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes and decodes well-known binary geometries (points, linestrings
+ * and polygons) on plain coordinate arrays. Coordinates are x/y pairs:
+ * {x0, y0, x1, y1, ...} - x is longitude, y is latitude.
+ *
+ * Encoder produces hex encoded extended WKB (with srid). PostGIS takes
+ * that string as geometry literal - in INSERT statements as well as in COPY.
+ * Decoder reads WKB as returned by ST_AsBinary (and EWKB as well).
+ *
+ * @author thsc
+ */
+public class WKB {
+    public static final int POINT = 1;
+    public static final int LINESTRING = 2;
+    public static final int POLYGON = 3;
+
+    public static final int SRID_WGS84 = 4326;
+
+    private static final int EWKB_Z = 0x80000000;
+    private static final int EWKB_M = 0x40000000;
+    private static final int EWKB_SRID = 0x20000000;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    ///////////////////////////////////////////////////////////////////////
+    //                             encoder                               //
+    ///////////////////////////////////////////////////////////////////////
+
+    public static String pointToHexEWKB(double x, double y, int srid) {
+        ByteBuffer buffer = WKB.allocate(srid, 16);
+        WKB.putHeader(buffer, POINT, srid);
+        buffer.putDouble(x);
+        buffer.putDouble(y);
+
+        return WKB.toHex(buffer);
+    }
+
+    /**
+     * @param xy coordinates
+     * @param numberPoints number of points in xy to be taken
+     */
+    public static String lineStringToHexEWKB(double[] xy, int numberPoints, int srid) {
+        ByteBuffer buffer = WKB.allocate(srid, 4 + numberPoints * 16);
+        WKB.putHeader(buffer, LINESTRING, srid);
+        WKB.putPoints(buffer, xy, numberPoints);
+
+        return WKB.toHex(buffer);
+    }
+
+    /**
+     * @param rings first ring is exterior ring, following are holes. Each
+     * ring must be closed (first point equals last point)
+     */
+    public static String polygonToHexEWKB(double[][] rings, int srid) {
+        int length = 4;
+        for(double[] ring : rings) {
+            length += 4 + ring.length * 8;
+        }
+
+        ByteBuffer buffer = WKB.allocate(srid, length);
+        WKB.putHeader(buffer, POLYGON, srid);
+        buffer.putInt(rings.length);
+        for(double[] ring : rings) {
+            WKB.putPoints(buffer, ring, ring.length / 2);
+        }
+
+        return WKB.toHex(buffer);
+    }
+
+    private static ByteBuffer allocate(int srid, int bodyLength) {
+        // byte order + type (+ srid)
+        int headerLength = srid > 0 ? 9 : 5;
+
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength + bodyLength);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        return buffer;
+    }
+
+    private static void putHeader(ByteBuffer buffer, int type, int srid) {
+        buffer.put((byte)1); // little endian
+        if(srid > 0) {
+            buffer.putInt(type | EWKB_SRID);
+            buffer.putInt(srid);
+        } else {
+            buffer.putInt(type);
+        }
+    }
+
+    private static void putPoints(ByteBuffer buffer, double[] xy, int numberPoints) {
+        buffer.putInt(numberPoints);
+        for(int i = 0; i < numberPoints * 2; i++) {
+            buffer.putDouble(xy[i]);
+        }
+    }
+
+    private static String toHex(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        char[] hex = new char[bytes.length * 2];
+        for(int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0x0F];
+            hex[2 * i + 1] = HEX[bytes[i] & 0x0F];
+        }
+
+        return new String(hex);
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    //                             decoder                               //
+    ///////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return POINT, LINESTRING, POLYGON or another wkb type number
+     */
+    public static int getGeometryType(byte[] wkb) {
+        ByteBuffer buffer = WKB.wrap(wkb);
+        return WKB.readType(buffer) % 1000;
+    }
+
+    /**
+     * coordinates of a point or a linestring - exterior ring of a polygon
+     */
+    public static double[] decodeCoordinates(byte[] wkb) {
+        double[][] rings = WKB.decodeRings(wkb);
+        if(rings.length == 0) return new double[0];
+
+        return rings[0];
+    }
+
+    /**
+     * Coordinates of a point or linestring come as one ring. Polygons
+     * deliver exterior ring followed by interior rings.
+     */
+    public static double[][] decodeRings(byte[] wkb) {
+        ByteBuffer buffer = WKB.wrap(wkb);
+        int type = WKB.readType(buffer);
+        int dimensions = WKB.getDimensions(type);
+
+        switch(type % 1000) {
+            case POINT:
+                double[] point = new double[2];
+                point[0] = buffer.getDouble();
+                point[1] = buffer.getDouble();
+                return new double[][] {point};
+
+            case LINESTRING:
+                return new double[][] {WKB.readPoints(buffer, dimensions)};
+
+            case POLYGON:
+                int numberRings = buffer.getInt();
+                double[][] rings = new double[numberRings][];
+                for(int i = 0; i < numberRings; i++) {
+                    rings[i] = WKB.readPoints(buffer, dimensions);
+                }
+                return rings;
+        }
+
+        throw new IllegalArgumentException("wkb type not supported: " + type);
+    }
+
+    private static ByteBuffer wrap(byte[] wkb) {
+        ByteBuffer buffer = ByteBuffer.wrap(wkb);
+        buffer.order(buffer.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        return buffer;
+    }
+
+    /**
+     * read type and skip srid if any. Flags of extended wkb are translated
+     * into iso type numbers (z: +1000, m: +2000)
+     */
+    private static int readType(ByteBuffer buffer) {
+        int type = buffer.getInt();
+
+        if((type & EWKB_SRID) != 0) {
+            buffer.getInt(); // srid
+        }
+
+        int isoType = type & 0x0FFFFFFF;
+        if((type & EWKB_Z) != 0) isoType += 1000;
+        if((type & EWKB_M) != 0) isoType += 2000;
+
+        return isoType;
+    }
+
+    private static int getDimensions(int isoType) {
+        switch(isoType / 1000) {
+            case 1: // z
+            case 2: // m
+                return 3;
+            case 3: // zm
+                return 4;
+        }
+
+        return 2;
+    }
+
+    /**
+     * read points - only x and y are kept
+     */
+    private static double[] readPoints(ByteBuffer buffer, int dimensions) {
+        int numberPoints = buffer.getInt();
+        double[] xy = new double[numberPoints * 2];
+        for(int i = 0; i < numberPoints; i++) {
+            xy[2 * i] = buffer.getDouble();
+            xy[2 * i + 1] = buffer.getDouble();
+            for(int d = 2; d < dimensions; d++) {
+                buffer.getDouble();
+            }
+        }
+
+        return xy;
+    }
+}
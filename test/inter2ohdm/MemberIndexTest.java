@@ -0,0 +1,66 @@
+package inter2ohdm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * member id parsing and member positions without database
+ *
+ * @author thsc
+ */
+class MemberIndexTest {
+
+    @Test
+    void parseIDs() {
+        assertArrayEquals(new long[] {12, 13, 42}, OSMElement.setupIDArray("12,13,42"));
+        assertArrayEquals(new long[] {12, 13}, OSMElement.setupIDArray(" 12, 13 "));
+        assertArrayEquals(new long[] {7}, OSMElement.setupIDArray("7"));
+    }
+
+    @Test
+    void parseNegativeAndLargeIDs() {
+        assertArrayEquals(new long[] {-5, 9007199254740993L},
+                OSMElement.setupIDArray("-5,9007199254740993"));
+    }
+
+    @Test
+    void parseEmptyIDs() {
+        assertEquals(0, OSMElement.setupIDArray(null).length);
+        assertEquals(0, OSMElement.setupIDArray("").length);
+        assertArrayEquals(new long[] {12, 13}, OSMElement.setupIDArray("12,,13,"));
+    }
+
+    @Test
+    void positionsInMemberOrder() {
+        MemberIndex index = new MemberIndex(new long[] {30, 10, 20});
+
+        assertEquals(1, index.nextPosition(10));
+        assertEquals(2, index.nextPosition(20));
+        assertEquals(0, index.nextPosition(30));
+    }
+
+    @Test
+    void duplicateIDsAreHandedOutOnce() {
+        // closed way: first node equals last node
+        MemberIndex index = new MemberIndex(new long[] {5, 6, 7, 5});
+
+        assertEquals(0, index.nextPosition(5));
+        assertEquals(3, index.nextPosition(5));
+        assertEquals(-1, index.nextPosition(5));
+
+        assertEquals(1, index.nextPosition(6));
+        assertEquals(-1, index.nextPosition(6));
+    }
+
+    @Test
+    void unknownAndMissingIDs() {
+        MemberIndex index = new MemberIndex(new long[] {OSMElement.NO_ID, 4, OSMElement.NO_ID});
+
+        assertEquals(-1, index.nextPosition(OSMElement.NO_ID));
+        assertEquals(-1, index.nextPosition(99));
+        assertEquals(1, index.nextPosition(4));
+
+        assertEquals(-1, new MemberIndex(new long[0]).nextPosition(4));
+    }
+}
@@ -0,0 +1,114 @@
+package inter2ohdm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author thsc
+ */
+class NodeCoordinateCacheTest {
+
+    private static void assertPacked(double longitude, double latitude) {
+        long packed = NodeCoordinateCache.pack(longitude, latitude);
+
+        assertNotEquals(NodeCoordinateCache.MISSING, packed);
+        assertEquals(longitude, NodeCoordinateCache.getLongitude(packed));
+        assertEquals(latitude, NodeCoordinateCache.getLatitude(packed));
+    }
+
+    @Test
+    void packAndUnpack() {
+        assertPacked(13.4050000, 52.5200000);
+        assertPacked(-73.9856644, 40.7484405);
+        assertPacked(0, 0);
+        assertPacked(0.0000001, -0.0000001);
+
+        // bounds
+        assertPacked(180, 90);
+        assertPacked(-180, -90);
+    }
+
+    @Test
+    void packRejectsUnrestorableValues() {
+        assertEquals(NodeCoordinateCache.MISSING, NodeCoordinateCache.pack(Double.NaN, 52.52));
+        assertEquals(NodeCoordinateCache.MISSING, NodeCoordinateCache.pack(13.405, Double.NaN));
+
+        // out of range
+        assertEquals(NodeCoordinateCache.MISSING, NodeCoordinateCache.pack(180.0000001, 0));
+        assertEquals(NodeCoordinateCache.MISSING, NodeCoordinateCache.pack(0, -90.0000001));
+        assertEquals(NodeCoordinateCache.MISSING, NodeCoordinateCache.pack(360, 0));
+
+        // beyond OSM precision
+        assertEquals(NodeCoordinateCache.MISSING, NodeCoordinateCache.pack(13.40500001, 52.52));
+        assertEquals(NodeCoordinateCache.MISSING, NodeCoordinateCache.pack(13.405, 52.520000049));
+    }
+
+    @Test
+    void putAndGet() {
+        NodeCoordinateCache cache = new NodeCoordinateCache(1024);
+
+        assertTrue(cache.put(42, 13.405, 52.52));
+        assertTrue(cache.put(-7, -73.9856644, 40.7484405));
+
+        long packed = cache.get(42);
+        assertEquals(13.405, NodeCoordinateCache.getLongitude(packed));
+        assertEquals(52.52, NodeCoordinateCache.getLatitude(packed));
+
+        packed = cache.get(-7);
+        assertEquals(-73.9856644, NodeCoordinateCache.getLongitude(packed));
+        assertEquals(40.7484405, NodeCoordinateCache.getLatitude(packed));
+
+        assertEquals(NodeCoordinateCache.MISSING, cache.get(43));
+
+        // moved node
+        assertTrue(cache.put(42, 13.5, 52.5));
+        assertEquals(13.5, NodeCoordinateCache.getLongitude(cache.get(42)));
+    }
+
+    @Test
+    void unrestorableValuesAreNotCached() {
+        NodeCoordinateCache cache = new NodeCoordinateCache(1024);
+
+        // osm id 0 marks empty slots
+        assertFalse(cache.put(0, 13.405, 52.52));
+        assertEquals(NodeCoordinateCache.MISSING, cache.get(0));
+
+        assertFalse(cache.put(1, 13.40500001, 52.52));
+        assertFalse(cache.put(2, Double.NaN, 52.52));
+        assertFalse(cache.put(3, 200, 52.52));
+
+        assertEquals(NodeCoordinateCache.MISSING, cache.get(1));
+        assertEquals(NodeCoordinateCache.MISSING, cache.get(2));
+        assertEquals(NodeCoordinateCache.MISSING, cache.get(3));
+    }
+
+    @Test
+    void clockEviction() {
+        // one bucket - all ids share it
+        NodeCoordinateCache cache = new NodeCoordinateCache(8);
+
+        for(long id = 1; id <= 8; id++) {
+            assertTrue(cache.put(id, id, id));
+        }
+
+        // all but node 8 are used
+        for(long id = 1; id <= 7; id++) {
+            assertEquals((double) id, NodeCoordinateCache.getLongitude(cache.get(id)));
+        }
+
+        // used nodes get a second chance - unused node 8 is replaced
+        assertTrue(cache.put(9, 9, 9));
+        assertEquals(NodeCoordinateCache.MISSING, cache.get(8));
+        assertEquals(9.0, NodeCoordinateCache.getLongitude(cache.get(9)));
+
+        // marks were cleared by last round - node 1 goes next
+        assertTrue(cache.put(10, 10, 10));
+        assertEquals(NodeCoordinateCache.MISSING, cache.get(1));
+        assertEquals(10.0, NodeCoordinateCache.getLongitude(cache.get(10)));
+        assertEquals(2.0, NodeCoordinateCache.getLongitude(cache.get(2)));
+        assertEquals(9.0, NodeCoordinateCache.getLongitude(cache.get(9)));
+
+        assertTrue(cache.getStatistics().contains("evicted: 2"));
+    }
+}
@@ -0,0 +1,179 @@
+package inter2ohdm;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashSet;
+import util.CopyBuffer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * chunks of one worker on a fake connection - tables created within a
+ * transaction are gone after rollback like in PostgreSQL
+ *
+ * @author thsc
+ */
+class OHDMIDWriteBackTest {
+    private static final String TMP_TABLE = "ohdm_id_writeback";
+
+    /**
+     * knows temporary table only - other statements are accepted
+     */
+    private static class FakeDB {
+        final HashSet<String> tables = new HashSet<>();
+        final HashSet<String> createdInTransaction = new HashSet<>();
+        int copiedRows = 0;
+        int updates = 0;
+
+        Connection getConnection() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch(method.getName()) {
+                                case "getAutoCommit": return false;
+                                case "isClosed": return false;
+                                case "prepareStatement":
+                                    return FakeDB.this.getStatement((String) args[0]);
+                                case "commit":
+                                    FakeDB.this.createdInTransaction.clear();
+                                    return null;
+                                case "rollback":
+                                    // rollback to savepoint keeps tables
+                                    if(args == null) {
+                                        FakeDB.this.tables.removeAll(FakeDB.this.createdInTransaction);
+                                        FakeDB.this.createdInTransaction.clear();
+                                    }
+                                    return null;
+                                case "hashCode": return System.identityHashCode(proxy);
+                                case "equals": return proxy == args[0];
+                                case "toString": return "fake connection";
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        private PreparedStatement getStatement(final String sql) {
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws SQLException {
+
+                            if(method.getName().equals("execute")) {
+                                FakeDB.this.execute(sql);
+                                return false;
+                            }
+                            if(method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                            if(method.getName().equals("equals")) return proxy == args[0];
+                            return null;
+                        }
+                    });
+        }
+
+        private void execute(String sql) throws SQLException {
+            if(sql.startsWith("CREATE TEMPORARY TABLE IF NOT EXISTS " + TMP_TABLE)) {
+                if(this.tables.add(TMP_TABLE)) {
+                    this.createdInTransaction.add(TMP_TABLE);
+                }
+                return;
+            }
+
+            this.checkTable();
+            if(sql.contains("UPDATE")) this.updates++;
+        }
+
+        void checkTable() throws SQLException {
+            if(!this.tables.contains(TMP_TABLE)) {
+                throw new SQLException("relation \"" + TMP_TABLE + "\" does not exist", "42P01");
+            }
+        }
+    }
+
+    private static OHDMIDWriteBack createWriteBack(final FakeDB db) {
+        return new OHDMIDWriteBack(db.getConnection(), "inter", 100) {
+            @Override
+            CopyBuffer createCopyBuffer(int maxRows) {
+                return new CopyBuffer(null, TMP_TABLE, new String[] {"osm_id"}, maxRows) {
+                    @Override
+                    public long flush() throws SQLException {
+                        db.checkTable();
+                        int rows = this.size();
+                        this.clear();
+                        db.copiedRows += rows;
+
+                        return rows;
+                    }
+                };
+            }
+        };
+    }
+
+    private static OSMNode createNode(long osmID) {
+        return OSMNode.createCoordinateNode(null, osmID, 13.405, 52.52,
+                Date.valueOf("2017-01-01"));
+    }
+
+    @Test
+    void rolledBackChunkDoesNotBreakNextChunk() throws SQLException {
+        FakeDB db = new FakeDB();
+        Connection connection = db.getConnection();
+        OHDMIDWriteBack writeBack = createWriteBack(db);
+
+        // first chunk fails after its ids were written
+        writeBack.setOHDM_IDs(createNode(1), "10", "20");
+        writeBack.flush();
+        connection.rollback();
+        writeBack.clear();
+
+        // creation of temporary table is undone as well
+        assertFalse(db.tables.contains(TMP_TABLE));
+
+        // next chunk of that worker
+        writeBack.setOHDM_IDs(createNode(2), "11", "21");
+        writeBack.setOHDM_IDs(createNode(3), "12", null);
+        writeBack.flush();
+        connection.commit();
+
+        assertTrue(db.tables.contains(TMP_TABLE));
+        assertEquals(3, db.copiedRows);
+        assertEquals(2, db.updates);
+        assertEquals(3, writeBack.getWrittenRows());
+    }
+
+    @Test
+    void clearForgetsIDs() throws SQLException {
+        FakeDB db = new FakeDB();
+        OHDMIDWriteBack writeBack = createWriteBack(db);
+
+        writeBack.setOHDM_IDs(createNode(1), "10", "20");
+        writeBack.clear();
+        writeBack.flush();
+
+        assertEquals(0, db.copiedRows);
+        assertEquals(0, db.updates);
+    }
+
+    @Test
+    void idsOfOneElementAreMerged() throws SQLException {
+        FakeDB db = new FakeDB();
+        OHDMIDWriteBack writeBack = createWriteBack(db);
+
+        writeBack.setOHDM_IDs(createNode(1), "10", null);
+        writeBack.setOHDM_IDs(createNode(1), null, "20");
+        writeBack.flush();
+
+        assertEquals(1, db.copiedRows);
+    }
+}
@@ -0,0 +1,110 @@
+package inter2ohdm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ring assembly without database - points on an integer grid
+ *
+ * @author thsc
+ */
+class RingAssemblerTest {
+
+    /**
+     * node id x*100+y at point (x, y)
+     */
+    private static void addWay(RingAssembler assembler, int... xy) {
+        int n = xy.length / 2;
+        long[] ids = new long[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for(int i = 0; i < n; i++) {
+            x[i] = xy[2 * i];
+            y[i] = xy[2 * i + 1];
+            ids[i] = xy[2 * i] * 100 + xy[2 * i + 1];
+        }
+
+        assembler.addWay(ids, x, y);
+    }
+
+    @Test
+    void closedWayIsPolygon() {
+        RingAssembler assembler = new RingAssembler();
+        addWay(assembler, 0,0, 10,0, 10,10, 0,10, 0,0);
+
+        assertTrue(assembler.assemble());
+        assertEquals(1, assembler.getPolygonNumber());
+        assertEquals(0, assembler.getPolygonSourceWay(0));
+        assertEquals("SRID=4326;POLYGON((0.0 0.0, 10.0 0.0, 10.0 10.0, 0.0 10.0, 0.0 0.0))",
+                assembler.getPolygonWKT(0));
+    }
+
+    @Test
+    void unorderedAndReversedWaysAreChained() {
+        RingAssembler assembler = new RingAssembler();
+        addWay(assembler, 10,10, 0,10);
+        addWay(assembler, 0,0, 10,0);
+        addWay(assembler, 0,0, 0,10); // reversed
+        addWay(assembler, 10,0, 10,10);
+
+        assertTrue(assembler.assemble());
+        assertEquals(1, assembler.getPolygonNumber());
+        assertEquals(0, assembler.getFixedRings());
+        assertEquals(-1, assembler.getPolygonSourceWay(0));
+
+        String wkt = assembler.getPolygonWKT(0);
+        assertTrue(wkt.startsWith("SRID=4326;POLYGON(("));
+        // closed ring: 4 corners and closing point
+        assertEquals(5, wkt.split(",").length);
+    }
+
+    @Test
+    void innerRingIsHoleRegardlessOfOrder() {
+        RingAssembler assembler = new RingAssembler();
+        // hole first, clockwise outer
+        addWay(assembler, 2,2, 4,2, 4,4, 2,4, 2,2);
+        addWay(assembler, 0,0, 0,10, 10,10, 10,0, 0,0);
+
+        assertTrue(assembler.assemble());
+        assertEquals(1, assembler.getPolygonNumber());
+        assertEquals(-1, assembler.getPolygonSourceWay(0));
+        // outer counterclockwise, hole clockwise
+        assertEquals("SRID=4326;POLYGON((0.0 0.0, 10.0 0.0, 10.0 10.0, 0.0 10.0, 0.0 0.0), "
+                + "(2.0 2.0, 2.0 4.0, 4.0 4.0, 4.0 2.0, 2.0 2.0))", assembler.getPolygonWKT(0));
+    }
+
+    @Test
+    void separateOuterRingsAndIslandInHole() {
+        RingAssembler assembler = new RingAssembler();
+        addWay(assembler, 0,0, 10,0, 10,10, 0,10, 0,0);
+        addWay(assembler, 2,2, 8,2, 8,8, 2,8, 2,2); // hole
+        addWay(assembler, 4,4, 6,4, 6,6, 4,6, 4,4); // island in hole
+        addWay(assembler, 20,0, 30,0, 30,10, 20,10, 20,0); // second polygon
+
+        assertTrue(assembler.assemble());
+        assertEquals(3, assembler.getPolygonNumber());
+        assertTrue(assembler.getMultiPolygonWKT().startsWith("SRID=4326;MULTIPOLYGON((("));
+    }
+
+    @Test
+    void unclosedRingIsClosed() {
+        RingAssembler assembler = new RingAssembler();
+        addWay(assembler, 0,0, 10,0, 10,10);
+        addWay(assembler, 10,10, 0,10);
+
+        assertTrue(assembler.assemble());
+        assertEquals(1, assembler.getFixedRings());
+        assertEquals("SRID=4326;POLYGON((0.0 0.0, 10.0 0.0, 10.0 10.0, 0.0 10.0, 0.0 0.0))",
+                assembler.getPolygonWKT(0));
+    }
+
+    @Test
+    void degeneratedRingIsDropped() {
+        RingAssembler assembler = new RingAssembler();
+        addWay(assembler, 0,0, 10,0);
+
+        assertFalse(assembler.assemble());
+        assertEquals(1, assembler.getDroppedRings());
+    }
+}
@@ -0,0 +1,166 @@
+package inter2ohdm;
+
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * walking through serialized tags without database
+ *
+ * @author thsc
+ */
+class TagCursorTest {
+
+    private static String serialize(String... keyValues) {
+        AbstractElement element = new AbstractElement();
+        StringBuilder sb = new StringBuilder();
+        for(String s : keyValues) {
+            sb.append(element.getStringWithLength(s));
+        }
+
+        return sb.toString();
+    }
+
+    @Test
+    void walkEntries() {
+        AbstractElement.TagCursor cursor = new AbstractElement.TagCursor(
+                serialize("name", "Berlin", "highway", "primary"));
+
+        assertTrue(cursor.next());
+        assertEquals("name", cursor.getKey());
+        assertEquals("Berlin", cursor.getValue());
+        assertTrue(cursor.keyEquals("name"));
+        assertFalse(cursor.keyEquals("nam"));
+        assertFalse(cursor.keyEquals("names"));
+
+        assertTrue(cursor.next());
+        assertEquals("highway", cursor.getKey());
+        assertEquals("primary", cursor.getValue());
+
+        assertFalse(cursor.next());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void emptyTags() {
+        assertFalse(new AbstractElement.TagCursor(null).next());
+        assertFalse(new AbstractElement.TagCursor("").next());
+    }
+
+    @Test
+    void nullValue() {
+        AbstractElement.TagCursor cursor = new AbstractElement.TagCursor(
+                serialize("note", null, "name", "x"));
+
+        assertTrue(cursor.next());
+        assertEquals("note", cursor.getKey());
+        assertNull(cursor.getValue());
+
+        assertTrue(cursor.next());
+        assertEquals("x", cursor.getValue());
+    }
+
+    @Test
+    void keyPrefix() {
+        AbstractElement.TagCursor cursor = new AbstractElement.TagCursor(
+                serialize("old", "a", "old_name:de:1906-1933", "b"));
+
+        assertTrue(cursor.next());
+        // prefix must not reach into value
+        assertFalse(cursor.keyStartsWith("old_name"));
+        assertTrue(cursor.keyStartsWith("old"));
+
+        assertTrue(cursor.next());
+        assertTrue(cursor.keyStartsWith("old_name"));
+    }
+
+    @Test
+    void malformedTagsStopParsing() {
+        String tags = serialize("name", "Berlin");
+
+        // length exceeds string
+        AbstractElement.TagCursor cursor = new AbstractElement.TagCursor("099name");
+        assertFalse(cursor.next());
+
+        // length is no number
+        cursor = new AbstractElement.TagCursor(tags + "0x1a");
+        assertTrue(cursor.next());
+        assertFalse(cursor.next());
+
+        // empty key
+        cursor = new AbstractElement.TagCursor("0000" + tags);
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void elementValues() {
+        AbstractElement element = new AbstractElement(
+                serialize("name", "first", "type", "multipolygon", "name", "second"));
+
+        // last entry wins as it would in a map
+        assertEquals("second", element.getValue("name"));
+        assertEquals("multipolygon", element.getType());
+        assertNull(element.getValue("highway"));
+
+        HashMap<String, String> attributes = element.getAttributes();
+        assertEquals(2, attributes.size());
+        assertEquals("second", attributes.get("name"));
+    }
+
+    @Test
+    void freeAttributes() {
+        assertFalse(new AbstractElement(serialize("name", "a", "type", "b")).hasFreeAttributes());
+        assertTrue(new AbstractElement(serialize("a", "1", "b", "2", "c", "3",
+                "d", "4", "e", "5")).hasFreeAttributes());
+    }
+
+    @Test
+    void keyFollows() {
+        AbstractElement.TagCursor cursor = new AbstractElement.TagCursor(
+                serialize("name", "a", "names", "b", "name", "c"));
+
+        assertTrue(cursor.next());
+        assertTrue(cursor.keyFollows());
+        assertTrue(cursor.next());
+        assertFalse(cursor.keyFollows());
+        assertTrue(cursor.next());
+        assertFalse(cursor.keyFollows());
+        assertEquals("c", cursor.getValue());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void duplicatedKeysAreCountedOnce() {
+        // five entries but three keys, more than four keys are free - like in a map
+        assertFalse(new AbstractElement(serialize("a", "1", "b", "2", "a", "3",
+                "c", "4", "b", "5")).hasFreeAttributes());
+        assertTrue(new AbstractElement(serialize("a", "1", "b", "2", "a", "3",
+                "c", "4", "d", "5", "e", "6")).hasFreeAttributes());
+    }
+
+    @Test
+    void duplicatedOldNameKeepsLastValue() {
+        AbstractElement element = new AbstractElement(
+                serialize("old_name:1953-1990", "first", "name", "Chemnitz",
+                        "old_name:1953-1990", "Karl-Marx-Stadt"));
+
+        List<OldName> oldNames = element.getOldNames();
+        assertEquals(1, oldNames.size());
+        assertEquals("Karl-Marx-Stadt", oldNames.get(0).oldname);
+    }
+
+    @Test
+    void oldNames() {
+        AbstractElement element = new AbstractElement(
+                serialize("name", "Chemnitz", "old_name:de:1953-1990", "Karl-Marx-Stadt",
+                        "old_name", "no duration"));
+
+        List<OldName> oldNames = element.getOldNames();
+        assertEquals(1, oldNames.size());
+        assertEquals("Karl-Marx-Stadt", oldNames.get(0).oldname);
+        assertEquals("1953-01-01", oldNames.get(0).fromYear);
+        assertEquals("1990-01-01", oldNames.get(0).toYear);
+    }
+}
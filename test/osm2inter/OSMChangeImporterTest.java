@@ -0,0 +1,119 @@
+package osm2inter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * flags of changes against existing rows - rows are serialized tags
+ * followed by geometry columns
+ *
+ * @author thsc
+ */
+class OSMChangeImporterTest {
+    private static final String TAGS = "0004name0005Mitte";
+    private static final String[] GEOMETRY = new String[] {"13.405", "52.52"};
+
+    private static String[] row(String tags, String... geometry) {
+        String[] row = new String[1 + geometry.length];
+        row[0] = tags;
+        System.arraycopy(geometry, 0, row, 1, geometry.length);
+
+        return row;
+    }
+
+    private static void assertFlags(OSMChangeImporter.Flags flags, int write,
+            boolean objectNew, boolean deleted, boolean geometryChanged,
+            boolean objectChanged) {
+
+        assertEquals(write, flags.write);
+        assertEquals(objectNew, flags.objectNew);
+        assertEquals(deleted, flags.deleted);
+        assertEquals(geometryChanged, flags.geometryChanged);
+        assertEquals(objectChanged, flags.objectChanged);
+    }
+
+    @Test
+    void createIsNewObject() {
+        OSMChangeImporter.Flags flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_CREATE, null, TAGS, GEOMETRY);
+
+        assertFlags(flags, OSMChangeImporter.Flags.INSERT, true, false, false, false);
+    }
+
+    @Test
+    void modifyOfUnknownElementIsNewObject() {
+        OSMChangeImporter.Flags flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_MODIFY, null, TAGS, GEOMETRY);
+
+        assertFlags(flags, OSMChangeImporter.Flags.INSERT, true, false, false, false);
+    }
+
+    @Test
+    void modifyWithoutChange() {
+        OSMChangeImporter.Flags flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_MODIFY, row(TAGS, "13.405", "52.52"),
+                TAGS, GEOMETRY);
+
+        assertFlags(flags, OSMChangeImporter.Flags.UPDATE, false, false, false, false);
+    }
+
+    @Test
+    void modifyOfTags() {
+        OSMChangeImporter.Flags flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_MODIFY, row("0004name0004Wedding", "13.405", "52.52"),
+                TAGS, GEOMETRY);
+
+        assertFlags(flags, OSMChangeImporter.Flags.UPDATE, false, false, false, true);
+    }
+
+    @Test
+    void modifyOfGeometry() {
+        OSMChangeImporter.Flags flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_MODIFY, row(TAGS, "13.405", "52.5200001"),
+                TAGS, GEOMETRY);
+
+        assertFlags(flags, OSMChangeImporter.Flags.UPDATE, false, false, true, false);
+
+        // way with other nodes and other tags
+        flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_MODIFY, row("", "1,2,3"),
+                TAGS, new String[] {"1,2,4"});
+
+        assertFlags(flags, OSMChangeImporter.Flags.UPDATE, false, false, true, true);
+    }
+
+    @Test
+    void deleteOfKnownElement() {
+        OSMChangeImporter.Flags flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_DELETE, row(TAGS, "13.405", "52.52"),
+                "", new String[] {null, null});
+
+        assertFlags(flags, OSMChangeImporter.Flags.DELETE, false, true, false, false);
+    }
+
+    @Test
+    void deleteOfUnknownElementIsSkipped() {
+        OSMChangeImporter.Flags flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_DELETE, null, "", new String[] {null, null});
+
+        assertEquals(OSMChangeImporter.Flags.SKIP, flags.write);
+        assertFalse(flags.deleted);
+    }
+
+    @Test
+    void deleteThenRecreateWithinOneFile() {
+        String[] existing = row(TAGS, "13.405", "52.52");
+
+        // delete only flags the row - it is removed after the whole file
+        OSMChangeImporter.Flags flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_DELETE, existing, "", new String[] {null, null});
+        assertTrue(flags.deleted);
+
+        // recreated element still finds that row: no new object, no longer deleted
+        flags = OSMChangeImporter.getFlags(
+                OSMChangeImporter.ACTION_CREATE, existing, TAGS, new String[] {"13.5", "52.52"});
+
+        assertFlags(flags, OSMChangeImporter.Flags.UPDATE, false, false, true, false);
+    }
+}
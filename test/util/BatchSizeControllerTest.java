@@ -0,0 +1,126 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * batch length steps with made up measurements
+ *
+ * @author thsc
+ */
+class BatchSizeControllerTest {
+    private static final long KB = 1024;
+
+    /**
+     * execute a batch of current length at that throughput (bytes per ms)
+     */
+    private static void execute(BatchSizeController controller, long throughput) {
+        long bytes = controller.getLength();
+        controller.executed(bytes, bytes / throughput);
+    }
+
+    @Test
+    void startsWithDefault() {
+        BatchSizeController controller = new BatchSizeController();
+
+        assertEquals(BatchSizeController.DEFAULT_LENGTH, controller.getLength());
+    }
+
+    @Test
+    void additiveIncrease() {
+        BatchSizeController controller = new BatchSizeController();
+        controller.setBounds(10 * KB, 100 * KB);
+        long length = controller.getLength();
+
+        // steady throughput: one min length per batch
+        execute(controller, 100);
+        assertEquals(length + 10 * KB, controller.getLength());
+
+        execute(controller, 100);
+        assertEquals(length + 20 * KB, controller.getLength());
+    }
+
+    @Test
+    void increaseStopsAtMaximum() {
+        BatchSizeController controller = new BatchSizeController();
+        controller.setBounds(10 * KB, 100 * KB);
+
+        for(int i = 0; i < 20; i++) {
+            execute(controller, 100);
+        }
+
+        assertEquals(100 * KB, controller.getLength());
+    }
+
+    @Test
+    void multiplicativeDecreaseOnThroughputDrop() {
+        BatchSizeController controller = new BatchSizeController();
+        controller.setBounds(10 * KB, 1000 * KB);
+        execute(controller, 100);
+        long length = controller.getLength();
+
+        // less than 70 percent of average
+        execute(controller, 50);
+        assertEquals(length / 2, controller.getLength());
+
+        // slightly slower is no drop
+        length = controller.getLength();
+        execute(controller, 80);
+        assertEquals(length + 10 * KB, controller.getLength());
+    }
+
+    @Test
+    void multiplicativeDecreaseOnLatency() {
+        BatchSizeController controller = new BatchSizeController();
+        controller.setBounds(10 * KB, 1000 * KB);
+        long length = controller.getLength();
+
+        // first batch - no average yet but too slow
+        controller.executed(length, 2001);
+        assertEquals(length / 2, controller.getLength());
+    }
+
+    @Test
+    void decreaseStopsAtMinimum() {
+        BatchSizeController controller = new BatchSizeController();
+        controller.setBounds(16 * KB, 1000 * KB);
+
+        for(int i = 0; i < 10; i++) {
+            controller.executed(controller.getLength(), 5000);
+        }
+
+        assertEquals(16 * KB, controller.getLength());
+    }
+
+    @Test
+    void shortBatchesAreIgnored() {
+        BatchSizeController controller = new BatchSizeController();
+        long length = controller.getLength();
+
+        // forced flush of a short batch, e.g. end of chunk
+        controller.executed(length / 4, 5000);
+        assertEquals(length, controller.getLength());
+    }
+
+    @Test
+    void bounds() {
+        BatchSizeController controller = new BatchSizeController();
+
+        // current length is moved into bounds
+        controller.setBounds(100 * KB, 200 * KB);
+        assertEquals(100 * KB, controller.getLength());
+
+        // equal bounds: fixed length
+        controller.setBounds(30 * KB, 30 * KB);
+        assertEquals(30 * KB, controller.getLength());
+        execute(controller, 100);
+        assertEquals(30 * KB, controller.getLength());
+        controller.executed(30 * KB, 5000);
+        assertEquals(30 * KB, controller.getLength());
+
+        // maximum below minimum is raised to minimum
+        controller.setBounds(50 * KB, 10 * KB);
+        assertEquals(50 * KB, controller.getLength());
+    }
+}
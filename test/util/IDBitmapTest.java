@@ -0,0 +1,118 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author thsc
+ */
+class IDBitmapTest {
+
+    @Test
+    void containerBoundaries() {
+        IDBitmap bitmap = new IDBitmap();
+
+        bitmap.add(0);
+        bitmap.add(65535); // last id of first container
+        bitmap.add(65536); // first id of second container
+        bitmap.add(3L * 65536 - 1);
+        bitmap.add(5000000000L); // beyond int
+
+        assertEquals(5, bitmap.getCardinality());
+        assertTrue(bitmap.contains(0));
+        assertTrue(bitmap.contains(65535));
+        assertTrue(bitmap.contains(65536));
+        assertTrue(bitmap.contains(3L * 65536 - 1));
+        assertTrue(bitmap.contains(5000000000L));
+
+        assertFalse(bitmap.contains(1));
+        assertFalse(bitmap.contains(65537));
+        assertFalse(bitmap.contains(2L * 65536 - 1)); // container without ids
+        assertFalse(bitmap.contains(3L * 65536));
+        assertFalse(bitmap.contains(5000000000L - 65536));
+    }
+
+    @Test
+    void negativeIDs() {
+        IDBitmap bitmap = new IDBitmap();
+
+        bitmap.add(-1);
+        bitmap.add(-65536);
+        bitmap.add(-65537);
+
+        assertEquals(3, bitmap.getCardinality());
+        assertTrue(bitmap.contains(-1));
+        assertTrue(bitmap.contains(-65536));
+        assertTrue(bitmap.contains(-65537));
+
+        // same low parts in other containers
+        assertFalse(bitmap.contains(65535));
+        assertFalse(bitmap.contains(0));
+        assertFalse(bitmap.contains(-2));
+    }
+
+    @Test
+    void duplicatesAreCountedOnce() {
+        IDBitmap bitmap = new IDBitmap();
+
+        bitmap.add(42);
+        bitmap.add(42);
+        bitmap.add(65536 + 42);
+
+        assertEquals(2, bitmap.getCardinality());
+    }
+
+    @Test
+    void sparseContainerBecomesBitset() {
+        IDBitmap bitmap = new IDBitmap();
+        long base = 7L * 65536;
+
+        // every tenth id - unsorted
+        for(int i = 4095; i >= 0; i--) {
+            bitmap.add(base + i * 10);
+        }
+        assertEquals(4096, bitmap.getCardinality());
+        assertEquals(4096 * 2, bitmap.getSizeInBytes());
+
+        // one more - bitset of 65536 bits
+        bitmap.add(base + 65535);
+        assertEquals(4097, bitmap.getCardinality());
+        assertEquals(8192, bitmap.getSizeInBytes());
+
+        for(int i = 0; i < 4096; i++) {
+            assertTrue(bitmap.contains(base + i * 10));
+            assertFalse(bitmap.contains(base + i * 10 + 1));
+        }
+        assertTrue(bitmap.contains(base + 65535));
+
+        // neighbour containers are untouched
+        assertFalse(bitmap.contains(base - 1));
+        assertFalse(bitmap.contains(base + 65536));
+
+        // duplicates within bitset
+        bitmap.add(base);
+        assertEquals(4097, bitmap.getCardinality());
+    }
+
+    @Test
+    void denseRangeAcrossContainers() {
+        IDBitmap bitmap = new IDBitmap();
+        long from = 65536 - 5000;
+        long to = 2L * 65536 + 5000;
+
+        for(long id = from; id < to; id++) {
+            bitmap.add(id);
+        }
+
+        assertEquals(to - from, bitmap.getCardinality());
+        assertFalse(bitmap.contains(from - 1));
+        assertFalse(bitmap.contains(to));
+        for(long id = from; id < to; id++) {
+            assertTrue(bitmap.contains(id));
+        }
+
+        // three bitsets
+        assertEquals(3 * 8192, bitmap.getSizeInBytes());
+    }
+}
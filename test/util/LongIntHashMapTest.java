@@ -0,0 +1,102 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author thsc
+ */
+class LongIntHashMapTest {
+
+    private static final int MISSING = -1;
+
+    @Test
+    void putAndGet() {
+        LongIntHashMap map = new LongIntHashMap(4, MISSING);
+
+        map.put(42, 1);
+        map.put(-42, 2);
+        map.put(0, 3);
+        map.put(Long.MAX_VALUE, 4);
+
+        assertEquals(4, map.size());
+        assertEquals(1, map.get(42));
+        assertEquals(2, map.get(-42));
+        assertEquals(3, map.get(0));
+        assertEquals(4, map.get(Long.MAX_VALUE));
+        assertTrue(map.containsKey(0));
+
+        assertEquals(MISSING, map.get(43));
+        assertFalse(map.containsKey(43));
+    }
+
+    @Test
+    void overwriteKeepsSize() {
+        LongIntHashMap map = new LongIntHashMap(4, MISSING);
+
+        map.put(7, 1);
+        map.put(7, 2);
+
+        assertEquals(1, map.size());
+        assertEquals(2, map.get(7));
+    }
+
+    @Test
+    void freeMarkerIsNoKey() {
+        LongIntHashMap map = new LongIntHashMap(4, MISSING);
+
+        assertEquals(MISSING, map.get(Long.MIN_VALUE));
+        assertFalse(map.containsKey(Long.MIN_VALUE));
+        try {
+            map.put(Long.MIN_VALUE, 1);
+            fail("free marker accepted as key");
+        }
+        catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    void growth() {
+        LongIntHashMap map = new LongIntHashMap(1, MISSING);
+
+        int n = 100000;
+        for(int i = 0; i < n; i++) {
+            map.put(i * 31L, i);
+        }
+
+        assertEquals(n, map.size());
+        for(int i = 0; i < n; i++) {
+            assertEquals(i, map.get(i * 31L));
+        }
+        assertEquals(MISSING, map.get(n * 31L));
+    }
+
+    @Test
+    void collisions() {
+        /* low 40 bits of these keys are zero - so are the low bits of
+        the spread hash: all of them share the first slot until the map
+        is larger than 256 slots
+        */
+        LongIntHashMap map = new LongIntHashMap(4, MISSING);
+
+        for(int i = 1; i <= 50; i++) {
+            map.put((long)i << 40, i);
+        }
+
+        assertEquals(50, map.size());
+        for(int i = 1; i <= 50; i++) {
+            assertEquals(i, map.get((long)i << 40));
+        }
+
+        // probing ends at next free slot
+        assertEquals(MISSING, map.get(51L << 40));
+        assertFalse(map.containsKey(51L << 40));
+
+        // overwrite within a probe chain
+        map.put(25L << 40, 99);
+        assertEquals(99, map.get(25L << 40));
+        assertEquals(50, map.size());
+    }
+}
@@ -0,0 +1,183 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * map files in a temporary directory
+ *
+ * @author thsc
+ */
+class MappedLongPairMapTest {
+    private File directory;
+    private File file;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("idmap").toFile();
+        this.file = new File(this.directory, "test.idmap");
+    }
+
+    @AfterEach
+    void deleteDirectory() {
+        File[] files = this.directory.listFiles();
+        if(files != null) {
+            for(File f : files) {
+                f.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    @Test
+    void putAndGet() throws IOException {
+        MappedLongPairMap map = new MappedLongPairMap(this.file, 16);
+
+        map.put(42, 1000, 2000);
+        map.put(-7, 3000, MappedLongPairMap.NO_VALUE);
+
+        assertEquals(2, map.size());
+        assertEquals(1000, map.getFirst(42));
+        assertEquals(2000, map.getSecond(42));
+        assertEquals(3000, map.getFirst(-7));
+        assertEquals(MappedLongPairMap.NO_VALUE, map.getSecond(-7));
+
+        assertTrue(map.containsKey(42));
+        assertFalse(map.containsKey(43));
+        assertEquals(MappedLongPairMap.NO_VALUE, map.getFirst(43));
+        assertEquals(MappedLongPairMap.NO_VALUE, map.getFirst(0));
+
+        map.close();
+    }
+
+    @Test
+    void missingValuesAreKept() throws IOException {
+        MappedLongPairMap map = new MappedLongPairMap(this.file, 16);
+
+        map.put(1, 10, MappedLongPairMap.NO_VALUE);
+        map.put(1, MappedLongPairMap.NO_VALUE, 20);
+        map.put(1, 11, MappedLongPairMap.NO_VALUE);
+
+        assertEquals(1, map.size());
+        assertEquals(11, map.getFirst(1));
+        assertEquals(20, map.getSecond(1));
+
+        map.close();
+    }
+
+    @Test
+    void keyZeroIsRejected() throws IOException {
+        MappedLongPairMap map = new MappedLongPairMap(this.file, 16);
+
+        try {
+            map.put(0, 1, 2);
+            fail("key 0 accepted");
+        }
+        catch(IllegalArgumentException e) {
+            // expected
+        }
+
+        map.close();
+    }
+
+    @Test
+    void rehashKeepsEntries() throws IOException {
+        MappedLongPairMap map = new MappedLongPairMap(this.file, 16);
+        long initialLength = this.file.length();
+
+        int n = 10000;
+        for(int i = 1; i <= n; i++) {
+            map.put(i * 7919L, i, -i);
+        }
+
+        // file grew in place
+        assertTrue(this.file.length() > initialLength);
+        assertFalse(new File(this.file.getPath() + ".rehash").exists());
+
+        assertEquals(n, map.size());
+        for(int i = 1; i <= n; i++) {
+            assertEquals(i, map.getFirst(i * 7919L));
+            assertEquals(-i, map.getSecond(i * 7919L));
+        }
+
+        map.close();
+    }
+
+    @Test
+    void reopen() throws IOException {
+        MappedLongPairMap map = new MappedLongPairMap(this.file, 16);
+        for(int i = 1; i <= 100; i++) {
+            map.put(i, i * 10, i * 100);
+        }
+        map.setMarker(4711);
+        map.close();
+
+        map = new MappedLongPairMap(this.file, 16);
+        assertEquals(100, map.size());
+        assertEquals(4711, map.getMarker());
+        assertEquals(500, map.getFirst(50));
+        assertEquals(5000, map.getSecond(50));
+        map.close();
+    }
+
+    @Test
+    void clear() throws IOException {
+        MappedLongPairMap map = new MappedLongPairMap(this.file, 16);
+        for(int i = 1; i <= 100; i++) {
+            map.put(i, i, i);
+        }
+        map.setMarker(1);
+
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(50));
+        // marker is left to user of that map
+        assertEquals(1, map.getMarker());
+
+        map.put(50, 1, 2);
+        assertEquals(1, map.getFirst(50));
+        map.close();
+    }
+
+    @Test
+    void interruptedRehashGivesEmptyMap() throws IOException {
+        MappedLongPairMap map = new MappedLongPairMap(this.file, 16);
+        map.put(1, 2, 3);
+        map.setMarker(99);
+        map.close();
+
+        // magic of a file in the middle of a rehash
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        raf.writeLong(0x4F48444D52454831L);
+        raf.close();
+
+        map = new MappedLongPairMap(this.file, 16);
+        assertEquals(0, map.size());
+        assertEquals(0, map.getMarker());
+        assertFalse(map.containsKey(1));
+        map.close();
+    }
+
+    @Test
+    void foreignFileIsRejected() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        raf.setLength(1024);
+        raf.close();
+
+        try {
+            new MappedLongPairMap(this.file, 16);
+            fail("foreign file accepted");
+        }
+        catch(IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * batches on a fake connection - rows whose first column is a bad id
+ * make the whole batch fail like a constraint violation would do
+ *
+ * @author thsc
+ */
+class PreparedBatchTest {
+    private static final String SQL = "INSERT INTO t (id, name) VALUES (?, ?)";
+
+    private File deadLetterFile;
+    private File previousDeadLetterFile;
+
+    @BeforeEach
+    void redirectDeadLetters() throws IOException {
+        this.previousDeadLetterFile = SQLDeadLetters.getFile();
+        this.deadLetterFile = Files.createTempFile("deadletters", ".sql").toFile();
+        SQLDeadLetters.setFile(this.deadLetterFile);
+    }
+
+    @AfterEach
+    void restoreDeadLetters() {
+        SQLDeadLetters.setFile(this.previousDeadLetterFile);
+        this.deadLetterFile.delete();
+    }
+
+    /**
+     * records what reaches the database
+     */
+    private static class FakeDB {
+        final List<Long> badIDs = new ArrayList<>();
+        boolean autoCommit = true;
+        String failureState = "23505"; // unique violation
+
+        final List<Object[]> written = new ArrayList<>();
+        int executedBatches = 0;
+        int savepoints = 0;
+        int rollbacks = 0;
+
+        private final HashMap<Integer, Object> current = new HashMap<>();
+        private final List<Object[]> pending = new ArrayList<>();
+
+        Connection getConnection() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch(method.getName()) {
+                                case "getAutoCommit": return FakeDB.this.autoCommit;
+                                case "isClosed": return false;
+                                case "prepareStatement": return FakeDB.this.getStatement();
+                                case "setSavepoint":
+                                    FakeDB.this.savepoints++;
+                                    return FakeDB.this.getSavepoint();
+                                case "rollback":
+                                    FakeDB.this.rollbacks++;
+                                    return null;
+                                case "hashCode": return System.identityHashCode(proxy);
+                                case "equals": return proxy == args[0];
+                                case "toString": return "fake connection";
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        private Savepoint getSavepoint() {
+            return (Savepoint) Proxy.newProxyInstance(
+                    Savepoint.class.getClassLoader(),
+                    new Class<?>[] {Savepoint.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if(method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                            if(method.getName().equals("equals")) return proxy == args[0];
+                            return null;
+                        }
+                    });
+        }
+
+        private PreparedStatement getStatement() {
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws SQLException {
+
+                            String name = method.getName();
+                            if(name.equals("setNull")) {
+                                FakeDB.this.current.put((Integer) args[0], null);
+                            } else if(name.startsWith("set")) {
+                                FakeDB.this.current.put((Integer) args[0], args[1]);
+                            } else if(name.equals("addBatch")) {
+                                FakeDB.this.pending.add(new Object[] {
+                                    FakeDB.this.current.get(1), FakeDB.this.current.get(2)});
+                                FakeDB.this.current.clear();
+                            } else if(name.equals("clearBatch")) {
+                                FakeDB.this.pending.clear();
+                            } else if(name.equals("executeBatch")) {
+                                return FakeDB.this.execute();
+                            } else if(name.equals("hashCode")) {
+                                return System.identityHashCode(proxy);
+                            } else if(name.equals("equals")) {
+                                return proxy == args[0];
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        private int[] execute() throws SQLException {
+            this.executedBatches++;
+            for(Object[] row : this.pending) {
+                if(this.badIDs.contains((Long) row[0])) {
+                    // pending rows are kept until clearBatch - like the driver does
+                    throw new SQLException("bad row " + row[0], this.failureState);
+                }
+            }
+
+            int[] counts = new int[this.pending.size()];
+            this.written.addAll(this.pending);
+            this.pending.clear();
+
+            return counts;
+        }
+    }
+
+    private static PreparedBatch createBatch(FakeDB db, int batchSize) {
+        return new PreparedBatch(db.getConnection(), SQL,
+                new int[] {Types.BIGINT, Types.VARCHAR}, batchSize);
+    }
+
+    private static void addRows(PreparedBatch batch, int number) throws SQLException {
+        for(long id = 1; id <= number; id++) {
+            batch.setLong(1, id);
+            batch.setString(2, "name " + id);
+            batch.addBatch();
+        }
+    }
+
+    @Test
+    void allRowsInOneBatch() throws SQLException {
+        FakeDB db = new FakeDB();
+        PreparedBatch batch = createBatch(db, 100);
+
+        addRows(batch, 10);
+        assertEquals(10, batch.size());
+        assertEquals(10, batch.executeBatch());
+
+        assertEquals(1, db.executedBatches);
+        assertEquals(10, db.written.size());
+        assertEquals(10, batch.getExecutedRows());
+        assertEquals(0, batch.getDeadLetters());
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    void fullBatchIsExecuted() throws SQLException {
+        FakeDB db = new FakeDB();
+        PreparedBatch batch = createBatch(db, 4);
+
+        addRows(batch, 10);
+
+        assertEquals(2, db.executedBatches);
+        assertEquals(8, db.written.size());
+
+        batch.close();
+        assertEquals(10, db.written.size());
+    }
+
+    @Test
+    void bisectionIsolatesBadRow() throws SQLException, IOException {
+        FakeDB db = new FakeDB();
+        db.badIDs.add(7L);
+        PreparedBatch batch = createBatch(db, 100);
+
+        addRows(batch, 16);
+        assertEquals(15, batch.executeBatch());
+
+        assertEquals(15, db.written.size());
+        for(Object[] row : db.written) {
+            assertNotEquals(7L, row[0]);
+        }
+        assertEquals(15, batch.getExecutedRows());
+        assertEquals(1, batch.getDeadLetters());
+
+        // whole batch, halves down to single row: 1 + 2 * log2(16)
+        assertEquals(9, db.executedBatches);
+
+        String deadLetters = new String(Files.readAllBytes(this.deadLetterFile.toPath()));
+        assertTrue(deadLetters.contains("-- values: (7, name 7)"));
+        assertTrue(deadLetters.contains("bad row 7"));
+    }
+
+    @Test
+    void bisectionWithinTransaction() throws SQLException {
+        FakeDB db = new FakeDB();
+        db.autoCommit = false;
+        db.badIDs.add(2L);
+        db.badIDs.add(3L);
+        PreparedBatch batch = createBatch(db, 100);
+
+        addRows(batch, 4);
+        assertEquals(2, batch.executeBatch());
+
+        assertEquals(2, db.written.size());
+        assertEquals(2, batch.getDeadLetters());
+
+        // each failed part is rolled back to its savepoint
+        assertEquals(7, db.savepoints);
+        assertEquals(5, db.rollbacks);
+    }
+
+    @Test
+    void connectionFailureIsThrown() {
+        FakeDB db = new FakeDB();
+        db.badIDs.add(1L);
+        db.failureState = "08006"; // connection failure
+        PreparedBatch batch = createBatch(db, 100);
+
+        try {
+            addRows(batch, 4);
+            batch.executeBatch();
+            fail("connection failure not thrown");
+        }
+        catch(SQLException e) {
+            assertEquals("08006", e.getSQLState());
+        }
+
+        assertEquals(1, db.executedBatches);
+        assertEquals(0, db.written.size());
+    }
+
+    @Test
+    void nullIsBound() throws SQLException {
+        FakeDB db = new FakeDB();
+        PreparedBatch batch = createBatch(db, 100);
+
+        batch.setLong(1, 1);
+        batch.setString(2, null);
+        batch.addBatch();
+        batch.setLong(1, 2);
+        batch.setNull(2);
+        batch.addBatch();
+        batch.executeBatch();
+
+        assertEquals(2, db.written.size());
+        assertNull(db.written.get(0)[1]);
+        assertNull(db.written.get(1)[1]);
+    }
+
+    @Test
+    void clearForgetsRows() throws SQLException {
+        FakeDB db = new FakeDB();
+        PreparedBatch batch = createBatch(db, 100);
+
+        addRows(batch, 3);
+        batch.clear();
+
+        assertEquals(0, batch.executeBatch());
+        assertEquals(0, db.executedBatches);
+    }
+}
@@ -0,0 +1,92 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * hex encoded extended wkb and decoding - checked against PostGIS output
+ *
+ * @author thsc
+ */
+class WKBTest {
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+
+        return bytes;
+    }
+
+    @Test
+    void pointWithSRID() {
+        // SELECT ST_AsEWKB('SRID=4326;POINT(1 2)'::geometry)
+        assertEquals("0101000020E6100000000000000000F03F0000000000000040",
+                WKB.pointToHexEWKB(1, 2, WKB.SRID_WGS84));
+    }
+
+    @Test
+    void pointWithoutSRID() {
+        // SELECT ST_AsBinary('POINT(1 2)'::geometry)
+        assertEquals("0101000000000000000000F03F0000000000000040",
+                WKB.pointToHexEWKB(1, 2, 0));
+    }
+
+    @Test
+    void lineString() {
+        // SELECT ST_AsEWKB('SRID=4326;LINESTRING(0 0, 1 2)'::geometry)
+        double[] xy = new double[] {0, 0, 1, 2, 99, 99};
+        assertEquals("0102000020E61000000200000000000000000000000000000000000000"
+                + "000000000000F03F0000000000000040",
+                WKB.lineStringToHexEWKB(xy, 2, WKB.SRID_WGS84));
+    }
+
+    @Test
+    void polygonHeader() {
+        double[][] rings = new double[][] {
+            {0, 0, 10, 0, 10, 10, 0, 0},
+            {1, 1, 2, 1, 2, 2, 1, 1}
+        };
+
+        String hex = WKB.polygonToHexEWKB(rings, WKB.SRID_WGS84);
+
+        // byte order, type with srid flag, srid, two rings, four points
+        assertTrue(hex.startsWith("0103000020E61000000200000004000000"));
+        // header 9 + ring count 4 + 2 * (point count 4 + 4 * 16)
+        assertEquals(2 * (9 + 4 + 2 * (4 + 4 * 16)), hex.length());
+    }
+
+    @Test
+    void roundTrip() {
+        double[][] rings = new double[][] {
+            {13.4, 52.5, 13.5, 52.5, 13.5, 52.6, 13.4, 52.5},
+            {13.42, 52.52, 13.44, 52.52, 13.44, 52.54, 13.42, 52.52}
+        };
+
+        byte[] wkb = fromHex(WKB.polygonToHexEWKB(rings, WKB.SRID_WGS84));
+
+        assertEquals(WKB.POLYGON, WKB.getGeometryType(wkb));
+        double[][] decoded = WKB.decodeRings(wkb);
+        assertEquals(2, decoded.length);
+        assertArrayEquals(rings[0], decoded[0]);
+        assertArrayEquals(rings[1], decoded[1]);
+
+        wkb = fromHex(WKB.pointToHexEWKB(13.4, 52.5, WKB.SRID_WGS84));
+        assertEquals(WKB.POINT, WKB.getGeometryType(wkb));
+        assertArrayEquals(new double[] {13.4, 52.5}, WKB.decodeCoordinates(wkb));
+    }
+
+    @Test
+    void decodeBigEndianWithZ() {
+        // SELECT ST_AsBinary('LINESTRING Z(1 2 3, 4 5 6)'::geometry, 'XDR')
+        byte[] wkb = fromHex("00000003EA00000002"
+                + "3FF0000000000000" + "4000000000000000" + "4008000000000000"
+                + "4010000000000000" + "4014000000000000" + "4018000000000000");
+
+        assertEquals(WKB.LINESTRING, WKB.getGeometryType(wkb));
+        // z is dropped
+        assertArrayEquals(new double[] {1, 2, 4, 5}, WKB.decodeCoordinates(wkb));
+    }
+}